@@ -0,0 +1,79 @@
+package com.acme.benchmark;
+
+import java.util.Random;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.util.ManualClock;
+
+/**
+ * Generates the stocks and trades histories the benchmarks run against.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+final class BenchmarkData {
+	/**
+	 * Trades histories span the last hour, so a 15 minutes window matches about a quarter of them.
+	 */
+	static final long HISTORY_SPAN_MILLIS = 60L * 60L * 1000L;
+
+	static final int INITIAL_SHARES_COUNT = 1000000;
+
+	/**
+	 * Clock stopped at a fixed time, so every run filters the same trades out of the histories.
+	 */
+	static final ManualClock CLOCK = new ManualClock(1443096000000L);
+
+	/**
+	 * Keeps the datastores debug logging out of the measurements.
+	 */
+	static final String LOGGING_CONFIGURATION = "-Dlog4j.configurationFile=log4j2-benchmarks.xml";
+
+	private BenchmarkData() {
+	}
+
+	static String[] symbols(int symbolsCount) {
+		String[] symbols = new String[symbolsCount];
+		for (int i = 0; i < symbolsCount; i++) {
+			symbols[i] = "S" + i;
+		}
+		return symbols;
+	}
+
+	static Stock stock(String symbol, int index) {
+		if (index % 4 == 0) {
+			return new Stock(symbol, StockType.PREFERRED, INITIAL_SHARES_COUNT, 100, 8, 0.02);
+		}
+		return new Stock(symbol, StockType.COMMON, INITIAL_SHARES_COUNT, 100, 1 + index % 20, 0);
+	}
+
+	static void fillStocks(Datastore<Stock> stocksDatastore, String[] symbols) throws DatastoreException {
+		for (int i = 0; i < symbols.length; i++) {
+			stocksDatastore.store(stock(symbols[i], i));
+		}
+	}
+
+	/**
+	 * Stores a trades history spread evenly across the symbols, with timestamps ascending over the
+	 * last hour.
+	 */
+	static void fillTrades(Datastore<Trade> tradesDatastore, String[] symbols, int historySize) throws DatastoreException {
+		Random random = new Random(42);
+		long start = CLOCK.currentTimeMillis() - HISTORY_SPAN_MILLIS;
+
+		for (int i = 0; i < historySize; i++) {
+			long timestamp = start + HISTORY_SPAN_MILLIS * i / historySize;
+			tradesDatastore.store(trade(symbols[i % symbols.length], random, timestamp));
+		}
+	}
+
+	static Trade trade(String symbol, Random random, long timestamp) {
+		TradeType type = random.nextBoolean() ? TradeType.BUY : TradeType.SELL;
+		return new Trade(symbol, type, 1 + random.nextInt(100), 10.0 + random.nextInt(1000) / 10.0, timestamp);
+	}
+}
@@ -0,0 +1,54 @@
+package com.acme.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every thread count given through <code>-threads 1,2,4</code>. All the
+ * other arguments are passed on to JMH, so any benchmark selection, <code>-p</code> parameter
+ * override or reporting option stays available.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public final class BenchmarkRunner {
+	private static final String THREADS_OPTION = "-threads";
+	private static final String LOGGING_CONFIGURATION_PROPERTY = "log4j.configurationFile";
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		if (System.getProperty(LOGGING_CONFIGURATION_PROPERTY) == null) {
+			System.setProperty(LOGGING_CONFIGURATION_PROPERTY, "log4j2-benchmarks.xml");
+		}
+
+		List<String> jmhArgs = new ArrayList<String>();
+		String threadsCounts = "1";
+
+		for (int i = 0; i < args.length; i++) {
+			if (THREADS_OPTION.equals(args[i]) && i + 1 < args.length) {
+				threadsCounts = args[++i];
+			} else {
+				jmhArgs.add(args[i]);
+			}
+		}
+
+		CommandLineOptions options = new CommandLineOptions(jmhArgs.toArray(new String[jmhArgs.size()]));
+		if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams() || options.shouldListProfilers() || options.shouldListResultFormats()) {
+			org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+			return;
+		}
+
+		for (String threadsCount : threadsCounts.split(",")) {
+			new Runner(new OptionsBuilder().parent(options).threads(Integer.parseInt(threadsCount.trim())).build()).run();
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.acme.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.domain.Trade;
+import com.acme.storage.BatchDatastore;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.ConcurrentStocksDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.journal.FsyncPolicy;
+import com.acme.storage.journal.Journal;
+import com.acme.storage.journal.JournalRecovery;
+import com.acme.storage.journal.JournaledTradesDatastore;
+import com.acme.storage.journal.SnapshotManager;
+
+/**
+ * Measures the write throughput cost of the journal for every fsync policy, against the plain
+ * in-memory datastore, for single and batched writes, and the time needed to recover a journaled trades history, either by
+ * replaying the whole journal or by loading a snapshot of it.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class JournalBenchmark {
+	private static final int SYMBOLS_COUNT = 100;
+
+	private static final int BATCH_SIZE = 256;
+
+	@State(Scope.Benchmark)
+	public static class Store {
+		@Param({ "NONE", "PER_WRITE", "BATCHED", "PERIODIC" })
+		public String fsyncPolicy;
+
+		BatchDatastore<Trade> tradesDatastore;
+		String[] symbols;
+
+		private File directory;
+		private Journal journal;
+
+		@Setup(Level.Iteration)
+		public void setUp() throws IOException, DatastoreException {
+			symbols = BenchmarkData.symbols(SYMBOLS_COUNT);
+
+			ColumnarTradesDatastore tradesMemoryDatastore = new ColumnarTradesDatastore();
+			if ("NONE".equals(fsyncPolicy)) {
+				tradesDatastore = tradesMemoryDatastore;
+				return;
+			}
+
+			directory = createDirectory();
+			journal = recover(directory, FsyncPolicy.valueOf(fsyncPolicy), tradesMemoryDatastore, false).journal;
+
+			JournaledTradesDatastore journaledTradesDatastore = new JournaledTradesDatastore();
+			journaledTradesDatastore.setDelegate(tradesMemoryDatastore);
+			journaledTradesDatastore.setJournal(journal);
+			tradesDatastore = journaledTradesDatastore;
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws DatastoreException {
+			if (journal != null) {
+				journal.close();
+				deleteDirectory(directory);
+			}
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Recover {
+		@Param({ "100000", "1000000", "10000000" })
+		public int historySize;
+
+		@Param({ "false", "true" })
+		public boolean snapshot;
+
+		private File directory;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException, DatastoreException {
+			directory = createDirectory();
+
+			ColumnarTradesDatastore tradesMemoryDatastore = new ColumnarTradesDatastore();
+			Recovered recovered = recover(directory, FsyncPolicy.PERIODIC, tradesMemoryDatastore, snapshot);
+
+			JournaledTradesDatastore journaledTradesDatastore = new JournaledTradesDatastore();
+			journaledTradesDatastore.setDelegate(tradesMemoryDatastore);
+			journaledTradesDatastore.setJournal(recovered.journal);
+			BenchmarkData.fillTrades(journaledTradesDatastore, BenchmarkData.symbols(SYMBOLS_COUNT), historySize);
+
+			if (snapshot) {
+				recovered.snapshotManager.snapshot();
+				recovered.snapshotManager.stop();
+			}
+			recovered.journal.close();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			deleteDirectory(directory);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+	public void store(Store state) throws DatastoreException {
+		Random random = ThreadLocalRandom.current();
+		String symbol = state.symbols[random.nextInt(state.symbols.length)];
+		state.tradesDatastore.store(BenchmarkData.trade(symbol, random, BenchmarkData.CLOCK.currentTimeMillis()));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void storeAll(Store state) throws DatastoreException {
+		Random random = ThreadLocalRandom.current();
+		long timestamp = BenchmarkData.CLOCK.currentTimeMillis();
+		List<Trade> trades = new ArrayList<Trade>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			trades.add(BenchmarkData.trade(state.symbols[random.nextInt(state.symbols.length)], random, timestamp));
+		}
+		state.tradesDatastore.storeAll(trades);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1, batchSize = 1)
+	@Measurement(iterations = 5, batchSize = 1)
+	@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+	public int recover(Recover state) throws DatastoreException {
+		ColumnarTradesDatastore tradesDatastore = new ColumnarTradesDatastore();
+		Recovered recovered = recover(state.directory, FsyncPolicy.PERIODIC, tradesDatastore, state.snapshot);
+		if (recovered.snapshotManager != null) {
+			recovered.snapshotManager.stop();
+		}
+		recovered.journal.close();
+		return tradesDatastore.count();
+	}
+
+	private static Recovered recover(File directory, FsyncPolicy fsyncPolicy, ColumnarTradesDatastore tradesDatastore, boolean snapshot) throws DatastoreException {
+		Journal journal = new Journal();
+		journal.setDirectory(directory);
+		journal.setFsyncPolicy(fsyncPolicy);
+
+		ConcurrentStocksDatastore stocksDatastore = new ConcurrentStocksDatastore();
+
+		JournalRecovery recovery = new JournalRecovery();
+		recovery.setJournal(journal);
+		recovery.setStocksDatastore(stocksDatastore);
+		recovery.setTradesDatastore(tradesDatastore);
+
+		SnapshotManager snapshotManager = null;
+		if (snapshot) {
+			snapshotManager = new SnapshotManager();
+			snapshotManager.setJournal(journal);
+			snapshotManager.setStocksDatastore(stocksDatastore);
+			snapshotManager.setTradesDatastore(tradesDatastore);
+			// snapshots are taken explicitly
+			snapshotManager.setIntervalMillis(TimeUnit.DAYS.toMillis(1));
+			recovery.setSnapshotManager(snapshotManager);
+		}
+
+		recovery.recover();
+
+		return new Recovered(journal, snapshotManager);
+	}
+
+	private static File createDirectory() throws IOException {
+		File directory = File.createTempFile("journal-benchmark", "");
+		directory.delete();
+		directory.mkdirs();
+		return directory;
+	}
+
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static class Recovered {
+		final Journal journal;
+		final SnapshotManager snapshotManager;
+
+		Recovered(Journal journal, SnapshotManager snapshotManager) {
+			this.journal = journal;
+			this.snapshotManager = snapshotManager;
+		}
+	}
+}
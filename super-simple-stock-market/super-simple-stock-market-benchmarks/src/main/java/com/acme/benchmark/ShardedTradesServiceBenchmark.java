@@ -0,0 +1,110 @@
+package com.acme.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.TradeResult;
+import com.acme.services.businesslogic.TradesService;
+import com.acme.services.sharding.ShardedStocksService;
+import com.acme.services.sharding.ShardedTradesService;
+import com.acme.services.sharding.TradingShards;
+
+/**
+ * Benchmarks the trades submission of the sharded execution mode, with several producer threads,
+ * for the throughput scaling with the number of shards. A single shard gives the baseline of all
+ * trades being applied by one thread.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+@Threads(4)
+public class ShardedTradesServiceBenchmark {
+	private static final int BATCH_SIZE = 256;
+
+	@Param({ "1", "4" })
+	public int shardsCount;
+
+	@Param({ "500" })
+	public int symbolsCount;
+
+	private TradingShards shards;
+	private TradesService tradesService;
+	private String[] symbols;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws BusinesslogicException {
+		symbols = BenchmarkData.symbols(symbolsCount);
+
+		shards = new TradingShards();
+		shards.setShardsCount(shardsCount);
+		shards.setWindowsInMinutes(Arrays.asList(5, 15));
+		shards.setClock(BenchmarkData.CLOCK);
+		shards.start();
+
+		ShardedStocksService stocksService = new ShardedStocksService();
+		stocksService.setShards(shards);
+		for (int i = 0; i < symbols.length; i++) {
+			stocksService.createStock(BenchmarkData.stock(symbols[i], i));
+		}
+
+		ShardedTradesService shardedTradesService = new ShardedTradesService();
+		shardedTradesService.setShards(shards);
+		tradesService = shardedTradesService;
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		shards.stop();
+	}
+
+	@Benchmark
+	public void createTrade() throws BusinesslogicException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		TradeType type = random.nextBoolean() ? TradeType.BUY : TradeType.SELL;
+		tradesService.createTrade(new Trade(symbols[random.nextInt(symbols.length)], type, 1, 10.0 + random.nextInt(1000) / 10.0, null));
+	}
+
+	/**
+	 * Creates a burst of trades, split across the shards, the score being per trade so it compares
+	 * with {@link #createTrade()}.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<TradeResult> createTrades() throws BusinesslogicException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		List<Trade> trades = new ArrayList<Trade>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			TradeType type = random.nextBoolean() ? TradeType.BUY : TradeType.SELL;
+			trades.add(new Trade(symbols[random.nextInt(symbols.length)], type, 1, 10.0 + random.nextInt(1000) / 10.0, null));
+		}
+		return tradesService.createTrades(trades);
+	}
+}
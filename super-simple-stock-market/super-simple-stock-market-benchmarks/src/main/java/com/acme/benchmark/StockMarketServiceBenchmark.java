@@ -0,0 +1,189 @@
+package com.acme.benchmark;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeAggregate;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.analytics.TradeRollupEngine;
+import com.acme.services.analytics.VolumeWeightedPriceEngine;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketServiceImpl;
+import com.acme.services.persistence.CachingStocksPersistenceService;
+import com.acme.services.persistence.StocksPersistenceServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+
+/**
+ * Benchmarks the {@link StockMarketServiceImpl} calculations. The streaming mode feeds the
+ * trades history through the analytics listeners, the scan mode leaves them out so the calculations
+ * fall back on scanning the datastores.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+public class StockMarketServiceBenchmark {
+	@Param({ "StocksDatastore", "ConcurrentStocksDatastore" })
+	public String stocksDatastore;
+
+	@Param({ "TradesDatastore", "ColumnarTradesDatastore" })
+	public String tradesDatastore;
+
+	@Param({ "10", "500" })
+	public int symbolsCount;
+
+	@Param({ "10000", "1000000" })
+	public int historySize;
+
+	@Param({ "streaming", "scan" })
+	public String mode;
+
+	@Param({ "cached", "uncached" })
+	public String stockCache;
+
+	@Param({ "recorded", "unrecorded" })
+	public String metrics;
+
+	private StockMarketServiceImpl stockMarketService;
+	private String[] symbols;
+	private double[] prices;
+
+	@Setup
+	public void setUp() throws DatastoreException {
+		symbols = BenchmarkData.symbols(symbolsCount);
+		prices = new double[symbols.length];
+		Arrays.fill(prices, 42.0);
+
+		SharesCountDatastore stocks = StocksDatastoreBenchmark.newDatastore(stocksDatastore);
+		BenchmarkData.fillStocks(stocks, symbols);
+
+		Datastore<Trade> trades = TradesDatastoreBenchmark.newDatastore(tradesDatastore);
+		BenchmarkData.fillTrades(trades, symbols, historySize);
+
+		StocksPersistenceServiceImpl stocksPersistenceService = new StocksPersistenceServiceImpl();
+		stocksPersistenceService.setStocksDatastore(stocks);
+
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(trades);
+
+		stockMarketService = new StockMarketServiceImpl();
+		if ("cached".equals(stockCache)) {
+			CachingStocksPersistenceService cachingStocksPersistenceService = new CachingStocksPersistenceService();
+			cachingStocksPersistenceService.setDelegate(stocksPersistenceService);
+			stockMarketService.setStocksPersistenceService(cachingStocksPersistenceService);
+		} else {
+			stockMarketService.setStocksPersistenceService(stocksPersistenceService);
+		}
+		stockMarketService.setTradesPersistenceService(tradesPersistenceService);
+		stockMarketService.setClock(BenchmarkData.CLOCK);
+
+		if ("recorded".equals(metrics)) {
+			MetricsRegistry metricsRegistry = new MetricsRegistry();
+			metricsRegistry.setJmxEnabled(false);
+			stockMarketService.setMetricsRegistry(metricsRegistry);
+		}
+
+		if ("streaming".equals(mode)) {
+			VolumeWeightedPriceEngine volumeWeightedPriceEngine = new VolumeWeightedPriceEngine();
+			volumeWeightedPriceEngine.setWindowsInMinutes(Arrays.asList(5, 15));
+			volumeWeightedPriceEngine.setClock(BenchmarkData.CLOCK);
+			AllShareIndexCalculator allShareIndexCalculator = new AllShareIndexCalculator();
+			TradeRollupEngine tradeRollupEngine = new TradeRollupEngine();
+
+			for (Trade trade : trades.list()) {
+				volumeWeightedPriceEngine.onTrade(trade);
+				allShareIndexCalculator.onTrade(trade);
+				tradeRollupEngine.onTrade(trade);
+			}
+
+			stockMarketService.setVolumeWeightedPriceEngine(volumeWeightedPriceEngine);
+			stockMarketService.setAllShareIndexCalculator(allShareIndexCalculator);
+			stockMarketService.setTradeRollupEngine(tradeRollupEngine);
+		}
+	}
+
+	private String randomSymbol() {
+		return symbols[ThreadLocalRandom.current().nextInt(symbols.length)];
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public double dividentYield() throws BusinesslogicException {
+		return stockMarketService.calculateDividentYield(randomSymbol(), 42.0);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public double peRatio() throws BusinesslogicException {
+		return stockMarketService.calculatePERatio(randomSymbol(), 42.0);
+	}
+
+	@Benchmark
+	public double volumeWeightedStockPrice() throws BusinesslogicException {
+		return stockMarketService.calculateVolumeWeightedStockPrice(randomSymbol(), 15);
+	}
+
+	/**
+	 * Refreshes a screen of all symbols one call at a time, to compare with
+	 * {@link #bulkScreen()}.
+	 */
+	@Benchmark
+	public double screen() throws BusinesslogicException {
+		double sum = 0.0;
+		for (String symbol : symbols) {
+			sum += stockMarketService.calculateDividentYield(symbol, 42.0);
+			sum += stockMarketService.calculatePERatio(symbol, 42.0);
+			sum += stockMarketService.calculateVolumeWeightedStockPrice(symbol, 15);
+		}
+		return sum;
+	}
+
+	/**
+	 * Refreshes a screen of all symbols through the bulk calculations.
+	 */
+	@Benchmark
+	public double bulkScreen() throws BusinesslogicException {
+		double[] dividentYields = stockMarketService.calculateDividentYields(symbols, prices);
+		double[] peRatios = stockMarketService.calculatePERatios(symbols, prices);
+		double[] volumeWeightedStockPrices = stockMarketService.calculateVolumeWeightedStockPrices(symbols, 15);
+		return dividentYields[0] + peRatios[0] + volumeWeightedStockPrices[0];
+	}
+
+	/**
+	 * OHLCV over the last 45 minutes, a window not tracked by the volume weighted price engine.
+	 */
+	@Benchmark
+	public TradeAggregate tradeAggregate() throws BusinesslogicException {
+		long now = BenchmarkData.CLOCK.currentTimeMillis();
+		return stockMarketService.calculateTradeAggregate(randomSymbol(), new Date(now - 45L * 60L * 1000L), new Date(now));
+	}
+
+	@Benchmark
+	public double gbceAllShareIndex() throws BusinesslogicException {
+		return stockMarketService.calculateGBCEAllShareIndex();
+	}
+}
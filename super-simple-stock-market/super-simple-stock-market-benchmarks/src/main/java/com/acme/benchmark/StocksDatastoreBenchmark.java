@@ -0,0 +1,72 @@
+package com.acme.benchmark;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.domain.Stock;
+import com.acme.storage.ConcurrentStocksDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.storage.StocksDatastore;
+import com.acme.storage.filter.StockFilter;
+
+/**
+ * Benchmarks the stocks datastores lookup operation.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+public class StocksDatastoreBenchmark {
+	@Param({ "StocksDatastore", "ConcurrentStocksDatastore" })
+	public String datastore;
+
+	@Param({ "10", "500", "10000" })
+	public int symbolsCount;
+
+	private SharesCountDatastore stocksDatastore;
+	private StockFilter[] filters;
+
+	@Setup
+	public void setUp() throws DatastoreException {
+		stocksDatastore = newDatastore(datastore);
+
+		String[] symbols = BenchmarkData.symbols(symbolsCount);
+		BenchmarkData.fillStocks(stocksDatastore, symbols);
+
+		filters = new StockFilter[symbolsCount];
+		for (int i = 0; i < symbolsCount; i++) {
+			filters[i] = new StockFilter(symbols[i]);
+		}
+	}
+
+	static SharesCountDatastore newDatastore(String datastore) {
+		if ("ConcurrentStocksDatastore".equals(datastore)) {
+			return new ConcurrentStocksDatastore();
+		}
+		return new StocksDatastore();
+	}
+
+	@Benchmark
+	public Collection<Stock> filter() throws DatastoreException {
+		return stocksDatastore.filter(filters[ThreadLocalRandom.current().nextInt(filters.length)]);
+	}
+}
@@ -0,0 +1,129 @@
+package com.acme.benchmark;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.acme.domain.Trade;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.OffHeapTradesDatastore;
+import com.acme.storage.TradesDatastore;
+import com.acme.storage.filter.TradeFilter;
+
+/**
+ * Benchmarks the trades datastores operations.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+public class TradesDatastoreBenchmark {
+	@Param({ "TradesDatastore", "ColumnarTradesDatastore", "OffHeapTradesDatastore" })
+	public String datastore;
+
+	@Param({ "10", "500" })
+	public int symbolsCount;
+
+	@Param({ "10000", "1000000" })
+	public int historySize;
+
+	private Datastore<Trade> tradesDatastore;
+	private String[] symbols;
+	private TradeFilter[] filters;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws DatastoreException {
+		tradesDatastore = newDatastore(datastore);
+		symbols = BenchmarkData.symbols(symbolsCount);
+		BenchmarkData.fillTrades(tradesDatastore, symbols, historySize);
+
+		filters = new TradeFilter[symbolsCount];
+		for (int i = 0; i < symbolsCount; i++) {
+			filters[i] = new TradeFilter(symbols[i], 15);
+		}
+	}
+
+	static Datastore<Trade> newDatastore(String datastore) {
+		if ("OffHeapTradesDatastore".equals(datastore)) {
+			OffHeapTradesDatastore offHeapTradesDatastore = new OffHeapTradesDatastore();
+			offHeapTradesDatastore.setClock(BenchmarkData.CLOCK);
+			return offHeapTradesDatastore;
+		}
+		if ("ColumnarTradesDatastore".equals(datastore)) {
+			ColumnarTradesDatastore columnarTradesDatastore = new ColumnarTradesDatastore();
+			columnarTradesDatastore.setClock(BenchmarkData.CLOCK);
+			return columnarTradesDatastore;
+		}
+		TradesDatastore tradesDatastore = new TradesDatastore();
+		tradesDatastore.setClock(BenchmarkData.CLOCK);
+		return tradesDatastore;
+	}
+
+	@Benchmark
+	public void store() throws DatastoreException {
+		Random random = ThreadLocalRandom.current();
+		String symbol = symbols[random.nextInt(symbols.length)];
+		tradesDatastore.store(BenchmarkData.trade(symbol, random, BenchmarkData.CLOCK.currentTimeMillis()));
+	}
+
+	@Benchmark
+	public Collection<Trade> filter() throws DatastoreException {
+		return tradesDatastore.filter(filters[ThreadLocalRandom.current().nextInt(filters.length)]);
+	}
+
+	@Benchmark
+	public void forEach(final Blackhole blackhole) throws DatastoreException {
+		tradesDatastore.forEach(filters[ThreadLocalRandom.current().nextInt(filters.length)], new DatastoreVisitor<Trade>() {
+			public void visit(Trade trade) {
+				blackhole.consume(trade.getPrice());
+			}
+		});
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Measurement(iterations = 5, batchSize = 1)
+	public Collection<Trade> list() throws DatastoreException {
+		return tradesDatastore.list();
+	}
+
+	@Benchmark
+	public int count() throws DatastoreException {
+		return tradesDatastore.count();
+	}
+
+	/**
+	 * Full collection of a heap holding the trades history, which only depends on the number of
+	 * stored trades as long as they are kept on the heap.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 5, batchSize = 1)
+	public void fullGc() {
+		System.gc();
+	}
+}
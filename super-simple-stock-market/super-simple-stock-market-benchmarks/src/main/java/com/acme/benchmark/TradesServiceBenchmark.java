@@ -0,0 +1,123 @@
+package com.acme.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.analytics.TradeListener;
+import com.acme.services.analytics.VolumeWeightedPriceEngine;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.TradeResult;
+import com.acme.services.businesslogic.TradesServiceImpl;
+import com.acme.services.persistence.StocksPersistenceServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+
+/**
+ * Benchmarks {@link TradesServiceImpl#createTrade(Trade)} and
+ * {@link TradesServiceImpl#createTrades(java.util.Collection)} against the configured datastores.
+ * Trades alternate between BUY and SELL so the shares counts stay in range during long runs.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkData.LOGGING_CONFIGURATION)
+public class TradesServiceBenchmark {
+	private static final int BATCH_SIZE = 256;
+
+	@Param({ "StocksDatastore", "ConcurrentStocksDatastore" })
+	public String stocksDatastore;
+
+	@Param({ "TradesDatastore", "ColumnarTradesDatastore" })
+	public String tradesDatastore;
+
+	@Param({ "10", "500" })
+	public int symbolsCount;
+
+	@Param({ "0", "100000" })
+	public int historySize;
+
+	@Param({ "true", "false" })
+	public boolean analytics;
+
+	private TradesServiceImpl tradesService;
+	private String[] symbols;
+
+	@Setup(Level.Iteration)
+	public void setUp() throws DatastoreException {
+		symbols = BenchmarkData.symbols(symbolsCount);
+
+		SharesCountDatastore stocks = StocksDatastoreBenchmark.newDatastore(stocksDatastore);
+		BenchmarkData.fillStocks(stocks, symbols);
+
+		Datastore<Trade> trades = TradesDatastoreBenchmark.newDatastore(tradesDatastore);
+		BenchmarkData.fillTrades(trades, symbols, historySize);
+
+		StocksPersistenceServiceImpl stocksPersistenceService = new StocksPersistenceServiceImpl();
+		stocksPersistenceService.setStocksDatastore(stocks);
+
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(trades);
+
+		tradesService = new TradesServiceImpl();
+		tradesService.setStocksPersistenceService(stocksPersistenceService);
+		tradesService.setTradesPersistenceService(tradesPersistenceService);
+		tradesService.setClock(BenchmarkData.CLOCK);
+
+		if (analytics) {
+			VolumeWeightedPriceEngine volumeWeightedPriceEngine = new VolumeWeightedPriceEngine();
+			volumeWeightedPriceEngine.setWindowsInMinutes(Arrays.asList(5, 15));
+			volumeWeightedPriceEngine.setClock(BenchmarkData.CLOCK);
+			tradesService.setTradeListeners(Arrays.<TradeListener> asList(volumeWeightedPriceEngine, new AllShareIndexCalculator()));
+		}
+	}
+
+	@Benchmark
+	public void createTrade() throws BusinesslogicException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		TradeType type = random.nextBoolean() ? TradeType.BUY : TradeType.SELL;
+		tradesService.createTrade(new Trade(symbols[random.nextInt(symbols.length)], type, 1, 10.0 + random.nextInt(1000) / 10.0, null));
+	}
+
+	/**
+	 * Creates a burst of trades, the score being per trade so it compares with
+	 * {@link #createTrade()}.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<TradeResult> createTrades() throws BusinesslogicException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		List<Trade> trades = new ArrayList<Trade>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			TradeType type = random.nextBoolean() ? TradeType.BUY : TradeType.SELL;
+			trades.add(new Trade(symbols[random.nextInt(symbols.length)], type, 1, 10.0 + random.nextInt(1000) / 10.0, null));
+		}
+		return tradesService.createTrades(trades);
+	}
+}
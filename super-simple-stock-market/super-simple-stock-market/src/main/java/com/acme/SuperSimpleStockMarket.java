@@ -44,6 +44,7 @@ public class SuperSimpleStockMarket {
 	 */
 	private void init() {
 		context = new ClassPathXmlApplicationContext("simple-stock-market-context.xml");
+		context.registerShutdownHook();
 
 		stocksService = (StocksService) context.getBean("stocksService");
 		tradesService = (TradesService) context.getBean("tradesService");
@@ -54,6 +55,16 @@ public class SuperSimpleStockMarket {
 	 * Loads samsple data in the datastores.
 	 */
 	private void loadSampleData() {
+		try {
+			if (!stocksService.listAllStocks().isEmpty()) {
+				logger.info("Stock information recovered from persistent storage, skipping sample data.");
+				return;
+			}
+		} catch (BusinesslogicException e) {
+			logger.error("Exception occurred while reading stock information.", e);
+			System.exit(0);
+		}
+
 		logger.info("Loading stock information ...");
 		try {
 			stocksService.createStock(new Stock("TEA", StockType.COMMON, 1000, 100, 0, 0));
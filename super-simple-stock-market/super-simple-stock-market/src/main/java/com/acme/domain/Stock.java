@@ -1,7 +1,8 @@
 package com.acme.domain;
 
 /**
- * Domain object definition mapping the structure of a stock.
+ * Domain object definition mapping the structure of a stock. A stock created through
+ * {@link #readOnlyCopy(Stock, int)} cannot be modified, so it can be shared between threads.
  * 
  * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
  */
@@ -10,6 +11,10 @@ public class Stock {
 	 * Stock symbol (e.g. "TEA", "POP", etc.)
 	 */
 	private String symbol;
+	/**
+	 * The id of the stock symbol, see {@link SymbolRegistry}, resolved lazily.
+	 */
+	private int stockId = SymbolRegistry.NO_ID;
 	/**
 	 * The stock type.
 	 */
@@ -30,6 +35,10 @@ public class Stock {
 	 * Stock fixed dividend value.
 	 */
 	private double fixedDividend;
+	/**
+	 * Whether the setters are disabled.
+	 */
+	private boolean readOnly;
 
 	/**
 	 * Default constructor
@@ -46,6 +55,7 @@ public class Stock {
 	 */
 	public Stock(Stock stock) {
 		this.symbol = stock.getSymbol();
+		this.stockId = stock.stockId;
 		this.type = stock.getType();
 		this.sharesCount = stock.getSharesCount();
 		this.parValue = stock.getParValue();
@@ -53,6 +63,23 @@ public class Stock {
 		this.fixedDividend = stock.getFixedDividend();
 	}
 
+	/**
+	 * Creates a read-only copy of the stock parameter, with another shares count.
+	 * 
+	 * @param stock
+	 *            the original stock
+	 * @param sharesCount
+	 *            the number of shares of the copy
+	 * @return the read-only copy
+	 */
+	public static Stock readOnlyCopy(Stock stock, int sharesCount) {
+		Stock copy = new Stock(stock);
+		copy.sharesCount = sharesCount;
+		copy.getStockId();
+		copy.readOnly = true;
+		return copy;
+	}
+
 	/**
 	 * Creates a new stock object.
 	 * 
@@ -88,9 +115,31 @@ public class Stock {
 	/**
 	 * @param symbol
 	 *            the symbol to set
+	 * @throws UnsupportedOperationException
+	 *             if the stock is read-only
 	 */
 	public void setSymbol(String symbol) {
+		checkWritable();
 		this.symbol = symbol;
+		this.stockId = SymbolRegistry.NO_ID;
+	}
+
+	/**
+	 * @return the id of the stock symbol, or {@link SymbolRegistry#NO_ID} if the symbol has not
+	 *         been registered
+	 */
+	public int getStockId() {
+		if (stockId == SymbolRegistry.NO_ID) {
+			stockId = SymbolRegistry.idOf(symbol);
+		}
+		return stockId;
+	}
+
+	/**
+	 * @return whether the stock cannot be modified
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
 	}
 
 	/**
@@ -103,8 +152,11 @@ public class Stock {
 	/**
 	 * @param type
 	 *            the type to set
+	 * @throws UnsupportedOperationException
+	 *             if the stock is read-only
 	 */
 	public void setType(StockType type) {
+		checkWritable();
 		this.type = type;
 	}
 
@@ -118,8 +170,11 @@ public class Stock {
 	/**
 	 * @param sharesCount
 	 *            the sharesCount to set
+	 * @throws UnsupportedOperationException
+	 *             if the stock is read-only
 	 */
 	public void setSharesCount(int sharesCount) {
+		checkWritable();
 		this.sharesCount = sharesCount;
 	}
 
@@ -133,8 +188,11 @@ public class Stock {
 	/**
 	 * @param parValue
 	 *            the parValue to set
+	 * @throws UnsupportedOperationException
+	 *             if the stock is read-only
 	 */
 	public void setParValue(double parValue) {
+		checkWritable();
 		this.parValue = parValue;
 	}
 
@@ -148,8 +206,11 @@ public class Stock {
 	/**
 	 * @param lastDividend
 	 *            the lastDividend to set
+	 * @throws UnsupportedOperationException
+	 *             if the stock is read-only
 	 */
 	public void setLastDividend(double lastDividend) {
+		checkWritable();
 		this.lastDividend = lastDividend;
 	}
 
@@ -163,11 +224,20 @@ public class Stock {
 	/**
 	 * @param fixedDividend
 	 *            the fixedDividend to set
+	 * @throws UnsupportedOperationException
+	 *             if the stock is read-only
 	 */
 	public void setFixedDividend(double fixedDividend) {
+		checkWritable();
 		this.fixedDividend = fixedDividend;
 	}
 
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Stock [" + symbol + "] is read-only.");
+		}
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
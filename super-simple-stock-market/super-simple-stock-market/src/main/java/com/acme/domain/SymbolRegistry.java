@@ -0,0 +1,117 @@
+package com.acme.domain;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.acme.util.StringUtils;
+
+/**
+ * Process wide registry assigning every stock symbol a dense integer id, starting from 0, the first
+ * time the symbol is stored. Ids are never reused, so the datastores and analytics can index plain
+ * arrays by id instead of hashing the symbols on every access.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public final class SymbolRegistry {
+	/**
+	 * Id of the symbols not registered.
+	 */
+	public static final int NO_ID = -1;
+
+	private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Symbols indexed by their id, replaced when grown. Written under the registry lock only.
+	 */
+	private static volatile String[] symbols = new String[64];
+	private static volatile int size;
+
+	private SymbolRegistry() {
+	}
+
+	/**
+	 * Returns the id of a symbol, registering it if needed.
+	 * 
+	 * @param symbol
+	 *            the stock symbol
+	 * @return the symbol id
+	 * @throws IllegalArgumentException
+	 *             if the symbol is not valid
+	 */
+	public static int register(String symbol) {
+		Integer id = symbol == null ? null : ids.get(symbol);
+		if (id != null) {
+			return id;
+		}
+
+		if (!StringUtils.isValid(symbol)) {
+			throw new IllegalArgumentException("Invalid stock symbol: [" + symbol + "]");
+		}
+
+		synchronized (SymbolRegistry.class) {
+			id = ids.get(symbol);
+			if (id != null) {
+				return id;
+			}
+
+			int newId = size;
+			if (newId == symbols.length) {
+				symbols = Arrays.copyOf(symbols, newId * 2);
+			}
+			symbols[newId] = symbol;
+			size = newId + 1;
+
+			// published last, so a reader finding the id also finds the symbol
+			ids.put(symbol, newId);
+
+			return newId;
+		}
+	}
+
+	/**
+	 * Returns the id of the stock of a trade, registering its symbol if needed.
+	 * 
+	 * @param trade
+	 *            the trade
+	 * @return the symbol id
+	 * @throws IllegalArgumentException
+	 *             if the trade symbol is not valid
+	 */
+	public static int register(Trade trade) {
+		int id = trade.getStockId();
+		return id != NO_ID ? id : register(trade.getStockSymbol());
+	}
+
+	/**
+	 * Returns the id of a symbol, without registering it.
+	 * 
+	 * @param symbol
+	 *            the stock symbol
+	 * @return the symbol id, or {@link #NO_ID} if the symbol has not been registered
+	 */
+	public static int idOf(String symbol) {
+		Integer id = symbol == null ? null : ids.get(symbol);
+		return id == null ? NO_ID : id;
+	}
+
+	/**
+	 * Returns the symbol registered with an id.
+	 * 
+	 * @param id
+	 *            the symbol id
+	 * @return the stock symbol, or null if no symbol has been registered with this id
+	 */
+	public static String symbolOf(int id) {
+		String[] registeredSymbols = symbols;
+		return id >= 0 && id < registeredSymbols.length ? registeredSymbols[id] : null;
+	}
+
+	/**
+	 * @return the number of registered symbols, all ids being below it
+	 */
+	public static int size() {
+		return size;
+	}
+}
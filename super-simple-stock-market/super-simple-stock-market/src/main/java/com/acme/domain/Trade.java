@@ -8,10 +8,19 @@ import java.util.Date;
  * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
  */
 public class Trade {
+	/**
+	 * Timestamp of the trades not timestamped yet
+	 */
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
 	/**
 	 * The symbol of the stock referenced by this trade
 	 */
 	private String stockSymbol;
+	/**
+	 * The id of the stock symbol, see {@link SymbolRegistry}, resolved lazily
+	 */
+	private int stockId = SymbolRegistry.NO_ID;
 	/**
 	 * The trade type
 	 */
@@ -25,9 +34,9 @@ public class Trade {
 	 */
 	private double price;
 	/**
-	 * Creation time and date of this trade
+	 * Creation time and date of this trade, in milliseconds since the epoch
 	 */
-	private Date timestamp;
+	private long timestamp = NO_TIMESTAMP;
 
 	/**
 	 * Empty constructor
@@ -44,10 +53,11 @@ public class Trade {
 	 */
 	public Trade(Trade trade) {
 		this.stockSymbol = trade.getStockSymbol();
+		this.stockId = trade.stockId;
 		this.type = trade.getType();
 		this.quantity = trade.getQuantity();
 		this.price = trade.getPrice();
-		this.timestamp = trade.getTimestamp();
+		this.timestamp = trade.timestamp;
 	}
 
 	/**
@@ -65,6 +75,24 @@ public class Trade {
 	 *            trade timestamp
 	 */
 	public Trade(String stockSymbol, TradeType type, int quantity, double price, Date timestamp) {
+		this(stockSymbol, type, quantity, price, timestamp == null ? NO_TIMESTAMP : timestamp.getTime());
+	}
+
+	/**
+	 * Creates a new trade based on the passed in parameters
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @param type
+	 *            trade type
+	 * @param quantity
+	 *            trade quantity
+	 * @param price
+	 *            trade price
+	 * @param timestamp
+	 *            trade timestamp, in milliseconds since the epoch
+	 */
+	public Trade(String stockSymbol, TradeType type, int quantity, double price, long timestamp) {
 		this.stockSymbol = stockSymbol;
 		this.type = type;
 		this.quantity = quantity;
@@ -72,6 +100,25 @@ public class Trade {
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * Creates a new trade of a registered stock
+	 * 
+	 * @param stockId
+	 *            the stock symbol id, see {@link SymbolRegistry}
+	 * @param type
+	 *            trade type
+	 * @param quantity
+	 *            trade quantity
+	 * @param price
+	 *            trade price
+	 * @param timestamp
+	 *            trade timestamp, in milliseconds since the epoch
+	 */
+	public Trade(int stockId, TradeType type, int quantity, double price, long timestamp) {
+		this(SymbolRegistry.symbolOf(stockId), type, quantity, price, timestamp);
+		this.stockId = this.stockSymbol == null ? SymbolRegistry.NO_ID : stockId;
+	}
+
 	/**
 	 * @return the quantity
 	 */
@@ -103,17 +150,33 @@ public class Trade {
 	}
 
 	/**
-	 * @return the timestamp
+	 * @return a new date holding the timestamp, or null if the trade has no timestamp; prefer
+	 *         {@link #getTimestampMillis()}, which does not allocate
 	 */
 	public Date getTimestamp() {
-		return timestamp;
+		return timestamp == NO_TIMESTAMP ? null : new Date(timestamp);
 	}
 
 	/**
 	 * @param timestamp
-	 *            the timestamp to set
+	 *            the timestamp to set, null to clear it
 	 */
 	public void setTimestamp(Date timestamp) {
+		this.timestamp = timestamp == null ? NO_TIMESTAMP : timestamp.getTime();
+	}
+
+	/**
+	 * @return the timestamp, in milliseconds since the epoch, or {@link #NO_TIMESTAMP}
+	 */
+	public long getTimestampMillis() {
+		return timestamp;
+	}
+
+	/**
+	 * @param timestamp
+	 *            the timestamp to set, in milliseconds since the epoch
+	 */
+	public void setTimestampMillis(long timestamp) {
 		this.timestamp = timestamp;
 	}
 
@@ -138,6 +201,18 @@ public class Trade {
 
 	public void setStockSymbol(String stockSymbol) {
 		this.stockSymbol = stockSymbol;
+		this.stockId = SymbolRegistry.NO_ID;
+	}
+
+	/**
+	 * @return the id of the stock symbol, or {@link SymbolRegistry#NO_ID} if the symbol has not
+	 *         been registered
+	 */
+	public int getStockId() {
+		if (stockId == SymbolRegistry.NO_ID) {
+			stockId = SymbolRegistry.idOf(stockSymbol);
+		}
+		return stockId;
 	}
 
 	@Override
@@ -149,7 +224,7 @@ public class Trade {
 		result = prime * result + (int) (temp ^ (temp >>> 32));
 		result = prime * result + quantity;
 		result = prime * result + ((stockSymbol == null) ? 0 : stockSymbol.hashCode());
-		result = prime * result + ((timestamp == null) ? 0 : timestamp.hashCode());
+		result = prime * result + (int) (timestamp ^ (timestamp >>> 32));
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
 		return result;
 	}
@@ -179,11 +254,7 @@ public class Trade {
 		} else if (!stockSymbol.equals(other.stockSymbol)) {
 			return false;
 		}
-		if (timestamp == null) {
-			if (other.timestamp != null) {
-				return false;
-			}
-		} else if (!timestamp.equals(other.timestamp)) {
+		if (timestamp != other.timestamp) {
 			return false;
 		}
 		if (type != other.type) {
@@ -194,7 +265,7 @@ public class Trade {
 
 	@Override
 	public String toString() {
-		return "Trade [stockSymbol=" + stockSymbol + ", type=" + type + ", quantity=" + quantity + ", price=" + price + ", timestamp=" + timestamp
+		return "Trade [stockSymbol=" + stockSymbol + ", type=" + type + ", quantity=" + quantity + ", price=" + price + ", timestamp=" + getTimestamp()
 				+ "]";
 	}
 }
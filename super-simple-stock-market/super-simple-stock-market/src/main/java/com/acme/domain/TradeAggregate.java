@@ -0,0 +1,260 @@
+package com.acme.domain;
+
+import java.util.Date;
+
+/**
+ * Domain object definition summarizing the trades of a stock over a time bucket: open, high, low
+ * and close prices, traded volume, turnover (the sum of price times quantity) and trades count.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ */
+public class TradeAggregate {
+	/**
+	 * The symbol of the stock referenced by the aggregated trades
+	 */
+	private String stockSymbol;
+	/**
+	 * Start of the time bucket, as epoch milliseconds
+	 */
+	private long startTimestamp;
+	/**
+	 * Length of the time bucket, in milliseconds
+	 */
+	private long durationMillis;
+
+	private double open;
+	private double high;
+	private double low;
+	private double close;
+
+	/**
+	 * Timestamps of the trades which set the open and close prices
+	 */
+	private long openTimestamp;
+	private long closeTimestamp;
+
+	/**
+	 * Sum of the aggregated trades quantities
+	 */
+	private long volume;
+	/**
+	 * Sum of the aggregated trades price times quantity
+	 */
+	private double turnover;
+	/**
+	 * Number of aggregated trades
+	 */
+	private int tradesCount;
+
+	/**
+	 * Creates an empty aggregate over the passed in time bucket
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @param startTimestamp
+	 *            start of the time bucket, as epoch milliseconds
+	 * @param durationMillis
+	 *            length of the time bucket, in milliseconds
+	 */
+	public TradeAggregate(String stockSymbol, long startTimestamp, long durationMillis) {
+		this.stockSymbol = stockSymbol;
+		this.startTimestamp = startTimestamp;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Creates a new aggregate as a copy of the received one as a parameter
+	 * 
+	 * @param aggregate
+	 *            original aggregate to be copied
+	 */
+	public TradeAggregate(TradeAggregate aggregate) {
+		this.stockSymbol = aggregate.stockSymbol;
+		this.startTimestamp = aggregate.startTimestamp;
+		this.durationMillis = aggregate.durationMillis;
+		this.open = aggregate.open;
+		this.high = aggregate.high;
+		this.low = aggregate.low;
+		this.close = aggregate.close;
+		this.openTimestamp = aggregate.openTimestamp;
+		this.closeTimestamp = aggregate.closeTimestamp;
+		this.volume = aggregate.volume;
+		this.turnover = aggregate.turnover;
+		this.tradesCount = aggregate.tradesCount;
+	}
+
+	/**
+	 * Adds a trade to this aggregate. Trades may be added in any order, the open and close prices
+	 * being those of the oldest and newest trades.
+	 * 
+	 * @param timestamp
+	 *            the trade timestamp, as epoch milliseconds
+	 * @param price
+	 *            the trade price
+	 * @param quantity
+	 *            the trade quantity
+	 */
+	public void add(long timestamp, double price, int quantity) {
+		if (tradesCount == 0) {
+			open = high = low = close = price;
+			openTimestamp = closeTimestamp = timestamp;
+		} else {
+			if (price > high) {
+				high = price;
+			}
+			if (price < low) {
+				low = price;
+			}
+			if (timestamp < openTimestamp) {
+				open = price;
+				openTimestamp = timestamp;
+			}
+			if (timestamp >= closeTimestamp) {
+				close = price;
+				closeTimestamp = timestamp;
+			}
+		}
+
+		volume += quantity;
+		turnover += price * quantity;
+		tradesCount++;
+	}
+
+	/**
+	 * Adds a trade to this aggregate.
+	 * 
+	 * @see #add(long, double, int)
+	 */
+	public void add(Trade trade) {
+		add(trade.getTimestampMillis(), trade.getPrice(), trade.getQuantity());
+	}
+
+	/**
+	 * Merges another aggregate of the same stock into this one, as if its trades had been added
+	 * one by one. The time bucket of this aggregate is left unchanged.
+	 * 
+	 * @param aggregate
+	 *            the aggregate to be merged
+	 */
+	public void merge(TradeAggregate aggregate) {
+		if (aggregate.tradesCount == 0) {
+			return;
+		}
+
+		if (tradesCount == 0) {
+			open = aggregate.open;
+			high = aggregate.high;
+			low = aggregate.low;
+			close = aggregate.close;
+			openTimestamp = aggregate.openTimestamp;
+			closeTimestamp = aggregate.closeTimestamp;
+		} else {
+			if (aggregate.high > high) {
+				high = aggregate.high;
+			}
+			if (aggregate.low < low) {
+				low = aggregate.low;
+			}
+			if (aggregate.openTimestamp < openTimestamp) {
+				open = aggregate.open;
+				openTimestamp = aggregate.openTimestamp;
+			}
+			if (aggregate.closeTimestamp >= closeTimestamp) {
+				close = aggregate.close;
+				closeTimestamp = aggregate.closeTimestamp;
+			}
+		}
+
+		volume += aggregate.volume;
+		turnover += aggregate.turnover;
+		tradesCount += aggregate.tradesCount;
+	}
+
+	/**
+	 * @return the volume weighted price of the aggregated trades, or 0 if the volume is 0
+	 */
+	public double getVolumeWeightedPrice() {
+		return volume == 0 ? 0.0 : turnover / volume;
+	}
+
+	public String getStockSymbol() {
+		return stockSymbol;
+	}
+
+	/**
+	 * @return the start of the time bucket
+	 */
+	public Date getStartTime() {
+		return new Date(startTimestamp);
+	}
+
+	/**
+	 * @return the start of the time bucket, as epoch milliseconds
+	 */
+	public long getStartTimestamp() {
+		return startTimestamp;
+	}
+
+	/**
+	 * @return the length of the time bucket, in milliseconds
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * @return the open price
+	 */
+	public double getOpen() {
+		return open;
+	}
+
+	/**
+	 * @return the high price
+	 */
+	public double getHigh() {
+		return high;
+	}
+
+	/**
+	 * @return the low price
+	 */
+	public double getLow() {
+		return low;
+	}
+
+	/**
+	 * @return the close price
+	 */
+	public double getClose() {
+		return close;
+	}
+
+	/**
+	 * @return the volume
+	 */
+	public long getVolume() {
+		return volume;
+	}
+
+	/**
+	 * @return the turnover
+	 */
+	public double getTurnover() {
+		return turnover;
+	}
+
+	/**
+	 * @return the trades count
+	 */
+	public int getTradesCount() {
+		return tradesCount;
+	}
+
+	@Override
+	public String toString() {
+		return "TradeAggregate [stockSymbol=" + stockSymbol + ", startTime=" + getStartTime() + ", durationMillis=" + durationMillis + ", open=" + open
+				+ ", high=" + high + ", low=" + low + ", close=" + close + ", volume=" + volume + ", turnover=" + turnover + ", tradesCount="
+				+ tradesCount + "]";
+	}
+}
@@ -0,0 +1,54 @@
+package com.acme.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic events counter, striped so that concurrent increments do not contend on a single
+ * cache line. Incrementing allocates nothing.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class Counter implements CounterMXBean {
+	/**
+	 * Counter ignoring the increments, used by the components no {@link MetricsRegistry} has been
+	 * set on.
+	 */
+	public static final Counter DISABLED = new Counter(false);
+
+	private final boolean enabled;
+	private final LongAdder count = new LongAdder();
+
+	public Counter() {
+		this(true);
+	}
+
+	private Counter(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Counts one event.
+	 */
+	public void increment() {
+		if (enabled) {
+			count.increment();
+		}
+	}
+
+	/**
+	 * Counts several events at once.
+	 * 
+	 * @param events
+	 *            the number of events
+	 */
+	public void add(long events) {
+		if (enabled) {
+			count.add(events);
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+}
@@ -0,0 +1,14 @@
+package com.acme.metrics;
+
+/**
+ * JMX view of a {@link Counter}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface CounterMXBean {
+	/**
+	 * @return the number of counted events
+	 */
+	long getCount();
+}
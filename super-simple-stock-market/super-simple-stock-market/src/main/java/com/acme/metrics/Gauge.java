@@ -0,0 +1,15 @@
+package com.acme.metrics;
+
+/**
+ * Value sampled when the metrics are read, e.g. the size of a cache or a counter kept by a
+ * component for its own use. Registered through {@link MetricsRegistry#gauge(String, Gauge)}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface Gauge {
+	/**
+	 * @return the current value
+	 */
+	long getValue();
+}
@@ -0,0 +1,77 @@
+package com.acme.metrics;
+
+/**
+ * Point in time copy of the latencies distribution recorded by a {@link LatencyHistogram}. The
+ * reported values are the highest latencies of their buckets, so they never understate a
+ * recorded latency.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class HistogramSnapshot {
+	private final long[] counts;
+	private final long count;
+	private final long totalNanos;
+
+	HistogramSnapshot(long[] counts, long totalNanos) {
+		long count = 0L;
+		for (int i = 0; i < counts.length; i++) {
+			count += counts[i];
+		}
+
+		this.counts = counts;
+		this.count = count;
+		this.totalNanos = totalNanos;
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean latency, in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public double getMean() {
+		return count == 0L ? 0.0d : (double) totalNanos / count;
+	}
+
+	/**
+	 * @return the maximum latency, in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getMax() {
+		for (int i = counts.length - 1; i >= 0; i--) {
+			if (counts[i] != 0L) {
+				return LatencyHistogram.highestValueAt(i);
+			}
+		}
+		return 0L;
+	}
+
+	/**
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the latency, in nanoseconds, which the given percentage of the recorded latencies
+	 *         do not exceed, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0L) {
+			return 0L;
+		}
+
+		double boundedPercentile = Math.max(0.0d, Math.min(percentile, 100.0d));
+		long rank = Math.max(1L, (long) Math.ceil(boundedPercentile / 100.0d * count));
+
+		long cumulativeCount = 0L;
+		for (int i = 0; i < counts.length; i++) {
+			cumulativeCount += counts[i];
+			if (cumulativeCount >= rank) {
+				return LatencyHistogram.highestValueAt(i);
+			}
+		}
+
+		return getMax();
+	}
+}
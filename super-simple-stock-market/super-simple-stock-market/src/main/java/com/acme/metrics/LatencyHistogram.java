@@ -0,0 +1,156 @@
+package com.acme.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in the manner of an HDR histogram: the latencies, in nanoseconds, are counted
+ * into log-linear buckets, exact below 128 ns and then with a relative precision of 1/64, so the
+ * percentiles are reported within 1.6% of the recorded values whatever their magnitude.
+ * 
+ * <p>
+ * Recording a latency costs a bucket increment and a striped sum update, and allocates nothing;
+ * latencies over {@link #MAX_VALUE} are recorded as {@link #MAX_VALUE}. Reading the statistics
+ * copies the buckets into a {@link HistogramSnapshot}, which is consistent enough for monitoring
+ * while latencies are being recorded.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+	/**
+	 * The highest trackable latency, about 18 minutes.
+	 */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+	/**
+	 * Histogram ignoring the recordings, used by the components no {@link MetricsRegistry} has been
+	 * set on; {@link #start()} does not even read the time.
+	 */
+	public static final LatencyHistogram DISABLED = new LatencyHistogram(false);
+
+	private final boolean enabled;
+	private final AtomicLongArray counts;
+	private final LongAdder totalNanos = new LongAdder();
+
+	public LatencyHistogram() {
+		this(true);
+	}
+
+	private LatencyHistogram(boolean enabled) {
+		this.enabled = enabled;
+		this.counts = new AtomicLongArray(enabled ? BUCKET_COUNT : 0);
+	}
+
+	/**
+	 * Starts timing an operation, see {@link #recordSince(long)}.
+	 * 
+	 * @return the start time, in nanoseconds
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Records the latency of an operation timed since {@link #start()}.
+	 * 
+	 * @param startNanos
+	 *            the start time returned by {@link #start()}
+	 */
+	public void recordSince(long startNanos) {
+		if (enabled) {
+			record(System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos
+	 *            the latency, in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (!enabled) {
+			return;
+		}
+
+		long value = nanos < 0L ? 0L : Math.min(nanos, MAX_VALUE);
+		counts.incrementAndGet(indexOf(value));
+		totalNanos.add(value);
+	}
+
+	/**
+	 * @return a copy of the recorded latencies distribution
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] snapshotCounts = new long[counts.length()];
+		for (int i = 0; i < snapshotCounts.length; i++) {
+			snapshotCounts[i] = counts.get(i);
+		}
+		return new HistogramSnapshot(snapshotCounts, totalNanos.sum());
+	}
+
+	public long getCount() {
+		return snapshot().getCount();
+	}
+
+	public double getMeanNanos() {
+		return snapshot().getMean();
+	}
+
+	public long getMaxNanos() {
+		return snapshot().getMax();
+	}
+
+	public long get50thPercentileNanos() {
+		return snapshot().getValueAtPercentile(50.0d);
+	}
+
+	public long get90thPercentileNanos() {
+		return snapshot().getValueAtPercentile(90.0d);
+	}
+
+	public long get99thPercentileNanos() {
+		return snapshot().getValueAtPercentile(99.0d);
+	}
+
+	public long get999thPercentileNanos() {
+		return snapshot().getValueAtPercentile(99.9d);
+	}
+
+	/**
+	 * @return the index of the bucket counting a value
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+
+		// the values of [64 << e, 128 << e) are counted by 64 buckets of width 2^e
+		int exponent = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> exponent);
+
+		return SUB_BUCKET_COUNT + (exponent - 1) * SUB_BUCKET_HALF_COUNT + subBucket - SUB_BUCKET_HALF_COUNT;
+	}
+
+	/**
+	 * @return the highest value counted by a bucket
+	 */
+	static long highestValueAt(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+
+		return ((subBucket + 1) << exponent) - 1;
+	}
+}
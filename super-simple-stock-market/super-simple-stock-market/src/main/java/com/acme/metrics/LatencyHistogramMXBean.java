@@ -0,0 +1,44 @@
+package com.acme.metrics;
+
+/**
+ * JMX view of a {@link LatencyHistogram}. The latencies are in nanoseconds.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface LatencyHistogramMXBean {
+	/**
+	 * @return the number of recorded latencies
+	 */
+	long getCount();
+
+	/**
+	 * @return the mean latency, or 0 if nothing has been recorded
+	 */
+	double getMeanNanos();
+
+	/**
+	 * @return the maximum latency
+	 */
+	long getMaxNanos();
+
+	/**
+	 * @return the median latency
+	 */
+	long get50thPercentileNanos();
+
+	/**
+	 * @return the 90th percentile latency
+	 */
+	long get90thPercentileNanos();
+
+	/**
+	 * @return the 99th percentile latency
+	 */
+	long get99thPercentileNanos();
+
+	/**
+	 * @return the 99.9th percentile latency
+	 */
+	long get999thPercentileNanos();
+}
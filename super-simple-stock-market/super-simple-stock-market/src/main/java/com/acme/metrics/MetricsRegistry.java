@@ -0,0 +1,175 @@
+package com.acme.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Registry of the named counters, gauges and latency histograms of the application. The
+ * components resolve their metrics once, when the registry is set on them, and record into them
+ * directly afterwards; without a registry they record into the {@link Counter#DISABLED} and
+ * {@link LatencyHistogram#DISABLED} metrics, which cost nothing.
+ * 
+ * <p>
+ * The metrics are published as MXBeans of the platform MBean server, named
+ * <code>&lt;jmxDomain&gt;:type=&lt;metric type&gt;,name=&lt;metric name&gt;</code>, and can be pulled all
+ * at once through {@link #snapshot()}. The MXBeans are unregistered by {@link #close()}.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class MetricsRegistry {
+	private static final Logger logger = LogManager.getLogger(MetricsRegistry.class);
+
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final List<ObjectName> registeredNames = new CopyOnWriteArrayList<ObjectName>();
+
+	private boolean jmxEnabled = true;
+	private String jmxDomain = "com.acme.stockmarket";
+
+	/**
+	 * Returns the counter registered under a name, registering a new one if needed.
+	 * 
+	 * @param name
+	 *            the counter name
+	 * @return the counter
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter newCounter = new Counter();
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+				register("Counter", name, counter, CounterMXBean.class);
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the latency histogram registered under a name, registering a new one if needed.
+	 * 
+	 * @param name
+	 *            the histogram name
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram latencyHistogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+				register("LatencyHistogram", name, histogram, LatencyHistogramMXBean.class);
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Registers a gauge under a name. A gauge already registered under the same name is kept.
+	 * 
+	 * @param name
+	 *            the gauge name
+	 * @param gauge
+	 *            the gauge
+	 */
+	public void gauge(String name, Gauge gauge) {
+		if (gauges.putIfAbsent(name, gauge) == null) {
+			register("Gauge", name, gauge, Gauge.class);
+		}
+	}
+
+	/**
+	 * @return the current values of all the registered metrics
+	 */
+	public MetricsSnapshot snapshot() {
+		SortedMap<String, Long> counterValues = new TreeMap<String, Long>();
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			counterValues.put(entry.getKey(), entry.getValue().getCount());
+		}
+
+		SortedMap<String, Long> gaugeValues = new TreeMap<String, Long>();
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			try {
+				gaugeValues.put(entry.getKey(), entry.getValue().getValue());
+			} catch (RuntimeException e) {
+				logger.error("Exception occurred while reading gauge [{}].", entry.getKey(), e);
+			}
+		}
+
+		SortedMap<String, HistogramSnapshot> histogramSnapshots = new TreeMap<String, HistogramSnapshot>();
+		for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			histogramSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+
+		return new MetricsSnapshot(counterValues, gaugeValues, histogramSnapshots);
+	}
+
+	/**
+	 * Unregisters the published MXBeans. The metrics themselves stay usable.
+	 */
+	public void close() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName objectName : registeredNames) {
+			try {
+				server.unregisterMBean(objectName);
+			} catch (JMException e) {
+				logger.warn("Unable to unregister metric [{}].", objectName, e);
+			}
+		}
+		registeredNames.clear();
+	}
+
+	/**
+	 * @param jmxEnabled
+	 *            whether the metrics are published as MXBeans
+	 */
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * @param jmxDomain
+	 *            the domain of the published MXBeans names
+	 */
+	public void setJmxDomain(String jmxDomain) {
+		this.jmxDomain = jmxDomain;
+	}
+
+	/**
+	 * Publishes a metric as an MXBean. A metric which cannot be published, e.g. because another
+	 * registry already published a metric under the same name, is only logged.
+	 */
+	private <T> void register(String type, String name, T metric, Class<T> mxBeanInterface) {
+		if (!jmxEnabled) {
+			return;
+		}
+
+		try {
+			ObjectName objectName = new ObjectName(jmxDomain + ":type=" + type + ",name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metric, mxBeanInterface, true), objectName);
+			registeredNames.add(objectName);
+		} catch (JMException e) {
+			logger.warn("Unable to publish metric [{}] through JMX.", name, e);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.acme.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Point in time values of all the metrics of a {@link MetricsRegistry}, by metric name, for the
+ * monitoring tools pulling the metrics instead of reading them through JMX.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class MetricsSnapshot {
+	private final SortedMap<String, Long> counters;
+	private final SortedMap<String, Long> gauges;
+	private final SortedMap<String, HistogramSnapshot> histograms;
+
+	MetricsSnapshot(SortedMap<String, Long> counters, SortedMap<String, Long> gauges, SortedMap<String, HistogramSnapshot> histograms) {
+		this.counters = Collections.unmodifiableSortedMap(counters);
+		this.gauges = Collections.unmodifiableSortedMap(gauges);
+		this.histograms = Collections.unmodifiableSortedMap(histograms);
+	}
+
+	/**
+	 * @return the counter values, by name
+	 */
+	public Map<String, Long> getCounters() {
+		return counters;
+	}
+
+	/**
+	 * @return the gauge values, by name
+	 */
+	public Map<String, Long> getGauges() {
+		return gauges;
+	}
+
+	/**
+	 * @return the latency histograms, by name
+	 */
+	public Map<String, HistogramSnapshot> getHistograms() {
+		return histograms;
+	}
+}
@@ -0,0 +1,171 @@
+package com.acme.services.analytics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.storage.retention.ExpiredTradeListener;
+import com.acme.util.SymbolTable;
+
+/**
+ * Incremental GBCE All Share Index calculator. The geometric mean is computed in log space: the
+ * calculator keeps, per stock, the running sum of ln(price) and the number of prices, updated on
+ * each recorded trade, so the index does not overflow or underflow as the number of trades grows.
+ * The per stock sums are adders, so trades of any stocks are recorded concurrently without
+ * contending, and are combined when the index is read, in O(stocks).
+ * <p>
+ * Two variants of the index are maintained: the geometric mean of the prices of all recorded trades
+ * and the geometric mean of the latest traded price of each stock.
+ * <p>
+ * The calculator follows the trades retained by the trades datastore: registered as an
+ * {@link ExpiredTradeListener} of the trades compactor, it forgets the trades the retention
+ * policy removes, so its indices match the ones computed by scanning the datastore, whether or not
+ * the process has been restarted since the trades were recorded.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class AllShareIndexCalculator implements TradeListener, ExpiredTradeListener {
+	/**
+	 * Prices of each stock, indexed by the stock symbol id.
+	 */
+	private final SymbolTable<SymbolPrices> symbolPrices = new SymbolTable<SymbolPrices>();
+
+	/**
+	 * Records the trade price into both index variants.
+	 */
+	public void onTrade(Trade trade) {
+		double logPrice = Math.log(trade.getPrice());
+		long timestamp = trade.getTimestampMillis();
+
+		SymbolPrices prices = getOrCreateSymbolPrices(SymbolRegistry.register(trade));
+		prices.logPricesSum.add(logPrice);
+		prices.pricesCount.increment();
+
+		synchronized (prices) {
+			if (!prices.hasLatestPrice || timestamp >= prices.latestTimestamp) {
+				prices.hasLatestPrice = true;
+				prices.latestTimestamp = timestamp;
+				prices.latestLogPrice = logPrice;
+			}
+		}
+	}
+
+	/**
+	 * Removes the expired trade price from the all trades index. The retention policy removes the
+	 * oldest trades of a stock first, so the latest price of a stock is only dropped once all its
+	 * trades expired.
+	 */
+	public void onTradeExpired(Trade trade) {
+		SymbolPrices prices = symbolPrices.get(SymbolRegistry.register(trade));
+		if (prices == null) {
+			return;
+		}
+
+		prices.logPricesSum.add(-Math.log(trade.getPrice()));
+		prices.pricesCount.decrement();
+
+		synchronized (prices) {
+			if (prices.pricesCount.sum() <= 0) {
+				prices.hasLatestPrice = false;
+			}
+		}
+	}
+
+	/**
+	 * @return the geometric mean of the prices of all recorded trades or {@link Double#NaN} if no
+	 *         trade has been recorded
+	 */
+	public double getAllTradesIndex() {
+		double logPricesSum = 0.0;
+		long pricesCount = 0;
+		for (SymbolPrices prices : symbolPrices) {
+			long count = prices.pricesCount.sum();
+			if (count > 0) {
+				logPricesSum += prices.logPricesSum.sum();
+				pricesCount += count;
+			}
+		}
+
+		if (pricesCount == 0) {
+			return Double.NaN;
+		}
+		return Math.exp(logPricesSum / pricesCount);
+	}
+
+	/**
+	 * @return the geometric mean of the latest traded price of each stock or {@link Double#NaN} if
+	 *         no trade has been recorded
+	 */
+	public double getLatestPricesIndex() {
+		double latestLogPricesSum = 0.0;
+		int latestPricesCount = 0;
+		for (SymbolPrices prices : symbolPrices) {
+			synchronized (prices) {
+				if (prices.hasLatestPrice) {
+					latestLogPricesSum += prices.latestLogPrice;
+					latestPricesCount++;
+				}
+			}
+		}
+
+		if (latestPricesCount == 0) {
+			return Double.NaN;
+		}
+		return Math.exp(latestLogPricesSum / latestPricesCount);
+	}
+
+	/**
+	 * @return the number of prices the all trades index is the geometric mean of, its weight when
+	 *         combined with the indices of other calculators
+	 */
+	public long getPricesCount() {
+		long pricesCount = 0;
+		for (SymbolPrices prices : symbolPrices) {
+			pricesCount += Math.max(0, prices.pricesCount.sum());
+		}
+		return pricesCount;
+	}
+
+	/**
+	 * @return the number of stocks the latest prices index is the geometric mean of, its weight
+	 *         when combined with the indices of other calculators
+	 */
+	public int getLatestPricesCount() {
+		int latestPricesCount = 0;
+		for (SymbolPrices prices : symbolPrices) {
+			synchronized (prices) {
+				if (prices.hasLatestPrice) {
+					latestPricesCount++;
+				}
+			}
+		}
+		return latestPricesCount;
+	}
+
+	private SymbolPrices getOrCreateSymbolPrices(int stockId) {
+		SymbolPrices prices = symbolPrices.get(stockId);
+		if (prices == null) {
+			SymbolPrices newPrices = new SymbolPrices();
+			prices = symbolPrices.putIfAbsent(stockId, newPrices);
+			if (prices == null) {
+				prices = newPrices;
+			}
+		}
+		return prices;
+	}
+
+	/**
+	 * Prices of a stock: the log prices sum and count of its trades, and its latest traded price,
+	 * guarded by the instance.
+	 */
+	private static class SymbolPrices {
+		private final DoubleAdder logPricesSum = new DoubleAdder();
+		private final LongAdder pricesCount = new LongAdder();
+
+		private boolean hasLatestPrice;
+		private long latestTimestamp;
+		private double latestLogPrice;
+	}
+}
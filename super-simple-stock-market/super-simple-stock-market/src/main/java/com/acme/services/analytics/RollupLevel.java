@@ -0,0 +1,95 @@
+package com.acme.services.analytics;
+
+import com.acme.domain.TradeAggregate;
+
+/**
+ * Ring of consecutive fixed size time buckets of a single stock. A bucket slot is reused once the
+ * ring has moved past it, so the level retains the buckets of the latest
+ * <code>bucketsCount * durationMillis</code> milliseconds only, relative to the newest recorded
+ * trade.
+ * 
+ * <p>
+ * Not thread safe, guarded by the owning {@link TradeRollupEngine}.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class RollupLevel {
+	private final String stockSymbol;
+	private final long durationMillis;
+
+	private final TradeAggregate[] buckets;
+
+	/**
+	 * Index (start timestamp / duration) of the newest bucket, {@link Long#MIN_VALUE} if no trade
+	 * has been recorded yet.
+	 */
+	private long newestIndex = Long.MIN_VALUE;
+
+	RollupLevel(String stockSymbol, long durationMillis, int bucketsCount) {
+		this.stockSymbol = stockSymbol;
+		this.durationMillis = durationMillis;
+		this.buckets = new TradeAggregate[bucketsCount];
+	}
+
+	/**
+	 * Adds a trade to its bucket. Trades older than the retained buckets are ignored.
+	 */
+	void add(long timestamp, double price, int quantity) {
+		long index = Math.floorDiv(timestamp, durationMillis);
+		if (newestIndex != Long.MIN_VALUE && index <= newestIndex - buckets.length) {
+			return;
+		}
+
+		int slot = (int) Math.floorMod(index, (long) buckets.length);
+		long startTimestamp = index * durationMillis;
+
+		TradeAggregate bucket = buckets[slot];
+		if (bucket == null || bucket.getStartTimestamp() != startTimestamp) {
+			bucket = new TradeAggregate(stockSymbol, startTimestamp, durationMillis);
+			buckets[slot] = bucket;
+		}
+		bucket.add(timestamp, price, quantity);
+
+		if (index > newestIndex) {
+			newestIndex = index;
+		}
+	}
+
+	/**
+	 * @return true if the bucket starting at the passed in timestamp is still retained, or lies
+	 *         after the newest one
+	 */
+	boolean retains(long startTimestamp) {
+		return newestIndex != Long.MIN_VALUE && Math.floorDiv(startTimestamp, durationMillis) > newestIndex - buckets.length;
+	}
+
+	/**
+	 * @return the start timestamp of the oldest retained bucket, {@link Long#MIN_VALUE} if no trade
+	 *         has been recorded yet
+	 */
+	long oldestStartTimestamp() {
+		return newestIndex == Long.MIN_VALUE ? Long.MIN_VALUE : (newestIndex - buckets.length + 1) * durationMillis;
+	}
+
+	/**
+	 * @return the end timestamp (inclusive) of the newest bucket, {@link Long#MIN_VALUE} if no
+	 *         trade has been recorded yet
+	 */
+	long newestEndTimestamp() {
+		return newestIndex == Long.MIN_VALUE ? Long.MIN_VALUE : (newestIndex + 1) * durationMillis - 1;
+	}
+
+	/**
+	 * @return the bucket starting at the passed in timestamp, or null if it holds no trades
+	 */
+	TradeAggregate bucket(long startTimestamp) {
+		TradeAggregate bucket = buckets[(int) Math.floorMod(Math.floorDiv(startTimestamp, durationMillis), (long) buckets.length)];
+		return bucket != null && bucket.getStartTimestamp() == startTimestamp ? bucket : null;
+	}
+
+	long getDurationMillis() {
+		return durationMillis;
+	}
+}
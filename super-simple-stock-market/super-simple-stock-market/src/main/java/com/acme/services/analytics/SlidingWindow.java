@@ -0,0 +1,137 @@
+package com.acme.services.analytics;
+
+/**
+ * Time based sliding window keeping the running sums needed by a volume weighted price: the sum of
+ * price * quantity and the sum of quantities of all trades inside the window. Trades are kept in a
+ * ring buffer so they can be subtracted from the sums once they age out.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class SlidingWindow {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The window length in milliseconds.
+	 */
+	private final long lengthInMillis;
+
+	private long[] timestamps;
+	private double[] tradedValues;
+	private int[] quantities;
+
+	/**
+	 * Ring buffer index of the oldest trade in the window.
+	 */
+	private int head;
+	/**
+	 * Number of trades currently inside the window.
+	 */
+	private int size;
+
+	private double tradedValueSum;
+	private long quantitySum;
+
+	SlidingWindow(int lengthInMinutes) {
+		this.lengthInMillis = lengthInMinutes * 60L * 1000L;
+
+		this.timestamps = new long[INITIAL_CAPACITY];
+		this.tradedValues = new double[INITIAL_CAPACITY];
+		this.quantities = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Adds a trade to the window, evicting the trades which aged out relative to the newest one.
+	 * Trades are expected to arrive in timestamp order; an older trade is inserted at its sorted
+	 * position so the trades still age out oldest first, and a trade already older than the window
+	 * is ignored.
+	 */
+	synchronized void add(long timestamp, double price, int quantity) {
+		long newestTimestamp = size == 0 ? timestamp : Math.max(timestamp, timestamps[(head + size - 1) & (timestamps.length - 1)]);
+		evictOlderThan(newestTimestamp - lengthInMillis);
+
+		if (timestamp < newestTimestamp - lengthInMillis) {
+			return;
+		}
+
+		if (size == timestamps.length) {
+			grow();
+		}
+
+		int mask = timestamps.length - 1;
+
+		// shift the newer trades one slot towards the tail
+		int position = size;
+		while (position > 0 && timestamps[(head + position - 1) & mask] > timestamp) {
+			int from = (head + position - 1) & mask;
+			int to = (head + position) & mask;
+			timestamps[to] = timestamps[from];
+			tradedValues[to] = tradedValues[from];
+			quantities[to] = quantities[from];
+			position--;
+		}
+
+		int index = (head + position) & mask;
+		timestamps[index] = timestamp;
+		tradedValues[index] = price * quantity;
+		quantities[index] = quantity;
+		size++;
+
+		tradedValueSum += price * quantity;
+		quantitySum += quantity;
+	}
+
+	/**
+	 * Evicts the trades older than the window length, relative to the passed in time, and returns
+	 * the volume weighted price of the remaining ones.
+	 * 
+	 * @param currentTime
+	 *            the current time, as epoch milliseconds
+	 * @return the volume weighted price or {@link Double#NaN} if the window holds no trades
+	 */
+	synchronized double volumeWeightedPrice(long currentTime) {
+		evictOlderThan(currentTime - lengthInMillis);
+
+		if (quantitySum == 0) {
+			return Double.NaN;
+		}
+
+		return tradedValueSum / quantitySum;
+	}
+
+	private void evictOlderThan(long fromTimestamp) {
+		int mask = timestamps.length - 1;
+		while (size > 0 && timestamps[head] < fromTimestamp) {
+			tradedValueSum -= tradedValues[head];
+			quantitySum -= quantities[head];
+			head = (head + 1) & mask;
+			size--;
+		}
+
+		if (size == 0) {
+			// start over from exact zeros, so rounding errors do not accumulate across idle periods
+			tradedValueSum = 0.0;
+			quantitySum = 0;
+		}
+	}
+
+	private void grow() {
+		int capacity = timestamps.length << 1;
+
+		long[] newTimestamps = new long[capacity];
+		double[] newTradedValues = new double[capacity];
+		int[] newQuantities = new int[capacity];
+
+		for (int i = 0; i < size; i++) {
+			int index = (head + i) & (timestamps.length - 1);
+			newTimestamps[i] = timestamps[index];
+			newTradedValues[i] = tradedValues[index];
+			newQuantities[i] = quantities[index];
+		}
+
+		timestamps = newTimestamps;
+		tradedValues = newTradedValues;
+		quantities = newQuantities;
+		head = 0;
+	}
+}
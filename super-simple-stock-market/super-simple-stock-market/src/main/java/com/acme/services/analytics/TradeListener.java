@@ -0,0 +1,21 @@
+package com.acme.services.analytics;
+
+import com.acme.domain.Trade;
+
+/**
+ * Interface defining the contract of a component which needs to be notified about every trade
+ * successfully recorded by the trades businesslogic service.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface TradeListener {
+	/**
+	 * Called after a trade has been persisted. Implementations must not modify the trade and are
+	 * expected to return quickly, since they are invoked on the trade recording thread.
+	 * 
+	 * @param trade
+	 *            the recorded trade, carrying its final timestamp
+	 */
+	void onTrade(Trade trade);
+}
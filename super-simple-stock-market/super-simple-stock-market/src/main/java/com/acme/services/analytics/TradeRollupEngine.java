@@ -0,0 +1,236 @@
+package com.acme.services.analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeAggregate;
+import com.acme.util.SymbolTable;
+
+/**
+ * Streaming OHLCV rollup engine. For every stock it keeps rings of time buckets of several sizes
+ * (by default 1 second, 1 minute, 5 minutes and 1 hour), each bucket holding the open, high, low
+ * and close prices, the volume, the turnover and the trades count of its trades, updated as trades
+ * are recorded.
+ * 
+ * <p>
+ * An arbitrary window is answered by merging the largest buckets fitting inside it and the finer
+ * ones at its edges, so the cost of a query depends on the number of bucket sizes and not on the
+ * number of trades. The window edges are widened to the finest buckets still retained at their
+ * time.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeRollupEngine implements TradeListener {
+	/**
+	 * The bucket sizes in milliseconds, finest first, each a multiple of the previous one.
+	 */
+	private long[] bucketsMillis = { 1000L, 60L * 1000L, 5L * 60L * 1000L, 60L * 60L * 1000L };
+
+	/**
+	 * The number of buckets retained for each bucket size: 5 minutes of seconds, 4 hours of
+	 * minutes, a day of 5 minutes and a week of hours.
+	 */
+	private int[] bucketsCounts = { 300, 240, 288, 168 };
+
+	/**
+	 * Rollup levels for each stock symbol id, finest first, each array guarded by itself.
+	 */
+	private final SymbolTable<RollupLevel[]> levelsTable = new SymbolTable<RollupLevel[]>();
+
+	/**
+	 * Records a trade into all bucket sizes of its stock.
+	 */
+	public void onTrade(Trade trade) {
+		long timestamp = trade.getTimestampMillis();
+
+		RollupLevel[] levels = getOrCreateLevels(SymbolRegistry.register(trade));
+		synchronized (levels) {
+			for (RollupLevel level : levels) {
+				level.add(timestamp, trade.getPrice(), trade.getQuantity());
+			}
+		}
+	}
+
+	/**
+	 * Aggregates the trades of a stock recorded inside a time window.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @param fromTimestamp
+	 *            the window start, as epoch milliseconds, rounded down to the finest bucket
+	 *            retained at that time
+	 * @param toTimestamp
+	 *            the window end (inclusive), as epoch milliseconds, rounded up to the finest bucket
+	 *            retained at that time, possibly far in the future, such as {@link Long#MAX_VALUE}
+	 *            for an open-ended window
+	 * @return the aggregate over the window, with no trades if none has been recorded inside it
+	 */
+	public TradeAggregate aggregate(String stockSymbol, long fromTimestamp, long toTimestamp) {
+		return aggregate(SymbolRegistry.idOf(stockSymbol), stockSymbol, fromTimestamp, toTimestamp);
+	}
+
+	/**
+	 * Aggregates the trades of a stock recorded inside a time window.
+	 * 
+	 * @param stockId
+	 *            the stock symbol id, see {@link SymbolRegistry}
+	 * @param fromTimestamp
+	 *            the window start, see {@link #aggregate(String, long, long)}
+	 * @param toTimestamp
+	 *            the window end (inclusive), see {@link #aggregate(String, long, long)}
+	 * @return the aggregate over the window, with no trades if none has been recorded inside it
+	 */
+	public TradeAggregate aggregate(int stockId, long fromTimestamp, long toTimestamp) {
+		return aggregate(stockId, SymbolRegistry.symbolOf(stockId), fromTimestamp, toTimestamp);
+	}
+
+	private TradeAggregate aggregate(int stockId, String stockSymbol, long fromTimestamp, long toTimestamp) {
+		if (toTimestamp < fromTimestamp) {
+			throw new IllegalArgumentException("Invalid window: [" + fromTimestamp + ", " + toTimestamp + "].");
+		}
+
+		TradeAggregate aggregate = new TradeAggregate(stockSymbol, fromTimestamp, toTimestamp - fromTimestamp);
+
+		RollupLevel[] levels = levelsTable.get(stockId);
+		if (levels == null) {
+			return aggregate;
+		}
+
+		synchronized (levels) {
+			long timestamp = startTimestamp(levels, fromTimestamp);
+			if (timestamp == Long.MIN_VALUE) {
+				return aggregate;
+			}
+
+			// no bucket holds trades past the newest finest one, which bounds the walk of a far-future window end
+			long endTimestamp = Math.min(toTimestamp, levels[0].newestEndTimestamp());
+
+			while (timestamp <= endTimestamp) {
+				RollupLevel level = coarsestFullLevel(levels, timestamp, toTimestamp);
+				if (level == null) {
+					level = finestLevel(levels, timestamp);
+					if (level == null) {
+						break;
+					}
+				}
+
+				TradeAggregate bucket = level.bucket(timestamp);
+				if (bucket != null) {
+					aggregate.merge(bucket);
+				}
+
+				timestamp += level.getDurationMillis();
+			}
+		}
+
+		return aggregate;
+	}
+
+	/**
+	 * @return the start of the finest retained bucket holding the window start, the oldest retained
+	 *         bucket if the window starts before all of them, {@link Long#MIN_VALUE} if no trade
+	 *         has been recorded
+	 */
+	private static long startTimestamp(RollupLevel[] levels, long fromTimestamp) {
+		for (RollupLevel level : levels) {
+			long startTimestamp = fromTimestamp - Math.floorMod(fromTimestamp, level.getDurationMillis());
+			if (level.retains(startTimestamp)) {
+				return startTimestamp;
+			}
+		}
+
+		return levels[levels.length - 1].oldestStartTimestamp();
+	}
+
+	/**
+	 * @return the level with the largest retained bucket starting at the passed in timestamp and
+	 *         ending inside the window, or null if there is none
+	 */
+	private static RollupLevel coarsestFullLevel(RollupLevel[] levels, long timestamp, long toTimestamp) {
+		for (int i = levels.length - 1; i >= 0; i--) {
+			RollupLevel level = levels[i];
+			if (Math.floorMod(timestamp, level.getDurationMillis()) == 0 && timestamp + level.getDurationMillis() - 1 <= toTimestamp && level.retains(timestamp)) {
+				return level;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the level with the smallest retained bucket starting at the passed in timestamp, or
+	 *         null if there is none
+	 */
+	private static RollupLevel finestLevel(RollupLevel[] levels, long timestamp) {
+		for (RollupLevel level : levels) {
+			if (Math.floorMod(timestamp, level.getDurationMillis()) == 0 && level.retains(timestamp)) {
+				return level;
+			}
+		}
+		return null;
+	}
+
+	private RollupLevel[] getOrCreateLevels(int stockId) {
+		RollupLevel[] levels = levelsTable.get(stockId);
+		if (levels == null) {
+			RollupLevel[] newLevels = new RollupLevel[bucketsMillis.length];
+			for (int i = 0; i < bucketsMillis.length; i++) {
+				newLevels[i] = new RollupLevel(SymbolRegistry.symbolOf(stockId), bucketsMillis[i], bucketsCounts[i]);
+			}
+
+			levels = levelsTable.putIfAbsent(stockId, newLevels);
+			if (levels == null) {
+				levels = newLevels;
+			}
+		}
+		return levels;
+	}
+
+	/**
+	 * @return the bucket sizes in milliseconds, finest first
+	 */
+	public List<Long> getBucketsMillis() {
+		List<Long> buckets = new ArrayList<Long>(bucketsMillis.length);
+		for (long bucket : bucketsMillis) {
+			buckets.add(bucket);
+		}
+		return buckets;
+	}
+
+	/**
+	 * @param buckets
+	 *            the bucket sizes in milliseconds, each a multiple of the smaller ones, mapped to
+	 *            the number of buckets to be retained for them
+	 */
+	public void setBuckets(Map<Long, Integer> buckets) {
+		if (buckets.isEmpty()) {
+			throw new IllegalArgumentException("At least one bucket size is required.");
+		}
+
+		TreeMap<Long, Integer> sortedBuckets = new TreeMap<Long, Integer>(buckets);
+
+		long[] sizes = new long[sortedBuckets.size()];
+		int[] counts = new int[sortedBuckets.size()];
+		int i = 0;
+		for (Map.Entry<Long, Integer> bucket : sortedBuckets.entrySet()) {
+			sizes[i] = bucket.getKey();
+			counts[i] = bucket.getValue();
+			if (sizes[i] <= 0 || counts[i] <= 0) {
+				throw new IllegalArgumentException("Invalid bucket: [" + sizes[i] + "] milliseconds, [" + counts[i] + "] retained.");
+			}
+			if (i > 0 && sizes[i] % sizes[i - 1] != 0) {
+				throw new IllegalArgumentException("Bucket of [" + sizes[i] + "] milliseconds is not a multiple of [" + sizes[i - 1] + "] milliseconds.");
+			}
+			i++;
+		}
+
+		this.bucketsMillis = sizes;
+		this.bucketsCounts = counts;
+		this.levelsTable.clear();
+	}
+}
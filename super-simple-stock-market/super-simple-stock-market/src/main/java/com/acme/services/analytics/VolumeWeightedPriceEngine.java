@@ -0,0 +1,167 @@
+package com.acme.services.analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.util.Clock;
+import com.acme.util.SymbolTable;
+import com.acme.util.SystemClock;
+
+/**
+ * Streaming Volume Weighted Stock Price engine. For every stock and every configured window it
+ * keeps the running sums of price * quantity and of quantities, updated as trades are recorded and
+ * as they age out of the window, so reading a volume weighted price costs O(1) and does not depend
+ * on the size of the trades history.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class VolumeWeightedPriceEngine implements TradeListener {
+	/**
+	 * The maximum window length which can be configured, in minutes.
+	 */
+	private static final int MAX_WINDOW_IN_MINUTES = 24 * 60;
+
+	/**
+	 * For each supported window length (in minutes) the position of its sliding window inside the
+	 * per stock windows array, or -1 if the window length is not tracked.
+	 */
+	private int[] windowPositions = new int[0];
+
+	/**
+	 * The configured windows lengths in minutes.
+	 */
+	private int[] windowsInMinutes = new int[0];
+
+	/**
+	 * Sliding windows for each stock symbol id, ordered as the configured windows lengths.
+	 */
+	private final SymbolTable<SlidingWindow[]> windowsTable = new SymbolTable<SlidingWindow[]>();
+
+	/**
+	 * Clock the windows are evaluated against.
+	 */
+	private Clock clock = SystemClock.INSTANCE;
+
+	/**
+	 * Records a trade into all configured windows of its stock.
+	 */
+	public void onTrade(Trade trade) {
+		long timestamp = trade.getTimestampMillis();
+
+		for (SlidingWindow window : getOrCreateWindows(SymbolRegistry.register(trade))) {
+			window.add(timestamp, trade.getPrice(), trade.getQuantity());
+		}
+	}
+
+	/**
+	 * Checks whether a window length is tracked by this engine.
+	 * 
+	 * @param ageInMinutes
+	 *            the window length in minutes
+	 * @return true if volume weighted prices for this window can be read from the engine
+	 */
+	public boolean supportsWindow(int ageInMinutes) {
+		return ageInMinutes > 0 && ageInMinutes < windowPositions.length && windowPositions[ageInMinutes] >= 0;
+	}
+
+	/**
+	 * Returns the volume weighted price of the trades recorded for a stock inside a tracked window.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @param ageInMinutes
+	 *            the window length in minutes, must be a tracked one
+	 * @return the volume weighted price or {@link Double#NaN} if no trades are inside the window
+	 */
+	public double getVolumeWeightedPrice(String stockSymbol, int ageInMinutes) {
+		return getVolumeWeightedPrice(SymbolRegistry.idOf(stockSymbol), ageInMinutes);
+	}
+
+	/**
+	 * Returns the volume weighted price of the trades recorded for a stock inside a tracked window.
+	 * 
+	 * @param stockId
+	 *            the stock symbol id, see {@link SymbolRegistry}
+	 * @param ageInMinutes
+	 *            the window length in minutes, must be a tracked one
+	 * @return the volume weighted price or {@link Double#NaN} if no trades are inside the window
+	 */
+	public double getVolumeWeightedPrice(int stockId, int ageInMinutes) {
+		if (!supportsWindow(ageInMinutes)) {
+			throw new IllegalArgumentException("Window of [" + ageInMinutes + "] minutes is not tracked by this engine.");
+		}
+
+		SlidingWindow[] windows = windowsTable.get(stockId);
+		if (windows == null) {
+			return Double.NaN;
+		}
+
+		return windows[windowPositions[ageInMinutes]].volumeWeightedPrice(clock.currentTimeMillis());
+	}
+
+	private SlidingWindow[] getOrCreateWindows(int stockId) {
+		SlidingWindow[] windows = windowsTable.get(stockId);
+		if (windows == null) {
+			SlidingWindow[] newWindows = new SlidingWindow[windowsInMinutes.length];
+			for (int i = 0; i < windowsInMinutes.length; i++) {
+				newWindows[i] = new SlidingWindow(windowsInMinutes[i]);
+			}
+
+			windows = windowsTable.putIfAbsent(stockId, newWindows);
+			if (windows == null) {
+				windows = newWindows;
+			}
+		}
+		return windows;
+	}
+
+	/**
+	 * @return the windows lengths (in minutes) tracked by this engine
+	 */
+	public List<Integer> getWindowsInMinutes() {
+		List<Integer> windows = new ArrayList<Integer>(windowsInMinutes.length);
+		for (int window : windowsInMinutes) {
+			windows.add(window);
+		}
+		return windows;
+	}
+
+	/**
+	 * @param windowsInMinutes
+	 *            the windows lengths (in minutes) to be tracked by this engine
+	 */
+	public void setWindowsInMinutes(List<Integer> windowsInMinutes) {
+		int[] windows = new int[windowsInMinutes.size()];
+		int maxWindow = 0;
+		for (int i = 0; i < windows.length; i++) {
+			windows[i] = windowsInMinutes.get(i);
+			if (windows[i] <= 0 || windows[i] > MAX_WINDOW_IN_MINUTES) {
+				throw new IllegalArgumentException("Invalid window length: [" + windows[i] + "] minutes.");
+			}
+			maxWindow = Math.max(maxWindow, windows[i]);
+		}
+
+		int[] positions = new int[maxWindow + 1];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = -1;
+		}
+		for (int i = 0; i < windows.length; i++) {
+			positions[windows[i]] = i;
+		}
+
+		this.windowsInMinutes = windows;
+		this.windowPositions = positions;
+		this.windowsTable.clear();
+	}
+
+	/**
+	 * @param clock
+	 *            the clock the windows are evaluated against
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+}
@@ -1,5 +1,9 @@
 package com.acme.services.businesslogic;
 
+import java.util.Date;
+
+import com.acme.domain.TradeAggregate;
+
 /**
  * Interfaces defining the general contract (operations) a businesslogic stock market service must
  * obey to.
@@ -20,6 +24,21 @@ public interface StockMarketService {
 	 */
 	double calculateDividentYield(String stockSymbol, double price) throws BusinesslogicException;
 
+	/**
+	 * Calculates the dividend yield for a given stock and price, reporting an unknown stock or an
+	 * invalid price through the returned value instead of an exception.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param price
+	 *            the price
+	 * @return the computed dividend yield value, {@link Double#NaN} where
+	 *         {@link #calculateDividentYield(String, double)} would fail
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	double tryCalculateDividentYield(String stockSymbol, double price) throws BusinesslogicException;
+
 	/**
 	 * Calculates the P/E ratio for a given stock and price.
 	 * 
@@ -32,6 +51,77 @@ public interface StockMarketService {
 	 */
 	double calculatePERatio(String stockSymbol, double price) throws BusinesslogicException;
 
+	/**
+	 * Calculates the P/E ratio for a given stock and price, reporting an unknown stock through the
+	 * returned value instead of an exception.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param price
+	 *            the price
+	 * @return the computed P/E ratio value, {@link Double#NaN} where
+	 *         {@link #calculatePERatio(String, double)} would fail
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	double tryCalculatePERatio(String stockSymbol, double price) throws BusinesslogicException;
+
+	/**
+	 * Calculates the dividend yields of several stocks and prices in a single call, reading all the
+	 * stocks at once.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols identifying the stocks
+	 * @param prices
+	 *            the prices, positioned as the stock symbols
+	 * @return the computed dividend yield values, positioned as the stock symbols,
+	 *         {@link Double#NaN} where {@link #calculateDividentYield(String, double)} would fail
+	 * @throws BusinesslogicException
+	 */
+	double[] calculateDividentYields(String[] stockSymbols, double[] prices) throws BusinesslogicException;
+
+	/**
+	 * Calculates the dividend yields of several stocks and prices in a single call, the stocks
+	 * being identified by their symbol ids.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}
+	 * @param prices
+	 *            the prices, positioned as the stock ids
+	 * @return the computed dividend yield values, positioned as the stock ids, {@link Double#NaN}
+	 *         for unknown stocks and invalid prices
+	 * @throws BusinesslogicException
+	 */
+	double[] calculateDividentYields(int[] stockIds, double[] prices) throws BusinesslogicException;
+
+	/**
+	 * Calculates the P/E ratios of several stocks and prices in a single call, reading all the
+	 * stocks at once.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols identifying the stocks
+	 * @param prices
+	 *            the prices, positioned as the stock symbols
+	 * @return the computed P/E ratio values, positioned as the stock symbols, {@link Double#NaN}
+	 *         where {@link #calculatePERatio(String, double)} would fail
+	 * @throws BusinesslogicException
+	 */
+	double[] calculatePERatios(String[] stockSymbols, double[] prices) throws BusinesslogicException;
+
+	/**
+	 * Calculates the P/E ratios of several stocks and prices in a single call, the stocks being
+	 * identified by their symbol ids.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}
+	 * @param prices
+	 *            the prices, positioned as the stock ids
+	 * @return the computed P/E ratio values, positioned as the stock ids, {@link Double#NaN} for
+	 *         unknown stocks
+	 * @throws BusinesslogicException
+	 */
+	double[] calculatePERatios(int[] stockIds, double[] prices) throws BusinesslogicException;
+
 	/**
 	 * Calculates the Volume Weighted Stock Price for the trades of a given stock and with a
 	 * specified age in minutes.
@@ -45,6 +135,82 @@ public interface StockMarketService {
 	 */
 	double calculateVolumeWeightedStockPrice(String stockSymbol, int ageInMinutes) throws BusinesslogicException;
 
+	/**
+	 * Calculates the Volume Weighted Stock Price for the trades of a given stock and with a
+	 * specified age in minutes, reporting an empty window through the returned value instead of an
+	 * exception.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param ageInMinutes
+	 *            the trades age in minutes
+	 * @return the computed volume weighted stock price, {@link Double#NaN} where
+	 *         {@link #calculateVolumeWeightedStockPrice(String, int)} would fail
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	double tryCalculateVolumeWeightedStockPrice(String stockSymbol, int ageInMinutes) throws BusinesslogicException;
+
+	/**
+	 * Calculates the Volume Weighted Stock Prices of several stocks at once, for the trades with a
+	 * specified age in minutes.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols identifying the stocks
+	 * @param ageInMinutes
+	 *            the trades age in minutes
+	 * @return the computed volume weighted stock prices, positioned as the stock symbols,
+	 *         {@link Double#NaN} for the stocks without matching trades
+	 * @throws BusinesslogicException
+	 */
+	double[] calculateVolumeWeightedStockPrices(String[] stockSymbols, int ageInMinutes) throws BusinesslogicException;
+
+	/**
+	 * Calculates the Volume Weighted Stock Prices of several stocks at once, the stocks being
+	 * identified by their symbol ids.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}
+	 * @param ageInMinutes
+	 *            the trades age in minutes
+	 * @return the computed volume weighted stock prices, positioned as the stock ids,
+	 *         {@link Double#NaN} for the stocks without matching trades
+	 * @throws BusinesslogicException
+	 */
+	double[] calculateVolumeWeightedStockPrices(int[] stockIds, int ageInMinutes) throws BusinesslogicException;
+
+	/**
+	 * Calculates the Volume Weighted Stock Price for the trades of a given stock recorded inside a
+	 * time window.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param from
+	 *            the window start
+	 * @param to
+	 *            the window end (inclusive)
+	 * @return the computed volume weighted stock price
+	 * @throws BusinesslogicException
+	 * @see #calculateTradeAggregate(String, Date, Date)
+	 */
+	double calculateVolumeWeightedStockPrice(String stockSymbol, Date from, Date to) throws BusinesslogicException;
+
+	/**
+	 * Calculates the open, high, low and close prices, the volume and the turnover of the trades of
+	 * a given stock recorded inside a time window. When answered from the pre-aggregated rollups,
+	 * the window edges are widened to the resolution of the rollups retained at their time.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param from
+	 *            the window start
+	 * @param to
+	 *            the window end (inclusive)
+	 * @return the computed aggregate
+	 * @throws BusinesslogicException
+	 */
+	TradeAggregate calculateTradeAggregate(String stockSymbol, Date from, Date to) throws BusinesslogicException;
+
 	/**
 	 * Calculates the GBCE All Share Index using the geometric mean of prices for all stocks.
 	 * 
@@ -52,4 +218,33 @@ public interface StockMarketService {
 	 * @throws BusinesslogicException
 	 */
 	double calculateGBCEAllShareIndex() throws BusinesslogicException;
+
+	/**
+	 * Calculates the GBCE All Share Index using the geometric mean of prices for all stocks,
+	 * reporting the absence of trades through the returned value instead of an exception.
+	 * 
+	 * @return the computed GBCE All Share Index, {@link Double#NaN} if there are no trades
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	double tryCalculateGBCEAllShareIndex() throws BusinesslogicException;
+
+	/**
+	 * Calculates the GBCE All Share Index as the geometric mean of the latest traded price of each
+	 * stock.
+	 * 
+	 * @return the computed GBCE All Share Index
+	 * @throws BusinesslogicException
+	 */
+	double calculateGBCEAllShareIndexOfLatestPrices() throws BusinesslogicException;
+
+	/**
+	 * Calculates the GBCE All Share Index as the geometric mean of the latest traded price of each
+	 * stock, reporting the absence of trades through the returned value instead of an exception.
+	 * 
+	 * @return the computed GBCE All Share Index, {@link Double#NaN} if there are no trades
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	double tryCalculateGBCEAllShareIndexOfLatestPrices() throws BusinesslogicException;
 }
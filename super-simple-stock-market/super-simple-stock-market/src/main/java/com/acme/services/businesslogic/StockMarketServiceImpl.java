@@ -1,17 +1,31 @@
 package com.acme.services.businesslogic;
 
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
 import com.acme.domain.Trade;
+import com.acme.domain.TradeAggregate;
+import com.acme.metrics.LatencyHistogram;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.analytics.TradeRollupEngine;
+import com.acme.services.analytics.VolumeWeightedPriceEngine;
 import com.acme.services.persistence.PersistenceException;
 import com.acme.services.persistence.StocksPersistenceService;
 import com.acme.services.persistence.TradesPersistenceService;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.util.Clock;
+import com.acme.util.LogThrottle;
 import com.acme.util.StringUtils;
+import com.acme.util.SystemClock;
 
 /**
  * Default implementation of the stock market business logic service.
@@ -25,6 +39,56 @@ public class StockMarketServiceImpl implements StockMarketService {
 	private StocksPersistenceService stocksPersistenceService;
 	private TradesPersistenceService tradesPersistenceService;
 
+	/**
+	 * Optional streaming engine answering volume weighted prices for the windows it tracks.
+	 */
+	private VolumeWeightedPriceEngine volumeWeightedPriceEngine;
+
+	/**
+	 * Optional incremental calculator answering the GBCE All Share Index variants, preferred to a
+	 * trades scan. It has to be notified of the trades compacted away, if any, to agree with the
+	 * scan.
+	 */
+	private AllShareIndexCalculator allShareIndexCalculator;
+
+	/**
+	 * Optional rollup engine answering the time window aggregates from pre-aggregated buckets.
+	 */
+	private TradeRollupEngine tradeRollupEngine;
+
+	/**
+	 * Pool splitting the bulk volume weighted price calculations larger than the parallelism
+	 * threshold across cores.
+	 */
+	private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+
+	/**
+	 * The number of stocks above which a bulk volume weighted price calculation is split across the
+	 * fork/join pool.
+	 */
+	private int parallelismThreshold = 256;
+
+	/**
+	 * Clock the time windows of the trades history queries are evaluated against.
+	 */
+	private Clock clock = SystemClock.INSTANCE;
+
+	/**
+	 * Throttles the warnings about the queries matching no trades, which are repeated on the hot
+	 * query paths while a stock is not traded.
+	 */
+	private LogThrottle noTradesWarnings = new LogThrottle(1000L);
+
+	private LatencyHistogram dividentYieldLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram dividentYieldsLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram peRatioLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram peRatiosLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram volumeWeightedStockPriceLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram volumeWeightedStockPricesLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram tradeAggregateLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram allShareIndexLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram allShareIndexOfLatestPricesLatency = LatencyHistogram.DISABLED;
+
 	/**
 	 * Calculates the dividend yield for a given stock and price.
 	 * 
@@ -36,12 +100,90 @@ public class StockMarketServiceImpl implements StockMarketService {
 	 * @throws BusinesslogicException
 	 */
 	public double calculateDividentYield(String stockSymbol, double price) throws BusinesslogicException {
-		if (price <= 0.0d) {
-			throw new BusinesslogicException("Cannot compute divident yield for price [" + price + "]");
+		long start = dividentYieldLatency.start();
+		try {
+			if (price <= 0.0d) {
+				throw new BusinesslogicException("Cannot compute divident yield for price [" + price + "]");
+			}
+
+			Stock stock = readStock(stockSymbol);
+
+			return dividentYield(stock, price);
+		} finally {
+			dividentYieldLatency.recordSince(start);
 		}
+	}
 
-		Stock stock = readStock(stockSymbol);
+	/**
+	 * Calculates the dividend yield for a given stock and price, reporting an unknown stock or an
+	 * invalid price through the returned value instead of an exception.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param price
+	 *            the price
+	 * @return the computed dividend yield value, {@link Double#NaN} where
+	 *         {@link #calculateDividentYield(String, double)} would fail
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	public double tryCalculateDividentYield(String stockSymbol, double price) throws BusinesslogicException {
+		long start = dividentYieldLatency.start();
+		try {
+			Stock stock = price > 0.0d ? findStock(stockSymbol) : null;
 
+			return stock == null ? Double.NaN : dividentYield(stock, price);
+		} finally {
+			dividentYieldLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * Calculates the dividend yields of several stocks and prices in a single call, reading all the
+	 * stocks at once.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols identifying the stocks
+	 * @param prices
+	 *            the prices, positioned as the stock symbols
+	 * @return the computed dividend yield values, positioned as the stock symbols,
+	 *         {@link Double#NaN} where {@link #calculateDividentYield(String, double)} would fail
+	 * @throws BusinesslogicException
+	 */
+	public double[] calculateDividentYields(String[] stockSymbols, double[] prices) throws BusinesslogicException {
+		return calculateDividentYields(stockIds(stockSymbols), prices);
+	}
+
+	/**
+	 * Calculates the dividend yields of several stocks and prices in a single call, the stocks
+	 * being identified by their symbol ids.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}
+	 * @param prices
+	 *            the prices, positioned as the stock ids
+	 * @return the computed dividend yield values, positioned as the stock ids, {@link Double#NaN}
+	 *         for unknown stocks and invalid prices
+	 * @throws BusinesslogicException
+	 */
+	public double[] calculateDividentYields(int[] stockIds, double[] prices) throws BusinesslogicException {
+		long start = dividentYieldsLatency.start();
+		try {
+			Stock[] stocks = readStocks(stockIds, prices);
+
+			// the arithmetic costs less than forking, only the stocks reading is worth batching
+			double[] dividentYields = new double[stocks.length];
+			for (int i = 0; i < stocks.length; i++) {
+				dividentYields[i] = stocks[i] == null || prices[i] <= 0.0d ? Double.NaN : dividentYield(stocks[i], prices[i]);
+			}
+
+			return dividentYields;
+		} finally {
+			dividentYieldsLatency.recordSince(start);
+		}
+	}
+
+	private static double dividentYield(Stock stock, double price) {
 		double dividentYield = 0.0;
 
 		switch (stock.getType()) {
@@ -67,18 +209,91 @@ public class StockMarketServiceImpl implements StockMarketService {
 	 * @throws BusinesslogicException
 	 */
 	public double calculatePERatio(String stockSymbol, double price) throws BusinesslogicException {
-		Stock stock = readStock(stockSymbol);
+		long start = peRatioLatency.start();
+		try {
+			Stock stock = readStock(stockSymbol);
 
-		double peRatio = 0.0;
+			double peRatio = 0.0;
 
+			try {
+				peRatio = price / stock.getLastDividend();
+			} catch (Exception e) {
+				logger.error("Caught divide by 0 due to stock's divident value");
+				throw new BusinesslogicException(e);
+			}
+
+			return peRatio;
+		} finally {
+			peRatioLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * Calculates the P/E ratio for a given stock and price, reporting an unknown stock through the
+	 * returned value instead of an exception.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param price
+	 *            the price
+	 * @return the computed P/E ratio value, {@link Double#NaN} where
+	 *         {@link #calculatePERatio(String, double)} would fail
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	public double tryCalculatePERatio(String stockSymbol, double price) throws BusinesslogicException {
+		long start = peRatioLatency.start();
 		try {
-			peRatio = price / stock.getLastDividend();
-		} catch (Exception e) {
-			logger.error("Caught divide by 0 due to stock's divident value");
-			throw new BusinesslogicException(e);
+			Stock stock = findStock(stockSymbol);
+
+			return stock == null ? Double.NaN : price / stock.getLastDividend();
+		} finally {
+			peRatioLatency.recordSince(start);
 		}
+	}
+
+	/**
+	 * Calculates the P/E ratios of several stocks and prices in a single call, reading all the
+	 * stocks at once.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols identifying the stocks
+	 * @param prices
+	 *            the prices, positioned as the stock symbols
+	 * @return the computed P/E ratio values, positioned as the stock symbols, {@link Double#NaN}
+	 *         where {@link #calculatePERatio(String, double)} would fail
+	 * @throws BusinesslogicException
+	 */
+	public double[] calculatePERatios(String[] stockSymbols, double[] prices) throws BusinesslogicException {
+		return calculatePERatios(stockIds(stockSymbols), prices);
+	}
+
+	/**
+	 * Calculates the P/E ratios of several stocks and prices in a single call, the stocks being
+	 * identified by their symbol ids.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}
+	 * @param prices
+	 *            the prices, positioned as the stock ids
+	 * @return the computed P/E ratio values, positioned as the stock ids, {@link Double#NaN} for
+	 *         unknown stocks
+	 * @throws BusinesslogicException
+	 */
+	public double[] calculatePERatios(int[] stockIds, double[] prices) throws BusinesslogicException {
+		long start = peRatiosLatency.start();
+		try {
+			Stock[] stocks = readStocks(stockIds, prices);
+
+			double[] peRatios = new double[stocks.length];
+			for (int i = 0; i < stocks.length; i++) {
+				peRatios[i] = stocks[i] == null ? Double.NaN : prices[i] / stocks[i].getLastDividend();
+			}
 
-		return peRatio;
+			return peRatios;
+		} finally {
+			peRatiosLatency.recordSince(start);
+		}
 	}
 
 	/**
@@ -93,35 +308,205 @@ public class StockMarketServiceImpl implements StockMarketService {
 	 * @throws BusinesslogicException
 	 */
 	public double calculateVolumeWeightedStockPrice(String stockSymbol, int maxAgeInMinutes) throws BusinesslogicException {
-		if (!StringUtils.isValid(stockSymbol)) {
-			throw new BusinesslogicException("Invalid stock symbol: [" + stockSymbol + "]");
+		long start = volumeWeightedStockPriceLatency.start();
+		try {
+			if (!StringUtils.isValid(stockSymbol)) {
+				throw new BusinesslogicException("Invalid stock symbol: [" + stockSymbol + "]");
+			}
+
+			double volumeWeightedStockPrice = volumeWeightedStockPrice(stockSymbol, maxAgeInMinutes);
+
+			if (Double.isNaN(volumeWeightedStockPrice)) {
+				String message = "No matching aged trades have been found for stock [" + stockSymbol + "], age in minutes: [" + maxAgeInMinutes + "]";
+				warnNoTrades(message);
+				throw new BusinesslogicException(message);
+			}
+
+			return volumeWeightedStockPrice;
+		} finally {
+			volumeWeightedStockPriceLatency.recordSince(start);
 		}
+	}
 
-		Collection<Trade> agedTrades = new LinkedList<Trade>();
+	/**
+	 * Calculates the Volume Weighted Stock Price for the trades of a given stock and with a
+	 * specified age in minutes, reporting an empty window through the returned value instead of an
+	 * exception.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param maxAgeInMinutes
+	 *            the trades age in minutes
+	 * @return the computed volume weighted stock price, {@link Double#NaN} where
+	 *         {@link #calculateVolumeWeightedStockPrice(String, int)} would fail
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	public double tryCalculateVolumeWeightedStockPrice(String stockSymbol, int maxAgeInMinutes) throws BusinesslogicException {
+		long start = volumeWeightedStockPriceLatency.start();
 		try {
-			agedTrades = tradesPersistenceService.listAgedTrades(stockSymbol, maxAgeInMinutes);
+			return StringUtils.isValid(stockSymbol) ? volumeWeightedStockPrice(stockSymbol, maxAgeInMinutes) : Double.NaN;
+		} finally {
+			volumeWeightedStockPriceLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * @return the volume weighted price of the trades of a stock with a specified age in minutes,
+	 *         or {@link Double#NaN} if there are no such trades
+	 */
+	private double volumeWeightedStockPrice(String stockSymbol, int maxAgeInMinutes) throws BusinesslogicException {
+		if (volumeWeightedPriceEngine != null && volumeWeightedPriceEngine.supportsWindow(maxAgeInMinutes)) {
+			return volumeWeightedPriceEngine.getVolumeWeightedPrice(stockSymbol, maxAgeInMinutes);
+		}
+
+		VolumeWeightedPriceAccumulator accumulator = new VolumeWeightedPriceAccumulator();
+		try {
+			tradesPersistenceService.visitAgedTrades(stockSymbol, maxAgeInMinutes, accumulator);
 		} catch (PersistenceException e) {
-			logger.error("Exception occurred while listing stock aged trades", e);
+			logger.error("Exception occurred while visiting stock aged trades", e);
 			throw new BusinesslogicException(e);
 		}
 
-		if (agedTrades == null || agedTrades.size() == 0) {
-			String message = "No matching aged trades have been found for stock [" + stockSymbol + "], age in minutes: [" + maxAgeInMinutes + "]";
-			logger.warn(message);
-			throw new BusinesslogicException(message);
-		}
+		return accumulator.tradesCount == 0 ? Double.NaN : accumulator.tradedValueSum / accumulator.quantitySum;
+	}
 
-		double numerator = 0.0;
-		double denominator = 0.0;
+	/**
+	 * Calculates the Volume Weighted Stock Prices of several stocks at once, for the trades with a
+	 * specified age in minutes. Batches larger than the parallelism threshold are split across the
+	 * fork/join pool.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols identifying the stocks
+	 * @param ageInMinutes
+	 *            the trades age in minutes
+	 * @return the computed volume weighted stock prices, positioned as the stock symbols,
+	 *         {@link Double#NaN} for the stocks without matching trades
+	 * @throws BusinesslogicException
+	 */
+	public double[] calculateVolumeWeightedStockPrices(String[] stockSymbols, int maxAgeInMinutes) throws BusinesslogicException {
+		return calculateVolumeWeightedStockPrices(stockIds(stockSymbols), maxAgeInMinutes);
+	}
+
+	/**
+	 * Calculates the Volume Weighted Stock Prices of several stocks at once, the stocks being
+	 * identified by their symbol ids. Batches larger than the parallelism threshold are split
+	 * across the fork/join pool.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}
+	 * @param ageInMinutes
+	 *            the trades age in minutes
+	 * @return the computed volume weighted stock prices, positioned as the stock ids,
+	 *         {@link Double#NaN} for the stocks without matching trades
+	 * @throws BusinesslogicException
+	 */
+	public double[] calculateVolumeWeightedStockPrices(final int[] stockIds, final int maxAgeInMinutes) throws BusinesslogicException {
+		long start = volumeWeightedStockPricesLatency.start();
+		try {
+			if (stockIds == null) {
+				throw new BusinesslogicException("Invalid stock ids: [null]");
+			}
 
-		for (Trade trade : agedTrades) {
-			numerator += trade.getPrice() * trade.getQuantity();
-			denominator += trade.getQuantity();
+			if (volumeWeightedPriceEngine != null && volumeWeightedPriceEngine.supportsWindow(maxAgeInMinutes)) {
+				return calculateBulk(new BulkCalculation(stockIds.length) {
+					@Override
+					double calculate(int index) {
+						return volumeWeightedPriceEngine.getVolumeWeightedPrice(stockIds[index], maxAgeInMinutes);
+					}
+				});
+			}
+
+			return calculateBulk(new BulkCalculation(stockIds.length) {
+				@Override
+				double calculate(int index) throws PersistenceException {
+					if (stockIds[index] == SymbolRegistry.NO_ID) {
+						return Double.NaN;
+					}
+
+					VolumeWeightedPriceAccumulator accumulator = new VolumeWeightedPriceAccumulator();
+					tradesPersistenceService.visitAgedTrades(stockIds[index], maxAgeInMinutes, accumulator);
+
+					return accumulator.tradesCount == 0 ? Double.NaN : accumulator.tradedValueSum / accumulator.quantitySum;
+				}
+			});
+		} finally {
+			volumeWeightedStockPricesLatency.recordSince(start);
 		}
+	}
+
+	/**
+	 * Calculates the Volume Weighted Stock Price for the trades of a given stock recorded inside a
+	 * time window.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param from
+	 *            the window start
+	 * @param to
+	 *            the window end (inclusive)
+	 * @return the computed volume weighted stock price
+	 * @throws BusinesslogicException
+	 */
+	public double calculateVolumeWeightedStockPrice(String stockSymbol, Date from, Date to) throws BusinesslogicException {
+		return calculateTradeAggregate(stockSymbol, from, to).getVolumeWeightedPrice();
+	}
+
+	/**
+	 * Calculates the open, high, low and close prices, the volume and the turnover of the trades of
+	 * a given stock recorded inside a time window.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol identifying the stock
+	 * @param from
+	 *            the window start
+	 * @param to
+	 *            the window end (inclusive)
+	 * @return the computed aggregate
+	 * @throws BusinesslogicException
+	 */
+	public TradeAggregate calculateTradeAggregate(String stockSymbol, Date from, Date to) throws BusinesslogicException {
+		long start = tradeAggregateLatency.start();
+		try {
+			if (!StringUtils.isValid(stockSymbol)) {
+				throw new BusinesslogicException("Invalid stock symbol: [" + stockSymbol + "]");
+			}
+
+			if (from == null || to == null || to.before(from)) {
+				throw new BusinesslogicException("Invalid time window: [" + from + ", " + to + "]");
+			}
+
+			TradeAggregate aggregate;
 
-		double volumeWeightedStockPrice = numerator / denominator;
+			if (tradeRollupEngine != null) {
+				aggregate = tradeRollupEngine.aggregate(stockSymbol, from.getTime(), to.getTime());
+			} else {
+				TradeAggregateAccumulator accumulator = new TradeAggregateAccumulator(stockSymbol, from.getTime(), to.getTime());
 
-		return volumeWeightedStockPrice;
+				// the aged trades are a superset of the window, the accumulator filters them
+				long ageInMillis = clock.currentTimeMillis() - from.getTime();
+				int maxAgeInMinutes = (int) Math.min(Integer.MAX_VALUE, Math.max(1L, (ageInMillis + 59999L) / 60000L));
+
+				try {
+					tradesPersistenceService.visitAgedTrades(stockSymbol, maxAgeInMinutes, accumulator);
+				} catch (PersistenceException e) {
+					logger.error("Exception occurred while visiting stock aged trades", e);
+					throw new BusinesslogicException(e);
+				}
+
+				aggregate = accumulator.aggregate;
+			}
+
+			if (aggregate.getTradesCount() == 0) {
+				String message = "No matching trades have been found for stock [" + stockSymbol + "], time window: [" + from + ", " + to + "]";
+				warnNoTrades(message);
+				throw new BusinesslogicException(message);
+			}
+
+			return aggregate;
+		} finally {
+			tradeAggregateLatency.recordSince(start);
+		}
 	}
 
 	/**
@@ -138,20 +523,118 @@ public class StockMarketServiceImpl implements StockMarketService {
 			throw new BusinesslogicException("Invalid stock symbol: [" + stockSymbol + "]");
 		}
 
-		Stock stock = null;
+		Stock stock = findStock(stockSymbol);
+
+		if (stock == null) {
+			throw new BusinesslogicException("Cannot match stock for symbol: [" + stockSymbol + "]");
+		}
+
+		return stock;
+	}
+
+	/**
+	 * Reads a stock definition from the persistent storage.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @return the stock, or null if the symbol is invalid or the stock cannot be found in the
+	 *         datastore
+	 * @throws BusinesslogicException
+	 *             if an error occurs
+	 */
+	private Stock findStock(String stockSymbol) throws BusinesslogicException {
+		if (!StringUtils.isValid(stockSymbol)) {
+			return null;
+		}
 
 		try {
-			stock = stocksPersistenceService.read(stockSymbol);
+			return stocksPersistenceService.read(stockSymbol);
 		} catch (PersistenceException e) {
 			logger.error("Exception occurred while reading stock", e);
 			throw new BusinesslogicException(e);
 		}
+	}
 
-		if (stock == null) {
-			throw new BusinesslogicException("Cannot match stock for symbol: [" + stockSymbol + "]");
+	/**
+	 * Resolves the symbol ids of a bulk calculation, {@link SymbolRegistry#NO_ID} for the unknown
+	 * and invalid symbols.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols
+	 * @return the stock ids, positioned as the stock symbols
+	 * @throws BusinesslogicException
+	 *             if no symbols are passed in.
+	 */
+	private static int[] stockIds(String[] stockSymbols) throws BusinesslogicException {
+		if (stockSymbols == null) {
+			throw new BusinesslogicException("Invalid stock symbols: [null]");
 		}
 
-		return stock;
+		int[] stockIds = new int[stockSymbols.length];
+		for (int i = 0; i < stockSymbols.length; i++) {
+			stockIds[i] = SymbolRegistry.idOf(stockSymbols[i]);
+		}
+		return stockIds;
+	}
+
+	/**
+	 * Reads the stock definitions of a bulk calculation from the persistent storage.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids
+	 * @param prices
+	 *            the prices, positioned as the stock ids
+	 * @return the stocks, null for the ids not found
+	 * @throws BusinesslogicException
+	 *             if an error occurs or the arguments do not match.
+	 */
+	private Stock[] readStocks(int[] stockIds, double[] prices) throws BusinesslogicException {
+		if (stockIds == null || prices == null || stockIds.length != prices.length) {
+			throw new BusinesslogicException("Stock symbols and prices must be given in pairs.");
+		}
+
+		try {
+			return stocksPersistenceService.readAll(stockIds);
+		} catch (PersistenceException e) {
+			logger.error("Exception occurred while reading stocks", e);
+			throw new BusinesslogicException(e);
+		}
+	}
+
+	/**
+	 * Runs a bulk calculation on the calling thread, or across the fork/join pool if it is larger
+	 * than the parallelism threshold and the pool has more than one worker.
+	 * 
+	 * @param calculation
+	 *            the calculation
+	 * @return the calculation results
+	 * @throws BusinesslogicException
+	 *             if the trades cannot be read.
+	 */
+	private double[] calculateBulk(BulkCalculation calculation) throws BusinesslogicException {
+		int count = calculation.results.length;
+
+		try {
+			if (count <= parallelismThreshold || forkJoinPool.getParallelism() < 2) {
+				calculation.calculate(0, count);
+			} else {
+				// a few tasks per worker, so the workers balance uneven symbols by stealing
+				int leafSize = Math.max(1, count / (forkJoinPool.getParallelism() * 4));
+				forkJoinPool.invoke(new BulkCalculationTask(calculation, 0, count, leafSize));
+			}
+		} catch (PersistenceException e) {
+			logger.error("Exception occurred while visiting stock aged trades", e);
+			throw new BusinesslogicException(e);
+		} catch (BulkCalculationException e) {
+			Throwable cause = e.getCause();
+			while (cause instanceof BulkCalculationException) {
+				cause = cause.getCause();
+			}
+			logger.error("Exception occurred while visiting stock aged trades", cause);
+			throw new BusinesslogicException(cause);
+		}
+
+		return calculation.results;
 	}
 
 	/**
@@ -161,27 +644,164 @@ public class StockMarketServiceImpl implements StockMarketService {
 	 * @throws BusinesslogicException
 	 */
 	public double calculateGBCEAllShareIndex() throws BusinesslogicException {
-		Collection<Trade> trades = new LinkedList<Trade>();
+		long start = allShareIndexLatency.start();
+		try {
+			return checkIndex(allShareIndex());
+		} finally {
+			allShareIndexLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * Calculates the GBCE All Share Index using the geometric mean of prices for all stocks,
+	 * reporting the absence of trades through the returned value instead of an exception.
+	 * 
+	 * @return the computed GBCE All Share Index, {@link Double#NaN} if there are no trades
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	public double tryCalculateGBCEAllShareIndex() throws BusinesslogicException {
+		long start = allShareIndexLatency.start();
+		try {
+			return allShareIndex();
+		} finally {
+			allShareIndexLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * @return the geometric mean of the prices of all trades, or {@link Double#NaN} if there are
+	 *         no trades
+	 */
+	private double allShareIndex() throws BusinesslogicException {
+		if (allShareIndexCalculator != null) {
+			return allShareIndexCalculator.getAllTradesIndex();
+		}
+
+		LogPricesAccumulator accumulator = new LogPricesAccumulator();
+		visitAllTrades(accumulator);
+
+		if (accumulator.tradesCount == 0) {
+			return Double.NaN;
+		}
+
+		// the geometric mean is computed in log space, a plain product overflows after a few hundred trades
+		double mean = Math.exp(accumulator.logPricesSum / accumulator.tradesCount);
+
+		return mean;
+	}
+
+	/**
+	 * Calculates the GBCE All Share Index as the geometric mean of the latest traded price of each
+	 * stock.
+	 * 
+	 * @return the computed GBCE All Share Index
+	 * @throws BusinesslogicException
+	 */
+	public double calculateGBCEAllShareIndexOfLatestPrices() throws BusinesslogicException {
+		long start = allShareIndexOfLatestPricesLatency.start();
 		try {
-			trades = tradesPersistenceService.listAllTrades();
+			return checkIndex(allShareIndexOfLatestPrices());
+		} finally {
+			allShareIndexOfLatestPricesLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * Calculates the GBCE All Share Index as the geometric mean of the latest traded price of each
+	 * stock, reporting the absence of trades through the returned value instead of an exception.
+	 * 
+	 * @return the computed GBCE All Share Index, {@link Double#NaN} if there are no trades
+	 * @throws BusinesslogicException
+	 *             if an internal error occurs
+	 */
+	public double tryCalculateGBCEAllShareIndexOfLatestPrices() throws BusinesslogicException {
+		long start = allShareIndexOfLatestPricesLatency.start();
+		try {
+			return allShareIndexOfLatestPrices();
+		} finally {
+			allShareIndexOfLatestPricesLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * @return the geometric mean of the latest traded price of each stock, or {@link Double#NaN}
+	 *         if there are no trades
+	 */
+	private double allShareIndexOfLatestPrices() throws BusinesslogicException {
+		if (allShareIndexCalculator != null) {
+			return allShareIndexCalculator.getLatestPricesIndex();
+		}
+
+		LatestPricesAccumulator accumulator = new LatestPricesAccumulator();
+		visitAllTrades(accumulator);
+
+		if (accumulator.tradesCount == 0) {
+			return Double.NaN;
+		}
+
+		double logPricesSum = 0.0;
+		for (LatestPrice latestPrice : accumulator.latestPrices.values()) {
+			logPricesSum += Math.log(latestPrice.price);
+		}
+
+		double mean = Math.exp(logPricesSum / accumulator.latestPrices.size());
+
+		return mean;
+	}
+
+	/**
+	 * Visits all trades from the persistent storage.
+	 * 
+	 * @param accumulator
+	 *            the accumulator visiting the trades
+	 * @throws BusinesslogicException
+	 *             if an error occurs
+	 */
+	private void visitAllTrades(TradesAccumulator accumulator) throws BusinesslogicException {
+		try {
+			tradesPersistenceService.visitAllTrades(accumulator);
 		} catch (PersistenceException e) {
 			logger.error("Exception occurred while reading trades information.", e);
 			throw new BusinesslogicException(e);
 		}
+	}
 
-		if (trades == null || trades.size() == 0) {
-			logger.warn("Unable to find any trades information.");
-			throw new BusinesslogicException("Unable to find any trades information.");
+	/**
+	 * Logs a warning about a query matching no trades, unless such a warning has already been
+	 * logged during the throttling interval.
+	 * 
+	 * @param message
+	 *            the warning message
+	 */
+	private void warnNoTrades(String message) {
+		if (!logger.isWarnEnabled() || !noTradesWarnings.tryAcquire()) {
+			return;
 		}
 
-		double product = 1.0;
-		for (Trade trade : trades) {
-			product = product * trade.getPrice();
+		long suppressedCount = noTradesWarnings.drainSuppressedCount();
+		if (suppressedCount == 0L) {
+			logger.warn(message);
+		} else {
+			logger.warn("{} [{} similar warnings suppressed]", message, suppressedCount);
 		}
+	}
 
-		double mean = Math.pow(product, 1.0 / trades.size());
-
-		return mean;
+	/**
+	 * Validates an index value, not a number if there are no trades.
+	 * 
+	 * @param index
+	 *            the index value
+	 * @return the index value
+	 * @throws BusinesslogicException
+	 *             if no trades have been recorded yet.
+	 */
+	private double checkIndex(double index) throws BusinesslogicException {
+		if (Double.isNaN(index)) {
+			warnNoTrades("Unable to find any trades information.");
+			throw new BusinesslogicException("Unable to find any trades information.");
+		}
+		return index;
 	}
 
 	/**
@@ -199,4 +819,222 @@ public class StockMarketServiceImpl implements StockMarketService {
 	public void setTradesPersistenceService(TradesPersistenceService tradesPersistenceService) {
 		this.tradesPersistenceService = tradesPersistenceService;
 	}
+
+	/**
+	 * @param volumeWeightedPriceEngine
+	 *            the volumeWeightedPriceEngine to set
+	 */
+	public void setVolumeWeightedPriceEngine(VolumeWeightedPriceEngine volumeWeightedPriceEngine) {
+		this.volumeWeightedPriceEngine = volumeWeightedPriceEngine;
+	}
+
+	/**
+	 * @param allShareIndexCalculator
+	 *            the allShareIndexCalculator to set
+	 */
+	public void setAllShareIndexCalculator(AllShareIndexCalculator allShareIndexCalculator) {
+		this.allShareIndexCalculator = allShareIndexCalculator;
+	}
+
+	/**
+	 * @param tradeRollupEngine
+	 *            the tradeRollupEngine to set
+	 */
+	public void setTradeRollupEngine(TradeRollupEngine tradeRollupEngine) {
+		this.tradeRollupEngine = tradeRollupEngine;
+	}
+
+	/**
+	 * @param forkJoinPool
+	 *            the pool running the large bulk calculations
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * @param parallelismThreshold
+	 *            the number of stocks above which a bulk volume weighted price calculation is split
+	 *            across the fork/join pool
+	 */
+	public void setParallelismThreshold(int parallelismThreshold) {
+		this.parallelismThreshold = Math.max(1, parallelismThreshold);
+	}
+
+	/**
+	 * @param clock
+	 *            the clock the time windows of the trades history queries are evaluated against
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * @param warningsIntervalMillis
+	 *            the minimum interval between two warnings about the queries matching no trades
+	 */
+	public void setWarningsIntervalMillis(long warningsIntervalMillis) {
+		this.noTradesWarnings = new LogThrottle(warningsIntervalMillis);
+	}
+
+	/**
+	 * @param metricsRegistry
+	 *            the registry of the calculations latencies
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		dividentYieldLatency = metricsRegistry.latencyHistogram("stockMarketService.calculateDividentYield");
+		dividentYieldsLatency = metricsRegistry.latencyHistogram("stockMarketService.calculateDividentYields");
+		peRatioLatency = metricsRegistry.latencyHistogram("stockMarketService.calculatePERatio");
+		peRatiosLatency = metricsRegistry.latencyHistogram("stockMarketService.calculatePERatios");
+		volumeWeightedStockPriceLatency = metricsRegistry.latencyHistogram("stockMarketService.calculateVolumeWeightedStockPrice");
+		volumeWeightedStockPricesLatency = metricsRegistry.latencyHistogram("stockMarketService.calculateVolumeWeightedStockPrices");
+		tradeAggregateLatency = metricsRegistry.latencyHistogram("stockMarketService.calculateTradeAggregate");
+		allShareIndexLatency = metricsRegistry.latencyHistogram("stockMarketService.calculateGBCEAllShareIndex");
+		allShareIndexOfLatestPricesLatency = metricsRegistry.latencyHistogram("stockMarketService.calculateGBCEAllShareIndexOfLatestPrices");
+	}
+
+	/**
+	 * A calculation over several stocks, each result depending on its own stock only.
+	 */
+	private static abstract class BulkCalculation {
+		final double[] results;
+
+		BulkCalculation(int count) {
+			this.results = new double[count];
+		}
+
+		void calculate(int from, int to) throws PersistenceException {
+			for (int i = from; i < to; i++) {
+				results[i] = calculate(i);
+			}
+		}
+
+		abstract double calculate(int index) throws PersistenceException;
+	}
+
+	/**
+	 * Splits a bulk calculation in halves down to the leaf size.
+	 */
+	private static class BulkCalculationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final BulkCalculation calculation;
+		private final int from;
+		private final int to;
+		private final int leafSize;
+
+		BulkCalculationTask(BulkCalculation calculation, int from, int to, int leafSize) {
+			this.calculation = calculation;
+			this.from = from;
+			this.to = to;
+			this.leafSize = leafSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= leafSize) {
+				try {
+					calculation.calculate(from, to);
+				} catch (PersistenceException e) {
+					throw new BulkCalculationException(e);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BulkCalculationTask(calculation, from, middle, leafSize), new BulkCalculationTask(calculation, middle, to, leafSize));
+			}
+		}
+	}
+
+	/**
+	 * Carries a {@link PersistenceException} out of the fork/join pool.
+	 */
+	private static class BulkCalculationException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BulkCalculationException(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Base class of the visitors folding the trades into the calculations, without keeping
+	 * references to the visited trades.
+	 */
+	private static abstract class TradesAccumulator implements DatastoreVisitor<Trade> {
+		int tradesCount;
+
+		public void visit(Trade trade) {
+			tradesCount++;
+			accumulate(trade);
+		}
+
+		abstract void accumulate(Trade trade);
+	}
+
+	private static class VolumeWeightedPriceAccumulator extends TradesAccumulator {
+		double tradedValueSum;
+		double quantitySum;
+
+		@Override
+		void accumulate(Trade trade) {
+			tradedValueSum += trade.getPrice() * trade.getQuantity();
+			quantitySum += trade.getQuantity();
+		}
+	}
+
+	private static class TradeAggregateAccumulator extends TradesAccumulator {
+		final long fromTimestamp;
+		final long toTimestamp;
+		final TradeAggregate aggregate;
+
+		TradeAggregateAccumulator(String stockSymbol, long fromTimestamp, long toTimestamp) {
+			this.fromTimestamp = fromTimestamp;
+			this.toTimestamp = toTimestamp;
+			this.aggregate = new TradeAggregate(stockSymbol, fromTimestamp, toTimestamp - fromTimestamp);
+		}
+
+		@Override
+		void accumulate(Trade trade) {
+			long timestamp = trade.getTimestampMillis();
+			if (timestamp >= fromTimestamp && timestamp <= toTimestamp) {
+				aggregate.add(timestamp, trade.getPrice(), trade.getQuantity());
+			}
+		}
+	}
+
+	private static class LogPricesAccumulator extends TradesAccumulator {
+		double logPricesSum;
+
+		@Override
+		void accumulate(Trade trade) {
+			logPricesSum += Math.log(trade.getPrice());
+		}
+	}
+
+	private static class LatestPricesAccumulator extends TradesAccumulator {
+		final Map<String, LatestPrice> latestPrices = new HashMap<String, LatestPrice>();
+
+		@Override
+		void accumulate(Trade trade) {
+			long timestamp = trade.getTimestampMillis();
+
+			LatestPrice latestPrice = latestPrices.get(trade.getStockSymbol());
+			if (latestPrice == null) {
+				latestPrices.put(trade.getStockSymbol(), new LatestPrice(timestamp, trade.getPrice()));
+			} else if (timestamp >= latestPrice.timestamp) {
+				latestPrice.timestamp = timestamp;
+				latestPrice.price = trade.getPrice();
+			}
+		}
+	}
+
+	private static class LatestPrice {
+		long timestamp;
+		double price;
+
+		LatestPrice(long timestamp, double price) {
+			this.timestamp = timestamp;
+			this.price = price;
+		}
+	}
 }
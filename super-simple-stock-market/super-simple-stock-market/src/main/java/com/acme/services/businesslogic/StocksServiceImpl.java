@@ -6,6 +6,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.acme.domain.Stock;
+import com.acme.services.events.MarketEventLog;
 import com.acme.services.persistence.PersistenceException;
 import com.acme.services.persistence.StocksPersistenceService;
 import com.acme.util.StringUtils;
@@ -24,6 +25,11 @@ public class StocksServiceImpl implements StocksService {
 	 */
 	private StocksPersistenceService stocksPersistenceService;
 
+	/**
+	 * Log the created stocks are appended to, optional.
+	 */
+	private MarketEventLog eventLog;
+
 	/**
 	 * Creates a new stock in the datastore.
 	 * 
@@ -52,6 +58,10 @@ public class StocksServiceImpl implements StocksService {
 			logger.error("Error occured while saving stock information to datastore.", e);
 			throw new BusinesslogicException(e);
 		}
+
+		if (eventLog != null) {
+			eventLog.appendStockCreated(stock);
+		}
 	}
 
 	/**
@@ -97,4 +107,12 @@ public class StocksServiceImpl implements StocksService {
 	public void setStocksPersistenceService(StocksPersistenceService stocksPersistenceService) {
 		this.stocksPersistenceService = stocksPersistenceService;
 	}
+
+	/**
+	 * @param eventLog
+	 *            the log the created stocks are appended to, or null if they are not
+	 */
+	public void setEventLog(MarketEventLog eventLog) {
+		this.eventLog = eventLog;
+	}
 }
@@ -0,0 +1,60 @@
+package com.acme.services.businesslogic;
+
+import com.acme.domain.Trade;
+
+/**
+ * Outcome of a trade submitted through {@link TradesService#createTrades(java.util.Collection)}:
+ * either created, or rejected with the reason {@link TradesService#createTrade(Trade)} would have
+ * failed with.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeResult {
+	/**
+	 * The submitted trade
+	 */
+	private final Trade trade;
+	/**
+	 * The outcome of the trade
+	 */
+	private final TradeStatus status;
+
+	TradeResult(Trade trade, TradeStatus status) {
+		this.trade = trade;
+		this.status = status;
+	}
+
+	/**
+	 * @return true if the trade has been created
+	 */
+	public boolean isCreated() {
+		return status.isCreated();
+	}
+
+	/**
+	 * @return the submitted trade, timestamped if it has been created
+	 */
+	public Trade getTrade() {
+		return trade;
+	}
+
+	/**
+	 * @return the outcome of the trade
+	 */
+	public TradeStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the rejection reason, null if the trade has been created
+	 */
+	public String getFailureReason() {
+		return status.getFailureReason(trade);
+	}
+
+	@Override
+	public String toString() {
+		return "TradeResult [trade=" + trade + ", status=" + status + "]";
+	}
+}
@@ -0,0 +1,58 @@
+package com.acme.services.businesslogic;
+
+import com.acme.domain.Trade;
+
+/**
+ * Outcome of a trade submitted through {@link TradesService#submitTrade(Trade)}: either created,
+ * or the reason it has been rejected. The failure messages, those
+ * {@link TradesService#createTrade(Trade)} fails with, are only built on demand.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public enum TradeStatus {
+	CREATED,
+	MISSING_TRADE,
+	MISSING_STOCK_SYMBOL,
+	INVALID_PRICE,
+	INVALID_QUANTITY,
+	MISSING_TRADE_TYPE,
+	UNKNOWN_STOCK,
+	INSUFFICIENT_SHARES,
+	SHARES_COUNT_OVERFLOW;
+
+	/**
+	 * @return true if the trade has been created
+	 */
+	public boolean isCreated() {
+		return this == CREATED;
+	}
+
+	/**
+	 * @param trade
+	 *            the submitted trade
+	 * @return the reason the trade has been rejected, or null if it has been created
+	 */
+	public String getFailureReason(Trade trade) {
+		switch (this) {
+			case MISSING_TRADE:
+				return "Received NULL trade information, cannot create trade.";
+			case MISSING_STOCK_SYMBOL:
+				return "Trade does not contain referenced stock information, cannot create trade.";
+			case INVALID_PRICE:
+				return "Invalid price specified for a trade: [" + trade.getPrice() + "], cannot create trade.";
+			case INVALID_QUANTITY:
+				return "Invalid quantity specified for a trade: [" + trade.getQuantity() + "], cannot create trade.";
+			case MISSING_TRADE_TYPE:
+				return "Trade does not contain trade type information, cannot create trade.";
+			case UNKNOWN_STOCK:
+				return "Stock symbol [" + trade.getStockSymbol() + "] does not reffer to an existing stock.";
+			case INSUFFICIENT_SHARES:
+				return "Trade quantity exceeds the number of availabsle shares in stock.";
+			case SHARES_COUNT_OVERFLOW:
+				return "Trade quantity exceeds the maximum number of shares in stock.";
+			default:
+				return null;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.acme.services.businesslogic;
 
 import java.util.Collection;
+import java.util.List;
 
 import com.acme.domain.Trade;
 
@@ -23,6 +24,32 @@ public interface TradesService {
 	 */
 	void createTrade(Trade trade) throws BusinesslogicException;
 
+	/**
+	 * Creates a new trade into the persistent storage, as {@link #createTrade(Trade)} does, but
+	 * reports a trade failing the businesslogic validation through the returned status instead of
+	 * an exception, so that rejecting a trade costs no more than creating it.
+	 * 
+	 * @param trade
+	 *            the new trade to be created
+	 * @return the outcome of the trade
+	 * @throws BusinesslogicException
+	 *             if an internal error occurrs.
+	 */
+	TradeStatus submitTrade(Trade trade) throws BusinesslogicException;
+
+	/**
+	 * Creates a batch of new trades into the persistent storage. The trades are validated as by
+	 * {@link #createTrade(Trade)}, the shares count of each stock is adjusted once by the net
+	 * quantity of its trades and the accepted trades are stored in a single operation.
+	 * 
+	 * @param trades
+	 *            the new trades to be created
+	 * @return the outcome of each trade, in the order of the passed in collection
+	 * @throws BusinesslogicException
+	 *             if an internal error occurrs.
+	 */
+	List<TradeResult> createTrades(Collection<Trade> trades) throws BusinesslogicException;
+
 	/**
 	 * Returns a collection of all trades defined into the datastore.
 	 * 
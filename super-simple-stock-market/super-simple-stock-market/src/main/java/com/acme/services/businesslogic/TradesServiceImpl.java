@@ -1,17 +1,30 @@
 package com.acme.services.businesslogic;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
 import com.acme.domain.Trade;
+import com.acme.metrics.Counter;
+import com.acme.metrics.LatencyHistogram;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.services.analytics.TradeListener;
+import com.acme.services.events.MarketEventLog;
 import com.acme.services.persistence.PersistenceException;
 import com.acme.services.persistence.StocksPersistenceService;
 import com.acme.services.persistence.TradesPersistenceService;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.util.Clock;
 import com.acme.util.StringUtils;
+import com.acme.util.SymbolTable;
+import com.acme.util.SystemClock;
 
 /**
  * Default implementation of the trades businesslogic service.
@@ -32,6 +45,26 @@ public class TradesServiceImpl implements TradesService {
 	 */
 	private TradesPersistenceService tradesPersistenceService;
 
+	/**
+	 * Listeners notified about every successfully recorded trade.
+	 */
+	private List<TradeListener> tradeListeners = Collections.emptyList();
+
+	/**
+	 * Log the recorded trades are appended to, optional.
+	 */
+	private MarketEventLog eventLog;
+
+	/**
+	 * Clock timestamping the created trades.
+	 */
+	private Clock clock = SystemClock.INSTANCE;
+
+	private LatencyHistogram createTradeLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram createTradesLatency = LatencyHistogram.DISABLED;
+	private Counter createdTradesCount = Counter.DISABLED;
+	private Counter rejectedTradesCount = Counter.DISABLED;
+
 	/**
 	 * Creates a new trade into the persistent storage.
 	 * 
@@ -42,62 +75,318 @@ public class TradesServiceImpl implements TradesService {
 	 *             businesslogic validation.
 	 */
 	public void createTrade(Trade trade) throws BusinesslogicException {
-		// perform simple businesslogic validation
+		TradeStatus status = submitTrade(trade);
+		if (!status.isCreated()) {
+			throw new BusinesslogicException(status.getFailureReason(trade));
+		}
+	}
+
+	/**
+	 * Creates a new trade into the persistent storage, reporting a rejected trade through the
+	 * returned status instead of an exception.
+	 * 
+	 * @param trade
+	 *            the new trade to be created
+	 * @return the outcome of the trade
+	 * @throws BusinesslogicException
+	 *             if an internal error occurrs.
+	 */
+	public TradeStatus submitTrade(Trade trade) throws BusinesslogicException {
+		long start = createTradeLatency.start();
+		try {
+			// perform simple businesslogic validation
+			TradeStatus failure = validate(trade);
+			if (failure != null) {
+				rejectedTradesCount.increment();
+				return failure;
+			}
+
+			int delta = delta(trade);
+
+			// adjust the shares count atomically, so concurrent trades on the same stock do not lose updates
+			int sharesCount = adjustSharesCount(trade.getStockId(), delta);
+
+			failure = adjustmentFailure(sharesCount, delta);
+			if (failure != null) {
+				rejectedTradesCount.increment();
+				return failure;
+			}
+
+			// always record the timestamp internally, do not take into account the passed in value
+			trade.setTimestampMillis(clock.currentTimeMillis());
+
+			try {
+				tradesPersistenceService.save(trade);
+			} catch (PersistenceException e) {
+				logger.error("Exception occurred while saving trade information to the datastore.", e);
+				revertSharesCount(trade.getStockId(), delta);
+				throw new BusinesslogicException(e);
+			}
+
+			createdTradesCount.increment();
+			if (eventLog != null) {
+				eventLog.appendTradeExecuted(trade);
+			}
+			notifyTradeListeners(trade);
+
+			return TradeStatus.CREATED;
+		} finally {
+			createTradeLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * Creates a batch of new trades into the persistent storage. The trades of a stock are
+	 * considered simultaneous: the shares count is checked against the net quantity of the batch,
+	 * and only if the net adjustment is out of range are the trades applied one by one, in order,
+	 * rejecting those which do not fit. If the created trades cannot be saved, the shares count
+	 * adjustments are reverted and none of the trades is recorded.
+	 * 
+	 * @param trades
+	 *            the new trades to be created
+	 * @return the outcome of each trade, in the order of the passed in collection
+	 * @throws BusinesslogicException
+	 *             if an internal error occurrs.
+	 */
+	public List<TradeResult> createTrades(Collection<Trade> trades) throws BusinesslogicException {
+		long start = createTradesLatency.start();
+		try {
+			if (trades == null) {
+				throw new BusinesslogicException("Received NULL trades batch, cannot create trades.");
+			}
+
+			Trade[] batch = trades.toArray(new Trade[trades.size()]);
+			TradeStatus[] failures = new TradeStatus[batch.length];
+
+			// validate and group the trades per stock id, preserving their order within each stock
+			SymbolTable<SymbolBatch> symbolBatches = new SymbolTable<SymbolBatch>();
+			for (int i = 0; i < batch.length; i++) {
+				failures[i] = validate(batch[i]);
+				if (failures[i] != null) {
+					continue;
+				}
+
+				int stockId = batch[i].getStockId();
+				if (stockId == SymbolRegistry.NO_ID) {
+					failures[i] = TradeStatus.UNKNOWN_STOCK;
+					continue;
+				}
+
+				SymbolBatch symbolBatch = symbolBatches.get(stockId);
+				if (symbolBatch == null) {
+					symbolBatch = new SymbolBatch(stockId);
+					symbolBatches.putIfAbsent(stockId, symbolBatch);
+				}
+				symbolBatch.add(i, delta(batch[i]));
+			}
+
+			for (SymbolBatch symbolBatch : symbolBatches) {
+				int stockId = symbolBatch.stockId;
+
+				if (symbolBatch.netDelta >= Integer.MIN_VALUE && symbolBatch.netDelta <= Integer.MAX_VALUE) {
+					int netDelta = (int) symbolBatch.netDelta;
+					int sharesCount = adjustSharesCount(stockId, netDelta);
+
+					if (sharesCount >= 0) {
+						symbolBatch.appliedDelta = netDelta;
+						continue;
+					}
+
+					if (sharesCount == SharesCountDatastore.UNKNOWN_STOCK) {
+						for (int j = 0; j < symbolBatch.size; j++) {
+							failures[symbolBatch.indexes[j]] = TradeStatus.UNKNOWN_STOCK;
+						}
+						continue;
+					}
+				}
+
+				// the net adjustment is out of range, apply the trades one by one
+				for (int j = 0; j < symbolBatch.size; j++) {
+					int i = symbolBatch.indexes[j];
+					int delta = delta(batch[i]);
+					failures[i] = adjustmentFailure(adjustSharesCount(stockId, delta), delta);
+					if (failures[i] == null) {
+						symbolBatch.appliedDelta += delta;
+					}
+				}
+			}
+
+			// always record the timestamps internally, do not take into account the passed in values
+			long timestamp = clock.currentTimeMillis();
+
+			List<Trade> createdTrades = new ArrayList<Trade>(batch.length);
+			List<TradeResult> results = new ArrayList<TradeResult>(batch.length);
+			for (int i = 0; i < batch.length; i++) {
+				if (failures[i] == null) {
+					batch[i].setTimestampMillis(timestamp);
+					createdTrades.add(batch[i]);
+				}
+				results.add(new TradeResult(batch[i], failures[i] == null ? TradeStatus.CREATED : failures[i]));
+			}
+
+			rejectedTradesCount.add(batch.length - createdTrades.size());
+
+			if (createdTrades.isEmpty()) {
+				return results;
+			}
+
+			try {
+				tradesPersistenceService.saveAll(createdTrades);
+			} catch (PersistenceException e) {
+				logger.error("Exception occurred while saving trades information to the datastore.", e);
+				for (SymbolBatch symbolBatch : symbolBatches) {
+					if (symbolBatch.appliedDelta != 0) {
+						revertSharesCount(symbolBatch.stockId, (int) symbolBatch.appliedDelta);
+					}
+				}
+				throw new BusinesslogicException(e);
+			}
+
+			createdTradesCount.add(createdTrades.size());
+			if (eventLog != null) {
+				eventLog.appendTradesExecuted(createdTrades);
+			}
+
+			for (Trade trade : createdTrades) {
+				notifyTradeListeners(trade);
+			}
+
+			return results;
+		} finally {
+			createTradesLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * Performs the businesslogic validation of a trade.
+	 * 
+	 * @param trade
+	 *            the trade to be validated
+	 * @return the validation failure, or null if the trade is valid
+	 */
+	private static TradeStatus validate(Trade trade) {
 		if (trade == null) {
-			throw new BusinesslogicException("Received NULL trade information, cannot create trade.");
+			return TradeStatus.MISSING_TRADE;
 		}
 
 		if (!StringUtils.isValid(trade.getStockSymbol())) {
-			throw new BusinesslogicException("Trade does not contain referenced stock information, cannot create trade.");
+			return TradeStatus.MISSING_STOCK_SYMBOL;
 		}
 
 		if (trade.getPrice() <= 0) {
-			throw new BusinesslogicException("Invalid price specified for a trade: [" + trade.getPrice() + "], cannot create trade.");
+			return TradeStatus.INVALID_PRICE;
 		}
 
 		if (trade.getQuantity() <= 0) {
-			throw new BusinesslogicException("Invalid quantity specified for a trade: [" + trade.getQuantity() + "], cannot create trade.");
+			return TradeStatus.INVALID_QUANTITY;
 		}
 
-		Stock stock = null;
-		try {
-			stock = stocksPersistenceService.read(trade.getStockSymbol());
-		} catch (PersistenceException e) {
-			logger.error("Exception occurred while reading stock information from the datastore.", e);
-			throw new BusinesslogicException(e);
+		if (trade.getType() == null) {
+			return TradeStatus.MISSING_TRADE_TYPE;
 		}
 
-		if (stock == null) {
-			throw new BusinesslogicException("Stock symbol [" + trade.getStockSymbol() + "] does not reffer to an existing stock.");
-		}
+		return null;
+	}
 
+	/**
+	 * @return the shares count change caused by a validated trade
+	 */
+	private static int delta(Trade trade) {
+		int delta = 0;
 		switch (trade.getType()) {
 			case BUY:
-				stock.setSharesCount(stock.getSharesCount() + trade.getQuantity());
+				delta = trade.getQuantity();
 				break;
 			case SELL:
-				if (trade.getQuantity() > stock.getSharesCount()) {
-					throw new BusinesslogicException("Trade quantity exceeds the number of availabsle shares in stock.");
-				}
-
-				stock.setSharesCount(stock.getSharesCount() - trade.getQuantity());
+				delta = -trade.getQuantity();
 				break;
 		}
+		return delta;
+	}
 
+	/**
+	 * Atomically adjusts the shares count of a stock.
+	 * 
+	 * @return the new shares count, or one of the {@link SharesCountDatastore} failure codes
+	 * @throws BusinesslogicException
+	 *             if the stock cannot be updated
+	 */
+	private int adjustSharesCount(int stockId, int delta) throws BusinesslogicException {
 		try {
-			stocksPersistenceService.update(stock);
+			return stocksPersistenceService.adjustSharesCount(stockId, delta);
 		} catch (PersistenceException e) {
 			logger.error("Exception occurred while updating stock information to the datastore.", e);
 			throw new BusinesslogicException(e);
 		}
+	}
+
+	/**
+	 * Reverts a shares count adjustment whose trades could not be saved. The stock may have been
+	 * traded meanwhile, so the reverted shares count is checked again; a failure to revert is only
+	 * logged, the original failure being reported to the caller.
+	 */
+	private void revertSharesCount(int stockId, int delta) {
+		try {
+			int sharesCount = stocksPersistenceService.adjustSharesCount(stockId, -delta);
+			if (sharesCount < 0) {
+				logger.error("Cannot revert the shares count adjustment [{}] of stock [{}], failure code [{}].", delta, SymbolRegistry.symbolOf(stockId), sharesCount);
+			}
+		} catch (PersistenceException e) {
+			logger.error("Exception occurred while reverting the shares count adjustment [{}] of stock [{}].", delta, SymbolRegistry.symbolOf(stockId), e);
+		}
+	}
 
-		// always record the timestamp internally, do not take into account the passed in value
-		trade.setTimestamp(new Date());
+	/**
+	 * @return the reason a shares count adjustment has not been applied, or null if it has been
+	 */
+	private static TradeStatus adjustmentFailure(int sharesCount, int delta) {
+		if (sharesCount == SharesCountDatastore.UNKNOWN_STOCK) {
+			return TradeStatus.UNKNOWN_STOCK;
+		}
+
+		if (sharesCount == SharesCountDatastore.SHARES_COUNT_OUT_OF_RANGE) {
+			return delta < 0 ? TradeStatus.INSUFFICIENT_SHARES : TradeStatus.SHARES_COUNT_OVERFLOW;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Notifies the registered trade listeners about a recorded trade. A failing listener does not
+	 * affect the already recorded trade nor the other listeners.
+	 * 
+	 * @param trade
+	 *            the recorded trade
+	 */
+	private void notifyTradeListeners(Trade trade) {
+		for (TradeListener tradeListener : tradeListeners) {
+			try {
+				tradeListener.onTrade(trade);
+			} catch (RuntimeException e) {
+				logger.error("Exception occurred while notifying trade listener [{}].", tradeListener.getClass().getSimpleName(), e);
+			}
+		}
+	}
+
+	/**
+	 * Feeds the trades already present in the persistent storage, e.g. recovered from a journal at
+	 * startup, to the trade listeners.
+	 * 
+	 * @throws BusinesslogicException
+	 */
+	public void initTradeListeners() throws BusinesslogicException {
+		if (tradeListeners.isEmpty()) {
+			return;
+		}
 
 		try {
-			tradesPersistenceService.save(trade);
+			tradesPersistenceService.visitAllTrades(new DatastoreVisitor<Trade>() {
+				public void visit(Trade trade) {
+					notifyTradeListeners(trade);
+				}
+			});
 		} catch (PersistenceException e) {
-			logger.error("Exception occurred while saving trade information to the datastore.", e);
+			logger.error("Exception caught while initializing trade listeners.", e);
 			throw new BusinesslogicException(e);
 		}
 	}
@@ -132,4 +421,66 @@ public class TradesServiceImpl implements TradesService {
 	public void setTradesPersistenceService(TradesPersistenceService tradesPersistenceService) {
 		this.tradesPersistenceService = tradesPersistenceService;
 	}
+
+	/**
+	 * @param tradeListeners
+	 *            the tradeListeners to set
+	 */
+	public void setTradeListeners(List<TradeListener> tradeListeners) {
+		this.tradeListeners = tradeListeners;
+	}
+
+	/**
+	 * @param eventLog
+	 *            the log the recorded trades are appended to, or null if they are not
+	 */
+	public void setEventLog(MarketEventLog eventLog) {
+		this.eventLog = eventLog;
+	}
+
+	/**
+	 * @param clock
+	 *            the clock timestamping the created trades
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * @param metricsRegistry
+	 *            the registry of the trades creation latencies and counts
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		createTradeLatency = metricsRegistry.latencyHistogram("tradesService.createTrade");
+		createTradesLatency = metricsRegistry.latencyHistogram("tradesService.createTrades");
+		createdTradesCount = metricsRegistry.counter("tradesService.createdTrades");
+		rejectedTradesCount = metricsRegistry.counter("tradesService.rejectedTrades");
+	}
+
+	/**
+	 * Positions and net shares count change of the trades of a stock inside a batch.
+	 */
+	private static class SymbolBatch {
+		final int stockId;
+		int[] indexes = new int[4];
+		int size;
+		long netDelta;
+
+		/**
+		 * Net shares count adjustment actually applied, reverted if the trades cannot be saved.
+		 */
+		long appliedDelta;
+
+		SymbolBatch(int stockId) {
+			this.stockId = stockId;
+		}
+
+		void add(int index, int delta) {
+			if (size == indexes.length) {
+				indexes = Arrays.copyOf(indexes, size * 2);
+			}
+			indexes[size++] = index;
+			netDelta += delta;
+		}
+	}
 }
@@ -0,0 +1,31 @@
+package com.acme.services.events;
+
+/**
+ * Event recorded into the {@link MarketEventLog}, numbered by its position in the log. Events are
+ * immutable: they hold their own copy of the domain objects they describe.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public abstract class MarketEvent {
+	private final long sequence;
+
+	protected MarketEvent(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Passes the event to the matching method of a projection.
+	 * 
+	 * @param projection
+	 *            the projection to be updated
+	 */
+	public abstract void applyTo(Projection projection);
+
+	/**
+	 * @return the position of the event in the log, starting at 1
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+}
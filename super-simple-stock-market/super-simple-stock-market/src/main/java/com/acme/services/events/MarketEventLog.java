@@ -0,0 +1,435 @@
+package com.acme.services.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Stock;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.util.StripedLocks;
+
+/**
+ * Ordered, sequence numbered, log of the stock market events: the stocks created and the trades
+ * executed by the businesslogic services. The subscribed {@link Projection}s are updated as the
+ * events are appended, holding the lock stripe of the event stock, so they see the events of a
+ * stock one at a time and in sequence order, while the events of different stocks are applied
+ * concurrently. The log lock is only held to number and store the events. A new projection, or a
+ * projection to be recomputed, is built by replaying the log, several of them in parallel, before
+ * being subscribed.
+ * 
+ * <p>
+ * Events are kept in memory, in fixed size chunks; the readers replaying the log do not take its
+ * lock, the chunks being only appended to. Once the log holds more than the configured maximum
+ * number of events, its oldest chunks are trimmed: the stocks they create, with their shares
+ * counts adjusted by their trades, are folded into base {@link StockCreated} events replayed
+ * before the retained ones. A rebuilt {@link SharesCountProjection} is thus complete, while the
+ * projections of the trades only see the retained trades.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class MarketEventLog {
+	private static final Logger logger = LogManager.getLogger(MarketEventLog.class);
+
+	private static final int CHUNK_SHIFT = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private static final int DEFAULT_MAX_EVENTS = 1 << 20;
+
+	/**
+	 * Guards the numbering and the storage of the events.
+	 */
+	private final Object lock = new Object();
+
+	/**
+	 * Serialize the events of a same stock, from their numbering until they are applied to the
+	 * projections.
+	 */
+	private final StripedLocks stripes = new StripedLocks();
+
+	/**
+	 * Retained events, replaced when grown or trimmed, before the sequence of the new events is
+	 * published.
+	 */
+	private volatile RetainedEvents events = new RetainedEvents(new MarketEvent[16][], 1, new StockCreated[0]);
+
+	/**
+	 * Sequence of the last appended event, published once the event is stored.
+	 */
+	private volatile long lastSequence;
+
+	/**
+	 * Number of rebuilds in progress, the log not being trimmed meanwhile. Guarded by the log lock.
+	 */
+	private int rebuildsCount;
+
+	private int maxEvents = DEFAULT_MAX_EVENTS;
+
+	private final List<Projection> projections = new CopyOnWriteArrayList<Projection>();
+
+	private ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+
+	/**
+	 * Appends the creation of a stock and applies it to the subscribed projections.
+	 * 
+	 * @param stock
+	 *            the created stock
+	 * @return the event sequence
+	 */
+	public long appendStockCreated(Stock stock) {
+		synchronized (stripes.lockFor(stock.getSymbol())) {
+			MarketEvent event;
+			synchronized (lock) {
+				event = store(new StockCreated(lastSequence + 1, stock));
+			}
+			return apply(event);
+		}
+	}
+
+	/**
+	 * Appends an executed trade and applies it to the subscribed projections.
+	 * 
+	 * @param trade
+	 *            the executed trade
+	 * @return the event sequence
+	 */
+	public long appendTradeExecuted(Trade trade) {
+		synchronized (stripes.lockFor(trade.getStockSymbol())) {
+			MarketEvent event;
+			synchronized (lock) {
+				event = store(new TradeExecuted(lastSequence + 1, trade));
+			}
+			return apply(event);
+		}
+	}
+
+	/**
+	 * Appends a batch of executed trades, in order, and applies them to the subscribed
+	 * projections. The trades are appended one at a time, so the events appended concurrently may
+	 * be interleaved with them.
+	 * 
+	 * @param trades
+	 *            the executed trades
+	 * @return the sequence of the last event of the batch
+	 */
+	public long appendTradesExecuted(Collection<Trade> trades) {
+		long sequence = lastSequence;
+		for (Trade trade : trades) {
+			sequence = appendTradeExecuted(trade);
+		}
+		return sequence;
+	}
+
+	/**
+	 * Replays the log into a projection and subscribes it to the events appended next.
+	 * 
+	 * @param projection
+	 *            the projection, which has not seen any event yet
+	 */
+	public void subscribe(Projection projection) {
+		rebuild(Collections.singletonList(projection));
+	}
+
+	/**
+	 * Replays the log into several projections in parallel, one task per projection, and
+	 * subscribes them to the events appended next. The events appended meanwhile are replayed once
+	 * the bulk of the log has been, while holding all the lock stripes. The log is not trimmed
+	 * during a rebuild.
+	 * 
+	 * @param newProjections
+	 *            the projections, which have not seen any event yet
+	 */
+	public void rebuild(Collection<? extends Projection> newProjections) {
+		long start = System.nanoTime();
+
+		final RetainedEvents retained;
+		final long sequence;
+		synchronized (lock) {
+			retained = events;
+			sequence = lastSequence;
+			rebuildsCount++;
+		}
+
+		try {
+			final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(newProjections.size());
+			for (final Projection projection : newProjections) {
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						for (StockCreated event : retained.baseEvents) {
+							event.applyTo(projection);
+						}
+						replay(projection, retained, retained.firstSequence, sequence);
+					}
+				});
+			}
+
+			if (tasks.size() == 1) {
+				tasks.get(0).invoke();
+			} else {
+				forkJoinPool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+			}
+
+			catchUp(0, newProjections, sequence + 1);
+		} finally {
+			synchronized (lock) {
+				rebuildsCount--;
+			}
+		}
+
+		logger.info("Rebuilt {} projections from {} events in {} ms.", newProjections.size(), sequence, (System.nanoTime() - start) / 1000000L);
+	}
+
+	/**
+	 * Takes the lock stripes one after the other, in index order, then replays the events appended
+	 * since a sequence into the new projections and subscribes them. No event is being appended
+	 * meanwhile, each one being appended and applied while holding the stripe of its stock.
+	 */
+	private void catchUp(int stripe, Collection<? extends Projection> newProjections, long fromSequence) {
+		if (stripe < stripes.size()) {
+			synchronized (stripes.lockAt(stripe)) {
+				catchUp(stripe + 1, newProjections, fromSequence);
+			}
+			return;
+		}
+
+		RetainedEvents retained = events;
+		for (Projection projection : newProjections) {
+			replay(projection, retained, fromSequence, lastSequence);
+			projections.add(projection);
+		}
+	}
+
+	/**
+	 * Replays a range of the retained events into a projection.
+	 * 
+	 * @param projection
+	 *            the projection
+	 * @param fromSequence
+	 *            the sequence of the first event to be replayed, not below
+	 *            {@link #getFirstSequence()}
+	 * @param toSequence
+	 *            the sequence of the last event to be replayed, not above {@link #getLastSequence()}
+	 * @throws IllegalArgumentException
+	 *             if the events of the range have been trimmed
+	 */
+	public void replay(Projection projection, long fromSequence, long toSequence) {
+		RetainedEvents retained = events;
+		if (Math.max(1, fromSequence) < retained.firstSequence) {
+			throw new IllegalArgumentException("Events before sequence [" + retained.firstSequence + "] have been trimmed.");
+		}
+		replay(projection, retained, Math.max(1, fromSequence), toSequence);
+	}
+
+	private static void replay(Projection projection, RetainedEvents retained, long fromSequence, long toSequence) {
+		for (long sequence = fromSequence; sequence <= toSequence; sequence++) {
+			retained.get(sequence).applyTo(projection);
+		}
+	}
+
+	/**
+	 * Unsubscribes a projection, which is no longer updated.
+	 * 
+	 * @param projection
+	 *            the projection
+	 */
+	public void unsubscribe(Projection projection) {
+		projections.remove(projection);
+	}
+
+	/**
+	 * Stores an event and publishes its sequence, trimming the oldest chunk once the newer ones
+	 * hold the maximum number of events. Holding the log lock.
+	 */
+	private MarketEvent store(MarketEvent event) {
+		RetainedEvents retained = events;
+
+		long index = event.getSequence() - retained.firstSequence;
+		int chunkIndex = (int) (index >>> CHUNK_SHIFT);
+		if (chunkIndex == retained.chunks.length) {
+			events = retained = retained.grow();
+		}
+
+		MarketEvent[][] chunks = retained.chunks;
+		if (chunks[chunkIndex] == null) {
+			chunks[chunkIndex] = new MarketEvent[CHUNK_SIZE];
+		}
+		chunks[chunkIndex][(int) (index & CHUNK_MASK)] = event;
+
+		lastSequence = event.getSequence();
+
+		while (rebuildsCount == 0 && lastSequence - retained.firstSequence + 1 - CHUNK_SIZE >= maxEvents) {
+			events = retained = retained.trim();
+		}
+
+		return event;
+	}
+
+	/**
+	 * Applies an event to the projections, holding the lock stripe of its stock. A failing
+	 * projection does not affect the already recorded event nor the other projections.
+	 */
+	private long apply(MarketEvent event) {
+		for (Projection projection : projections) {
+			try {
+				event.applyTo(projection);
+			} catch (RuntimeException e) {
+				logger.error("Exception occurred while applying event [{}] to projection [{}].", event.getSequence(), projection.getClass().getSimpleName(), e);
+			}
+		}
+
+		return event.getSequence();
+	}
+
+	/**
+	 * @return the sequence of the oldest retained event, the older ones having been trimmed
+	 */
+	public long getFirstSequence() {
+		return events.firstSequence;
+	}
+
+	/**
+	 * @return the sequence of the last appended event, 0 if the log is empty
+	 */
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * @param projections
+	 *            the projections subscribed when the log is created, before any event is appended
+	 */
+	public void setProjections(List<Projection> projections) {
+		this.projections.addAll(projections);
+	}
+
+	/**
+	 * @param forkJoinPool
+	 *            the pool the projections are rebuilt on, the common pool by default
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * @param maxEvents
+	 *            the number of events retained by the log, 1M by default; up to one more chunk of
+	 *            events is retained, the log being trimmed a chunk at a time
+	 */
+	public void setMaxEvents(int maxEvents) {
+		if (maxEvents <= 0) {
+			throw new IllegalArgumentException("Invalid maximum number of events: [" + maxEvents + "].");
+		}
+		this.maxEvents = maxEvents;
+	}
+
+	/**
+	 * Events retained by the log, from the oldest one on, and the base events folded from the
+	 * trimmed ones. Replaced, not modified, when grown or trimmed, so the readers do not take the
+	 * log lock; only the slots past the last sequence are written to.
+	 */
+	private static class RetainedEvents {
+		/**
+		 * Chunks of events, the event of sequence s being at index s - firstSequence.
+		 */
+		private final MarketEvent[][] chunks;
+		private final long firstSequence;
+		private final StockCreated[] baseEvents;
+
+		private RetainedEvents(MarketEvent[][] chunks, long firstSequence, StockCreated[] baseEvents) {
+			this.chunks = chunks;
+			this.firstSequence = firstSequence;
+			this.baseEvents = baseEvents;
+		}
+
+		private MarketEvent get(long sequence) {
+			long index = sequence - firstSequence;
+			return chunks[(int) (index >>> CHUNK_SHIFT)][(int) (index & CHUNK_MASK)];
+		}
+
+		private RetainedEvents grow() {
+			return new RetainedEvents(Arrays.copyOf(chunks, chunks.length * 2), firstSequence, baseEvents);
+		}
+
+		/**
+		 * @return the events without the oldest, full, chunk, folded into the base events
+		 */
+		private RetainedEvents trim() {
+			StocksFolder folder = new StocksFolder(baseEvents);
+			for (MarketEvent event : chunks[0]) {
+				event.applyTo(folder);
+			}
+
+			MarketEvent[][] retainedChunks = new MarketEvent[chunks.length][];
+			System.arraycopy(chunks, 1, retainedChunks, 0, chunks.length - 1);
+
+			long trimmedSequence = firstSequence + CHUNK_SIZE - 1;
+			return new RetainedEvents(retainedChunks, trimmedSequence + 1, folder.toEvents(trimmedSequence));
+		}
+	}
+
+	/**
+	 * Folds events into the stocks they create, adjusting their shares counts by the trades, as
+	 * {@link SharesCountProjection} does.
+	 */
+	private static class StocksFolder implements Projection {
+		private final Map<String, Stock> stocks = new LinkedHashMap<String, Stock>();
+
+		private StocksFolder(StockCreated[] baseEvents) {
+			for (StockCreated event : baseEvents) {
+				onStockCreated(event);
+			}
+		}
+
+		public void onStockCreated(StockCreated event) {
+			String stockSymbol = event.getStock().getSymbol();
+			if (!stocks.containsKey(stockSymbol)) {
+				stocks.put(stockSymbol, new Stock(event.getStock()));
+			}
+		}
+
+		public void onTradeExecuted(TradeExecuted event) {
+			Trade trade = event.getTrade();
+
+			Stock stock = stocks.get(trade.getStockSymbol());
+			if (stock != null) {
+				stock.setSharesCount(stock.getSharesCount() + (trade.getType() == TradeType.SELL ? -trade.getQuantity() : trade.getQuantity()));
+			}
+		}
+
+		/**
+		 * @return the creation events of the folded stocks, numbered as the last trimmed event
+		 */
+		private StockCreated[] toEvents(long sequence) {
+			StockCreated[] events = new StockCreated[stocks.size()];
+			int i = 0;
+			for (Stock stock : stocks.values()) {
+				events[i++] = new StockCreated(sequence, stock);
+			}
+			return events;
+		}
+	}
+}
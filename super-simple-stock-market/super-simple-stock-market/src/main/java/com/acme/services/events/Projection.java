@@ -0,0 +1,17 @@
+package com.acme.services.events;
+
+/**
+ * View derived from the {@link MarketEventLog}, updated incrementally as the events are appended,
+ * or rebuilt by replaying the log. The events of a stock are applied one at a time, in sequence
+ * order, while the events of different stocks may be applied concurrently: a projection keeping
+ * its state per stock needs no locking of its own but for the visibility of that state to the
+ * readers, any state shared across stocks must support concurrent updates.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface Projection {
+	void onStockCreated(StockCreated event);
+
+	void onTradeExecuted(TradeExecuted event);
+}
@@ -0,0 +1,59 @@
+package com.acme.services.events;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.util.SymbolTable;
+
+/**
+ * Shares count of each stock, as derived from the events: the initial shares count of the created
+ * stock, adjusted by the quantity of each executed trade, buys increasing it and sells decreasing
+ * it, as the trades businesslogic service does.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SharesCountProjection implements Projection {
+	/**
+	 * Shares count of each stock, indexed by the stock symbol id.
+	 */
+	private final SymbolTable<SharesCount> sharesCounts = new SymbolTable<SharesCount>();
+
+	public void onStockCreated(StockCreated event) {
+		int stockId = SymbolRegistry.register(event.getStock().getSymbol());
+		sharesCounts.putIfAbsent(stockId, new SharesCount(event.getStock().getSharesCount()));
+	}
+
+	public void onTradeExecuted(TradeExecuted event) {
+		Trade trade = event.getTrade();
+
+		SharesCount sharesCount = sharesCounts.get(SymbolRegistry.register(trade));
+		if (sharesCount != null) {
+			sharesCount.value += trade.getType() == TradeType.SELL ? -trade.getQuantity() : trade.getQuantity();
+		}
+	}
+
+	/**
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @return the shares count of the stock or {@link SharesCountDatastore#UNKNOWN_STOCK} if no such
+	 *         stock has been created
+	 */
+	public int getSharesCount(String stockSymbol) {
+		int stockId = SymbolRegistry.idOf(stockSymbol);
+		SharesCount sharesCount = stockId == SymbolRegistry.NO_ID ? null : sharesCounts.get(stockId);
+		return sharesCount == null ? SharesCountDatastore.UNKNOWN_STOCK : sharesCount.value;
+	}
+
+	/**
+	 * Shares count of a stock, written by one thread at a time, holding the log stripe of the stock.
+	 */
+	private static class SharesCount {
+		private volatile int value;
+
+		private SharesCount(int value) {
+			this.value = value;
+		}
+	}
+}
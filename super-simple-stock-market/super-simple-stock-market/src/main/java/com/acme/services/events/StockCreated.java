@@ -0,0 +1,30 @@
+package com.acme.services.events;
+
+import com.acme.domain.Stock;
+
+/**
+ * Event recording the creation of a stock, with its initial shares count.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class StockCreated extends MarketEvent {
+	private final Stock stock;
+
+	StockCreated(long sequence, Stock stock) {
+		super(sequence);
+		this.stock = new Stock(stock);
+	}
+
+	@Override
+	public void applyTo(Projection projection) {
+		projection.onStockCreated(this);
+	}
+
+	/**
+	 * @return the created stock, as it was created, which must not be modified
+	 */
+	public Stock getStock() {
+		return stock;
+	}
+}
@@ -0,0 +1,80 @@
+package com.acme.services.events;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.util.SymbolTable;
+
+/**
+ * Traded volume of each stock since its creation: the number of executed trades and the total
+ * quantity and value traded.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SymbolVolumeProjection implements Projection {
+	/**
+	 * Volume of each stock, indexed by the stock symbol id.
+	 */
+	private final SymbolTable<Volume> volumes = new SymbolTable<Volume>();
+
+	public void onStockCreated(StockCreated event) {
+	}
+
+	public void onTradeExecuted(TradeExecuted event) {
+		Trade trade = event.getTrade();
+		int stockId = SymbolRegistry.register(trade);
+
+		Volume volume = volumes.get(stockId);
+		if (volume == null) {
+			volumes.putIfAbsent(stockId, volume = new Volume());
+		}
+
+		volume.tradesCount++;
+		volume.quantity += trade.getQuantity();
+		volume.value += trade.getQuantity() * trade.getPrice();
+	}
+
+	/**
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @return the number of trades executed on the stock
+	 */
+	public long getTradesCount(String stockSymbol) {
+		Volume volume = volumeOf(stockSymbol);
+		return volume == null ? 0 : volume.tradesCount;
+	}
+
+	/**
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @return the total quantity traded on the stock
+	 */
+	public long getQuantity(String stockSymbol) {
+		Volume volume = volumeOf(stockSymbol);
+		return volume == null ? 0 : volume.quantity;
+	}
+
+	/**
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @return the total value, price times quantity, traded on the stock
+	 */
+	public double getValue(String stockSymbol) {
+		Volume volume = volumeOf(stockSymbol);
+		return volume == null ? 0 : volume.value;
+	}
+
+	private Volume volumeOf(String stockSymbol) {
+		int stockId = SymbolRegistry.idOf(stockSymbol);
+		return stockId == SymbolRegistry.NO_ID ? null : volumes.get(stockId);
+	}
+
+	/**
+	 * Volume of a stock, written by one thread at a time, holding the log stripe of the stock.
+	 */
+	private static class Volume {
+		private volatile long tradesCount;
+		private volatile long quantity;
+		private volatile double value;
+	}
+}
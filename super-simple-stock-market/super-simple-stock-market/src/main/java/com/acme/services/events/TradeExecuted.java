@@ -0,0 +1,30 @@
+package com.acme.services.events;
+
+import com.acme.domain.Trade;
+
+/**
+ * Event recording an accepted trade, carrying its final timestamp.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeExecuted extends MarketEvent {
+	private final Trade trade;
+
+	TradeExecuted(long sequence, Trade trade) {
+		super(sequence);
+		this.trade = new Trade(trade);
+	}
+
+	@Override
+	public void applyTo(Projection projection) {
+		projection.onTradeExecuted(this);
+	}
+
+	/**
+	 * @return the executed trade, which must not be modified
+	 */
+	public Trade getTrade() {
+		return trade;
+	}
+}
@@ -0,0 +1,41 @@
+package com.acme.services.events;
+
+import com.acme.services.analytics.TradeListener;
+
+/**
+ * Adapts a {@link TradeListener}, e.g. the volume weighted price engine, the GBCE All Share Index
+ * calculator or the trade rollups, into a projection of the executed trades.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeListenerProjection implements Projection {
+	private TradeListener tradeListener;
+
+	public TradeListenerProjection() {
+		super();
+	}
+
+	/**
+	 * @param tradeListener
+	 *            the adapted trade listener
+	 */
+	public TradeListenerProjection(TradeListener tradeListener) {
+		this.tradeListener = tradeListener;
+	}
+
+	public void onStockCreated(StockCreated event) {
+	}
+
+	public void onTradeExecuted(TradeExecuted event) {
+		tradeListener.onTrade(event.getTrade());
+	}
+
+	/**
+	 * @param tradeListener
+	 *            the adapted trade listener
+	 */
+	public void setTradeListener(TradeListener tradeListener) {
+		this.tradeListener = tradeListener;
+	}
+}
@@ -0,0 +1,70 @@
+package com.acme.services.ingestion;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.acme.domain.Trade;
+import com.acme.services.businesslogic.BusinesslogicException;
+
+/**
+ * {@link Future} completed once a trade published to the {@link TradeIngestionPipeline} has been
+ * applied. A rejected trade completes the future exceptionally, with the
+ * {@link BusinesslogicException} as cause.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeAcknowledgement implements Future<Trade>, TradeIngestionCallback {
+	private final CountDownLatch completion = new CountDownLatch(1);
+
+	private volatile Trade trade;
+	private volatile BusinesslogicException cause;
+
+	public void onAccepted(Trade trade) {
+		this.trade = trade;
+		completion.countDown();
+	}
+
+	public void onRejected(Trade trade, BusinesslogicException cause) {
+		this.trade = trade;
+		this.cause = cause;
+		completion.countDown();
+	}
+
+	/**
+	 * Published trades cannot be cancelled.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	public boolean isCancelled() {
+		return false;
+	}
+
+	public boolean isDone() {
+		return completion.getCount() == 0;
+	}
+
+	public Trade get() throws InterruptedException, ExecutionException {
+		completion.await();
+		return result();
+	}
+
+	public Trade get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!completion.await(timeout, unit)) {
+			throw new TimeoutException("Trade has not been acknowledged in time.");
+		}
+		return result();
+	}
+
+	private Trade result() throws ExecutionException {
+		if (cause != null) {
+			throw new ExecutionException(cause);
+		}
+		return trade;
+	}
+}
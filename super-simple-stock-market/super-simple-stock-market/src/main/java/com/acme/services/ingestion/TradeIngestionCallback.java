@@ -0,0 +1,32 @@
+package com.acme.services.ingestion;
+
+import com.acme.domain.Trade;
+import com.acme.services.businesslogic.BusinesslogicException;
+
+/**
+ * Callback notified once a trade published to the {@link TradeIngestionPipeline} has been applied.
+ * Callbacks are invoked on the partition writer thread, so implementations are expected to return
+ * quickly.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface TradeIngestionCallback {
+	/**
+	 * Called after the trade has been recorded.
+	 * 
+	 * @param trade
+	 *            the recorded trade
+	 */
+	void onAccepted(Trade trade);
+
+	/**
+	 * Called when the trade has been rejected by the trades businesslogic service.
+	 * 
+	 * @param trade
+	 *            the rejected trade
+	 * @param cause
+	 *            the reason of the rejection
+	 */
+	void onRejected(Trade trade, BusinesslogicException cause);
+}
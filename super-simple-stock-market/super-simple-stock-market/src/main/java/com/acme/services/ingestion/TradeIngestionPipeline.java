@@ -0,0 +1,344 @@
+package com.acme.services.ingestion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Trade;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.TradeResult;
+import com.acme.services.businesslogic.TradesService;
+
+/**
+ * Asynchronous trades ingestion mode. Producers publish trades into pre-allocated lock-free ring
+ * buffers, one per partition, and a single writer thread per partition applies them through the
+ * trades businesslogic service. Trades are partitioned by stock symbol, so all trades of a stock are
+ * applied in publishing order by the same writer and never contend with each other on the
+ * datastores. A writer applies the trades it drains as a batch (see
+ * {@link TradesService#createTrades(java.util.Collection)}), so bursts pay the per call costs once.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeIngestionPipeline {
+	private static final Logger logger = LogManager.getLogger(TradeIngestionPipeline.class);
+
+	/**
+	 * Maximum number of trades a writer applies as a batch, before checking again for shutdown.
+	 */
+	private static final int DRAIN_BATCH_SIZE = 256;
+
+	/**
+	 * Number of empty polls a writer spins before it starts parking.
+	 */
+	private static final int IDLE_SPINS = 100;
+
+	private static final long IDLE_PARK_NANOS = 50000L;
+
+	/**
+	 * The trades businesslogic service applying the published trades.
+	 */
+	private TradesService tradesService;
+
+	private int partitionsCount = Runtime.getRuntime().availableProcessors();
+	private int bufferSize = 64 * 1024;
+
+	private TradeRingBuffer[] buffers;
+	private Thread[] writers;
+
+	/**
+	 * Whether trades are accepted, cleared first on shutdown.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Whether the writers are to exit once their buffer is drained, set on shutdown once no
+	 * producer is publishing anymore.
+	 */
+	private volatile boolean stopping;
+
+	/**
+	 * Number of producers currently publishing, counted before they check the pipeline is running,
+	 * so the shutdown knows when no trade can be published anymore. A single counter, read
+	 * atomically: a producer it misses has not counted itself yet and is bound to see the shutdown.
+	 */
+	private final AtomicLong activeProducers = new AtomicLong();
+
+	/**
+	 * Allocates the ring buffers and starts the partitions writer threads.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+
+		int partitions = 1;
+		while (partitions < partitionsCount) {
+			partitions <<= 1;
+		}
+
+		buffers = new TradeRingBuffer[partitions];
+		writers = new Thread[partitions];
+		for (int i = 0; i < partitions; i++) {
+			buffers[i] = new TradeRingBuffer(bufferSize);
+			writers[i] = new Thread(new Writer(buffers[i]), "trade-ingestion-" + i);
+			writers[i].setDaemon(true);
+		}
+
+		stopping = false;
+		running = true;
+		for (Thread writer : writers) {
+			writer.start();
+		}
+
+		logger.info("Trade ingestion pipeline started with [{}] partitions.", partitions);
+	}
+
+	/**
+	 * Stops accepting trades, waits for the producers being publishing, lets the writers apply the
+	 * already published trades and waits for them to finish. A trade published and not applied, if
+	 * a writer died, is rejected, so no callback is left unnotified.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		// producers blocked on a full buffer see the shutdown and give up, while the writers still drain
+		while (activeProducers.get() != 0) {
+			Thread.yield();
+		}
+
+		stopping = true;
+		for (Thread writer : writers) {
+			LockSupport.unpark(writer);
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while stopping the trade ingestion pipeline, its writers stop in the background.");
+				return;
+			}
+		}
+
+		BusinesslogicException cause = new BusinesslogicException("Trade ingestion pipeline stopped.");
+		int rejectedCount = 0;
+		for (TradeRingBuffer buffer : buffers) {
+			rejectedCount += buffer.drain(new Rejector(cause), Integer.MAX_VALUE);
+		}
+		if (rejectedCount > 0) {
+			logger.warn("Trade ingestion pipeline stopped with [{}] unapplied trades, rejected.", rejectedCount);
+		}
+
+		logger.info("Trade ingestion pipeline stopped.");
+	}
+
+	/**
+	 * Publishes a trade without blocking.
+	 * 
+	 * @param trade
+	 *            the trade to be recorded
+	 * @param callback
+	 *            the callback notified once the trade has been applied
+	 * @return true if the trade has been published, false if its partition buffer is full
+	 * @throws IllegalStateException
+	 *             if the pipeline is not running
+	 */
+	public boolean offer(Trade trade, TradeIngestionCallback callback) {
+		activeProducers.incrementAndGet();
+		try {
+			checkRunning();
+
+			return buffers[partitionOf(trade)].offer(trade, callback);
+		} finally {
+			activeProducers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Publishes a trade, spinning while its partition buffer is full.
+	 * 
+	 * @param trade
+	 *            the trade to be recorded
+	 * @param callback
+	 *            the callback notified once the trade has been applied
+	 * @throws IllegalStateException
+	 *             if the pipeline is not running
+	 */
+	public void publish(Trade trade, TradeIngestionCallback callback) {
+		activeProducers.incrementAndGet();
+		try {
+			checkRunning();
+
+			TradeRingBuffer buffer = buffers[partitionOf(trade)];
+			while (!buffer.offer(trade, callback)) {
+				checkRunning();
+				Thread.yield();
+			}
+		} finally {
+			activeProducers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Publishes a trade, spinning while its partition buffer is full.
+	 * 
+	 * @param trade
+	 *            the trade to be recorded
+	 * @return a future completed once the trade has been applied, or rejected if the pipeline stops
+	 *         before applying it
+	 * @throws IllegalStateException
+	 *             if the pipeline is not running
+	 */
+	public Future<Trade> submit(Trade trade) {
+		TradeAcknowledgement acknowledgement = new TradeAcknowledgement();
+		publish(trade, acknowledgement);
+		return acknowledgement;
+	}
+
+	private int partitionOf(Trade trade) {
+		if (trade == null || trade.getStockSymbol() == null) {
+			// invalid trades are rejected by the writer, any partition will do
+			return 0;
+		}
+
+		int hash = trade.getStockSymbol().hashCode();
+		return (hash ^ (hash >>> 16)) & (buffers.length - 1);
+	}
+
+	private void checkRunning() {
+		if (!running) {
+			throw new IllegalStateException("Trade ingestion pipeline is not running.");
+		}
+	}
+
+	/**
+	 * Handler rejecting the trades left in a buffer once its writer has stopped.
+	 */
+	private static class Rejector implements TradeRingBuffer.Handler {
+		private final BusinesslogicException cause;
+
+		private Rejector(BusinesslogicException cause) {
+			this.cause = cause;
+		}
+
+		public void onTrade(Trade trade, TradeIngestionCallback callback) {
+			if (callback != null) {
+				try {
+					callback.onRejected(trade, cause);
+				} catch (RuntimeException e) {
+					logger.error("Exception occurred while notifying trade ingestion callback.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Single writer of a partition, applying the published trades in order.
+	 */
+	private class Writer implements Runnable, TradeRingBuffer.Handler {
+		private final TradeRingBuffer buffer;
+
+		/**
+		 * The drained trades and their callbacks, applied once the drain completes.
+		 */
+		private final List<Trade> batch = new ArrayList<Trade>(DRAIN_BATCH_SIZE);
+		private final TradeIngestionCallback[] batchCallbacks = new TradeIngestionCallback[DRAIN_BATCH_SIZE];
+
+		private Writer(TradeRingBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public void run() {
+			int idlePolls = 0;
+			while (!stopping || !buffer.isEmpty()) {
+				if (buffer.drain(this, DRAIN_BATCH_SIZE) > 0) {
+					applyBatch();
+					idlePolls = 0;
+				} else if (++idlePolls < IDLE_SPINS) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+				}
+			}
+		}
+
+		public void onTrade(Trade trade, TradeIngestionCallback callback) {
+			batchCallbacks[batch.size()] = callback;
+			batch.add(trade);
+		}
+
+		private void applyBatch() {
+			List<TradeResult> results = null;
+			BusinesslogicException failure = null;
+			try {
+				results = tradesService.createTrades(batch);
+			} catch (BusinesslogicException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				logger.error("Unexpected exception occurred while applying trades.", e);
+				failure = new BusinesslogicException(e);
+			}
+
+			for (int i = 0; i < batch.size(); i++) {
+				Trade trade = batch.get(i);
+				TradeIngestionCallback callback = batchCallbacks[i];
+				batchCallbacks[i] = null;
+
+				if (failure != null) {
+					notifyRejected(trade, callback, failure);
+				} else if (!results.get(i).isCreated()) {
+					notifyRejected(trade, callback, new BusinesslogicException(results.get(i).getFailureReason()));
+				} else if (callback != null) {
+					try {
+						callback.onAccepted(trade);
+					} catch (RuntimeException e) {
+						logger.error("Exception occurred while notifying trade ingestion callback.", e);
+					}
+				}
+			}
+
+			batch.clear();
+		}
+
+		private void notifyRejected(Trade trade, TradeIngestionCallback callback, BusinesslogicException cause) {
+			if (callback != null) {
+				try {
+					callback.onRejected(trade, cause);
+				} catch (RuntimeException e) {
+					logger.error("Exception occurred while notifying trade ingestion callback.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param tradesService
+	 *            the tradesService to set
+	 */
+	public void setTradesService(TradesService tradesService) {
+		this.tradesService = tradesService;
+	}
+
+	/**
+	 * @param partitionsCount
+	 *            the number of partitions (and writer threads), rounded up to a power of two
+	 */
+	public void setPartitionsCount(int partitionsCount) {
+		this.partitionsCount = partitionsCount;
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the capacity of each partition ring buffer, rounded up to a power of two
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+}
@@ -0,0 +1,127 @@
+package com.acme.services.ingestion;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.acme.domain.Trade;
+
+/**
+ * Bounded, pre-allocated, lock-free ring buffer of trades, accepting many producers and a single
+ * consumer. Every slot carries a sequence number telling whether it is free for the producer owning
+ * a given position or published for the consumer, so producers only contend on a single CAS of the
+ * tail position and never block each other.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class TradeRingBuffer {
+	/**
+	 * Handler receiving the trades drained by the consumer.
+	 */
+	interface Handler {
+		void onTrade(Trade trade, TradeIngestionCallback callback);
+	}
+
+	private final int mask;
+
+	private final Trade[] trades;
+	private final TradeIngestionCallback[] callbacks;
+
+	/**
+	 * Per slot sequence: equal to the position when the slot is free for it, position + 1 once the
+	 * slot has been published for it.
+	 */
+	private final AtomicLongArray sequences;
+
+	/**
+	 * Next position to be claimed by producers.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Next position to be read by the consumer, only accessed by the consumer thread.
+	 */
+	private long head;
+
+	/**
+	 * @param capacity
+	 *            the buffer capacity, rounded up to a power of two
+	 */
+	TradeRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+		this.mask = size - 1;
+		this.trades = new Trade[size];
+		this.callbacks = new TradeIngestionCallback[size];
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Publishes a trade without blocking.
+	 * 
+	 * @return true if the trade has been published, false if the buffer is full
+	 */
+	boolean offer(Trade trade, TradeIngestionCallback callback) {
+		long position;
+		int index;
+		while (true) {
+			position = tail.get();
+			index = (int) position & mask;
+
+			long available = sequences.get(index) - position;
+			if (available == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+			} else if (available < 0) {
+				return false;
+			}
+		}
+
+		trades[index] = trade;
+		callbacks[index] = callback;
+		sequences.lazySet(index, position + 1);
+
+		return true;
+	}
+
+	/**
+	 * Drains the published trades into the handler. Must only be called by the consumer thread.
+	 * 
+	 * @param handler
+	 *            the handler receiving the trades
+	 * @param limit
+	 *            the maximum number of trades to be drained
+	 * @return the number of drained trades
+	 */
+	int drain(Handler handler, int limit) {
+		int drained = 0;
+		while (drained < limit) {
+			int index = (int) head & mask;
+			if (sequences.get(index) != head + 1) {
+				break;
+			}
+
+			Trade trade = trades[index];
+			TradeIngestionCallback callback = callbacks[index];
+			trades[index] = null;
+			callbacks[index] = null;
+			sequences.lazySet(index, head + mask + 1);
+			head++;
+
+			handler.onTrade(trade, callback);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * @return true if no trade is waiting to be drained
+	 */
+	boolean isEmpty() {
+		return sequences.get((int) head & mask) != head + 1;
+	}
+}
@@ -0,0 +1,343 @@
+package com.acme.services.persistence;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
+import com.acme.metrics.Gauge;
+import com.acme.metrics.MetricsRegistry;
+
+/**
+ * Read-through cache in front of a {@link StocksPersistenceService}. A cached stock read costs a
+ * single hash probe and allocates nothing: the readers share a read-only snapshot of the cached
+ * stock (see {@link Stock#isReadOnly()}), which they copy if they need to modify it.
+ * 
+ * <p>
+ * Stocks are invalidated through versions, striped by symbol: every save and update increments
+ * the version of the symbol and drops the cached stock, and a stock read from the delegate is only
+ * kept if its version did not change meanwhile, so a concurrent read cannot cache a stale stock.
+ * The shares count adjustments, made for every trade, keep the stocks being traded cached: they
+ * record the adjusted shares count in the cache entry and increment the version of the symbol,
+ * the snapshot being replaced by the first read after the adjustment rather than by the
+ * adjustment itself.
+ * </p>
+ * 
+ * <p>
+ * The cache holds at most {@link #setMaxSize(int)} stocks, an arbitrary stock being evicted to
+ * make room for a new one. Unknown symbols are not cached.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class CachingStocksPersistenceService implements StocksPersistenceService {
+	private static final int VERSION_STRIPES = 64;
+
+	/**
+	 * The stocks persistence service the cache reads through.
+	 */
+	private StocksPersistenceService delegate;
+
+	private int maxSize = 4096;
+
+	private final ConcurrentMap<String, CachedStock> cache = new ConcurrentHashMap<String, CachedStock>();
+
+	/**
+	 * Versions of the symbols, by stripe, incremented by every invalidation once the delegate has
+	 * been modified.
+	 */
+	private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	public CachingStocksPersistenceService() {
+	}
+
+	/**
+	 * Saves a new stock, invalidating its cached copy.
+	 */
+	public void save(Stock stock) throws PersistenceException {
+		try {
+			delegate.save(stock);
+		} finally {
+			invalidate(stock == null ? null : stock.getSymbol());
+		}
+	}
+
+	/**
+	 * Updates an existing stock, invalidating its cached copy.
+	 */
+	public boolean update(Stock stock) throws PersistenceException {
+		try {
+			return delegate.update(stock);
+		} finally {
+			invalidate(stock == null ? null : stock.getSymbol());
+		}
+	}
+
+	/**
+	 * Reads a stock, from the cache if present. The returned stock is read-only.
+	 */
+	public Stock read(String stockSymbol) throws PersistenceException {
+		if (stockSymbol == null) {
+			return delegate.read(stockSymbol);
+		}
+
+		CachedStock cachedStock = cache.get(stockSymbol);
+		if (cachedStock != null) {
+			hitCount.increment();
+			return cachedStock.snapshot();
+		}
+
+		missCount.increment();
+		cachedStock = load(stockSymbol);
+		return cachedStock == null ? null : cachedStock.snapshot();
+	}
+
+	/**
+	 * Reads the stocks matching several symbols at once, from the cache if present. The returned
+	 * stocks are read-only.
+	 */
+	public Stock[] readAll(String[] stockSymbols) throws PersistenceException {
+		Stock[] stocks = new Stock[stockSymbols.length];
+		for (int i = 0; i < stockSymbols.length; i++) {
+			if (stockSymbols[i] != null) {
+				stocks[i] = read(stockSymbols[i]);
+			}
+		}
+		return stocks;
+	}
+
+	/**
+	 * Reads the stocks matching several symbol ids at once, from the cache if present. The returned
+	 * stocks are read-only.
+	 */
+	public Stock[] readAll(int[] stockIds) throws PersistenceException {
+		Stock[] stocks = new Stock[stockIds.length];
+		for (int i = 0; i < stockIds.length; i++) {
+			if (stockIds[i] != SymbolRegistry.NO_ID) {
+				stocks[i] = read(SymbolRegistry.symbolOf(stockIds[i]));
+			}
+		}
+		return stocks;
+	}
+
+	/**
+	 * Atomically adjusts the shares count of an existing stock, updating the cached entry.
+	 */
+	public int adjustSharesCount(String stockSymbol, int delta) throws PersistenceException {
+		if (stockSymbol == null) {
+			return delegate.adjustSharesCount(stockSymbol, delta);
+		}
+
+		CachedStock cachedStock = cache.get(stockSymbol);
+		if (cachedStock == null) {
+			try {
+				return delegate.adjustSharesCount(stockSymbol, delta);
+			} finally {
+				invalidate(stockSymbol);
+			}
+		}
+
+		// the entry serializes the adjustments of its stock, so it ends up with the last shares count
+		int sharesCount;
+		synchronized (cachedStock) {
+			sharesCount = delegate.adjustSharesCount(stockSymbol, delta);
+			if (sharesCount < 0) {
+				return sharesCount;
+			}
+			cachedStock.sharesCount = sharesCount;
+		}
+
+		// drops the stocks read from the delegate before the adjustment and not cached yet
+		versions.incrementAndGet(stripeOf(stockSymbol));
+		if (cache.get(stockSymbol) != cachedStock) {
+			// the entry has been replaced meanwhile, by a stock possibly read before the adjustment
+			invalidate(stockSymbol);
+		}
+		return sharesCount;
+	}
+
+	/**
+	 * Atomically adjusts the shares count of an existing stock, identified by its symbol id,
+	 * updating the cached copy.
+	 */
+	public int adjustSharesCount(int stockId, int delta) throws PersistenceException {
+		if (stockId == SymbolRegistry.NO_ID) {
+			return delegate.adjustSharesCount(stockId, delta);
+		}
+
+		return adjustSharesCount(SymbolRegistry.symbolOf(stockId), delta);
+	}
+
+	/**
+	 * Returns a collection of all stocks, read from the delegate.
+	 */
+	public Collection<Stock> listAll() throws PersistenceException {
+		return delegate.listAll();
+	}
+
+	/**
+	 * Drops all cached stocks.
+	 */
+	public void clear() {
+		for (int i = 0; i < VERSION_STRIPES; i++) {
+			versions.incrementAndGet(i);
+		}
+		cache.clear();
+	}
+
+	/**
+	 * @return the number of reads served by the cache
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * @return the number of reads served by the delegate
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/**
+	 * @return the number of stocks evicted to make room for other stocks
+	 */
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * @return the number of cached stocks
+	 */
+	public int getSize() {
+		return cache.size();
+	}
+
+	/**
+	 * @param delegate
+	 *            the stocks persistence service the cache reads through
+	 */
+	public void setDelegate(StocksPersistenceService delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param maxSize
+	 *            the maximum number of cached stocks
+	 */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Publishes the hit, miss and eviction counts and the size of the cache as gauges.
+	 * 
+	 * @param metricsRegistry
+	 *            the registry of the cache gauges
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		metricsRegistry.gauge("stockCache.hitCount", new Gauge() {
+			public long getValue() {
+				return getHitCount();
+			}
+		});
+		metricsRegistry.gauge("stockCache.missCount", new Gauge() {
+			public long getValue() {
+				return getMissCount();
+			}
+		});
+		metricsRegistry.gauge("stockCache.evictionCount", new Gauge() {
+			public long getValue() {
+				return getEvictionCount();
+			}
+		});
+		metricsRegistry.gauge("stockCache.size", new Gauge() {
+			public long getValue() {
+				return getSize();
+			}
+		});
+	}
+
+	/**
+	 * Reads a stock from the delegate and caches it, unless an invalidation happened while
+	 * reading.
+	 */
+	private CachedStock load(String stockSymbol) throws PersistenceException {
+		int stripe = stripeOf(stockSymbol);
+		long readVersion = versions.get(stripe);
+
+		Stock stock = delegate.read(stockSymbol);
+		if (stock == null) {
+			return null;
+		}
+
+		if (cache.size() >= maxSize) {
+			evict();
+		}
+
+		CachedStock newCachedStock = new CachedStock(stock);
+		CachedStock cachedStock = cache.putIfAbsent(stockSymbol, newCachedStock);
+		if (cachedStock != null) {
+			return cachedStock;
+		}
+
+		// checked once the stock is visible, so an invalidation either is seen here or drops it
+		if (versions.get(stripe) != readVersion) {
+			cache.remove(stockSymbol, newCachedStock);
+		}
+
+		return newCachedStock;
+	}
+
+	private void evict() {
+		Iterator<String> symbols = cache.keySet().iterator();
+		if (symbols.hasNext()) {
+			cache.remove(symbols.next());
+			evictionCount.increment();
+		}
+	}
+
+	private void invalidate(String stockSymbol) {
+		if (stockSymbol != null) {
+			versions.incrementAndGet(stripeOf(stockSymbol));
+			cache.remove(stockSymbol);
+		}
+	}
+
+	private static int stripeOf(String stockSymbol) {
+		return stockSymbol.hashCode() & (VERSION_STRIPES - 1);
+	}
+
+	/**
+	 * A cached stock: the last adjusted shares count, and the read-only snapshot handed out to the
+	 * readers, replaced once its shares count is out of date.
+	 */
+	private static final class CachedStock {
+		private volatile int sharesCount;
+		private volatile Stock snapshot;
+
+		CachedStock(Stock stock) {
+			this.sharesCount = stock.getSharesCount();
+			this.snapshot = Stock.readOnlyCopy(stock, sharesCount);
+		}
+
+		Stock snapshot() {
+			Stock stock = snapshot;
+			int currentSharesCount = sharesCount;
+			if (stock.getSharesCount() != currentSharesCount) {
+				stock = Stock.readOnlyCopy(stock, currentSharesCount);
+				snapshot = stock;
+			}
+			return stock;
+		}
+	}
+}
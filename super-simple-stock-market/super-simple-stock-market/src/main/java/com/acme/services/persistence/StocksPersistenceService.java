@@ -3,6 +3,7 @@ package com.acme.services.persistence;
 import java.util.Collection;
 
 import com.acme.domain.Stock;
+import com.acme.storage.SharesCountDatastore;
 
 /**
  * Interface defining the general contract of a stocks persistence service.
@@ -39,6 +40,56 @@ public interface StocksPersistenceService {
 	 */
 	Stock read(String stockSymbol) throws PersistenceException;
 
+	/**
+	 * Reads the stocks matching several symbols at once.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols, duplicates allowed
+	 * @return the stocks, positioned as their symbols, null for the symbols not found
+	 * @throws PersistenceException
+	 */
+	Stock[] readAll(String[] stockSymbols) throws PersistenceException;
+
+	/**
+	 * Reads the stocks matching several symbol ids at once.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}, duplicates
+	 *            allowed
+	 * @return the stocks, positioned as their ids, null for the ids not found
+	 * @throws PersistenceException
+	 */
+	Stock[] readAll(int[] stockIds) throws PersistenceException;
+
+	/**
+	 * Atomically adjusts the shares count of an existing stock.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol of the stock to be adjusted
+	 * @param delta
+	 *            the number of shares to add (positive) or remove (negative)
+	 * @return the new shares count, or one of {@link SharesCountDatastore#UNKNOWN_STOCK} and
+	 *         {@link SharesCountDatastore#SHARES_COUNT_OUT_OF_RANGE} if the adjustment has not been
+	 *         applied
+	 * @throws PersistenceException
+	 */
+	int adjustSharesCount(String stockSymbol, int delta) throws PersistenceException;
+
+	/**
+	 * Atomically adjusts the shares count of an existing stock, identified by its symbol id.
+	 * 
+	 * @param stockId
+	 *            the symbol id of the stock to be adjusted, see
+	 *            {@link com.acme.domain.SymbolRegistry}
+	 * @param delta
+	 *            the number of shares to add (positive) or remove (negative)
+	 * @return the new shares count, or one of {@link SharesCountDatastore#UNKNOWN_STOCK} and
+	 *         {@link SharesCountDatastore#SHARES_COUNT_OUT_OF_RANGE} if the adjustment has not been
+	 *         applied
+	 * @throws PersistenceException
+	 */
+	int adjustSharesCount(int stockId, int delta) throws PersistenceException;
+
 	/**
 	 * Returns a collection of all stocks defined into the persistent storage.
 	 * 
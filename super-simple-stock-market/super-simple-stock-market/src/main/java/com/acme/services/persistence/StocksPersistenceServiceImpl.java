@@ -7,8 +7,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
 import com.acme.storage.DatastoreException;
-import com.acme.storage.StocksDatastore;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.SharesCountDatastore;
 import com.acme.storage.filter.StockFilter;
 
 /**
@@ -21,7 +23,7 @@ public class StocksPersistenceServiceImpl implements StocksPersistenceService {
 	/**
 	 * A reference to the stocks persistence storage implementation.
 	 */
-	private StocksDatastore stocksDatastore;
+	private SharesCountDatastore stocksDatastore;
 
 	public StocksPersistenceServiceImpl() {
 	}
@@ -87,7 +89,100 @@ public class StocksPersistenceServiceImpl implements StocksPersistenceService {
 			throw new PersistenceException(message);
 		}
 
-		return matches.toArray(new Stock[1])[0];
+		return matches.iterator().next();
+	}
+
+	/**
+	 * Reads the stocks matching several symbols at once, visiting each stock in place instead of
+	 * materializing a filtered collection per symbol.
+	 * 
+	 * @param stockSymbols
+	 *            the stock symbols, duplicates allowed
+	 * @return the stocks, positioned as their symbols, null for the symbols not found
+	 * @throws PersistenceException
+	 */
+	public Stock[] readAll(String[] stockSymbols) throws PersistenceException {
+		int[] stockIds = new int[stockSymbols.length];
+		for (int i = 0; i < stockSymbols.length; i++) {
+			stockIds[i] = SymbolRegistry.idOf(stockSymbols[i]);
+		}
+
+		return readAll(stockIds);
+	}
+
+	/**
+	 * Reads the stocks matching several symbol ids at once, visiting each stock in place instead of
+	 * materializing a filtered collection per id.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids, see {@link com.acme.domain.SymbolRegistry}, duplicates
+	 *            allowed
+	 * @return the stocks, positioned as their ids, null for the ids not found
+	 * @throws PersistenceException
+	 */
+	public Stock[] readAll(int[] stockIds) throws PersistenceException {
+		Stock[] stocks = new Stock[stockIds.length];
+
+		// a single filter and visitor, reused for every id
+		StockFilter stockFilter = new StockFilter();
+		StocksCollector collector = new StocksCollector(stocks);
+		try {
+			for (int i = 0; i < stockIds.length; i++) {
+				if (stockIds[i] != SymbolRegistry.NO_ID) {
+					stockFilter.setStockId(stockIds[i]);
+					collector.index = i;
+					stocksDatastore.forEach(stockFilter, collector);
+				}
+			}
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while reading stocks.", e);
+			throw new PersistenceException(e);
+		}
+
+		return stocks;
+	}
+
+	/**
+	 * Atomically adjusts the shares count of an existing stock.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol of the stock to be adjusted
+	 * @param delta
+	 *            the number of shares to add (positive) or remove (negative)
+	 * @return the new shares count, or one of {@link SharesCountDatastore#UNKNOWN_STOCK} and
+	 *         {@link SharesCountDatastore#SHARES_COUNT_OUT_OF_RANGE} if the adjustment has not been
+	 *         applied
+	 * @throws PersistenceException
+	 */
+	public int adjustSharesCount(String stockSymbol, int delta) throws PersistenceException {
+		try {
+			return stocksDatastore.adjustSharesCount(stockSymbol, delta);
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while adjusting stock shares count.", e);
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Atomically adjusts the shares count of an existing stock, identified by its symbol id.
+	 * 
+	 * @param stockId
+	 *            the symbol id of the stock to be adjusted, see
+	 *            {@link com.acme.domain.SymbolRegistry}
+	 * @param delta
+	 *            the number of shares to add (positive) or remove (negative)
+	 * @return the new shares count, or one of {@link SharesCountDatastore#UNKNOWN_STOCK} and
+	 *         {@link SharesCountDatastore#SHARES_COUNT_OUT_OF_RANGE} if the adjustment has not been
+	 *         applied
+	 * @throws PersistenceException
+	 */
+	public int adjustSharesCount(int stockId, int delta) throws PersistenceException {
+		try {
+			return stocksDatastore.adjustSharesCount(stockId, delta);
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while adjusting stock shares count.", e);
+			throw new PersistenceException(e);
+		}
 	}
 
 	/**
@@ -109,7 +204,23 @@ public class StocksPersistenceServiceImpl implements StocksPersistenceService {
 	 * @param stocksDatastore
 	 *            the stocksDatastore to set
 	 */
-	public void setStocksDatastore(StocksDatastore stocksDatastore) {
+	public void setStocksDatastore(SharesCountDatastore stocksDatastore) {
 		this.stocksDatastore = stocksDatastore;
 	}
+
+	/**
+	 * Copies the visited stocks into an array, at the position of the symbol being looked up.
+	 */
+	private static class StocksCollector implements DatastoreVisitor<Stock> {
+		private final Stock[] stocks;
+		private int index;
+
+		StocksCollector(Stock[] stocks) {
+			this.stocks = stocks;
+		}
+
+		public void visit(Stock stock) {
+			stocks[index] = new Stock(stock);
+		}
+	}
 }
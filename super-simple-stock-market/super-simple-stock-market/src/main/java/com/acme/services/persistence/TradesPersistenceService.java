@@ -3,6 +3,7 @@ package com.acme.services.persistence;
 import java.util.Collection;
 
 import com.acme.domain.Trade;
+import com.acme.storage.DatastoreVisitor;
 
 /**
  * Interface defining the general contract of a trades persistence service.
@@ -19,6 +20,14 @@ public interface TradesPersistenceService {
 	 */
 	void save(Trade trade) throws PersistenceException;
 
+	/**
+	 * Saves a batch of new trades into the persistent storage.
+	 * 
+	 * @param trades
+	 * @throws PersistenceException
+	 */
+	void saveAll(Collection<Trade> trades) throws PersistenceException;
+
 	/**
 	 * Returns a collection of all trades associated with a given stock symbol, with a specified
 	 * maximum age.
@@ -37,4 +46,72 @@ public interface TradesPersistenceService {
 	 * @throws PersistenceException
 	 */
 	Collection<Trade> listAllTrades() throws PersistenceException;
+
+	/**
+	 * Visits all trades associated with a given stock symbol, with a specified maximum age, without
+	 * copying them.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol identifying the stock
+	 * @param maxAgeInMinutes
+	 *            the trades age in minutes.
+	 * @param visitor
+	 *            the visitor receiving the trades, which must not keep references to them.
+	 * @throws PersistenceException
+	 */
+	void visitAgedTrades(String stockSymbol, int maxAgeInMinutes, DatastoreVisitor<Trade> visitor) throws PersistenceException;
+
+	/**
+	 * Visits all trades associated with a given stock symbol id, with a specified maximum age,
+	 * without copying them.
+	 * 
+	 * @param stockId
+	 *            the stock symbol id, see {@link com.acme.domain.SymbolRegistry}
+	 * @param maxAgeInMinutes
+	 *            the trades age in minutes.
+	 * @param visitor
+	 *            the visitor receiving the trades, which must not keep references to them.
+	 * @throws PersistenceException
+	 */
+	void visitAgedTrades(int stockId, int maxAgeInMinutes, DatastoreVisitor<Trade> visitor) throws PersistenceException;
+
+	/**
+	 * Visits all trades defined in the datastore, without copying them.
+	 * 
+	 * @param visitor
+	 *            the visitor receiving the trades, which must not keep references to them.
+	 * @throws PersistenceException
+	 */
+	void visitAllTrades(DatastoreVisitor<Trade> visitor) throws PersistenceException;
+
+	/**
+	 * Returns the number of trades defined in the datastore, without listing them.
+	 * 
+	 * @return the trades count.
+	 * @throws PersistenceException
+	 */
+	int countAllTrades() throws PersistenceException;
+
+	/**
+	 * Returns the number of trades associated with a given stock symbol, without listing them.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol identifying the stock
+	 * @return the trades count.
+	 * @throws PersistenceException
+	 */
+	int countTrades(String stockSymbol) throws PersistenceException;
+
+	/**
+	 * Returns the number of trades associated with a given stock symbol, with a specified maximum
+	 * age, without listing them.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol identifying the stock
+	 * @param maxAgeInMinutes
+	 *            the trades age in minutes.
+	 * @return the trades count.
+	 * @throws PersistenceException
+	 */
+	int countAgedTrades(String stockSymbol, int maxAgeInMinutes) throws PersistenceException;
 }
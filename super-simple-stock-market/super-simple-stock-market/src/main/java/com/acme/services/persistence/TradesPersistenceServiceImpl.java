@@ -1,19 +1,32 @@
 package com.acme.services.persistence;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.acme.domain.Trade;
+import com.acme.storage.BatchDatastore;
+import com.acme.storage.Datastore;
 import com.acme.storage.DatastoreException;
-import com.acme.storage.TradesDatastore;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.filter.StockFilter;
 import com.acme.storage.filter.TradeFilter;
+import com.acme.storage.retention.TradesCompactor;
 
 /**
  * Default implementation of the trades persistence service.
  * 
+ * <p>
+ * When the trades datastore is compacted by a {@link TradesCompactor} archiving the expired trades,
+ * the aged trades queries reaching beyond the trades kept whatever the retention limits are served
+ * from the archive as well, the archived trades coming first. The queries within the analytics
+ * windows are served from the trades datastore alone.
+ * </p>
+ * 
  * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
  *
  */
@@ -23,7 +36,12 @@ public class TradesPersistenceServiceImpl implements TradesPersistenceService {
 	/**
 	 * A reference to the trades datastore used by this persistence service implementation.
 	 */
-	private TradesDatastore tradesDatastore;
+	private Datastore<Trade> tradesDatastore;
+
+	/**
+	 * The compactor of the trades datastore, if its expired trades are archived.
+	 */
+	private TradesCompactor tradesCompactor;
 
 	/**
 	 * Saves a new trade into the persistent storage.
@@ -40,6 +58,28 @@ public class TradesPersistenceServiceImpl implements TradesPersistenceService {
 		}
 	}
 
+	/**
+	 * Saves a batch of new trades into the persistent storage, in a single datastore operation if
+	 * the datastore supports it.
+	 * 
+	 * @param trades
+	 * @throws PersistenceException
+	 */
+	public void saveAll(Collection<Trade> trades) throws PersistenceException {
+		try {
+			if (tradesDatastore instanceof BatchDatastore) {
+				((BatchDatastore<Trade>) tradesDatastore).storeAll(trades);
+			} else {
+				for (Trade trade : trades) {
+					tradesDatastore.store(trade);
+				}
+			}
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while persisting trades.", e);
+			throw new PersistenceException(e);
+		}
+	}
+
 	/**
 	 * Returns a collection of all trades associated with a given stock symbol, with a specified
 	 * maximum age.
@@ -54,10 +94,20 @@ public class TradesPersistenceServiceImpl implements TradesPersistenceService {
 
 		Collection<Trade> agedTrades = new LinkedList<Trade>();
 		try {
-			agedTrades = tradesDatastore.filter(tradeFilter);
+			if (isArchived(maxAgeInMinutes)) {
+				long stamp = tradesCompactor.beginQuery();
+				try {
+					List<Trade> archivedTrades = new ArrayList<Trade>(tradesCompactor.getArchive().filter(tradeFilter));
+					archivedTrades.addAll(tradesDatastore.filter(tradeFilter));
+					agedTrades = archivedTrades;
+				} finally {
+					tradesCompactor.endQuery(stamp);
+				}
+			} else {
+				agedTrades = tradesDatastore.filter(tradeFilter);
+			}
 		} catch (DatastoreException e) {
-			logger.error("Exception occurred while filtering datastore for aged trades, stock: [" + stockSymbol + "], max age in minutes: ["
-					+ maxAgeInMinutes + "]");
+			logger.error("Exception occurred while filtering datastore for aged trades, stock: [{}], max age in minutes: [{}]", stockSymbol, maxAgeInMinutes);
 			throw new PersistenceException(e);
 		}
 
@@ -79,11 +129,161 @@ public class TradesPersistenceServiceImpl implements TradesPersistenceService {
 		}
 	}
 
+	/**
+	 * Visits all trades associated with a given stock symbol, with a specified maximum age, without
+	 * copying them.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol identifying the stock
+	 * @param maxAgeInMinutes
+	 *            the trades age in minutes.
+	 * @param visitor
+	 *            the visitor receiving the trades, which must not keep references to them.
+	 * @throws PersistenceException
+	 */
+	public void visitAgedTrades(String stockSymbol, int maxAgeInMinutes, DatastoreVisitor<Trade> visitor) throws PersistenceException {
+		try {
+			visitAgedTrades(new TradeFilter(stockSymbol, maxAgeInMinutes), maxAgeInMinutes, visitor);
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while visiting datastore aged trades, stock: [{}], max age in minutes: [{}]", stockSymbol, maxAgeInMinutes);
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Visits all trades associated with a given stock symbol id, with a specified maximum age,
+	 * without copying them.
+	 * 
+	 * @param stockId
+	 *            the stock symbol id, see {@link com.acme.domain.SymbolRegistry}
+	 * @param maxAgeInMinutes
+	 *            the trades age in minutes.
+	 * @param visitor
+	 *            the visitor receiving the trades, which must not keep references to them.
+	 * @throws PersistenceException
+	 */
+	public void visitAgedTrades(int stockId, int maxAgeInMinutes, DatastoreVisitor<Trade> visitor) throws PersistenceException {
+		try {
+			visitAgedTrades(new TradeFilter(stockId, maxAgeInMinutes), maxAgeInMinutes, visitor);
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while visiting datastore aged trades, stock id: [{}], max age in minutes: [{}]", stockId, maxAgeInMinutes);
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Visits all trades defined in the datastore, without copying them.
+	 * 
+	 * @param visitor
+	 *            the visitor receiving the trades, which must not keep references to them.
+	 * @throws PersistenceException
+	 */
+	public void visitAllTrades(DatastoreVisitor<Trade> visitor) throws PersistenceException {
+		try {
+			tradesDatastore.forEach(visitor);
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while visiting trades", e);
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of trades defined in the datastore, without listing them.
+	 * 
+	 * @return the trades count.
+	 * @throws PersistenceException
+	 */
+	public int countAllTrades() throws PersistenceException {
+		try {
+			return tradesDatastore.count();
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while counting trades", e);
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of trades associated with a given stock symbol, without listing them.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol identifying the stock
+	 * @return the trades count.
+	 * @throws PersistenceException
+	 */
+	public int countTrades(String stockSymbol) throws PersistenceException {
+		try {
+			return tradesDatastore.count(new StockFilter(stockSymbol));
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while counting trades, stock: [{}]", stockSymbol, e);
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of trades associated with a given stock symbol, with a specified maximum
+	 * age, without listing them.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol identifying the stock
+	 * @param maxAgeInMinutes
+	 *            the trades age in minutes.
+	 * @return the trades count.
+	 * @throws PersistenceException
+	 */
+	public int countAgedTrades(String stockSymbol, int maxAgeInMinutes) throws PersistenceException {
+		TradeFilter tradeFilter = new TradeFilter(stockSymbol, maxAgeInMinutes);
+		try {
+			if (isArchived(maxAgeInMinutes)) {
+				long stamp = tradesCompactor.beginQuery();
+				try {
+					long count = (long) tradesCompactor.getArchive().count(tradeFilter) + tradesDatastore.count(tradeFilter);
+					return (int) Math.min(count, Integer.MAX_VALUE);
+				} finally {
+					tradesCompactor.endQuery(stamp);
+				}
+			}
+			return tradesDatastore.count(tradeFilter);
+		} catch (DatastoreException e) {
+			logger.error("Exception occurred while counting aged trades, stock: [{}], max age in minutes: [{}]", stockSymbol, maxAgeInMinutes, e);
+			throw new PersistenceException(e);
+		}
+	}
+
 	/**
 	 * @param tradesDatastore
 	 *            the tradesDatastore to set
 	 */
-	public void setTradesDatastore(TradesDatastore tradesDatastore) {
+	public void setTradesDatastore(Datastore<Trade> tradesDatastore) {
 		this.tradesDatastore = tradesDatastore;
 	}
+
+	/**
+	 * @param tradesCompactor
+	 *            the compactor of the trades datastore, optional, whose archive serves the trades
+	 *            older than the retention limits
+	 */
+	public void setTradesCompactor(TradesCompactor tradesCompactor) {
+		this.tradesCompactor = tradesCompactor;
+	}
+
+	private void visitAgedTrades(TradeFilter tradeFilter, int maxAgeInMinutes, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		if (isArchived(maxAgeInMinutes)) {
+			long stamp = tradesCompactor.beginQuery();
+			try {
+				tradesCompactor.getArchive().forEach(tradeFilter, visitor);
+				tradesDatastore.forEach(tradeFilter, visitor);
+			} finally {
+				tradesCompactor.endQuery(stamp);
+			}
+		} else {
+			tradesDatastore.forEach(tradeFilter, visitor);
+		}
+	}
+
+	/**
+	 * @return whether some trades of the given age at most may have been moved to the archive
+	 */
+	private boolean isArchived(int maxAgeInMinutes) {
+		return tradesCompactor != null && tradesCompactor.getArchive() != null && !tradesCompactor.getRetentionPolicy().isProtected(maxAgeInMinutes);
+	}
 }
@@ -0,0 +1,22 @@
+package com.acme.services.sharding;
+
+import com.acme.services.businesslogic.BusinesslogicException;
+
+/**
+ * Operation run on the thread of a {@link TradingShard}, against the shard services.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ * 
+ * @param <T>
+ *            the operation result type
+ */
+public interface ShardTask<T> {
+	/**
+	 * @param shard
+	 *            the shard the operation is run on
+	 * @return the operation result
+	 * @throws BusinesslogicException
+	 *             if the operation fails
+	 */
+	T run(TradingShard shard) throws BusinesslogicException;
+}
@@ -0,0 +1,306 @@
+package com.acme.services.sharding;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.TradeAggregate;
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketService;
+import com.acme.util.LogThrottle;
+
+/**
+ * {@link StockMarketService} routing the calculations on a stock to the {@link TradingShard} owning
+ * its symbol. Bulk calculations are split per shard and run in parallel, and the GBCE All Share
+ * Index is combined from the partial indices of all shards: the geometric mean of the shards
+ * geometric means, each weighted by its number of prices.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ShardedStockMarketService implements StockMarketService {
+	private static final Logger logger = LogManager.getLogger(ShardedStockMarketService.class);
+
+	private TradingShards shards;
+
+	private LogThrottle noTradesWarnings = new LogThrottle(1000L);
+
+	public double calculateDividentYield(final String stockSymbol, final double price) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Double>() {
+			public Double run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().calculateDividentYield(stockSymbol, price);
+			}
+		});
+	}
+
+	public double tryCalculateDividentYield(final String stockSymbol, final double price) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Double>() {
+			public Double run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().tryCalculateDividentYield(stockSymbol, price);
+			}
+		});
+	}
+
+	public double calculatePERatio(final String stockSymbol, final double price) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Double>() {
+			public Double run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().calculatePERatio(stockSymbol, price);
+			}
+		});
+	}
+
+	public double tryCalculatePERatio(final String stockSymbol, final double price) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Double>() {
+			public Double run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().tryCalculatePERatio(stockSymbol, price);
+			}
+		});
+	}
+
+	public double[] calculateDividentYields(String[] stockSymbols, double[] prices) throws BusinesslogicException {
+		return calculateDividentYields(stockIds(stockSymbols), prices);
+	}
+
+	public double[] calculateDividentYields(int[] stockIds, double[] prices) throws BusinesslogicException {
+		return calculateBulk(stockIds, prices, new BulkCalculation() {
+			@Override
+			double[] calculate(StockMarketService service, int[] shardStockIds, double[] shardPrices) throws BusinesslogicException {
+				return service.calculateDividentYields(shardStockIds, shardPrices);
+			}
+		});
+	}
+
+	public double[] calculatePERatios(String[] stockSymbols, double[] prices) throws BusinesslogicException {
+		return calculatePERatios(stockIds(stockSymbols), prices);
+	}
+
+	public double[] calculatePERatios(int[] stockIds, double[] prices) throws BusinesslogicException {
+		return calculateBulk(stockIds, prices, new BulkCalculation() {
+			@Override
+			double[] calculate(StockMarketService service, int[] shardStockIds, double[] shardPrices) throws BusinesslogicException {
+				return service.calculatePERatios(shardStockIds, shardPrices);
+			}
+		});
+	}
+
+	public double calculateVolumeWeightedStockPrice(final String stockSymbol, final int ageInMinutes) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Double>() {
+			public Double run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().calculateVolumeWeightedStockPrice(stockSymbol, ageInMinutes);
+			}
+		});
+	}
+
+	public double tryCalculateVolumeWeightedStockPrice(final String stockSymbol, final int ageInMinutes) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Double>() {
+			public Double run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().tryCalculateVolumeWeightedStockPrice(stockSymbol, ageInMinutes);
+			}
+		});
+	}
+
+	public double[] calculateVolumeWeightedStockPrices(String[] stockSymbols, int ageInMinutes) throws BusinesslogicException {
+		return calculateVolumeWeightedStockPrices(stockIds(stockSymbols), ageInMinutes);
+	}
+
+	public double[] calculateVolumeWeightedStockPrices(int[] stockIds, final int ageInMinutes) throws BusinesslogicException {
+		return calculateBulk(stockIds, null, new BulkCalculation() {
+			@Override
+			double[] calculate(StockMarketService service, int[] shardStockIds, double[] shardPrices) throws BusinesslogicException {
+				return service.calculateVolumeWeightedStockPrices(shardStockIds, ageInMinutes);
+			}
+		});
+	}
+
+	public double calculateVolumeWeightedStockPrice(final String stockSymbol, final Date from, final Date to) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Double>() {
+			public Double run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().calculateVolumeWeightedStockPrice(stockSymbol, from, to);
+			}
+		});
+	}
+
+	public TradeAggregate calculateTradeAggregate(final String stockSymbol, final Date from, final Date to) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<TradeAggregate>() {
+			public TradeAggregate run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStockMarketService().calculateTradeAggregate(stockSymbol, from, to);
+			}
+		});
+	}
+
+	public double calculateGBCEAllShareIndex() throws BusinesslogicException {
+		return checkIndex(allShareIndex(false));
+	}
+
+	public double tryCalculateGBCEAllShareIndex() throws BusinesslogicException {
+		return allShareIndex(false);
+	}
+
+	public double calculateGBCEAllShareIndexOfLatestPrices() throws BusinesslogicException {
+		return checkIndex(allShareIndex(true));
+	}
+
+	public double tryCalculateGBCEAllShareIndexOfLatestPrices() throws BusinesslogicException {
+		return allShareIndex(true);
+	}
+
+	/**
+	 * Combines the GBCE All Share Index variant of all shards.
+	 * 
+	 * @param latestPrices
+	 *            true for the index of the latest prices, false for the index of all trades
+	 * @return the geometric mean of the shards indices weighted by their numbers of prices, or
+	 *         {@link Double#NaN} if there are no trades
+	 * @throws BusinesslogicException
+	 */
+	private double allShareIndex(final boolean latestPrices) throws BusinesslogicException {
+		// the index and its weight are read on the shard thread, so no trade is recorded in between
+		List<double[]> partialIndices = shards.callAll(new ShardTask<double[]>() {
+			public double[] run(TradingShard shard) {
+				AllShareIndexCalculator calculator = shard.getAllShareIndexCalculator();
+				if (latestPrices) {
+					return new double[] { calculator.getLatestPricesIndex(), calculator.getLatestPricesCount() };
+				}
+				return new double[] { calculator.getAllTradesIndex(), calculator.getPricesCount() };
+			}
+		});
+
+		double logPricesSum = 0.0;
+		double pricesCount = 0.0;
+		for (double[] partialIndex : partialIndices) {
+			if (partialIndex[1] > 0.0) {
+				logPricesSum += Math.log(partialIndex[0]) * partialIndex[1];
+				pricesCount += partialIndex[1];
+			}
+		}
+
+		return pricesCount == 0.0 ? Double.NaN : Math.exp(logPricesSum / pricesCount);
+	}
+
+	/**
+	 * Splits a bulk calculation per shard and runs the parts in parallel. Invalid arguments are
+	 * passed as they are to the first shard, which rejects them as the non sharded service would.
+	 * 
+	 * @param stockIds
+	 *            the stock symbol ids
+	 * @param prices
+	 *            the prices, positioned as the stock ids, or null if the calculation takes none
+	 * @param calculation
+	 *            the calculation
+	 * @return the calculation results, positioned as the stock ids
+	 * @throws BusinesslogicException
+	 */
+	private double[] calculateBulk(final int[] stockIds, final double[] prices, final BulkCalculation calculation) throws BusinesslogicException {
+		if (stockIds == null || (prices != null && prices.length != stockIds.length) || shards.size() == 1) {
+			return shards.getShard(0).call(new ShardTask<double[]>() {
+				public double[] run(TradingShard shard) throws BusinesslogicException {
+					return calculation.calculate(shard.getStockMarketService(), stockIds, prices);
+				}
+			});
+		}
+
+		int[] idShards = new int[stockIds.length];
+		int[] counts = new int[shards.size()];
+		for (int i = 0; i < stockIds.length; i++) {
+			idShards[i] = shards.shardOf(stockIds[i]);
+			counts[idShards[i]]++;
+		}
+
+		List<Future<double[]>> futures = new ArrayList<Future<double[]>>(counts.length);
+		for (int shardIndex = 0; shardIndex < counts.length; shardIndex++) {
+			if (counts[shardIndex] == 0) {
+				futures.add(null);
+				continue;
+			}
+
+			final int[] shardStockIds = new int[counts[shardIndex]];
+			final double[] shardPrices = prices == null ? null : new double[counts[shardIndex]];
+			for (int i = 0, position = 0; i < stockIds.length; i++) {
+				if (idShards[i] == shardIndex) {
+					shardStockIds[position] = stockIds[i];
+					if (shardPrices != null) {
+						shardPrices[position] = prices[i];
+					}
+					position++;
+				}
+			}
+
+			futures.add(shards.getShard(shardIndex).submit(new ShardTask<double[]>() {
+				public double[] run(TradingShard shard) throws BusinesslogicException {
+					return calculation.calculate(shard.getStockMarketService(), shardStockIds, shardPrices);
+				}
+			}));
+		}
+
+		double[][] shardsResults = new double[counts.length][];
+		for (int shardIndex = 0; shardIndex < counts.length; shardIndex++) {
+			if (futures.get(shardIndex) != null) {
+				shardsResults[shardIndex] = TradingShard.await(futures.get(shardIndex));
+			}
+		}
+
+		int[] positions = new int[counts.length];
+		double[] results = new double[stockIds.length];
+		for (int i = 0; i < stockIds.length; i++) {
+			results[i] = shardsResults[idShards[i]][positions[idShards[i]]++];
+		}
+		return results;
+	}
+
+	private static int[] stockIds(String[] stockSymbols) throws BusinesslogicException {
+		if (stockSymbols == null) {
+			throw new BusinesslogicException("Invalid stock symbols: [null]");
+		}
+
+		int[] stockIds = new int[stockSymbols.length];
+		for (int i = 0; i < stockSymbols.length; i++) {
+			stockIds[i] = SymbolRegistry.idOf(stockSymbols[i]);
+		}
+		return stockIds;
+	}
+
+	private double checkIndex(double index) throws BusinesslogicException {
+		if (Double.isNaN(index)) {
+			if (logger.isWarnEnabled() && noTradesWarnings.tryAcquire()) {
+				long suppressedCount = noTradesWarnings.drainSuppressedCount();
+				if (suppressedCount == 0L) {
+					logger.warn("Unable to find any trades information.");
+				} else {
+					logger.warn("Unable to find any trades information. [{} similar warnings suppressed]", suppressedCount);
+				}
+			}
+			throw new BusinesslogicException("Unable to find any trades information.");
+		}
+		return index;
+	}
+
+	/**
+	 * @param shards
+	 *            the shards the stocks are partitioned across
+	 */
+	public void setShards(TradingShards shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * @param warningsIntervalMillis
+	 *            the minimum interval between two warnings about queries matching no trades, in
+	 *            milliseconds
+	 */
+	public void setWarningsIntervalMillis(long warningsIntervalMillis) {
+		this.noTradesWarnings = new LogThrottle(warningsIntervalMillis);
+	}
+
+	/**
+	 * Calculation run on each shard over the stocks it owns.
+	 */
+	private static abstract class BulkCalculation {
+		abstract double[] calculate(StockMarketService service, int[] stockIds, double[] prices) throws BusinesslogicException;
+	}
+}
@@ -0,0 +1,79 @@
+package com.acme.services.sharding;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.acme.domain.Stock;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StocksService;
+
+/**
+ * {@link StocksService} routing each stock to the {@link TradingShard} owning its symbol.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ShardedStocksService implements StocksService {
+	private TradingShards shards;
+
+	/**
+	 * Creates a stock on the shard owning its symbol.
+	 * 
+	 * @param stock
+	 *            the stock to be created
+	 * @throws BusinesslogicException
+	 */
+	public void createStock(final Stock stock) throws BusinesslogicException {
+		shards.call(stock == null ? null : stock.getSymbol(), new ShardTask<Void>() {
+			public Void run(TradingShard shard) throws BusinesslogicException {
+				shard.getStocksService().createStock(stock);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Reads a stock from the shard owning its symbol.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @return the stock
+	 * @throws BusinesslogicException
+	 */
+	public Stock getStock(final String stockSymbol) throws BusinesslogicException {
+		return shards.call(stockSymbol, new ShardTask<Stock>() {
+			public Stock run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStocksService().getStock(stockSymbol);
+			}
+		});
+	}
+
+	/**
+	 * Gathers the stocks of all shards.
+	 * 
+	 * @return the collection of existing stocks
+	 * @throws BusinesslogicException
+	 */
+	public Collection<Stock> listAllStocks() throws BusinesslogicException {
+		List<Collection<Stock>> shardsStocks = shards.callAll(new ShardTask<Collection<Stock>>() {
+			public Collection<Stock> run(TradingShard shard) throws BusinesslogicException {
+				return shard.getStocksService().listAllStocks();
+			}
+		});
+
+		List<Stock> stocks = new ArrayList<Stock>();
+		for (Collection<Stock> shardStocks : shardsStocks) {
+			stocks.addAll(shardStocks);
+		}
+		return stocks;
+	}
+
+	/**
+	 * @param shards
+	 *            the shards the stocks are partitioned across
+	 */
+	public void setShards(TradingShards shards) {
+		this.shards = shards;
+	}
+}
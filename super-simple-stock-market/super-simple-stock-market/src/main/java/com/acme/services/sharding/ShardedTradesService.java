@@ -0,0 +1,141 @@
+package com.acme.services.sharding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.acme.domain.Trade;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.TradeResult;
+import com.acme.services.businesslogic.TradeStatus;
+import com.acme.services.businesslogic.TradesService;
+
+/**
+ * {@link TradesService} routing each trade to the {@link TradingShard} owning its stock symbol. A
+ * batch of trades is split per shard, the shards applying their parts in parallel.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ShardedTradesService implements TradesService {
+	private TradingShards shards;
+
+	/**
+	 * Creates a trade on the shard owning its stock symbol.
+	 * 
+	 * @param trade
+	 *            the new trade to be created
+	 * @throws BusinesslogicException
+	 */
+	public void createTrade(final Trade trade) throws BusinesslogicException {
+		shards.call(symbolOf(trade), new ShardTask<Void>() {
+			public Void run(TradingShard shard) throws BusinesslogicException {
+				shard.getTradesService().createTrade(trade);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Submits a trade to the shard owning its stock symbol.
+	 * 
+	 * @param trade
+	 *            the new trade to be created
+	 * @return the outcome of the trade
+	 * @throws BusinesslogicException
+	 */
+	public TradeStatus submitTrade(final Trade trade) throws BusinesslogicException {
+		return shards.call(symbolOf(trade), new ShardTask<TradeStatus>() {
+			public TradeStatus run(TradingShard shard) throws BusinesslogicException {
+				return shard.getTradesService().submitTrade(trade);
+			}
+		});
+	}
+
+	/**
+	 * Splits a batch of trades per shard, preserving their order within each shard, and creates
+	 * each part on its shard.
+	 * 
+	 * @param trades
+	 *            the new trades to be created
+	 * @return the outcome of each trade, in the order of the passed in collection
+	 * @throws BusinesslogicException
+	 */
+	public List<TradeResult> createTrades(final Collection<Trade> trades) throws BusinesslogicException {
+		if (trades == null || shards.size() == 1) {
+			return shards.getShard(0).call(new ShardTask<List<TradeResult>>() {
+				public List<TradeResult> run(TradingShard shard) throws BusinesslogicException {
+					return shard.getTradesService().createTrades(trades);
+				}
+			});
+		}
+
+		Trade[] batch = trades.toArray(new Trade[trades.size()]);
+		int[] tradeShards = new int[batch.length];
+		List<List<Trade>> shardsTrades = new ArrayList<List<Trade>>(shards.size());
+		for (int i = 0; i < shards.size(); i++) {
+			shardsTrades.add(new ArrayList<Trade>());
+		}
+		for (int i = 0; i < batch.length; i++) {
+			tradeShards[i] = shards.shardOf(symbolOf(batch[i]));
+			shardsTrades.get(tradeShards[i]).add(batch[i]);
+		}
+
+		List<Future<List<TradeResult>>> futures = new ArrayList<Future<List<TradeResult>>>(shards.size());
+		for (int i = 0; i < shards.size(); i++) {
+			final List<Trade> shardTrades = shardsTrades.get(i);
+			futures.add(shardTrades.isEmpty() ? null : shards.getShard(i).submit(new ShardTask<List<TradeResult>>() {
+				public List<TradeResult> run(TradingShard shard) throws BusinesslogicException {
+					return shard.getTradesService().createTrades(shardTrades);
+				}
+			}));
+		}
+
+		List<List<TradeResult>> shardsResults = new ArrayList<List<TradeResult>>(shards.size());
+		for (Future<List<TradeResult>> future : futures) {
+			shardsResults.add(future == null ? null : TradingShard.await(future));
+		}
+
+		// each shard results are in the order of its trades, merged back by the position of the next one
+		int[] positions = new int[shards.size()];
+		TradeResult[] results = new TradeResult[batch.length];
+		for (int i = 0; i < batch.length; i++) {
+			results[i] = shardsResults.get(tradeShards[i]).get(positions[tradeShards[i]]++);
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Gathers the trades of all shards.
+	 * 
+	 * @return the collection of existing trades.
+	 * @throws BusinesslogicException
+	 */
+	public Collection<Trade> listAllTrades() throws BusinesslogicException {
+		List<Collection<Trade>> shardsTrades = shards.callAll(new ShardTask<Collection<Trade>>() {
+			public Collection<Trade> run(TradingShard shard) throws BusinesslogicException {
+				return shard.getTradesService().listAllTrades();
+			}
+		});
+
+		List<Trade> trades = new ArrayList<Trade>();
+		for (Collection<Trade> shardTrades : shardsTrades) {
+			trades.addAll(shardTrades);
+		}
+		return trades;
+	}
+
+	private static String symbolOf(Trade trade) {
+		return trade == null ? null : trade.getStockSymbol();
+	}
+
+	/**
+	 * @param shards
+	 *            the shards the trades are partitioned across
+	 */
+	public void setShards(TradingShards shards) {
+		this.shards = shards;
+	}
+}
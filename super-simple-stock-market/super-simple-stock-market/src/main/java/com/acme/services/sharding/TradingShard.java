@@ -0,0 +1,251 @@
+package com.acme.services.sharding;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.analytics.TradeListener;
+import com.acme.services.analytics.TradeRollupEngine;
+import com.acme.services.analytics.VolumeWeightedPriceEngine;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketServiceImpl;
+import com.acme.services.businesslogic.StocksServiceImpl;
+import com.acme.services.businesslogic.TradesServiceImpl;
+import com.acme.services.persistence.StocksPersistenceServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.StocksDatastore;
+import com.acme.storage.retention.ExpiredTradeListener;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.storage.retention.TradesCompactor;
+import com.acme.util.Clock;
+
+/**
+ * Partition of the stock market owning the stocks and trades of a subset of the stock symbols: its
+ * own datastores, analytics and businesslogic services, all accessed from a single dedicated
+ * thread. As the state of a shard is never touched by another thread, but for the background
+ * compaction of its trades, the shards run in parallel without contending on locks or cache lines.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradingShard {
+	private static final Logger logger = LogManager.getLogger(TradingShard.class);
+
+	private static final long STOP_TIMEOUT_MILLIS = 10 * 1000;
+
+	private final int index;
+
+	private final StocksServiceImpl stocksService;
+	private final TradesServiceImpl tradesService;
+	private final StockMarketServiceImpl stockMarketService;
+	private final AllShareIndexCalculator allShareIndexCalculator;
+	private final TradesCompactor tradesCompactor;
+
+	private final ExecutorService executor;
+	private volatile Thread thread;
+
+	/**
+	 * @param index
+	 *            the shard index
+	 * @param windowsInMinutes
+	 *            the windows lengths (in minutes) tracked by the volume weighted price engine
+	 * @param retentionPolicy
+	 *            the trades retention policy, or null if the trades are kept forever
+	 * @param clock
+	 *            the clock the trades are timestamped and expired with
+	 */
+	TradingShard(final int index, List<Integer> windowsInMinutes, RetentionPolicy retentionPolicy, Clock clock) {
+		this.index = index;
+
+		// the stocks are only accessed by the shard thread, so a single threaded datastore holds them,
+		// while the trades are compacted on the compactor thread as well, so their datastore is concurrent
+		StocksDatastore stocksDatastore = new StocksDatastore();
+		ColumnarTradesDatastore tradesDatastore = new ColumnarTradesDatastore();
+		tradesDatastore.setClock(clock);
+
+		StocksPersistenceServiceImpl stocksPersistenceService = new StocksPersistenceServiceImpl();
+		stocksPersistenceService.setStocksDatastore(stocksDatastore);
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(tradesDatastore);
+
+		VolumeWeightedPriceEngine volumeWeightedPriceEngine = new VolumeWeightedPriceEngine();
+		volumeWeightedPriceEngine.setWindowsInMinutes(windowsInMinutes);
+		volumeWeightedPriceEngine.setClock(clock);
+		allShareIndexCalculator = new AllShareIndexCalculator();
+		TradeRollupEngine tradeRollupEngine = new TradeRollupEngine();
+
+		stocksService = new StocksServiceImpl();
+		stocksService.setStocksPersistenceService(stocksPersistenceService);
+
+		tradesService = new TradesServiceImpl();
+		tradesService.setStocksPersistenceService(stocksPersistenceService);
+		tradesService.setTradesPersistenceService(tradesPersistenceService);
+		tradesService.setTradeListeners(Arrays.<TradeListener> asList(volumeWeightedPriceEngine, allShareIndexCalculator, tradeRollupEngine));
+		tradesService.setClock(clock);
+
+		stockMarketService = new StockMarketServiceImpl();
+		stockMarketService.setStocksPersistenceService(stocksPersistenceService);
+		stockMarketService.setTradesPersistenceService(tradesPersistenceService);
+		stockMarketService.setVolumeWeightedPriceEngine(volumeWeightedPriceEngine);
+		stockMarketService.setAllShareIndexCalculator(allShareIndexCalculator);
+		stockMarketService.setTradeRollupEngine(tradeRollupEngine);
+		stockMarketService.setClock(clock);
+		// the shards already spread the load across the cores, bulk calculations stay on the shard thread
+		stockMarketService.setParallelismThreshold(Integer.MAX_VALUE);
+
+		if (retentionPolicy != null) {
+			tradesCompactor = new TradesCompactor();
+			tradesCompactor.setDatastore(tradesDatastore);
+			tradesCompactor.setRetentionPolicy(retentionPolicy);
+			tradesCompactor.setExpiredTradeListeners(Arrays.<ExpiredTradeListener> asList(allShareIndexCalculator));
+		} else {
+			tradesCompactor = null;
+		}
+
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread shardThread = new Thread(runnable, "trading-shard-" + index);
+				shardThread.setDaemon(true);
+				thread = shardThread;
+				return shardThread;
+			}
+		});
+	}
+
+	/**
+	 * Starts the background compaction of the shard trades.
+	 */
+	void start() {
+		if (tradesCompactor != null) {
+			tradesCompactor.start();
+		}
+	}
+
+	/**
+	 * Lets the shard thread run the already submitted operations and stops it.
+	 */
+	void stop() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				logger.warn("Trading shard [{}] did not stop in time.", index);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (tradesCompactor != null) {
+			tradesCompactor.stop();
+		}
+	}
+
+	/**
+	 * Submits an operation to the shard thread.
+	 * 
+	 * @param task
+	 *            the operation
+	 * @return the operation pending result, see {@link #await(Future)}
+	 */
+	public <T> Future<T> submit(final ShardTask<T> task) {
+		return executor.submit(new Callable<T>() {
+			public T call() throws BusinesslogicException {
+				return task.run(TradingShard.this);
+			}
+		});
+	}
+
+	/**
+	 * Runs an operation on the shard thread and waits for its result. An operation called from the
+	 * shard thread itself is run in place.
+	 * 
+	 * @param task
+	 *            the operation
+	 * @return the operation result
+	 * @throws BusinesslogicException
+	 *             if the operation fails
+	 */
+	public <T> T call(ShardTask<T> task) throws BusinesslogicException {
+		if (Thread.currentThread() == thread) {
+			return task.run(this);
+		}
+
+		return await(submit(task));
+	}
+
+	/**
+	 * Waits for the result of an operation submitted to a shard, rethrowing its failure as is.
+	 * 
+	 * @param future
+	 *            the operation pending result
+	 * @return the operation result
+	 * @throws BusinesslogicException
+	 *             if the operation fails or the wait is interrupted
+	 */
+	static <T> T await(Future<T> future) throws BusinesslogicException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BusinesslogicException("Interrupted while waiting for a trading shard.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof BusinesslogicException) {
+				throw (BusinesslogicException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new BusinesslogicException(cause);
+		}
+	}
+
+	/**
+	 * @return the shard index
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the stocks service of the shard, to be called from the shard thread only
+	 */
+	public StocksServiceImpl getStocksService() {
+		return stocksService;
+	}
+
+	/**
+	 * @return the trades service of the shard, to be called from the shard thread only
+	 */
+	public TradesServiceImpl getTradesService() {
+		return tradesService;
+	}
+
+	/**
+	 * @return the stock market service of the shard, to be called from the shard thread only
+	 */
+	public StockMarketServiceImpl getStockMarketService() {
+		return stockMarketService;
+	}
+
+	/**
+	 * @return the GBCE All Share Index calculator of the shard, to be called from the shard thread
+	 *         only
+	 */
+	public AllShareIndexCalculator getAllShareIndexCalculator() {
+		return allShareIndexCalculator;
+	}
+}
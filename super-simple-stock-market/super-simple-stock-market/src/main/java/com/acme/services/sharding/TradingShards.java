@@ -0,0 +1,228 @@
+package com.acme.services.sharding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.util.Clock;
+import com.acme.util.SystemClock;
+
+/**
+ * Sharded execution mode of the stock market: the stock symbols are hash partitioned across a
+ * power of two number of {@link TradingShard}s, by default one per core. The sharded businesslogic
+ * services route the operations on a stock to the shard owning its symbol, and scatter the
+ * operations spanning all stocks across the shards, gathering their partial results.
+ * 
+ * <p>
+ * Each shard owns in-memory datastores and services of its own, so the profiles replacing the
+ * datastores or the services (durable, offheap, archive, replication and event sourcing) cannot
+ * apply to the shards: the shards refuse to start when one of them is active, rather than silently
+ * ignoring it.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradingShards {
+	private static final Logger logger = LogManager.getLogger(TradingShards.class);
+
+	private static final List<String> UNSUPPORTED_PROFILES = Arrays.asList("durable", "offheap", "archive", "replication-leader", "replica", "event-sourced");
+
+	private int shardsCount = Runtime.getRuntime().availableProcessors();
+	private List<Integer> windowsInMinutes = Collections.emptyList();
+	private RetentionPolicy retentionPolicy;
+	private Clock clock = SystemClock.INSTANCE;
+	private List<String> activeProfiles = Collections.emptyList();
+
+	private volatile TradingShard[] shards;
+
+	/**
+	 * Creates the shards and starts their threads.
+	 * 
+	 * @throws IllegalStateException
+	 *             if a profile not supported by the shards is active
+	 */
+	public synchronized void start() {
+		if (shards != null) {
+			return;
+		}
+
+		for (String profile : activeProfiles) {
+			if (UNSUPPORTED_PROFILES.contains(profile)) {
+				throw new IllegalStateException("Profile [" + profile + "] is not supported by the trading shards, which own in-memory datastores.");
+			}
+		}
+
+		int count = 1;
+		while (count < shardsCount) {
+			count <<= 1;
+		}
+
+		TradingShard[] newShards = new TradingShard[count];
+		for (int i = 0; i < count; i++) {
+			newShards[i] = new TradingShard(i, windowsInMinutes, retentionPolicy, clock);
+			newShards[i].start();
+		}
+		shards = newShards;
+
+		logger.info("Trading shards started, [{}] shards.", count);
+	}
+
+	/**
+	 * Lets the shards run the already submitted operations and stops their threads.
+	 */
+	public synchronized void stop() {
+		if (shards == null) {
+			return;
+		}
+
+		for (TradingShard shard : shards) {
+			shard.stop();
+		}
+		shards = null;
+
+		logger.info("Trading shards stopped.");
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int size() {
+		return shards().length;
+	}
+
+	/**
+	 * @param index
+	 *            the shard index
+	 * @return the shard
+	 */
+	public TradingShard getShard(int index) {
+		return shards()[index];
+	}
+
+	/**
+	 * Returns the shard owning a stock symbol. Invalid symbols are owned by the first shard, which
+	 * rejects them as the non sharded services would.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @return the shard index
+	 */
+	public int shardOf(String stockSymbol) {
+		TradingShard[] currentShards = shards();
+		if (stockSymbol == null) {
+			return 0;
+		}
+
+		int hash = stockSymbol.hashCode();
+		return (hash ^ (hash >>> 16)) & (currentShards.length - 1);
+	}
+
+	/**
+	 * Returns the shard owning the stock symbol registered with an id.
+	 * 
+	 * @param stockId
+	 *            the stock symbol id, see {@link SymbolRegistry}
+	 * @return the shard index
+	 */
+	public int shardOf(int stockId) {
+		return shardOf(SymbolRegistry.symbolOf(stockId));
+	}
+
+	/**
+	 * Runs an operation on the shard owning a stock symbol and waits for its result.
+	 * 
+	 * @param stockSymbol
+	 *            the stock symbol
+	 * @param task
+	 *            the operation
+	 * @return the operation result
+	 * @throws BusinesslogicException
+	 *             if the operation fails
+	 */
+	public <T> T call(String stockSymbol, ShardTask<T> task) throws BusinesslogicException {
+		return getShard(shardOf(stockSymbol)).call(task);
+	}
+
+	/**
+	 * Runs an operation on all the shards in parallel and waits for their results.
+	 * 
+	 * @param task
+	 *            the operation
+	 * @return the operation results, positioned as the shards
+	 * @throws BusinesslogicException
+	 *             if the operation fails on any shard
+	 */
+	public <T> List<T> callAll(ShardTask<T> task) throws BusinesslogicException {
+		TradingShard[] currentShards = shards();
+
+		List<Future<T>> futures = new ArrayList<Future<T>>(currentShards.length);
+		for (TradingShard shard : currentShards) {
+			futures.add(shard.submit(task));
+		}
+
+		List<T> results = new ArrayList<T>(currentShards.length);
+		for (Future<T> future : futures) {
+			results.add(TradingShard.await(future));
+		}
+		return results;
+	}
+
+	private TradingShard[] shards() {
+		TradingShard[] currentShards = shards;
+		if (currentShards == null) {
+			throw new IllegalStateException("Trading shards are not started.");
+		}
+		return currentShards;
+	}
+
+	/**
+	 * @param shardsCount
+	 *            the number of shards, rounded up to a power of two
+	 */
+	public void setShardsCount(int shardsCount) {
+		this.shardsCount = shardsCount;
+	}
+
+	/**
+	 * @param windowsInMinutes
+	 *            the windows lengths (in minutes) tracked by the volume weighted price engine of
+	 *            each shard
+	 */
+	public void setWindowsInMinutes(List<Integer> windowsInMinutes) {
+		this.windowsInMinutes = windowsInMinutes;
+	}
+
+	/**
+	 * @param retentionPolicy
+	 *            the trades retention policy, the trades of each shard being compacted in the
+	 *            background, or null if the trades are kept forever
+	 */
+	public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+		this.retentionPolicy = retentionPolicy;
+	}
+
+	/**
+	 * @param clock
+	 *            the clock the trades are timestamped and expired with
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * @param activeProfiles
+	 *            the active Spring profiles, checked against the ones the shards do not support
+	 */
+	public void setActiveProfiles(String[] activeProfiles) {
+		this.activeProfiles = Arrays.asList(activeProfiles);
+	}
+}
@@ -0,0 +1,22 @@
+package com.acme.storage;
+
+import java.util.Collection;
+
+/**
+ * {@link Datastore} able to store a batch of objects in a single operation, paying the per call
+ * costs (validation, locking, journaling) once per batch instead of once per object.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface BatchDatastore<T> extends Datastore<T> {
+	/**
+	 * Stores a batch of new objects in the datastore. The whole batch is validated before any
+	 * object is stored, so either all or none of the objects are stored.
+	 * 
+	 * @param data
+	 *            the objects to be persisted.
+	 * @throws DatastoreException
+	 */
+	void storeAll(Collection<T> data) throws DatastoreException;
+}
@@ -0,0 +1,346 @@
+package com.acme.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.filter.TradeFilter;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.util.Clock;
+import com.acme.util.DateUtils;
+import com.acme.util.StringUtils;
+import com.acme.util.SymbolTable;
+import com.acme.util.SystemClock;
+
+/**
+ * {@link Datastore} implementation, specialized in managing trades information. Trades are kept per
+ * stock symbol id in time-ordered primitive columns (see {@link TradeColumns}), so age based filtering
+ * is performed through a binary search on the timestamps column instead of a full scan.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ColumnarTradesDatastore extends AbstractDatastore<Trade> implements CompactableDatastore<Trade>, BatchDatastore<Trade> {
+	private static final Logger logger = LogManager.getLogger(ColumnarTradesDatastore.class);
+
+	/**
+	 * Internal table holding for each stock symbol id the columns of defined trades.
+	 */
+	private SymbolTable<TradeColumns> tradesTable;
+
+	/**
+	 * Number of trades stored across all stock symbols.
+	 */
+	private AtomicInteger tradesCount;
+
+	/**
+	 * Clock the trades ages are evaluated against, read once per query.
+	 */
+	private Clock clock = SystemClock.INSTANCE;
+
+	public ColumnarTradesDatastore() {
+		super();
+	}
+
+	@Override
+	protected void initDatastore() {
+		logger.debug("Initializing {}...", getClass().getSimpleName());
+
+		this.tradesTable = new SymbolTable<TradeColumns>();
+		this.tradesCount = new AtomicInteger();
+
+		logger.debug("Initialization of {} completed!", getClass().getSimpleName());
+	}
+
+	/**
+	 * Stores a new trade in this datastore.
+	 */
+	public void store(Trade data) throws DatastoreException {
+		integrityCheck(data);
+
+		getOrCreateColumns(SymbolRegistry.register(data)).append(data);
+		tradesCount.incrementAndGet();
+	}
+
+	/**
+	 * Stores a batch of new trades in this datastore, appending the trades of each stock to its
+	 * columns under a single lock acquisition.
+	 */
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		if (data == null) {
+			throw new DatastoreException("Null trades batch received by this datastore.");
+		}
+
+		for (Trade trade : data) {
+			integrityCheck(trade);
+		}
+
+		SymbolTable<List<Trade>> batches = new SymbolTable<List<Trade>>();
+		for (Trade trade : data) {
+			int stockId = SymbolRegistry.register(trade);
+
+			List<Trade> batch = batches.get(stockId);
+			if (batch == null) {
+				batch = new ArrayList<Trade>();
+				batches.putIfAbsent(stockId, batch);
+			}
+			batch.add(trade);
+		}
+
+		for (List<Trade> batch : batches) {
+			getOrCreateColumns(batch.get(0).getStockId()).appendAll(batch);
+			tradesCount.addAndGet(batch.size());
+		}
+	}
+
+	/**
+	 * Operation not implemented by this datastore.
+	 */
+	public boolean update(Trade updatedData) throws DatastoreException {
+		throw new DatastoreException("Operation not supported by this datastore.");
+	}
+
+	/**
+	 * Returns the count of all trades defined in this datastore.
+	 */
+	public int count() throws DatastoreException {
+		return tradesCount.get();
+	}
+
+	/**
+	 * Returns the count of trades matching the filtering conditions: all trades of a stock for a
+	 * {@link StockFilter}, or the trades of a stock newer than an age for a {@link TradeFilter},
+	 * answered through a binary search on the timestamps column.
+	 */
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		if (condition instanceof StockFilter) {
+			StockFilter stockFilter = (StockFilter) condition;
+			if (!stockFilter.hasStockKey()) {
+				throw new DatastoreException("Invalid filter definition, missing search key.");
+			}
+
+			TradeColumns columns = tradesTable.get(stockFilter.getStockId());
+			return columns == null ? 0 : columns.size();
+		}
+
+		TradeFilter tradeFilter = checkFilter(condition);
+
+		TradeColumns columns = tradesTable.get(tradeFilter.getStockId());
+		return columns == null ? 0 : columns.countNewerOrEqualTo(fromTimestamp(tradeFilter));
+	}
+
+	/**
+	 * Returns a collection of filtered trades matching the filtering conditions.
+	 */
+	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
+		TradeFilter tradeFilter = checkFilter(condition);
+
+		ArrayList<Trade> items = new ArrayList<Trade>();
+
+		TradeColumns columns = tradesTable.get(tradeFilter.getStockId());
+		if (columns != null) {
+			columns.copyNewerOrEqualTo(fromTimestamp(tradeFilter), items);
+		}
+
+		return items;
+	}
+
+	/**
+	 * Returns a collection of all trades stored by this datastore implementation.
+	 */
+	public Collection<Trade> list() throws DatastoreException {
+		ArrayList<Trade> tradesCopy = new ArrayList<Trade>(count());
+
+		for (TradeColumns columns : tradesTable) {
+			columns.copyAll(tradesCopy);
+		}
+
+		return tradesCopy;
+	}
+
+	/**
+	 * Visits the trades matching the filtering conditions. The visited trade is a single instance
+	 * reused across the visit, rebuilt from the columns for every trade.
+	 */
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		TradeFilter tradeFilter = checkFilter(condition);
+		checkVisitor(visitor);
+
+		TradeColumns columns = tradesTable.get(tradeFilter.getStockId());
+		if (columns != null) {
+			columns.visitNewerOrEqualTo(fromTimestamp(tradeFilter), visitor);
+		}
+	}
+
+	/**
+	 * Visits all trades stored by this datastore, see
+	 * {@link #forEach(DatastoreFilter, DatastoreVisitor)}.
+	 */
+	public void forEach(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		for (TradeColumns columns : tradesTable) {
+			columns.visitAll(visitor);
+		}
+	}
+
+	/**
+	 * Removes, for every stock, the oldest trades expired according to the retention policy. The
+	 * removed trades are visited oldest first, through a single reused trade instance.
+	 */
+	public int compact(RetentionPolicy policy, DatastoreVisitor<Trade> expiredVisitor) throws DatastoreException {
+		if (policy == null) {
+			throw new DatastoreException("Null retention policy received by this datastore.");
+		}
+
+		long now = clock.currentTimeMillis();
+		long expiryTimestamp = policy.getExpiryTimestamp(now);
+		long protectedTimestamp = policy.getProtectedTimestamp(now);
+		int maxRetainedCount = policy.getMaxRetainedCount(TradeColumns.TRADE_SIZE);
+
+		int evictedCount = 0;
+		for (TradeColumns columns : tradesTable) {
+			int columnsEvictedCount = columns.evict(expiryTimestamp, protectedTimestamp, maxRetainedCount, expiredVisitor);
+			if (columnsEvictedCount > 0) {
+				tradesCount.addAndGet(-columnsEvictedCount);
+				evictedCount += columnsEvictedCount;
+			}
+		}
+
+		return evictedCount;
+	}
+
+	/**
+	 * Captures the trades currently stored, per stock symbol, without copying them (see
+	 * {@link TradeColumnsSnapshot}). Trades stored concurrently may or may not be captured, callers
+	 * needing an exact cut have to hold off writers while the snapshot is taken, which is cheap
+	 * since no trade is copied.
+	 * 
+	 * @return the snapshots of the trades columns of every stock
+	 */
+	public List<TradeColumnsSnapshot> snapshot() {
+		List<TradeColumnsSnapshot> snapshots = new ArrayList<TradeColumnsSnapshot>(tradesTable.size());
+
+		for (TradeColumns columns : tradesTable) {
+			snapshots.add(columns.snapshot());
+		}
+
+		return snapshots;
+	}
+
+	/**
+	 * Bulk loads the trades of a stock written through {@link TradeColumnsSnapshot#writeTo(ByteBuffer)}.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol of the stock the trades belong to
+	 * @param source
+	 *            the buffer holding the trades columns, starting at its position
+	 * @param count
+	 *            the number of trades to be loaded
+	 * @throws DatastoreException
+	 *             if trades of the stock are already stored
+	 */
+	public void restore(String stockSymbol, ByteBuffer source, int count) throws DatastoreException {
+		if (!StringUtils.isValid(stockSymbol)) {
+			throw new DatastoreException("Invalid stock symbol, cannot restore trades.");
+		}
+
+		int stockId = SymbolRegistry.register(stockSymbol);
+		if (tradesTable.putIfAbsent(stockId, TradeColumns.readColumns(stockId, source, count)) != null) {
+			throw new DatastoreException("Trades of stock [" + stockSymbol + "] already defined in datastore.");
+		}
+
+		tradesCount.addAndGet(count);
+	}
+
+	/**
+	 * @param clock
+	 *            the clock the trades ages are evaluated against
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	private long fromTimestamp(TradeFilter tradeFilter) {
+		return DateUtils.fromTimestamp(clock.currentTimeMillis(), tradeFilter.getAgeInMinutes());
+	}
+
+	/**
+	 * Validates a filter received by this datastore.
+	 * 
+	 * @param condition
+	 *            the filter to be validated
+	 * @return the trade filter
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private TradeFilter checkFilter(DatastoreFilter condition) throws DatastoreException {
+		if (condition == null) {
+			throw new DatastoreException("Null filter received by this datastore.");
+		}
+
+		if (!(condition instanceof TradeFilter)) {
+			throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+		}
+
+		TradeFilter tradeFilter = (TradeFilter) condition;
+
+		if (!tradeFilter.hasStockKey() || tradeFilter.getAgeInMinutes() <= 0) {
+			throw new DatastoreException("Invalid filter definition, missing search keys information.");
+		}
+
+		return tradeFilter;
+	}
+
+	private void checkVisitor(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+	}
+
+	private TradeColumns getOrCreateColumns(int stockId) {
+		TradeColumns columns = tradesTable.get(stockId);
+		if (columns == null) {
+			TradeColumns newColumns = new TradeColumns(stockId);
+			columns = tradesTable.putIfAbsent(stockId, newColumns);
+			if (columns == null) {
+				columns = newColumns;
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Performs simple integrity check on a trade object
+	 * 
+	 * @param trade
+	 *            the trade object to be validated
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private void integrityCheck(Trade trade) throws DatastoreException {
+		if (trade == null) {
+			throw new DatastoreException("Trade integrity check validation failed - cannot persist null trade information.");
+		}
+
+		if (trade.getTimestampMillis() == Trade.NO_TIMESTAMP) {
+			throw new DatastoreException("Trade integrity check validation failed - missing timestamp information (required).");
+		}
+
+		if (!StringUtils.isValid(trade.getStockSymbol())) {
+			throw new DatastoreException("Trade integrity check validation failed - missing stock symbol information (required).");
+		}
+
+		if (trade.getType() == null) {
+			throw new DatastoreException("Trade integrity check validation failed - missing trade type information (required).");
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.acme.storage;
+
+import com.acme.storage.retention.RetentionPolicy;
+
+/**
+ * {@link Datastore} able to drop the data which expired according to a {@link RetentionPolicy}, so
+ * that its memory usage stays bounded in a long running process.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface CompactableDatastore<T> extends Datastore<T> {
+	/**
+	 * Removes the expired data. The removed data is visited first, so it can be rolled up or
+	 * archived; a visitor failing to process an item throws a {@link CompactionAbortedException},
+	 * in which case that item and the following ones of the same stock are retained.
+	 * 
+	 * @param policy
+	 *            the retention policy deciding which data expired
+	 * @param expiredVisitor
+	 *            the visitor receiving the removed data, optional
+	 * @return the number of removed items
+	 * @throws DatastoreException
+	 */
+	int compact(RetentionPolicy policy, DatastoreVisitor<T> expiredVisitor) throws DatastoreException;
+}
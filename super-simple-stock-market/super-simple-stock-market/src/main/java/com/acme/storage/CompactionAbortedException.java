@@ -0,0 +1,22 @@
+package com.acme.storage;
+
+/**
+ * Thrown by the expired visitor of a {@link CompactableDatastore#compact} to keep the trades it has
+ * not been able to process, such as trades it failed to archive: the items of a stock from the one
+ * the visitor failed on are retained, the ones visited before being removed, and the compaction
+ * goes on with the next stock.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class CompactionAbortedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param cause
+	 *            the reason the visitor cannot process the expired items
+	 */
+	public CompactionAbortedException(DatastoreException cause) {
+		super(cause);
+	}
+}
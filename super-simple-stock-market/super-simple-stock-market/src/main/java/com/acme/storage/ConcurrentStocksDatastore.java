@@ -0,0 +1,267 @@
+package com.acme.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
+import com.acme.storage.filter.StockFilter;
+import com.acme.util.StringUtils;
+import com.acme.util.SymbolTable;
+
+/**
+ * Thread safe {@link Datastore} implementation, specialized in managing stocks information. Stocks
+ * are guarded by striped locks selected by the stock symbol id: operations on different stocks proceed
+ * in parallel, while operations on the same stock are serialized without a global lock.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ConcurrentStocksDatastore extends AbstractDatastore<Stock> implements SharesCountDatastore {
+	private static final Logger logger = LogManager.getLogger(ConcurrentStocksDatastore.class);
+
+	private static final int DEFAULT_LOCK_STRIPES = 64;
+
+	/**
+	 * Internal table used to hold the stocks into, indexed by the stock symbol id.
+	 */
+	private SymbolTable<Stock> stocksTable;
+
+	/**
+	 * Striped locks guarding the stocks, selected by the stock symbol id.
+	 */
+	private final Object[] locks;
+
+	public ConcurrentStocksDatastore() {
+		this(DEFAULT_LOCK_STRIPES);
+	}
+
+	/**
+	 * @param lockStripes
+	 *            the number of lock stripes, rounded up to a power of two
+	 */
+	public ConcurrentStocksDatastore(int lockStripes) {
+		super();
+
+		int stripes = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+		this.locks = new Object[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	@Override
+	protected void initDatastore() {
+		logger.debug("Initializing {}...", getClass().getSimpleName());
+
+		this.stocksTable = new SymbolTable<Stock>();
+
+		logger.debug("Initialization of {} completed!", getClass().getSimpleName());
+	}
+
+	/**
+	 * Stores a copy of a new stock in this datastore, registering its symbol id. If the stock is
+	 * already present, the operation will throw a {@link DatastoreException}.
+	 */
+	public void store(Stock data) throws DatastoreException {
+		integrityCheck(data);
+
+		if (stocksTable.putIfAbsent(SymbolRegistry.register(data.getSymbol()), new Stock(data)) != null) {
+			throw new DatastoreException("Stock already defined in datastore.");
+		}
+	}
+
+	/**
+	 * Updates an existing stock in this datastore.
+	 */
+	public boolean update(Stock updatedStock) throws DatastoreException {
+		integrityCheck(updatedStock);
+
+		int stockId = updatedStock.getStockId();
+
+		Stock stock = stocksTable.get(stockId);
+		if (stock == null) {
+			return false;
+		}
+
+		synchronized (lockFor(stockId)) {
+			stock.setParValue(updatedStock.getParValue());
+			stock.setSharesCount(updatedStock.getSharesCount());
+			stock.setLastDividend(updatedStock.getLastDividend());
+			stock.setFixedDividend(updatedStock.getFixedDividend());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Atomically adjusts the shares count of a stored stock.
+	 */
+	public int adjustSharesCount(String stockSymbol, int delta) throws DatastoreException {
+		if (!StringUtils.isValid(stockSymbol)) {
+			throw new DatastoreException("Invalid stock symbol, cannot adjust shares count.");
+		}
+
+		return adjustSharesCount(SymbolRegistry.idOf(stockSymbol), delta);
+	}
+
+	/**
+	 * Atomically adjusts the shares count of a stored stock.
+	 */
+	public int adjustSharesCount(int stockId, int delta) throws DatastoreException {
+		Stock stock = stocksTable.get(stockId);
+		if (stock == null) {
+			return UNKNOWN_STOCK;
+		}
+
+		synchronized (lockFor(stockId)) {
+			long sharesCount = (long) stock.getSharesCount() + delta;
+			if (sharesCount < 0 || sharesCount > Integer.MAX_VALUE) {
+				return SHARES_COUNT_OUT_OF_RANGE;
+			}
+
+			stock.setSharesCount((int) sharesCount);
+
+			return (int) sharesCount;
+		}
+	}
+
+	/**
+	 * Returns the number of stocks which are currently stored by this datastore.
+	 */
+	public int count() throws DatastoreException {
+		return stocksTable.size();
+	}
+
+	/**
+	 * Returns the number of stocks matching the filter, either 0 or 1.
+	 */
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return stocksTable.get(checkFilter(condition).getStockId()) != null ? 1 : 0;
+	}
+
+	/**
+	 * Returns a collection of filtered stocks.
+	 */
+	public Collection<Stock> filter(DatastoreFilter condition) throws DatastoreException {
+		Stock stock = stocksTable.get(checkFilter(condition).getStockId());
+		if (stock == null) {
+			return new ArrayList<Stock>(0);
+		}
+
+		List<Stock> items = new ArrayList<Stock>(1);
+		items.add(copyOf(stock));
+
+		return items;
+	}
+
+	/**
+	 * Returns a collection of all stocks stored in this datastore.
+	 */
+	public Collection<Stock> list() throws DatastoreException {
+		List<Stock> stocks = new ArrayList<Stock>(stocksTable.size());
+
+		for (Stock stock : stocksTable) {
+			stocks.add(copyOf(stock));
+		}
+
+		return stocks;
+	}
+
+	/**
+	 * Visits the stored stock matching the filter without copying it. The stock lock is held
+	 * during the visit, so the visitor sees a consistent stock.
+	 */
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		Stock stock = stocksTable.get(checkFilter(condition).getStockId());
+		if (stock != null) {
+			visitLocked(stock, visitor);
+		}
+	}
+
+	/**
+	 * Visits all stored stocks without copying them, holding each stock lock during its visit.
+	 */
+	public void forEach(DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		for (Stock stock : stocksTable) {
+			visitLocked(stock, visitor);
+		}
+	}
+
+	private void visitLocked(Stock stock, DatastoreVisitor<Stock> visitor) {
+		synchronized (lockFor(stock.getStockId())) {
+			visitor.visit(stock);
+		}
+	}
+
+	/**
+	 * Validates a filter received by this datastore.
+	 * 
+	 * @param condition
+	 *            the filter to be validated
+	 * @return the stock filter
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private StockFilter checkFilter(DatastoreFilter condition) throws DatastoreException {
+		if (condition == null) {
+			throw new DatastoreException("Null filter received by this datastore.");
+		}
+
+		if (!(condition instanceof StockFilter)) {
+			throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+		}
+
+		if (!((StockFilter) condition).hasStockKey()) {
+			throw new DatastoreException("Invalid filter definition, missing search key.");
+		}
+
+		return (StockFilter) condition;
+	}
+
+	private void checkVisitor(DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+	}
+
+	/**
+	 * Copies a stored stock while holding its lock, so the copy is consistent.
+	 */
+	private Stock copyOf(Stock stock) {
+		synchronized (lockFor(stock.getStockId())) {
+			return new Stock(stock);
+		}
+	}
+
+	private Object lockFor(int stockId) {
+		// dense ids spread evenly over the stripes without hashing
+		return locks[stockId & (locks.length - 1)];
+	}
+
+	/**
+	 * Performs simple integrity check on the stock information.
+	 * 
+	 * @param data
+	 *            the stock to be validated
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private void integrityCheck(Stock data) throws DatastoreException {
+		if (data == null) {
+			throw new DatastoreException("Stock integrity check validation failed - cannot persist null stock information.");
+		}
+
+		if (!StringUtils.isValid(data.getSymbol())) {
+			throw new DatastoreException("Stock integrity check validation failed - missing stock symbol (required).");
+		}
+	}
+}
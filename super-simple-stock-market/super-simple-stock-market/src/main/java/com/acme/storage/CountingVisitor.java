@@ -0,0 +1,30 @@
+package com.acme.storage;
+
+/**
+ * Counts the objects successfully visited by a visitor, so an eviction aborted through a
+ * {@link CompactionAbortedException} only removes those.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class CountingVisitor<T> implements DatastoreVisitor<T> {
+	private final DatastoreVisitor<T> visitor;
+
+	private int count;
+
+	CountingVisitor(DatastoreVisitor<T> visitor) {
+		this.visitor = visitor;
+	}
+
+	public void visit(T data) {
+		visitor.visit(data);
+		count++;
+	}
+
+	/**
+	 * @return the number of objects the visitor returned from
+	 */
+	int getCount() {
+		return count;
+	}
+}
@@ -39,6 +39,17 @@ public interface Datastore<T> {
 	 */
 	int count() throws DatastoreException;
 
+	/**
+	 * Returns the number of objects in the datastore matching a specific filter/condition
+	 * definition, without materializing them.
+	 * 
+	 * @param condition
+	 *            the filtering information to be applied when counting.
+	 * @return the number of matching objects.
+	 * @throws DatastoreException
+	 */
+	int count(DatastoreFilter condition) throws DatastoreException;
+
 	/**
 	 * Filters the objects stored on this datastore based on a specific filter/condition definition
 	 * 
@@ -56,4 +67,27 @@ public interface Datastore<T> {
 	 * @throws DatastoreException
 	 */
 	Collection<T> list() throws DatastoreException;
+
+	/**
+	 * Visits the objects stored on this datastore matching a specific filter/condition definition,
+	 * without copying them into a collection.
+	 * 
+	 * @param condition
+	 *            the filtering information to be applied when performing the filtering.
+	 * @param visitor
+	 *            the visitor receiving the matching objects, see {@link DatastoreVisitor} for the
+	 *            objects lifetime.
+	 * @throws DatastoreException
+	 */
+	void forEach(DatastoreFilter condition, DatastoreVisitor<T> visitor) throws DatastoreException;
+
+	/**
+	 * Visits all objects defined in this datastore, without copying them into a collection.
+	 * 
+	 * @param visitor
+	 *            the visitor receiving the objects, see {@link DatastoreVisitor} for the objects
+	 *            lifetime.
+	 * @throws DatastoreException
+	 */
+	void forEach(DatastoreVisitor<T> visitor) throws DatastoreException;
 }
@@ -0,0 +1,20 @@
+package com.acme.storage;
+
+/**
+ * Callback receiving the objects of a datastore in place, see
+ * {@link Datastore#forEach(DatastoreFilter, DatastoreVisitor)}. The visited objects are read-only
+ * views of the stored data: a visitor must neither modify them nor keep references to them once
+ * {@link #visit(Object)} returns, copying whatever information it needs to retain.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface DatastoreVisitor<T> {
+	/**
+	 * Visits an object of the datastore.
+	 * 
+	 * @param data
+	 *            the visited object, only valid for the duration of the call
+	 */
+	void visit(T data);
+}
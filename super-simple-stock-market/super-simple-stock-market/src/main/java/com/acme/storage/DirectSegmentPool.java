@@ -0,0 +1,64 @@
+package com.acme.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Allocates the fixed size direct memory segments holding the off-heap trade records, and keeps a
+ * bounded number of released segments for reuse, so that compaction and new trades recycle the
+ * same memory instead of leaving it to be freed by the collector.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class DirectSegmentPool {
+	private final int segmentSize;
+	private final int maxPooledSegments;
+
+	private final ArrayDeque<ByteBuffer> pooledSegments = new ArrayDeque<ByteBuffer>();
+
+	private long allocatedBytes;
+
+	DirectSegmentPool(int segmentSize, int maxPooledSegments) {
+		this.segmentSize = segmentSize;
+		this.maxPooledSegments = maxPooledSegments;
+	}
+
+	/**
+	 * @return a segment, either reused or newly allocated, in native byte order
+	 */
+	synchronized ByteBuffer acquire() {
+		ByteBuffer segment = pooledSegments.pollFirst();
+		if (segment == null) {
+			segment = ByteBuffer.allocateDirect(segmentSize).order(ByteOrder.nativeOrder());
+			allocatedBytes += segmentSize;
+		}
+		return segment;
+	}
+
+	/**
+	 * Gives a segment back, dropping it if enough segments are pooled already.
+	 */
+	synchronized void release(ByteBuffer segment) {
+		if (pooledSegments.size() < maxPooledSegments) {
+			pooledSegments.addFirst(segment);
+		} else {
+			allocatedBytes -= segmentSize;
+		}
+	}
+
+	/**
+	 * @return the size of the segments, in bytes
+	 */
+	int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * @return the direct memory held by the segments in use and pooled, in bytes
+	 */
+	synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+}
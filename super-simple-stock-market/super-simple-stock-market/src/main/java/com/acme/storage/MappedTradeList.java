@@ -0,0 +1,60 @@
+package com.acme.storage;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.acme.domain.Trade;
+
+/**
+ * Read-only list of trades backed by copies of memory mapped {@link TradeRecord}s, as returned by a
+ * {@link MappedTradesArchive} query. The records are copied in bulk, one buffer per archive file,
+ * and a record is decoded into a new trade only when its element is accessed. The list never
+ * changes once built.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class MappedTradeList extends AbstractList<Trade> implements RandomAccess {
+	private final int stockId;
+	private final ByteBuffer[] slices;
+
+	/**
+	 * Position of the first trade of each slice, followed by the total number of trades.
+	 */
+	private final int[] starts;
+
+	MappedTradeList(int stockId, List<ByteBuffer> slices) {
+		this.stockId = stockId;
+		this.slices = slices.toArray(new ByteBuffer[slices.size()]);
+		this.starts = new int[this.slices.length + 1];
+
+		for (int i = 0; i < this.slices.length; i++) {
+			starts[i + 1] = starts[i] + this.slices[i].remaining() / TradeRecord.RECORD_SIZE;
+		}
+	}
+
+	@Override
+	public Trade get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+
+		// the slices are never empty, so the starts are strictly increasing
+		int slice = Arrays.binarySearch(starts, index);
+		if (slice < 0) {
+			slice = -slice - 2;
+		}
+
+		TradeRecord record = new TradeRecord(stockId);
+		record.wrap(slices[slice], (index - starts[slice]) * TradeRecord.RECORD_SIZE);
+		return record.toTrade();
+	}
+
+	@Override
+	public int size() {
+		return starts[slices.length];
+	}
+}
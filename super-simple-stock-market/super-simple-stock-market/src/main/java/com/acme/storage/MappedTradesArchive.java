@@ -0,0 +1,611 @@
+package com.acme.storage;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.filter.TradeFilter;
+import com.acme.storage.filter.TradeRangeFilter;
+import com.acme.util.Clock;
+import com.acme.util.DateUtils;
+import com.acme.util.StringUtils;
+import com.acme.util.SymbolTable;
+import com.acme.util.SystemClock;
+
+/**
+ * {@link Datastore} implementation keeping the trades history on disk, for the history which does
+ * not fit in memory. Trades are archived in one file per stock symbol and per day (UTC), named
+ * <code>&lt;directory&gt;/&lt;symbol&gt;/&lt;yyyyMMdd&gt;.trades</code>, as time-ordered fixed
+ * width {@link TradeRecord}s in memory mapped files (see {@link TradeArchiveFile}).
+ * 
+ * <p>
+ * Queries are served from the mapped pages, the operating system page cache doing the caching:
+ * {@link #filter(DatastoreFilter)} returns a list backed by bulk copies of the matching records,
+ * decoding a trade only when its element is accessed, and
+ * {@link #forEachRecord(DatastoreFilter, DatastoreVisitor)} visits the records in place. Besides
+ * the {@link StockFilter} and {@link TradeFilter}, historical ranges are selected through a
+ * {@link TradeRangeFilter}.
+ * </p>
+ * 
+ * <p>
+ * The archive has to be opened through {@link #open()} before use, which only reads the headers
+ * of the archive files: a file is mapped when first used, and only the most recently used files
+ * are kept mapped (see {@link #setMaxMappedFiles(int)}), so years of history do not exhaust the
+ * address space or the mappings limit. Trades are written to the mapped pages and written back by
+ * the operating system; a file is forced to the storage device when unmapped, and
+ * {@link #close()} forces the files still mapped.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class MappedTradesArchive extends AbstractDatastore<Trade> implements BatchDatastore<Trade> {
+	private static final Logger logger = LogManager.getLogger(MappedTradesArchive.class);
+
+	private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
+	private static final String FILE_SUFFIX = ".trades";
+
+	private File directory;
+	private int initialDayCapacity = 4096;
+	private int maxMappedFiles = 256;
+
+	/**
+	 * Internal table holding for each stock symbol id its archive files, by epoch day.
+	 */
+	private SymbolTable<NavigableMap<Long, TradeArchiveFile>> daysTable;
+
+	/**
+	 * The files used since last unmapped, least recently used first, guarded by itself. A file is
+	 * registered once used, outside of the file lock, so a file mapped again while being evicted
+	 * is registered again.
+	 */
+	private final LinkedHashMap<TradeArchiveFile, Boolean> mappedFiles = new LinkedHashMap<TradeArchiveFile, Boolean>(16, 0.75f, true);
+
+	/**
+	 * Clock the trades ages are evaluated against, read once per query.
+	 */
+	private Clock clock = SystemClock.INSTANCE;
+
+	private volatile boolean open;
+
+	public MappedTradesArchive() {
+		super();
+	}
+
+	@Override
+	protected void initDatastore() {
+		logger.debug("Initializing {}...", getClass().getSimpleName());
+
+		this.daysTable = new SymbolTable<NavigableMap<Long, TradeArchiveFile>>();
+
+		logger.debug("Initialization of {} completed!", getClass().getSimpleName());
+	}
+
+	/**
+	 * Opens the archive, reading the headers of the existing archive files.
+	 * 
+	 * @throws DatastoreException
+	 *             if the archive directory cannot be created or an archive file is invalid
+	 */
+	public synchronized void open() throws DatastoreException {
+		if (open) {
+			return;
+		}
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new DatastoreException("Cannot create trade archive directory [" + directory + "].");
+		}
+
+		logger.info("Opening trade archive [{}] ...", directory);
+
+		int filesCount = 0;
+		File[] symbolDirectories = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isDirectory();
+			}
+		});
+		if (symbolDirectories == null) {
+			throw new DatastoreException("Cannot list trade archive directory [" + directory + "].");
+		}
+
+		for (File symbolDirectory : symbolDirectories) {
+			int stockId = SymbolRegistry.register(symbolDirectory.getName());
+			NavigableMap<Long, TradeArchiveFile> days = getOrCreateDays(stockId);
+
+			File[] files = symbolDirectory.listFiles(new FileFilter() {
+				public boolean accept(File file) {
+					return file.isFile() && file.getName().endsWith(FILE_SUFFIX);
+				}
+			});
+			if (files == null) {
+				continue;
+			}
+
+			for (File file : files) {
+				String name = file.getName();
+				long day;
+				try {
+					day = LocalDate.parse(name.substring(0, name.length() - FILE_SUFFIX.length()), DateTimeFormatter.BASIC_ISO_DATE).toEpochDay();
+				} catch (DateTimeParseException e) {
+					logger.warn("Ignoring unexpected file [{}] in trade archive.", file);
+					continue;
+				}
+
+				try {
+					days.put(day, TradeArchiveFile.open(file, stockId));
+				} catch (IOException e) {
+					throw new DatastoreException("Cannot open trade archive file [" + file + "].", e);
+				}
+				filesCount++;
+			}
+		}
+
+		open = true;
+
+		logger.info("Opened trade archive [{}]: {} files, {} trades.", directory, filesCount, count());
+	}
+
+	/**
+	 * Closes the archive, forcing the archived trades to the storage device and unmapping the
+	 * files.
+	 */
+	public synchronized void close() {
+		if (!open) {
+			return;
+		}
+
+		open = false;
+
+		for (NavigableMap<Long, TradeArchiveFile> days : daysTable) {
+			for (TradeArchiveFile file : days.values()) {
+				file.unmap();
+			}
+		}
+		synchronized (mappedFiles) {
+			mappedFiles.clear();
+		}
+
+		logger.info("Closed trade archive [{}].", directory);
+	}
+
+	/**
+	 * Archives a trade into the file of its stock and day.
+	 */
+	public void store(Trade data) throws DatastoreException {
+		checkOpen();
+		integrityCheck(data);
+
+		append(getOrCreateFile(SymbolRegistry.register(data), dayOf(data.getTimestampMillis())), data);
+	}
+
+	/**
+	 * Archives a batch of trades. The whole batch is validated before any trade is archived.
+	 */
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		checkOpen();
+		if (data == null) {
+			throw new DatastoreException("Null trades batch received by this datastore.");
+		}
+
+		for (Trade trade : data) {
+			integrityCheck(trade);
+		}
+
+		int stockId = SymbolRegistry.NO_ID;
+		long day = 0;
+		TradeArchiveFile file = null;
+		for (Trade trade : data) {
+			// batches mostly hold consecutive trades of the same stock and day
+			int tradeStockId = SymbolRegistry.register(trade);
+			long tradeDay = dayOf(trade.getTimestampMillis());
+			if (file == null || tradeStockId != stockId || tradeDay != day) {
+				stockId = tradeStockId;
+				day = tradeDay;
+				file = getOrCreateFile(stockId, day);
+			}
+			append(file, trade);
+		}
+	}
+
+	/**
+	 * Operation not implemented by this datastore.
+	 */
+	public boolean update(Trade updatedData) throws DatastoreException {
+		throw new DatastoreException("Operation not supported by this datastore.");
+	}
+
+	/**
+	 * Returns the count of all archived trades.
+	 */
+	public int count() throws DatastoreException {
+		long count = 0;
+		for (NavigableMap<Long, TradeArchiveFile> days : daysTable) {
+			for (TradeArchiveFile file : days.values()) {
+				count += file.size();
+			}
+		}
+		return (int) Math.min(count, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the count of archived trades matching the filtering conditions, answered through a
+	 * binary search on the records timestamps of the files of the matching days.
+	 */
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		TradeRangeFilter rangeFilter = checkFilter(condition);
+
+		long count = 0;
+		for (TradeArchiveFile file : filesOf(rangeFilter)) {
+			try {
+				count += file.countRange(rangeFilter.getFromTimestamp(), rangeFilter.getToTimestamp());
+			} catch (IOException e) {
+				throw new DatastoreException("Cannot read trade archive of stock [" + rangeFilter.getStockSymbol() + "].", e);
+			} finally {
+				touch(file);
+			}
+		}
+		return (int) Math.min(count, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the archived trades matching the filtering conditions, oldest first, as a read-only
+	 * list backed by bulk copies of the matching records: no trade is decoded until its element is
+	 * accessed, and the trades archived later do not change the list.
+	 */
+	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
+		TradeRangeFilter rangeFilter = checkFilter(condition);
+
+		List<ByteBuffer> slices = new ArrayList<ByteBuffer>();
+		for (TradeArchiveFile file : filesOf(rangeFilter)) {
+			try {
+				ByteBuffer slice = file.copyRange(rangeFilter.getFromTimestamp(), rangeFilter.getToTimestamp());
+				if (slice != null) {
+					slices.add(slice);
+				}
+			} catch (IOException e) {
+				throw new DatastoreException("Cannot read trade archive of stock [" + rangeFilter.getStockSymbol() + "].", e);
+			} finally {
+				touch(file);
+			}
+		}
+
+		return new MappedTradeList(rangeFilter.getStockId(), slices);
+	}
+
+	/**
+	 * Returns a collection of all archived trades, copied on the heap.
+	 */
+	public Collection<Trade> list() throws DatastoreException {
+		final List<Trade> tradesCopy = new ArrayList<Trade>(count());
+
+		forEachRecord(new DatastoreVisitor<TradeRecord>() {
+			public void visit(TradeRecord record) {
+				tradesCopy.add(record.toTrade());
+			}
+		});
+
+		return tradesCopy;
+	}
+
+	/**
+	 * Visits the archived trades matching the filtering conditions, oldest first. The visited
+	 * trade is a single instance reused across the visit, filled from the records for every trade.
+	 */
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		TradeRangeFilter rangeFilter = checkFilter(condition);
+		checkVisitor(visitor);
+
+		visitRange(rangeFilter, new TradeVisitorAdapter(rangeFilter.getStockId(), visitor));
+	}
+
+	/**
+	 * Visits all archived trades, see {@link #forEach(DatastoreFilter, DatastoreVisitor)}.
+	 */
+	public void forEach(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		for (NavigableMap<Long, TradeArchiveFile> days : daysTable) {
+			for (TradeArchiveFile file : days.values()) {
+				visitFile(file, Long.MIN_VALUE, Long.MAX_VALUE, new TradeVisitorAdapter(file.getStockId(), visitor));
+			}
+		}
+	}
+
+	/**
+	 * Visits the records of the archived trades matching the filtering conditions in place,
+	 * oldest first, through a single {@link TradeRecord} flyweight reading the mapped pages.
+	 * 
+	 * @param condition
+	 *            the stock, trade or trade range filter
+	 * @param visitor
+	 *            the visitor receiving the records
+	 * @throws DatastoreException
+	 *             if the filter or the visitor are not valid
+	 */
+	public void forEachRecord(DatastoreFilter condition, DatastoreVisitor<TradeRecord> visitor) throws DatastoreException {
+		TradeRangeFilter rangeFilter = checkFilter(condition);
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+
+		visitRange(rangeFilter, visitor);
+	}
+
+	/**
+	 * Visits the records of all archived trades, see
+	 * {@link #forEachRecord(DatastoreFilter, DatastoreVisitor)}.
+	 * 
+	 * @param visitor
+	 *            the visitor receiving the records
+	 * @throws DatastoreException
+	 *             if the visitor is not valid
+	 */
+	public void forEachRecord(DatastoreVisitor<TradeRecord> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+
+		for (NavigableMap<Long, TradeArchiveFile> days : daysTable) {
+			for (TradeArchiveFile file : days.values()) {
+				visitFile(file, Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+			}
+		}
+	}
+
+	/**
+	 * @param directory
+	 *            the directory holding the archive files
+	 */
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param initialDayCapacity
+	 *            the number of trades a new archive file is initially sized for, the file doubling
+	 *            its size whenever full
+	 */
+	public void setInitialDayCapacity(int initialDayCapacity) {
+		this.initialDayCapacity = Math.max(1, initialDayCapacity);
+	}
+
+	/**
+	 * @param maxMappedFiles
+	 *            the number of archive files kept mapped, the least recently used ones being
+	 *            unmapped beyond it
+	 */
+	public void setMaxMappedFiles(int maxMappedFiles) {
+		this.maxMappedFiles = Math.max(1, maxMappedFiles);
+	}
+
+	/**
+	 * @param clock
+	 *            the clock the trades ages of a {@link TradeFilter} are evaluated against
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * @return the number of archive files currently mapped
+	 */
+	public int getMappedFilesCount() {
+		int count = 0;
+		synchronized (mappedFiles) {
+			for (TradeArchiveFile file : mappedFiles.keySet()) {
+				if (file.isMapped()) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private void visitRange(TradeRangeFilter rangeFilter, DatastoreVisitor<TradeRecord> visitor) throws DatastoreException {
+		for (TradeArchiveFile file : filesOf(rangeFilter)) {
+			visitFile(file, rangeFilter.getFromTimestamp(), rangeFilter.getToTimestamp(), visitor);
+		}
+	}
+
+	private void visitFile(TradeArchiveFile file, long fromTimestamp, long toTimestamp, DatastoreVisitor<TradeRecord> visitor) throws DatastoreException {
+		try {
+			file.visitRange(fromTimestamp, toTimestamp, visitor);
+		} catch (IOException e) {
+			throw new DatastoreException("Cannot read trade archive of stock [" + SymbolRegistry.symbolOf(file.getStockId()) + "].", e);
+		} finally {
+			touch(file);
+		}
+	}
+
+	/**
+	 * Registers a file as the most recently used one, unmapping the least recently used files
+	 * beyond the mapped files limit. Called once done with the file, never while holding its lock.
+	 */
+	private void touch(TradeArchiveFile file) {
+		List<TradeArchiveFile> evictedFiles = null;
+
+		synchronized (mappedFiles) {
+			mappedFiles.put(file, Boolean.TRUE);
+
+			Iterator<TradeArchiveFile> iterator = mappedFiles.keySet().iterator();
+			while (mappedFiles.size() > maxMappedFiles) {
+				if (evictedFiles == null) {
+					evictedFiles = new ArrayList<TradeArchiveFile>();
+				}
+				evictedFiles.add(iterator.next());
+				iterator.remove();
+			}
+		}
+
+		if (evictedFiles != null) {
+			for (TradeArchiveFile evictedFile : evictedFiles) {
+				evictedFile.unmap();
+			}
+		}
+	}
+
+	/**
+	 * @return the files of the stock for the days overlapping the time range, oldest first
+	 */
+	private Collection<TradeArchiveFile> filesOf(TradeRangeFilter rangeFilter) {
+		NavigableMap<Long, TradeArchiveFile> days = daysTable.get(rangeFilter.getStockId());
+		if (days == null || rangeFilter.getFromTimestamp() >= rangeFilter.getToTimestamp()) {
+			return new ArrayList<TradeArchiveFile>(0);
+		}
+
+		return days.subMap(dayOf(rangeFilter.getFromTimestamp()), true, dayOf(rangeFilter.getToTimestamp() - 1), true).values();
+	}
+
+	private void append(TradeArchiveFile file, Trade trade) throws DatastoreException {
+		try {
+			file.append(trade);
+		} catch (IOException e) {
+			throw new DatastoreException("Cannot archive trade of stock [" + trade.getStockSymbol() + "].", e);
+		} finally {
+			touch(file);
+		}
+	}
+
+	private TradeArchiveFile getOrCreateFile(int stockId, long day) throws DatastoreException {
+		NavigableMap<Long, TradeArchiveFile> days = getOrCreateDays(stockId);
+
+		TradeArchiveFile file = days.get(day);
+		if (file == null) {
+			synchronized (days) {
+				file = days.get(day);
+				if (file == null) {
+					File symbolDirectory = new File(directory, SymbolRegistry.symbolOf(stockId));
+					if (!symbolDirectory.isDirectory() && !symbolDirectory.mkdirs()) {
+						throw new DatastoreException("Cannot create trade archive directory [" + symbolDirectory + "].");
+					}
+
+					File dayFile = new File(symbolDirectory, LocalDate.ofEpochDay(day).format(DateTimeFormatter.BASIC_ISO_DATE) + FILE_SUFFIX);
+					try {
+						file = TradeArchiveFile.create(dayFile, stockId, initialDayCapacity);
+					} catch (IOException e) {
+						throw new DatastoreException("Cannot create trade archive file [" + dayFile + "].", e);
+					}
+					days.put(day, file);
+				}
+			}
+		}
+		return file;
+	}
+
+	private NavigableMap<Long, TradeArchiveFile> getOrCreateDays(int stockId) {
+		NavigableMap<Long, TradeArchiveFile> days = daysTable.get(stockId);
+		if (days == null) {
+			NavigableMap<Long, TradeArchiveFile> newDays = new ConcurrentSkipListMap<Long, TradeArchiveFile>();
+			days = daysTable.putIfAbsent(stockId, newDays);
+			if (days == null) {
+				days = newDays;
+			}
+		}
+		return days;
+	}
+
+	private static long dayOf(long timestamp) {
+		return Math.floorDiv(timestamp, DAY_MILLIS);
+	}
+
+	private void checkOpen() throws DatastoreException {
+		if (!open) {
+			throw new DatastoreException("Trade archive is not open.");
+		}
+	}
+
+	/**
+	 * Validates a filter received by this datastore, expressing it as a time range.
+	 * 
+	 * @param condition
+	 *            the filter to be validated
+	 * @return the time range filter
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private TradeRangeFilter checkFilter(DatastoreFilter condition) throws DatastoreException {
+		if (condition == null) {
+			throw new DatastoreException("Null filter received by this datastore.");
+		}
+
+		if (condition instanceof TradeRangeFilter) {
+			TradeRangeFilter rangeFilter = (TradeRangeFilter) condition;
+			if (!rangeFilter.hasStockKey()) {
+				throw new DatastoreException("Invalid filter definition, missing search key.");
+			}
+			return rangeFilter;
+		}
+
+		if (condition instanceof StockFilter) {
+			StockFilter stockFilter = (StockFilter) condition;
+			if (!stockFilter.hasStockKey()) {
+				throw new DatastoreException("Invalid filter definition, missing search key.");
+			}
+			return new TradeRangeFilter(stockFilter.getStockId(), Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+
+		if (condition instanceof TradeFilter) {
+			TradeFilter tradeFilter = (TradeFilter) condition;
+			if (!tradeFilter.hasStockKey() || tradeFilter.getAgeInMinutes() <= 0) {
+				throw new DatastoreException("Invalid filter definition, missing search keys information.");
+			}
+			return new TradeRangeFilter(tradeFilter.getStockId(), DateUtils.fromTimestamp(clock.currentTimeMillis(), tradeFilter.getAgeInMinutes()), Long.MAX_VALUE);
+		}
+
+		throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+	}
+
+	private void checkVisitor(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+	}
+
+	/**
+	 * Performs simple integrity check on a trade object
+	 * 
+	 * @param trade
+	 *            the trade object to be validated
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private void integrityCheck(Trade trade) throws DatastoreException {
+		if (trade == null) {
+			throw new DatastoreException("Trade integrity check validation failed - cannot persist null trade information.");
+		}
+
+		if (trade.getTimestampMillis() == Trade.NO_TIMESTAMP) {
+			throw new DatastoreException("Trade integrity check validation failed - missing timestamp information (required).");
+		}
+
+		if (!StringUtils.isValid(trade.getStockSymbol())) {
+			throw new DatastoreException("Trade integrity check validation failed - missing stock symbol information (required).");
+		}
+
+		if (trade.getStockSymbol().indexOf('/') >= 0 || trade.getStockSymbol().indexOf('\\') >= 0 || trade.getStockSymbol().startsWith(".")) {
+			throw new DatastoreException("Trade integrity check validation failed - stock symbol not usable as an archive directory name.");
+		}
+
+		if (trade.getType() == null) {
+			throw new DatastoreException("Trade integrity check validation failed - missing trade type information (required).");
+		}
+	}
+}
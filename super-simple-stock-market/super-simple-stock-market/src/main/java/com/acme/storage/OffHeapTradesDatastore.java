@@ -0,0 +1,389 @@
+package com.acme.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.filter.TradeFilter;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.util.Clock;
+import com.acme.util.DateUtils;
+import com.acme.util.StringUtils;
+import com.acme.util.SymbolTable;
+import com.acme.util.SystemClock;
+
+/**
+ * {@link Datastore} implementation, specialized in managing trades information outside of the Java
+ * heap. Trades are kept per stock symbol id as time-ordered fixed width records in direct memory
+ * segments (see {@link TradeSegments}), so the number of heap objects, and with it the collector
+ * work, does not grow with the number of stored trades. Age based filtering is performed through a
+ * binary search on the records timestamps, and the records can be scanned through a
+ * {@link TradeRecord} flyweight without allocating.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class OffHeapTradesDatastore extends AbstractDatastore<Trade> implements CompactableDatastore<Trade>, BatchDatastore<Trade> {
+	private static final Logger logger = LogManager.getLogger(OffHeapTradesDatastore.class);
+
+	private static final int DEFAULT_SEGMENT_CAPACITY = 4096;
+	private static final int DEFAULT_MAX_POOLED_SEGMENTS = 64;
+
+	/**
+	 * Internal table holding for each stock symbol id the segments of defined trades.
+	 */
+	private SymbolTable<TradeSegments> tradesTable;
+
+	/**
+	 * Number of trades stored across all stock symbols.
+	 */
+	private AtomicInteger tradesCount;
+
+	/**
+	 * Pool of the direct memory segments shared by all stock symbols.
+	 */
+	private DirectSegmentPool segmentPool;
+
+	/**
+	 * Clock the trades ages are evaluated against, read once per query.
+	 */
+	private Clock clock = SystemClock.INSTANCE;
+
+	public OffHeapTradesDatastore() {
+		super();
+	}
+
+	@Override
+	protected void initDatastore() {
+		logger.debug("Initializing {}...", getClass().getSimpleName());
+
+		this.tradesTable = new SymbolTable<TradeSegments>();
+		this.tradesCount = new AtomicInteger();
+		this.segmentPool = new DirectSegmentPool(DEFAULT_SEGMENT_CAPACITY * TradeRecord.RECORD_SIZE, DEFAULT_MAX_POOLED_SEGMENTS);
+
+		logger.debug("Initialization of {} completed!", getClass().getSimpleName());
+	}
+
+	/**
+	 * Stores a new trade in this datastore.
+	 */
+	public void store(Trade data) throws DatastoreException {
+		integrityCheck(data);
+
+		getOrCreateSegments(SymbolRegistry.register(data)).append(data);
+		tradesCount.incrementAndGet();
+	}
+
+	/**
+	 * Stores a batch of new trades in this datastore, appending the trades of each stock to its
+	 * segments under a single lock acquisition.
+	 */
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		if (data == null) {
+			throw new DatastoreException("Null trades batch received by this datastore.");
+		}
+
+		for (Trade trade : data) {
+			integrityCheck(trade);
+		}
+
+		SymbolTable<List<Trade>> batches = new SymbolTable<List<Trade>>();
+		for (Trade trade : data) {
+			int stockId = SymbolRegistry.register(trade);
+
+			List<Trade> batch = batches.get(stockId);
+			if (batch == null) {
+				batch = new ArrayList<Trade>();
+				batches.putIfAbsent(stockId, batch);
+			}
+			batch.add(trade);
+		}
+
+		for (List<Trade> batch : batches) {
+			getOrCreateSegments(batch.get(0).getStockId()).appendAll(batch);
+			tradesCount.addAndGet(batch.size());
+		}
+	}
+
+	/**
+	 * Operation not implemented by this datastore.
+	 */
+	public boolean update(Trade updatedData) throws DatastoreException {
+		throw new DatastoreException("Operation not supported by this datastore.");
+	}
+
+	/**
+	 * Returns the count of all trades defined in this datastore.
+	 */
+	public int count() throws DatastoreException {
+		return tradesCount.get();
+	}
+
+	/**
+	 * Returns the count of trades matching the filtering conditions: all trades of a stock for a
+	 * {@link StockFilter}, or the trades of a stock newer than an age for a {@link TradeFilter},
+	 * answered through a binary search on the records timestamps.
+	 */
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		if (condition instanceof StockFilter) {
+			StockFilter stockFilter = (StockFilter) condition;
+			if (!stockFilter.hasStockKey()) {
+				throw new DatastoreException("Invalid filter definition, missing search key.");
+			}
+
+			TradeSegments segments = tradesTable.get(stockFilter.getStockId());
+			return segments == null ? 0 : segments.size();
+		}
+
+		TradeFilter tradeFilter = checkFilter(condition);
+
+		TradeSegments segments = tradesTable.get(tradeFilter.getStockId());
+		return segments == null ? 0 : segments.countNewerOrEqualTo(fromTimestamp(tradeFilter));
+	}
+
+	/**
+	 * Returns a collection of filtered trades matching the filtering conditions, copied on the
+	 * heap.
+	 */
+	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
+		TradeFilter tradeFilter = checkFilter(condition);
+
+		ArrayList<Trade> items = new ArrayList<Trade>();
+
+		TradeSegments segments = tradesTable.get(tradeFilter.getStockId());
+		if (segments != null) {
+			segments.copyNewerOrEqualTo(fromTimestamp(tradeFilter), items);
+		}
+
+		return items;
+	}
+
+	/**
+	 * Returns a collection of all trades stored by this datastore implementation, copied on the
+	 * heap.
+	 */
+	public Collection<Trade> list() throws DatastoreException {
+		ArrayList<Trade> tradesCopy = new ArrayList<Trade>(count());
+
+		for (TradeSegments segments : tradesTable) {
+			segments.copyAll(tradesCopy);
+		}
+
+		return tradesCopy;
+	}
+
+	/**
+	 * Visits the trades matching the filtering conditions. The visited trade is a single instance
+	 * reused across the visit, filled from the records for every trade.
+	 */
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		TradeFilter tradeFilter = checkFilter(condition);
+		checkVisitor(visitor);
+
+		TradeSegments segments = tradesTable.get(tradeFilter.getStockId());
+		if (segments != null) {
+			segments.visitNewerOrEqualTo(fromTimestamp(tradeFilter), visitor);
+		}
+	}
+
+	/**
+	 * Visits all trades stored by this datastore, see
+	 * {@link #forEach(DatastoreFilter, DatastoreVisitor)}.
+	 */
+	public void forEach(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		for (TradeSegments segments : tradesTable) {
+			segments.visitNewerOrEqualTo(Long.MIN_VALUE, visitor);
+		}
+	}
+
+	/**
+	 * Visits the records of the trades matching the filtering conditions in place, through a
+	 * single {@link TradeRecord} flyweight reading the off-heap memory directly.
+	 * 
+	 * @param condition
+	 *            the trade filter
+	 * @param visitor
+	 *            the visitor receiving the records
+	 * @throws DatastoreException
+	 *             if the filter or the visitor are not valid
+	 */
+	public void forEachRecord(DatastoreFilter condition, DatastoreVisitor<TradeRecord> visitor) throws DatastoreException {
+		TradeFilter tradeFilter = checkFilter(condition);
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+
+		TradeSegments segments = tradesTable.get(tradeFilter.getStockId());
+		if (segments != null) {
+			segments.visitRecordsNewerOrEqualTo(fromTimestamp(tradeFilter), visitor);
+		}
+	}
+
+	/**
+	 * Visits the records of all trades stored by this datastore, see
+	 * {@link #forEachRecord(DatastoreFilter, DatastoreVisitor)}.
+	 * 
+	 * @param visitor
+	 *            the visitor receiving the records
+	 * @throws DatastoreException
+	 *             if the visitor is not valid
+	 */
+	public void forEachRecord(DatastoreVisitor<TradeRecord> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+
+		for (TradeSegments segments : tradesTable) {
+			segments.visitRecordsNewerOrEqualTo(Long.MIN_VALUE, visitor);
+		}
+	}
+
+	/**
+	 * Removes, for every stock, the oldest trades expired according to the retention policy, the
+	 * emptied segments going back to the pool. The removed trades are visited oldest first,
+	 * through a single reused trade instance.
+	 */
+	public int compact(RetentionPolicy policy, DatastoreVisitor<Trade> expiredVisitor) throws DatastoreException {
+		if (policy == null) {
+			throw new DatastoreException("Null retention policy received by this datastore.");
+		}
+
+		long now = clock.currentTimeMillis();
+		long expiryTimestamp = policy.getExpiryTimestamp(now);
+		long protectedTimestamp = policy.getProtectedTimestamp(now);
+		int maxRetainedCount = policy.getMaxRetainedCount(TradeRecord.RECORD_SIZE);
+
+		int evictedCount = 0;
+		for (TradeSegments segments : tradesTable) {
+			int segmentsEvictedCount = segments.evict(expiryTimestamp, protectedTimestamp, maxRetainedCount, expiredVisitor);
+			if (segmentsEvictedCount > 0) {
+				tradesCount.addAndGet(-segmentsEvictedCount);
+				evictedCount += segmentsEvictedCount;
+			}
+		}
+
+		return evictedCount;
+	}
+
+	/**
+	 * @return the direct memory allocated by this datastore, in bytes, including the segments
+	 *         pooled for reuse
+	 */
+	public long getAllocatedBytes() {
+		return segmentPool.getAllocatedBytes();
+	}
+
+	/**
+	 * @param clock
+	 *            the clock the trades ages are evaluated against
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Sets the number of trades per direct memory segment, rounded up to a power of two. Only
+	 * allowed before the first trade is stored.
+	 * 
+	 * @param segmentCapacity
+	 *            the number of trades per segment
+	 */
+	public void setSegmentCapacity(int segmentCapacity) {
+		if (segmentCapacity < 1 || segmentCapacity > (1 << 30) / TradeRecord.RECORD_SIZE) {
+			throw new IllegalArgumentException("Invalid segment capacity: [" + segmentCapacity + "] trades.");
+		}
+		if (!tradesTable.isEmpty()) {
+			throw new IllegalStateException("Segment capacity cannot be changed once trades are stored.");
+		}
+
+		int capacity = Integer.highestOneBit(segmentCapacity);
+		if (capacity < segmentCapacity) {
+			capacity <<= 1;
+		}
+		this.segmentPool = new DirectSegmentPool(capacity * TradeRecord.RECORD_SIZE, DEFAULT_MAX_POOLED_SEGMENTS);
+	}
+
+	private long fromTimestamp(TradeFilter tradeFilter) {
+		return DateUtils.fromTimestamp(clock.currentTimeMillis(), tradeFilter.getAgeInMinutes());
+	}
+
+	/**
+	 * Validates a filter received by this datastore.
+	 * 
+	 * @param condition
+	 *            the filter to be validated
+	 * @return the trade filter
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private TradeFilter checkFilter(DatastoreFilter condition) throws DatastoreException {
+		if (condition == null) {
+			throw new DatastoreException("Null filter received by this datastore.");
+		}
+
+		if (!(condition instanceof TradeFilter)) {
+			throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+		}
+
+		TradeFilter tradeFilter = (TradeFilter) condition;
+
+		if (!tradeFilter.hasStockKey() || tradeFilter.getAgeInMinutes() <= 0) {
+			throw new DatastoreException("Invalid filter definition, missing search keys information.");
+		}
+
+		return tradeFilter;
+	}
+
+	private void checkVisitor(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+	}
+
+	private TradeSegments getOrCreateSegments(int stockId) {
+		TradeSegments segments = tradesTable.get(stockId);
+		if (segments == null) {
+			TradeSegments newSegments = new TradeSegments(stockId, segmentPool);
+			segments = tradesTable.putIfAbsent(stockId, newSegments);
+			if (segments == null) {
+				segments = newSegments;
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Performs simple integrity check on a trade object
+	 * 
+	 * @param trade
+	 *            the trade object to be validated
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private void integrityCheck(Trade trade) throws DatastoreException {
+		if (trade == null) {
+			throw new DatastoreException("Trade integrity check validation failed - cannot persist null trade information.");
+		}
+
+		if (trade.getTimestampMillis() == Trade.NO_TIMESTAMP) {
+			throw new DatastoreException("Trade integrity check validation failed - missing timestamp information (required).");
+		}
+
+		if (!StringUtils.isValid(trade.getStockSymbol())) {
+			throw new DatastoreException("Trade integrity check validation failed - missing stock symbol information (required).");
+		}
+
+		if (trade.getType() == null) {
+			throw new DatastoreException("Trade integrity check validation failed - missing trade type information (required).");
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.acme.storage;
+
+import com.acme.domain.Stock;
+
+/**
+ * {@link Datastore} of stocks able to atomically adjust the shares count of a stored stock, so that
+ * concurrent trades on the same stock do not lose updates.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface SharesCountDatastore extends Datastore<Stock> {
+	/**
+	 * Result of {@link #adjustSharesCount(String, int)} when the stock is not defined in the
+	 * datastore.
+	 */
+	int UNKNOWN_STOCK = -1;
+
+	/**
+	 * Result of {@link #adjustSharesCount(String, int)} when the adjustment would take the shares
+	 * count below zero or above {@link Integer#MAX_VALUE}.
+	 */
+	int SHARES_COUNT_OUT_OF_RANGE = -2;
+
+	/**
+	 * Atomically adds a delta to the shares count of a stored stock. The adjustment is applied only
+	 * if the resulting shares count is within range.
+	 * 
+	 * @param stockSymbol
+	 *            the symbol of the stock to be adjusted
+	 * @param delta
+	 *            the number of shares to add (positive) or remove (negative)
+	 * @return the new shares count, or one of {@link #UNKNOWN_STOCK} and
+	 *         {@link #SHARES_COUNT_OUT_OF_RANGE} if the adjustment has not been applied
+	 * @throws DatastoreException
+	 */
+	int adjustSharesCount(String stockSymbol, int delta) throws DatastoreException;
+
+	/**
+	 * Atomically adds a delta to the shares count of a stored stock, identified by its symbol id.
+	 * 
+	 * @param stockId
+	 *            the symbol id of the stock to be adjusted, see
+	 *            {@link com.acme.domain.SymbolRegistry}
+	 * @param delta
+	 *            the number of shares to add (positive) or remove (negative)
+	 * @return the new shares count, or one of {@link #UNKNOWN_STOCK} and
+	 *         {@link #SHARES_COUNT_OUT_OF_RANGE} if the adjustment has not been applied
+	 * @throws DatastoreException
+	 * @see #adjustSharesCount(String, int)
+	 */
+	int adjustSharesCount(int stockId, int delta) throws DatastoreException;
+}
@@ -1,17 +1,17 @@
 package com.acme.storage;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
 import com.acme.storage.filter.StockFilter;
 import com.acme.util.StringUtils;
+import com.acme.util.SymbolTable;
 
 /**
  * {@link Datastore} implementation, specialized in managing stocks information.
@@ -19,13 +19,13 @@ import com.acme.util.StringUtils;
  * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
  *
  */
-public class StocksDatastore extends AbstractDatastore<Stock> {
+public class StocksDatastore extends AbstractDatastore<Stock> implements SharesCountDatastore {
 	private static final Logger logger = LogManager.getLogger(StocksDatastore.class);
 
 	/**
-	 * Internal table used to hold the stocks into.
+	 * Internal table used to hold the stocks into, indexed by the stock symbol id.
 	 */
-	private Map<String, Stock> stocksTable;
+	private SymbolTable<Stock> stocksTable;
 
 	public StocksDatastore() {
 		super();
@@ -33,25 +33,23 @@ public class StocksDatastore extends AbstractDatastore<Stock> {
 
 	@Override
 	protected void initDatastore() {
-		logger.debug("Initializing " + getClass().getSimpleName() + "...");
+		logger.debug("Initializing {}...", getClass().getSimpleName());
 
-		this.stocksTable = new HashMap<String, Stock>();
+		this.stocksTable = new SymbolTable<Stock>();
 
-		logger.debug("Initialization of " + getClass().getSimpleName() + " completed!");
+		logger.debug("Initialization of {} completed!", getClass().getSimpleName());
 	}
 
 	/**
-	 * Stores a new stock in this datastore. If the stock is already present, the operation will
-	 * throw a {@link DatastoreException}.
+	 * Stores a new stock in this datastore, registering its symbol id. If the stock is already
+	 * present, the operation will throw a {@link DatastoreException}.
 	 */
 	public void store(Stock data) throws DatastoreException {
 		integrityCheck(data);
 
-		if (stocksTable.containsKey(data.getSymbol())) {
+		if (stocksTable.putIfAbsent(SymbolRegistry.register(data.getSymbol()), data) != null) {
 			throw new DatastoreException("Stock already defined in datastore.");
 		}
-
-		stocksTable.put(data.getSymbol(), data);
 	}
 
 	/**
@@ -62,7 +60,7 @@ public class StocksDatastore extends AbstractDatastore<Stock> {
 
 		boolean updated = false;
 
-		Stock stock = stocksTable.get(updatedStock.getSymbol());
+		Stock stock = stocksTable.get(updatedStock.getStockId());
 		if (stock != null) {
 			stock.setParValue(updatedStock.getParValue());
 			stock.setSharesCount(updatedStock.getSharesCount());
@@ -76,36 +74,61 @@ public class StocksDatastore extends AbstractDatastore<Stock> {
 	}
 
 	/**
-	 * Returns the number of stocks which are currently stored by this datastore.
+	 * Adjusts the shares count of a stored stock.
 	 */
-	public int count() throws DatastoreException {
-		return stocksTable.values().size();
+	public int adjustSharesCount(String stockSymbol, int delta) throws DatastoreException {
+		if (!StringUtils.isValid(stockSymbol)) {
+			throw new DatastoreException("Invalid stock symbol, cannot adjust shares count.");
+		}
+
+		return adjustSharesCount(SymbolRegistry.idOf(stockSymbol), delta);
 	}
 
 	/**
-	 * Returns a collection of filtered stocks.
+	 * Adjusts the shares count of a stored stock.
 	 */
-	public Collection<Stock> filter(DatastoreFilter condition) throws DatastoreException {
-		if (condition == null) {
-			throw new DatastoreException("Null filter received by this datastore.");
+	public synchronized int adjustSharesCount(int stockId, int delta) throws DatastoreException {
+		Stock stock = stocksTable.get(stockId);
+		if (stock == null) {
+			return UNKNOWN_STOCK;
 		}
 
-		if (!(condition instanceof StockFilter)) {
-			throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+		long sharesCount = (long) stock.getSharesCount() + delta;
+		if (sharesCount < 0 || sharesCount > Integer.MAX_VALUE) {
+			return SHARES_COUNT_OUT_OF_RANGE;
 		}
 
-		if (!StringUtils.isValid(((StockFilter) condition).getStockSymbol())) {
-			throw new DatastoreException("Invalid filter definition, missing search key.");
-		}
+		stock.setSharesCount((int) sharesCount);
 
-		List<Stock> items = new LinkedList<Stock>();
+		return (int) sharesCount;
+	}
 
-		Stock stock = stocksTable.get(((StockFilter) condition).getStockSymbol());
-		if (stock != null) {
-			Stock stockCopy = new Stock(stock);
-			items.add(new Stock(stockCopy));
+	/**
+	 * Returns the number of stocks which are currently stored by this datastore.
+	 */
+	public int count() throws DatastoreException {
+		return stocksTable.size();
+	}
+
+	/**
+	 * Returns the number of stocks matching the filter, either 0 or 1.
+	 */
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return stocksTable.get(checkFilter(condition).getStockId()) != null ? 1 : 0;
+	}
+
+	/**
+	 * Returns a collection of filtered stocks.
+	 */
+	public Collection<Stock> filter(DatastoreFilter condition) throws DatastoreException {
+		Stock stock = stocksTable.get(checkFilter(condition).getStockId());
+		if (stock == null) {
+			return new ArrayList<Stock>(0);
 		}
 
+		List<Stock> items = new ArrayList<Stock>(1);
+		items.add(new Stock(stock));
+
 		return items;
 	}
 
@@ -113,9 +136,9 @@ public class StocksDatastore extends AbstractDatastore<Stock> {
 	 * Returna a collection of all stocks stored in this datastore.
 	 */
 	public Collection<Stock> list() throws DatastoreException {
-		List<Stock> stocks = new LinkedList<Stock>();
+		List<Stock> stocks = new ArrayList<Stock>(stocksTable.size());
 
-		for (Stock stock : stocksTable.values()) {
+		for (Stock stock : stocksTable) {
 			Stock stockCopy = new Stock(stock);
 			stocks.add(stockCopy);
 		}
@@ -123,6 +146,60 @@ public class StocksDatastore extends AbstractDatastore<Stock> {
 		return stocks;
 	}
 
+	/**
+	 * Visits the stored stock matching the filter, without copying it.
+	 */
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		Stock stock = stocksTable.get(checkFilter(condition).getStockId());
+		if (stock != null) {
+			visitor.visit(stock);
+		}
+	}
+
+	/**
+	 * Visits all stored stocks, without copying them.
+	 */
+	public void forEach(DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		for (Stock stock : stocksTable) {
+			visitor.visit(stock);
+		}
+	}
+
+	/**
+	 * Validates a filter received by this datastore.
+	 * 
+	 * @param condition
+	 *            the filter to be validated
+	 * @return the stock filter
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private StockFilter checkFilter(DatastoreFilter condition) throws DatastoreException {
+		if (condition == null) {
+			throw new DatastoreException("Null filter received by this datastore.");
+		}
+
+		if (!(condition instanceof StockFilter)) {
+			throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+		}
+
+		if (!((StockFilter) condition).hasStockKey()) {
+			throw new DatastoreException("Invalid filter definition, missing search key.");
+		}
+
+		return (StockFilter) condition;
+	}
+
+	private void checkVisitor(DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+	}
+
 	/**
 	 * Performs simple integrity check on the stock information.
 	 * 
@@ -0,0 +1,343 @@
+package com.acme.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.acme.domain.Trade;
+
+/**
+ * Memory mapped file holding the trades of a single stock for a single day, as time-ordered fixed
+ * width {@link TradeRecord}s following a header: magic, version, record size and trades count.
+ * The whole file is mapped read-write, so appended trades are written to the mapped pages and the
+ * queries read the records in place; the operating system page cache does the caching and the
+ * write back. The file grows by doubling its records capacity, remapping it.
+ * <p>
+ * An opened file is only mapped once used, and can be unmapped again (see {@link #unmap()}), so
+ * that the archive only keeps the recently used days mapped. The records handed out are copied,
+ * as an out of order append moves the records already written.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class TradeArchiveFile {
+	/**
+	 * "SSSMTRDS" - identifies the trade archive files.
+	 */
+	private static final long MAGIC = 0x5353534D54524453L;
+	private static final int VERSION = 1;
+
+	private static final int RECORD_SIZE = TradeRecord.RECORD_SIZE;
+
+	/**
+	 * Size of the header, a multiple of the record size so the records stay 8 bytes aligned.
+	 */
+	private static final int HEADER_SIZE = RECORD_SIZE;
+	private static final int COUNT_OFFSET = 8 + 4 + 4;
+
+	private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+	/**
+	 * Files are little endian whatever the platform, the native order of the common ones.
+	 */
+	static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private final File file;
+	private final int stockId;
+
+	/**
+	 * The mapped file, null while not mapped.
+	 */
+	private MappedByteBuffer buffer;
+	/**
+	 * Number of records the mapped file can hold.
+	 */
+	private int capacity;
+	/**
+	 * Number of trades currently stored.
+	 */
+	private int size;
+
+	private TradeArchiveFile(File file, int stockId) {
+		this.file = file;
+		this.stockId = stockId;
+	}
+
+	/**
+	 * Creates a new empty archive file.
+	 * 
+	 * @param file
+	 *            the file to be created
+	 * @param stockId
+	 *            the id of the stock symbol of the archived trades
+	 * @param initialCapacity
+	 *            the number of records the file is initially sized for
+	 * @return the mapped archive file
+	 */
+	static TradeArchiveFile create(File file, int stockId, int initialCapacity) throws IOException {
+		TradeArchiveFile archiveFile = new TradeArchiveFile(file, stockId);
+		archiveFile.map(Math.max(1, Math.min(initialCapacity, MAX_CAPACITY)));
+
+		archiveFile.buffer.putLong(0, MAGIC).putInt(8, VERSION).putInt(12, RECORD_SIZE).putInt(COUNT_OFFSET, 0);
+
+		return archiveFile;
+	}
+
+	/**
+	 * Opens an existing archive file, reading its header but not mapping it yet.
+	 * 
+	 * @param file
+	 *            the file to be opened
+	 * @param stockId
+	 *            the id of the stock symbol of the archived trades
+	 * @return the mapped archive file
+	 * @throws DatastoreException
+	 *             if the file is not a valid archive file
+	 */
+	static TradeArchiveFile open(File file, int stockId) throws IOException, DatastoreException {
+		long length = file.length();
+		if (length < HEADER_SIZE || length > HEADER_SIZE + (long) MAX_CAPACITY * RECORD_SIZE) {
+			throw new DatastoreException("Invalid trade archive file size [" + file + "].");
+		}
+
+		TradeArchiveFile archiveFile = new TradeArchiveFile(file, stockId);
+		archiveFile.capacity = (int) ((length - HEADER_SIZE) / RECORD_SIZE);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			input.readFully(header.array());
+		} finally {
+			input.close();
+		}
+
+		if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION || header.getInt(12) != RECORD_SIZE) {
+			throw new DatastoreException("Invalid trade archive header [" + file + "].");
+		}
+
+		int size = header.getInt(COUNT_OFFSET);
+		if (size < 0 || size > archiveFile.capacity) {
+			throw new DatastoreException("Invalid trades count in archive [" + file + "].");
+		}
+		archiveFile.size = size;
+
+		return archiveFile;
+	}
+
+	/**
+	 * Appends a trade to the file. Trades are expected to arrive in timestamp order; an older trade
+	 * is inserted at its sorted position, moving the newer records by one.
+	 * 
+	 * @param trade
+	 *            the trade to be archived
+	 */
+	synchronized void append(Trade trade) throws IOException {
+		ensureMapped();
+
+		if (size == capacity) {
+			if (capacity == MAX_CAPACITY) {
+				throw new IOException("Trade archive [" + file + "] is full.");
+			}
+			map((int) Math.min(2L * capacity, MAX_CAPACITY));
+		}
+
+		long timestamp = trade.getTimestampMillis();
+
+		int position = size;
+		if (size > 0 && timestampAt(size - 1) > timestamp) {
+			position = upperBound(timestamp);
+
+			for (int i = size - 1; i >= position; i--) {
+				int sourceOffset = offsetOf(i);
+				buffer.putLong(sourceOffset + RECORD_SIZE, buffer.getLong(sourceOffset));
+				buffer.putLong(sourceOffset + RECORD_SIZE + 8, buffer.getLong(sourceOffset + 8));
+				buffer.putLong(sourceOffset + RECORD_SIZE + 16, buffer.getLong(sourceOffset + 16));
+			}
+		}
+
+		TradeRecord.write(buffer, offsetOf(position), trade);
+
+		size++;
+		buffer.putInt(COUNT_OFFSET, size);
+	}
+
+	/**
+	 * @return the number of trades stored in this file
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, inclusive
+	 * @param toTimestamp
+	 *            the newest accepted timestamp, exclusive
+	 * @return the number of trades inside the time range
+	 */
+	synchronized int countRange(long fromTimestamp, long toTimestamp) throws IOException {
+		ensureMapped();
+
+		return Math.max(0, lowerBound(toTimestamp) - lowerBound(fromTimestamp));
+	}
+
+	/**
+	 * Copies the records of the trades inside a time range, in bulk: no trade is decoded, and the
+	 * copy is not affected by the trades appended later.
+	 * 
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, inclusive
+	 * @param toTimestamp
+	 *            the newest accepted timestamp, exclusive
+	 * @return the records, positioned at zero, or null if no trade is inside the range
+	 */
+	synchronized ByteBuffer copyRange(long fromTimestamp, long toTimestamp) throws IOException {
+		ensureMapped();
+
+		int from = lowerBound(fromTimestamp);
+		int to = lowerBound(toTimestamp);
+		if (from >= to) {
+			return null;
+		}
+
+		ByteBuffer records = buffer.duplicate();
+		records.limit(offsetOf(to)).position(offsetOf(from));
+
+		ByteBuffer copy = ByteBuffer.allocate(records.remaining()).order(BYTE_ORDER);
+		copy.put(records).flip();
+		return copy;
+	}
+
+	/**
+	 * Visits the records of the trades inside a time range in place, through a single record
+	 * flyweight. The visitor is called while holding the file lock and must not archive trades of
+	 * the same stock and day.
+	 * 
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, inclusive
+	 * @param toTimestamp
+	 *            the newest accepted timestamp, exclusive
+	 * @param visitor
+	 *            the visitor receiving the records
+	 */
+	synchronized void visitRange(long fromTimestamp, long toTimestamp, DatastoreVisitor<TradeRecord> visitor) throws IOException {
+		ensureMapped();
+
+		int endOffset = offsetOf(lowerBound(toTimestamp));
+
+		TradeRecord record = new TradeRecord(stockId);
+		for (int offset = offsetOf(lowerBound(fromTimestamp)); offset < endOffset; offset += RECORD_SIZE) {
+			record.wrap(buffer, offset);
+			visitor.visit(record);
+		}
+	}
+
+	/**
+	 * Forces the written records and header to the storage device, if mapped.
+	 */
+	synchronized void force() {
+		if (buffer != null) {
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Forces the written records and drops the mapping, released once garbage collected. The file
+	 * is mapped again when next used.
+	 */
+	synchronized void unmap() {
+		if (buffer != null) {
+			buffer.force();
+			buffer = null;
+		}
+	}
+
+	/**
+	 * @return whether the file is currently mapped
+	 */
+	synchronized boolean isMapped() {
+		return buffer != null;
+	}
+
+	/**
+	 * @return the id of the stock symbol of the archived trades
+	 */
+	int getStockId() {
+		return stockId;
+	}
+
+	private void ensureMapped() throws IOException {
+		if (buffer == null) {
+			map(capacity);
+		}
+	}
+
+	/**
+	 * Maps the file for a records capacity, growing the file if needed.
+	 */
+	private void map(int newCapacity) throws IOException {
+		long length = HEADER_SIZE + (long) newCapacity * RECORD_SIZE;
+
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			if (output.length() < length) {
+				output.setLength(length);
+			}
+			buffer = output.getChannel().map(MapMode.READ_WRITE, 0, length);
+			buffer.order(BYTE_ORDER);
+		} finally {
+			// the mapping outlives the channel, so no file descriptor is held per archived day
+			output.close();
+		}
+
+		capacity = newCapacity;
+	}
+
+	private long timestampAt(int position) {
+		return buffer.getLong(offsetOf(position) + TradeRecord.TIMESTAMP_OFFSET);
+	}
+
+	private int offsetOf(int position) {
+		return HEADER_SIZE + position * RECORD_SIZE;
+	}
+
+	/**
+	 * @return the position of the first trade with a timestamp greater than or equal to the passed
+	 *         in one, or size if there is no such trade
+	 */
+	private int lowerBound(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestampAt(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the position of the first trade with a timestamp strictly greater than the passed in
+	 *         one, or size if there is no such trade
+	 */
+	private int upperBound(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestampAt(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
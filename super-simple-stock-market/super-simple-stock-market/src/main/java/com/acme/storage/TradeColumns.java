@@ -0,0 +1,393 @@
+package com.acme.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+
+/**
+ * Append-only, time-ordered columnar storage for the trades of a single stock. Each trade attribute
+ * is kept in its own primitive array, all arrays being indexed by the trade position.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class TradeColumns {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Size of a trade in the binary columns layout written by
+	 * {@link #writeColumns(ByteBuffer, long[], double[], int[], byte[], int)}.
+	 */
+	static final int TRADE_SIZE = 8 + 8 + 4 + 1;
+
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	/**
+	 * The symbol id and the symbol of the stock all trades in these columns belong to.
+	 */
+	private final int stockId;
+	private final String stockSymbol;
+
+	/**
+	 * Trades timestamps as epoch milliseconds, sorted in ascending order.
+	 */
+	private long[] timestamps;
+	/**
+	 * Trades prices.
+	 */
+	private double[] prices;
+	/**
+	 * Trades quantities.
+	 */
+	private int[] quantities;
+	/**
+	 * Trades types, stored as the {@link TradeType} ordinal.
+	 */
+	private byte[] sides;
+	/**
+	 * Number of trades currently stored.
+	 */
+	private int size;
+	/**
+	 * Whether the current arrays are shared with a snapshot, in which case the stored trades must
+	 * not be modified in place (copy-on-write). Appending past the snapshot size is allowed.
+	 */
+	private boolean shared;
+
+	TradeColumns(int stockId) {
+		this(stockId, INITIAL_CAPACITY);
+	}
+
+	private TradeColumns(int stockId, int capacity) {
+		this.stockId = stockId;
+		this.stockSymbol = SymbolRegistry.symbolOf(stockId);
+
+		this.timestamps = new long[capacity];
+		this.prices = new double[capacity];
+		this.quantities = new int[capacity];
+		this.sides = new byte[capacity];
+	}
+
+	/**
+	 * Rebuilds columns from the binary layout written by
+	 * {@link #writeColumns(ByteBuffer, long[], double[], int[], byte[], int)}.
+	 * 
+	 * @param stockId
+	 *            the symbol id of the stock the trades belong to
+	 * @param source
+	 *            the buffer holding the columns, starting at its position
+	 * @param count
+	 *            the number of trades held by the buffer
+	 * @return the restored columns
+	 */
+	static TradeColumns readColumns(int stockId, ByteBuffer source, int count) {
+		TradeColumns columns = new TradeColumns(stockId, Math.max(INITIAL_CAPACITY, count));
+
+		int position = source.position();
+		source.asLongBuffer().get(columns.timestamps, 0, count);
+		position += count * 8;
+		source.position(position);
+		source.asDoubleBuffer().get(columns.prices, 0, count);
+		position += count * 8;
+		source.position(position);
+		source.asIntBuffer().get(columns.quantities, 0, count);
+		position += count * 4;
+		source.position(position);
+		source.get(columns.sides, 0, count);
+
+		columns.size = count;
+
+		return columns;
+	}
+
+	/**
+	 * Writes the columns of the first trades, one column after the other, at the target buffer
+	 * position.
+	 */
+	static void writeColumns(ByteBuffer target, long[] timestamps, double[] prices, int[] quantities, byte[] sides, int count) {
+		int position = target.position();
+		target.asLongBuffer().put(timestamps, 0, count);
+		position += count * 8;
+		target.position(position);
+		target.asDoubleBuffer().put(prices, 0, count);
+		position += count * 8;
+		target.position(position);
+		target.asIntBuffer().put(quantities, 0, count);
+		position += count * 4;
+		target.position(position);
+		target.put(sides, 0, count);
+	}
+
+	/**
+	 * Appends a trade to the columns. Trades are expected to arrive in timestamp order; an older
+	 * trade is inserted at its sorted position so the timestamp column stays ordered.
+	 * 
+	 * @param trade
+	 *            the trade to be stored
+	 */
+	synchronized void append(Trade trade) {
+		ensureCapacity(size + 1);
+
+		insert(trade);
+	}
+
+	/**
+	 * Appends a batch of trades to the columns, growing them at most once, see
+	 * {@link #append(Trade)}.
+	 * 
+	 * @param trades
+	 *            the trades to be stored
+	 */
+	synchronized void appendAll(List<Trade> trades) {
+		ensureCapacity(size + trades.size());
+
+		for (int i = 0; i < trades.size(); i++) {
+			insert(trades.get(i));
+		}
+	}
+
+	private void insert(Trade trade) {
+		long timestamp = trade.getTimestampMillis();
+
+		int position = size;
+		if (size > 0 && timestamps[size - 1] > timestamp) {
+			position = upperBound(timestamp);
+
+			if (shared) {
+				reallocate(0, timestamps.length);
+			}
+
+			int moved = size - position;
+			System.arraycopy(timestamps, position, timestamps, position + 1, moved);
+			System.arraycopy(prices, position, prices, position + 1, moved);
+			System.arraycopy(quantities, position, quantities, position + 1, moved);
+			System.arraycopy(sides, position, sides, position + 1, moved);
+		}
+
+		timestamps[position] = timestamp;
+		prices[position] = trade.getPrice();
+		quantities[position] = trade.getQuantity();
+		sides[position] = (byte) trade.getType().ordinal();
+
+		size++;
+	}
+
+	/**
+	 * Captures the trades currently stored without copying them. The arrays are shared with the
+	 * snapshot until the next out of order append, which copies them first.
+	 * 
+	 * @return the snapshot of the stored trades
+	 */
+	synchronized TradeColumnsSnapshot snapshot() {
+		shared = true;
+		return new TradeColumnsSnapshot(stockSymbol, timestamps, prices, quantities, sides, size);
+	}
+
+	/**
+	 * @return the number of trades stored in these columns
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, as epoch milliseconds
+	 * @return the number of trades newer than or equal to the passed in timestamp
+	 */
+	synchronized int countNewerOrEqualTo(long fromTimestamp) {
+		return size - lowerBound(fromTimestamp);
+	}
+
+	/**
+	 * Copies all trades newer than or equal to the passed in timestamp into the target list.
+	 * 
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, as epoch milliseconds
+	 * @param target
+	 *            the list receiving the trades copies
+	 */
+	synchronized void copyNewerOrEqualTo(long fromTimestamp, ArrayList<Trade> target) {
+		int from = lowerBound(fromTimestamp);
+
+		target.ensureCapacity(target.size() + size - from);
+		for (int i = from; i < size; i++) {
+			target.add(toTrade(i));
+		}
+	}
+
+	/**
+	 * Copies all trades stored in these columns into the target list.
+	 * 
+	 * @param target
+	 *            the list receiving the trades copies
+	 */
+	synchronized void copyAll(ArrayList<Trade> target) {
+		copyNewerOrEqualTo(Long.MIN_VALUE, target);
+	}
+
+	/**
+	 * Visits all trades newer than or equal to the passed in timestamp. A single trade instance is
+	 * reused for all visited trades, so visiting does not allocate per trade. The visitor is called
+	 * while holding the columns lock and must not store trades into the same datastore.
+	 * 
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, as epoch milliseconds
+	 * @param visitor
+	 *            the visitor receiving the trades
+	 */
+	synchronized void visitNewerOrEqualTo(long fromTimestamp, DatastoreVisitor<Trade> visitor) {
+		visitRange(lowerBound(fromTimestamp), size, visitor);
+	}
+
+	/**
+	 * Removes the oldest trades which expired according to the retention limits, never removing
+	 * the protected trades. The removed trades are visited first, oldest first, the same way as
+	 * {@link #visitNewerOrEqualTo(long, DatastoreVisitor)}.
+	 * 
+	 * @param expiryTimestamp
+	 *            the trades older than this timestamp are removed
+	 * @param protectedTimestamp
+	 *            the trades newer than or equal to this timestamp are kept in any case
+	 * @param maxRetainedCount
+	 *            the maximum number of trades to be kept, unless protected
+	 * @param visitor
+	 *            the visitor receiving the removed trades, optional
+	 * @return the number of removed trades
+	 */
+	synchronized int evict(long expiryTimestamp, long protectedTimestamp, int maxRetainedCount, DatastoreVisitor<Trade> visitor) {
+		int evictedCount = Math.min(Math.max(lowerBound(expiryTimestamp), size - maxRetainedCount), lowerBound(protectedTimestamp));
+		if (evictedCount <= 0) {
+			return 0;
+		}
+
+		if (visitor != null) {
+			CountingVisitor<Trade> countingVisitor = new CountingVisitor<Trade>(visitor);
+			try {
+				visitRange(0, evictedCount, countingVisitor);
+			} catch (CompactionAbortedException e) {
+				// the trades from the one the visitor failed on are retained
+				evictedCount = countingVisitor.getCount();
+				if (evictedCount == 0) {
+					return 0;
+				}
+			}
+		}
+
+		int retainedCount = size - evictedCount;
+		if (shared || retainedCount < timestamps.length >> 2) {
+			// shrunk, so the memory of the evicted trades is given back
+			reallocate(evictedCount, Math.max(INITIAL_CAPACITY, retainedCount + (retainedCount >> 1)));
+		} else {
+			System.arraycopy(timestamps, evictedCount, timestamps, 0, retainedCount);
+			System.arraycopy(prices, evictedCount, prices, 0, retainedCount);
+			System.arraycopy(quantities, evictedCount, quantities, 0, retainedCount);
+			System.arraycopy(sides, evictedCount, sides, 0, retainedCount);
+		}
+		size = retainedCount;
+
+		return evictedCount;
+	}
+
+	private void visitRange(int from, int to, DatastoreVisitor<Trade> visitor) {
+		if (from >= to) {
+			return;
+		}
+
+		Trade trade = new Trade(stockId, null, 0, 0.0, Trade.NO_TIMESTAMP);
+
+		for (int i = from; i < to; i++) {
+			trade.setType(TRADE_TYPES[sides[i]]);
+			trade.setQuantity(quantities[i]);
+			trade.setPrice(prices[i]);
+			trade.setTimestampMillis(timestamps[i]);
+
+			visitor.visit(trade);
+		}
+	}
+
+	/**
+	 * Visits all trades stored in these columns, see
+	 * {@link #visitNewerOrEqualTo(long, DatastoreVisitor)}.
+	 * 
+	 * @param visitor
+	 *            the visitor receiving the trades
+	 */
+	synchronized void visitAll(DatastoreVisitor<Trade> visitor) {
+		visitNewerOrEqualTo(Long.MIN_VALUE, visitor);
+	}
+
+	private Trade toTrade(int index) {
+		return new Trade(stockId, TRADE_TYPES[sides[index]], quantities[index], prices[index], timestamps[index]);
+	}
+
+	/**
+	 * @return the index of the first trade with a timestamp greater than or equal to the passed in
+	 *         one, or size if there is no such trade
+	 */
+	private int lowerBound(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the index of the first trade with a timestamp strictly greater than the passed in
+	 *         one, or size if there is no such trade
+	 */
+	private int upperBound(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= timestamps.length) {
+			return;
+		}
+
+		reallocate(0, Math.max(capacity, timestamps.length + (timestamps.length >> 1)));
+	}
+
+	/**
+	 * Moves the trades from the passed in position on into new arrays.
+	 */
+	private void reallocate(int from, int newCapacity) {
+		long[] newTimestamps = new long[newCapacity];
+		double[] newPrices = new double[newCapacity];
+		int[] newQuantities = new int[newCapacity];
+		byte[] newSides = new byte[newCapacity];
+
+		System.arraycopy(timestamps, from, newTimestamps, 0, size - from);
+		System.arraycopy(prices, from, newPrices, 0, size - from);
+		System.arraycopy(quantities, from, newQuantities, 0, size - from);
+		System.arraycopy(sides, from, newSides, 0, size - from);
+
+		timestamps = newTimestamps;
+		prices = newPrices;
+		quantities = newQuantities;
+		sides = newSides;
+
+		shared = false;
+	}
+}
@@ -0,0 +1,62 @@
+package com.acme.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Point in time view of the trades of a single stock held by a {@link ColumnarTradesDatastore}.
+ * The view shares the datastore columns instead of copying them; the datastore copies its columns
+ * before modifying trades captured by a view, so the view stays stable while trades keep being
+ * stored.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public final class TradeColumnsSnapshot {
+	/**
+	 * Number of bytes a trade takes once written through {@link #writeTo(ByteBuffer)}.
+	 */
+	public static final int TRADE_SIZE = TradeColumns.TRADE_SIZE;
+
+	private final String stockSymbol;
+
+	private final long[] timestamps;
+	private final double[] prices;
+	private final int[] quantities;
+	private final byte[] sides;
+	private final int size;
+
+	TradeColumnsSnapshot(String stockSymbol, long[] timestamps, double[] prices, int[] quantities, byte[] sides, int size) {
+		this.stockSymbol = stockSymbol;
+		this.timestamps = timestamps;
+		this.prices = prices;
+		this.quantities = quantities;
+		this.sides = sides;
+		this.size = size;
+	}
+
+	/**
+	 * Writes the captured trades at the target buffer position, as a timestamps column followed by
+	 * the prices, quantities and trade types columns. The written trades are read back through
+	 * {@link ColumnarTradesDatastore#restore(String, ByteBuffer, int)}.
+	 * 
+	 * @param target
+	 *            the buffer with at least {@link #size()} * {@link #TRADE_SIZE} bytes remaining
+	 */
+	public void writeTo(ByteBuffer target) {
+		TradeColumns.writeColumns(target, timestamps, prices, quantities, sides, size);
+	}
+
+	/**
+	 * @return the symbol of the stock the trades belong to
+	 */
+	public String getStockSymbol() {
+		return stockSymbol;
+	}
+
+	/**
+	 * @return the number of captured trades
+	 */
+	public int size() {
+		return size;
+	}
+}
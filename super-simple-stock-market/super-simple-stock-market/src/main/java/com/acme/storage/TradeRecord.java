@@ -0,0 +1,122 @@
+package com.acme.storage;
+
+import java.nio.ByteBuffer;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+
+/**
+ * Flyweight over a fixed width trade record kept off-heap by an {@link OffHeapTradesDatastore} or
+ * in the mapped files of a {@link MappedTradesArchive}. The accessors read the record memory
+ * directly, so scanning trades through a record does not allocate. A record is repositioned over
+ * the next trade while visiting, see {@link DatastoreVisitor}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public final class TradeRecord {
+	/**
+	 * Size of a record: the timestamp, the price, the quantity and the trade type, padded so that
+	 * the records stay 8 bytes aligned.
+	 */
+	public static final int RECORD_SIZE = 24;
+
+	static final int TIMESTAMP_OFFSET = 0;
+	static final int PRICE_OFFSET = 8;
+	static final int QUANTITY_OFFSET = 16;
+	static final int TYPE_OFFSET = 20;
+
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	private final int stockId;
+
+	private ByteBuffer segment;
+	private int offset;
+
+	TradeRecord(int stockId) {
+		this.stockId = stockId;
+	}
+
+	/**
+	 * Positions this record over the record starting at an offset of a segment.
+	 */
+	void wrap(ByteBuffer segment, int offset) {
+		this.segment = segment;
+		this.offset = offset;
+	}
+
+	/**
+	 * Writes a trade as a record starting at an offset of a segment.
+	 */
+	static void write(ByteBuffer segment, int offset, Trade trade) {
+		segment.putLong(offset + TIMESTAMP_OFFSET, trade.getTimestampMillis());
+		segment.putDouble(offset + PRICE_OFFSET, trade.getPrice());
+		segment.putInt(offset + QUANTITY_OFFSET, trade.getQuantity());
+		segment.put(offset + TYPE_OFFSET, (byte) trade.getType().ordinal());
+	}
+
+	/**
+	 * @return the id of the stock symbol, see {@link SymbolRegistry}
+	 */
+	public int getStockId() {
+		return stockId;
+	}
+
+	/**
+	 * @return the stock symbol
+	 */
+	public String getStockSymbol() {
+		return SymbolRegistry.symbolOf(stockId);
+	}
+
+	/**
+	 * @return the timestamp, in milliseconds since the epoch
+	 */
+	public long getTimestampMillis() {
+		return segment.getLong(offset + TIMESTAMP_OFFSET);
+	}
+
+	/**
+	 * @return the price
+	 */
+	public double getPrice() {
+		return segment.getDouble(offset + PRICE_OFFSET);
+	}
+
+	/**
+	 * @return the quantity
+	 */
+	public int getQuantity() {
+		return segment.getInt(offset + QUANTITY_OFFSET);
+	}
+
+	/**
+	 * @return the type
+	 */
+	public TradeType getType() {
+		return TRADE_TYPES[segment.get(offset + TYPE_OFFSET)];
+	}
+
+	/**
+	 * Copies the record into a trade, for the visitors needing to keep it.
+	 * 
+	 * @return a new trade holding the record values
+	 */
+	public Trade toTrade() {
+		return new Trade(stockId, getType(), getQuantity(), getPrice(), getTimestampMillis());
+	}
+
+	/**
+	 * Copies the record into an existing trade.
+	 * 
+	 * @param trade
+	 *            the trade to be overwritten, of the same stock
+	 */
+	void copyTo(Trade trade) {
+		trade.setType(getType());
+		trade.setQuantity(getQuantity());
+		trade.setPrice(getPrice());
+		trade.setTimestampMillis(getTimestampMillis());
+	}
+}
@@ -0,0 +1,306 @@
+package com.acme.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.acme.domain.Trade;
+
+/**
+ * Append-only, time-ordered off-heap storage for the trades of a single stock. Trades are kept as
+ * fixed width {@link TradeRecord}s in a chain of direct memory segments taken from a
+ * {@link DirectSegmentPool}; the only heap objects are the segments list and its buffers, whatever
+ * the number of trades. Records are addressed by their position, the oldest live record being at
+ * an offset of the first segment, so evicting the oldest trades only moves that offset and gives
+ * the emptied segments back to the pool.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class TradeSegments {
+	private static final int RECORD_SIZE = TradeRecord.RECORD_SIZE;
+
+	private final int stockId;
+	private final DirectSegmentPool pool;
+
+	/**
+	 * Number of records per segment, a power of two, and its logarithm.
+	 */
+	private final int segmentCapacity;
+	private final int segmentShift;
+
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+	/**
+	 * Position of the oldest live record inside the first segment.
+	 */
+	private int first;
+	/**
+	 * Number of trades currently stored.
+	 */
+	private int size;
+
+	TradeSegments(int stockId, DirectSegmentPool pool) {
+		this.stockId = stockId;
+		this.pool = pool;
+		this.segmentCapacity = pool.getSegmentSize() / RECORD_SIZE;
+		this.segmentShift = Integer.numberOfTrailingZeros(segmentCapacity);
+	}
+
+	/**
+	 * Appends a trade to the segments. Trades are expected to arrive in timestamp order; an older
+	 * trade is inserted at its sorted position, moving the newer records by one.
+	 * 
+	 * @param trade
+	 *            the trade to be stored
+	 */
+	synchronized void append(Trade trade) {
+		ensureCapacity(size + 1);
+
+		insert(trade);
+	}
+
+	/**
+	 * Appends a batch of trades to the segments, see {@link #append(Trade)}.
+	 * 
+	 * @param trades
+	 *            the trades to be stored
+	 */
+	synchronized void appendAll(List<Trade> trades) {
+		ensureCapacity(size + trades.size());
+
+		for (int i = 0; i < trades.size(); i++) {
+			insert(trades.get(i));
+		}
+	}
+
+	private void insert(Trade trade) {
+		long timestamp = trade.getTimestampMillis();
+
+		int position = size;
+		if (size > 0 && timestampAt(size - 1) > timestamp) {
+			position = upperBound(timestamp);
+
+			for (int i = size - 1; i >= position; i--) {
+				moveRecord(i, i + 1);
+			}
+		}
+
+		int index = first + position;
+		TradeRecord.write(segments.get(index >>> segmentShift), offsetOf(index), trade);
+
+		size++;
+	}
+
+	/**
+	 * @return the number of trades stored in these segments
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, as epoch milliseconds
+	 * @return the number of trades newer than or equal to the passed in timestamp
+	 */
+	synchronized int countNewerOrEqualTo(long fromTimestamp) {
+		return size - lowerBound(fromTimestamp);
+	}
+
+	/**
+	 * Copies all trades newer than or equal to the passed in timestamp into the target list.
+	 * 
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, as epoch milliseconds
+	 * @param target
+	 *            the list receiving the trades copies
+	 */
+	synchronized void copyNewerOrEqualTo(long fromTimestamp, final ArrayList<Trade> target) {
+		int from = lowerBound(fromTimestamp);
+
+		target.ensureCapacity(target.size() + size - from);
+		visitRange(from, size, new DatastoreVisitor<TradeRecord>() {
+			public void visit(TradeRecord record) {
+				target.add(record.toTrade());
+			}
+		});
+	}
+
+	/**
+	 * Copies all trades stored in these segments into the target list.
+	 * 
+	 * @param target
+	 *            the list receiving the trades copies
+	 */
+	synchronized void copyAll(ArrayList<Trade> target) {
+		copyNewerOrEqualTo(Long.MIN_VALUE, target);
+	}
+
+	/**
+	 * Visits the records of all trades newer than or equal to the passed in timestamp, through a
+	 * single record flyweight. The visitor is called while holding the segments lock and must not
+	 * store trades into the same datastore.
+	 * 
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, as epoch milliseconds
+	 * @param visitor
+	 *            the visitor receiving the records
+	 */
+	synchronized void visitRecordsNewerOrEqualTo(long fromTimestamp, DatastoreVisitor<TradeRecord> visitor) {
+		visitRange(lowerBound(fromTimestamp), size, visitor);
+	}
+
+	/**
+	 * Visits all trades newer than or equal to the passed in timestamp, through a single trade
+	 * instance filled from the records, see {@link #visitRecordsNewerOrEqualTo(long, DatastoreVisitor)}.
+	 * 
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, as epoch milliseconds
+	 * @param visitor
+	 *            the visitor receiving the trades
+	 */
+	synchronized void visitNewerOrEqualTo(long fromTimestamp, DatastoreVisitor<Trade> visitor) {
+		visitRange(lowerBound(fromTimestamp), size, new TradeVisitorAdapter(stockId, visitor));
+	}
+
+	/**
+	 * Removes the oldest trades which expired according to the retention limits, never removing
+	 * the protected trades. The removed trades are visited first, oldest first, the same way as
+	 * {@link #visitNewerOrEqualTo(long, DatastoreVisitor)}.
+	 * 
+	 * @param expiryTimestamp
+	 *            the trades older than this timestamp are removed
+	 * @param protectedTimestamp
+	 *            the trades newer than or equal to this timestamp are kept in any case
+	 * @param maxRetainedCount
+	 *            the maximum number of trades to be kept, unless protected
+	 * @param visitor
+	 *            the visitor receiving the removed trades, optional
+	 * @return the number of removed trades
+	 */
+	synchronized int evict(long expiryTimestamp, long protectedTimestamp, int maxRetainedCount, DatastoreVisitor<Trade> visitor) {
+		int evictedCount = Math.min(Math.max(lowerBound(expiryTimestamp), size - maxRetainedCount), lowerBound(protectedTimestamp));
+		if (evictedCount <= 0) {
+			return 0;
+		}
+
+		if (visitor != null) {
+			CountingVisitor<Trade> countingVisitor = new CountingVisitor<Trade>(visitor);
+			try {
+				visitRange(0, evictedCount, new TradeVisitorAdapter(stockId, countingVisitor));
+			} catch (CompactionAbortedException e) {
+				// the trades from the one the visitor failed on are retained
+				evictedCount = countingVisitor.getCount();
+				if (evictedCount == 0) {
+					return 0;
+				}
+			}
+		}
+
+		first += evictedCount;
+		size -= evictedCount;
+
+		if (size == 0) {
+			first = segments.size() << segmentShift;
+		}
+		while (first >= segmentCapacity) {
+			pool.release(segments.remove(0));
+			first -= segmentCapacity;
+		}
+
+		return evictedCount;
+	}
+
+	private void visitRange(int from, int to, DatastoreVisitor<TradeRecord> visitor) {
+		if (from >= to) {
+			return;
+		}
+
+		TradeRecord record = new TradeRecord(stockId);
+
+		int index = first + from;
+		int end = first + to;
+		while (index < end) {
+			// visit segment by segment, so the records of a segment are a plain offsets walk
+			ByteBuffer segment = segments.get(index >>> segmentShift);
+			int segmentEnd = Math.min(end, ((index >>> segmentShift) + 1) << segmentShift);
+			int endOffset = offsetOf(segmentEnd - 1) + RECORD_SIZE;
+
+			for (int offset = offsetOf(index); offset < endOffset; offset += RECORD_SIZE) {
+				record.wrap(segment, offset);
+				visitor.visit(record);
+			}
+
+			index = segmentEnd;
+		}
+	}
+
+	private long timestampAt(int position) {
+		int index = first + position;
+		return segments.get(index >>> segmentShift).getLong(offsetOf(index) + TradeRecord.TIMESTAMP_OFFSET);
+	}
+
+	/**
+	 * Copies a record over another one, the records being {@link TradeRecord#RECORD_SIZE} = 3
+	 * longs wide.
+	 */
+	private void moveRecord(int fromPosition, int toPosition) {
+		int fromIndex = first + fromPosition;
+		int toIndex = first + toPosition;
+		ByteBuffer source = segments.get(fromIndex >>> segmentShift);
+		ByteBuffer target = segments.get(toIndex >>> segmentShift);
+		int sourceOffset = offsetOf(fromIndex);
+		int targetOffset = offsetOf(toIndex);
+
+		target.putLong(targetOffset, source.getLong(sourceOffset));
+		target.putLong(targetOffset + 8, source.getLong(sourceOffset + 8));
+		target.putLong(targetOffset + 16, source.getLong(sourceOffset + 16));
+	}
+
+	private int offsetOf(int index) {
+		return (index & (segmentCapacity - 1)) * RECORD_SIZE;
+	}
+
+	/**
+	 * @return the position of the first trade with a timestamp greater than or equal to the passed
+	 *         in one, or size if there is no such trade
+	 */
+	private int lowerBound(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestampAt(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the position of the first trade with a timestamp strictly greater than the passed in
+	 *         one, or size if there is no such trade
+	 */
+	private int upperBound(long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestampAt(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		while (first + capacity > segments.size() << segmentShift) {
+			segments.add(pool.acquire());
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package com.acme.storage;
+
+import com.acme.domain.Trade;
+
+/**
+ * Feeds the visited {@link TradeRecord}s of a stock to a trades visitor, through a single reused
+ * trade filled from every record.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+class TradeVisitorAdapter implements DatastoreVisitor<TradeRecord> {
+	private final Trade trade;
+	private final DatastoreVisitor<Trade> visitor;
+
+	TradeVisitorAdapter(int stockId, DatastoreVisitor<Trade> visitor) {
+		this.trade = new Trade(stockId, null, 0, 0.0, Trade.NO_TIMESTAMP);
+		this.visitor = visitor;
+	}
+
+	public void visit(TradeRecord record) {
+		record.copyTo(trade);
+		visitor.visit(trade);
+	}
+}
@@ -1,18 +1,21 @@
 package com.acme.storage;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.acme.domain.SymbolRegistry;
 import com.acme.domain.Trade;
+import com.acme.storage.filter.StockFilter;
 import com.acme.storage.filter.TradeFilter;
+import com.acme.util.Clock;
 import com.acme.util.DateUtils;
 import com.acme.util.StringUtils;
+import com.acme.util.SymbolTable;
+import com.acme.util.SystemClock;
 
 /**
  * {@link Datastore} implementation, specialized in managing trades information.
@@ -20,13 +23,23 @@ import com.acme.util.StringUtils;
  * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
  *
  */
-public class TradesDatastore extends AbstractDatastore<Trade> {
+public class TradesDatastore extends AbstractDatastore<Trade> implements BatchDatastore<Trade> {
 	private static final Logger logger = LogManager.getLogger(TradesDatastore.class);
 
 	/**
-	 * Internal table holding for each stock symbol a collection of defined trades.
+	 * Internal table holding for each stock symbol id a collection of defined trades.
 	 */
-	private Map<String, Collection<Trade>> tradesTable;
+	private SymbolTable<Collection<Trade>> tradesTable;
+
+	/**
+	 * Number of trades stored across all stock symbols.
+	 */
+	private int tradesCount;
+
+	/**
+	 * Clock the trades ages are evaluated against, read once per query.
+	 */
+	private Clock clock = SystemClock.INSTANCE;
 
 	public TradesDatastore() {
 		super();
@@ -34,11 +47,11 @@ public class TradesDatastore extends AbstractDatastore<Trade> {
 
 	@Override
 	protected void initDatastore() {
-		logger.debug("Initializing " + getClass().getSimpleName() + "...");
+		logger.debug("Initializing {}...", getClass().getSimpleName());
 
-		this.tradesTable = new HashMap<String, Collection<Trade>>();
+		this.tradesTable = new SymbolTable<Collection<Trade>>();
 
-		logger.debug("Initialization of " + getClass().getSimpleName() + " completed!");
+		logger.debug("Initialization of {} completed!", getClass().getSimpleName());
 	}
 
 	/**
@@ -47,12 +60,34 @@ public class TradesDatastore extends AbstractDatastore<Trade> {
 	public void store(Trade data) throws DatastoreException {
 		integrityCheck(data);
 
-		Collection<Trade> trades = tradesTable.get(data.getStockSymbol());
-		if (trades == null) {
-			trades = new LinkedList<Trade>();
-			tradesTable.put(data.getStockSymbol(), trades);
+		getOrCreateTrades(SymbolRegistry.register(data)).add(data);
+		tradesCount++;
+	}
+
+	/**
+	 * Stores a batch of new trades in this datastore.
+	 */
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		if (data == null) {
+			throw new DatastoreException("Null trades batch received by this datastore.");
 		}
-		trades.add(data);
+
+		for (Trade trade : data) {
+			integrityCheck(trade);
+		}
+
+		int stockId = SymbolRegistry.NO_ID;
+		Collection<Trade> trades = null;
+		for (Trade trade : data) {
+			// bursts mostly hold consecutive trades of the same stock
+			int tradeStockId = SymbolRegistry.register(trade);
+			if (tradeStockId != stockId) {
+				stockId = tradeStockId;
+				trades = getOrCreateTrades(stockId);
+			}
+			trades.add(trade);
+		}
+		tradesCount += data.size();
 	}
 
 	/**
@@ -66,38 +101,54 @@ public class TradesDatastore extends AbstractDatastore<Trade> {
 	 * Returns the count of all trades defined in this datastore.
 	 */
 	public int count() throws DatastoreException {
-		return list().size();
+		return tradesCount;
 	}
 
 	/**
-	 * Returns a collection of filtered trades matching the filtering conditions.
+	 * Returns the count of trades matching the filtering conditions: all trades of a stock for a
+	 * {@link StockFilter}, answered from the stock trades collection size, or the trades of a stock
+	 * newer than an age for a {@link TradeFilter}, counted without copying them.
 	 */
-	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
-		if (condition == null) {
-			throw new DatastoreException("Null filter received by this datastore.");
-		}
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		if (condition instanceof StockFilter) {
+			StockFilter stockFilter = (StockFilter) condition;
+			if (!stockFilter.hasStockKey()) {
+				throw new DatastoreException("Invalid filter definition, missing search key.");
+			}
 
-		if (!(condition instanceof TradeFilter)) {
-			throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+			Collection<Trade> trades = tradesTable.get(stockFilter.getStockId());
+			return trades == null ? 0 : trades.size();
 		}
 
-		if (!StringUtils.isValid(((TradeFilter) condition).getStockSymbol()) || ((TradeFilter) condition).getAgeInMinutes() <= 0) {
-			throw new DatastoreException("Invalid filter definition, missing search keys information.");
-		}
+		TradeFilter tradeFilter = checkFilter(condition);
 
-		List<Trade> items = new LinkedList<Trade>();
+		int count = 0;
 
-		Collection<Trade> trades = tradesTable.get(((TradeFilter) condition).getStockSymbol());
+		Collection<Trade> trades = tradesTable.get(tradeFilter.getStockId());
 		if (trades != null) {
+			long fromTimestamp = DateUtils.fromTimestamp(clock.currentTimeMillis(), tradeFilter.getAgeInMinutes());
 			for (Trade trade : trades) {
-				int ageInMinutes = ((TradeFilter) condition).getAgeInMinutes();
-				if (DateUtils.isNewerOrEqualTo(trade.getTimestamp(), ageInMinutes)) {
-					Trade tradeCopy = new Trade(trade);
-					items.add(tradeCopy);
+				if (trade.getTimestampMillis() >= fromTimestamp) {
+					count++;
 				}
 			}
 		}
 
+		return count;
+	}
+
+	/**
+	 * Returns a collection of filtered trades matching the filtering conditions.
+	 */
+	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
+		final List<Trade> items = new ArrayList<Trade>();
+
+		forEach(condition, new DatastoreVisitor<Trade>() {
+			public void visit(Trade trade) {
+				items.add(new Trade(trade));
+			}
+		});
+
 		return items;
 	}
 
@@ -105,9 +156,9 @@ public class TradesDatastore extends AbstractDatastore<Trade> {
 	 * Returns a collection of all trades stored by this datastore implementation.
 	 */
 	public Collection<Trade> list() throws DatastoreException {
-		List<Trade> tradesCopy = new LinkedList<Trade>();
+		List<Trade> tradesCopy = new ArrayList<Trade>(tradesCount);
 
-		for (Collection<Trade> trades : tradesTable.values()) {
+		for (Collection<Trade> trades : tradesTable) {
 			for (Trade trade : trades) {
 				Trade tradeCopy = new Trade(trade);
 				tradesCopy.add(tradeCopy);
@@ -117,6 +168,85 @@ public class TradesDatastore extends AbstractDatastore<Trade> {
 		return tradesCopy;
 	}
 
+	/**
+	 * Visits the stored trades matching the filtering conditions, without copying them.
+	 */
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		TradeFilter tradeFilter = checkFilter(condition);
+		checkVisitor(visitor);
+
+		Collection<Trade> trades = tradesTable.get(tradeFilter.getStockId());
+		if (trades != null) {
+			long fromTimestamp = DateUtils.fromTimestamp(clock.currentTimeMillis(), tradeFilter.getAgeInMinutes());
+			for (Trade trade : trades) {
+				if (trade.getTimestampMillis() >= fromTimestamp) {
+					visitor.visit(trade);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Visits all stored trades, without copying them.
+	 */
+	public void forEach(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		checkVisitor(visitor);
+
+		for (Collection<Trade> trades : tradesTable) {
+			for (Trade trade : trades) {
+				visitor.visit(trade);
+			}
+		}
+	}
+
+	/**
+	 * @param clock
+	 *            the clock the trades ages are evaluated against
+	 */
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Validates a filter received by this datastore.
+	 * 
+	 * @param condition
+	 *            the filter to be validated
+	 * @return the trade filter
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private TradeFilter checkFilter(DatastoreFilter condition) throws DatastoreException {
+		if (condition == null) {
+			throw new DatastoreException("Null filter received by this datastore.");
+		}
+
+		if (!(condition instanceof TradeFilter)) {
+			throw new DatastoreException("Unknown filter [" + condition.getClass().getSimpleName() + "] for this datastore.");
+		}
+
+		if (!((TradeFilter) condition).hasStockKey() || ((TradeFilter) condition).getAgeInMinutes() <= 0) {
+			throw new DatastoreException("Invalid filter definition, missing search keys information.");
+		}
+
+		return (TradeFilter) condition;
+	}
+
+	private Collection<Trade> getOrCreateTrades(int stockId) {
+		Collection<Trade> trades = tradesTable.get(stockId);
+		if (trades == null) {
+			trades = new ArrayList<Trade>();
+			tradesTable.putIfAbsent(stockId, trades);
+		}
+		return trades;
+	}
+
+	private void checkVisitor(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		if (visitor == null) {
+			throw new DatastoreException("Null visitor received by this datastore.");
+		}
+	}
+
 	/**
 	 * Performs simple integrity check on a trade object
 	 * 
@@ -130,7 +260,7 @@ public class TradesDatastore extends AbstractDatastore<Trade> {
 			throw new DatastoreException("Trade integrity check validation failed - cannot persist null trade information.");
 		}
 
-		if (trade.getTimestamp() == null) {
+		if (trade.getTimestampMillis() == Trade.NO_TIMESTAMP) {
 			throw new DatastoreException("Trade integrity check validation failed - missing timestamp information (required).");
 		}
 
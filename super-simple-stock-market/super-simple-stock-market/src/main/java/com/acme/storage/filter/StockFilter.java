@@ -1,6 +1,8 @@
 package com.acme.storage.filter;
 
+import com.acme.domain.SymbolRegistry;
 import com.acme.storage.DatastoreFilter;
+import com.acme.util.StringUtils;
 
 /**
  * Implementation of a {@link DatastoreFilter} used to filter stocks by a stock symbol.
@@ -13,6 +15,10 @@ public class StockFilter implements DatastoreFilter {
 	 * The stock symbol used to filter the stocks.
 	 */
 	private String stockSymbol;
+	/**
+	 * The id of the stock symbol used to filter the stocks.
+	 */
+	private int stockId = SymbolRegistry.NO_ID;
 
 	public StockFilter() {
 		this(null);
@@ -22,10 +28,17 @@ public class StockFilter implements DatastoreFilter {
 		this.stockSymbol = stockSymbol;
 	}
 
+	public StockFilter(int stockId) {
+		this.stockId = stockId;
+	}
+
 	/**
-	 * @return the stockSymbol
+	 * @return the stockSymbol, resolved from the stock id if only the id has been set
 	 */
 	public String getStockSymbol() {
+		if (stockSymbol == null && stockId != SymbolRegistry.NO_ID) {
+			stockSymbol = SymbolRegistry.symbolOf(stockId);
+		}
 		return stockSymbol;
 	}
 
@@ -35,5 +48,33 @@ public class StockFilter implements DatastoreFilter {
 	 */
 	public void setStockSymbol(String stockSymbol) {
 		this.stockSymbol = stockSymbol;
+		this.stockId = SymbolRegistry.NO_ID;
+	}
+
+	/**
+	 * @return the stock id, resolved from the stock symbol if only the symbol has been set, or
+	 *         {@link SymbolRegistry#NO_ID} if the symbol has not been registered
+	 */
+	public int getStockId() {
+		if (stockId == SymbolRegistry.NO_ID) {
+			stockId = SymbolRegistry.idOf(stockSymbol);
+		}
+		return stockId;
+	}
+
+	/**
+	 * @param stockId
+	 *            the stock id to set, see {@link SymbolRegistry}
+	 */
+	public void setStockId(int stockId) {
+		this.stockId = stockId;
+		this.stockSymbol = null;
+	}
+
+	/**
+	 * @return true if either a stock id or a valid stock symbol has been set
+	 */
+	public boolean hasStockKey() {
+		return stockId != SymbolRegistry.NO_ID || StringUtils.isValid(stockSymbol);
 	}
 }
@@ -1,6 +1,8 @@
 package com.acme.storage.filter;
 
+import com.acme.domain.SymbolRegistry;
 import com.acme.storage.DatastoreFilter;
+import com.acme.util.StringUtils;
 
 /**
  * Implementation of a {@link DatastoreFilter} used to filter trades by a stock symbol and age
@@ -14,6 +16,10 @@ public class TradeFilter implements DatastoreFilter {
 	 * The symbol identifying the stock based on which the trade was created.
 	 */
 	private String stockSymbol;
+	/**
+	 * The id of the symbol identifying the stock.
+	 */
+	private int stockId = SymbolRegistry.NO_ID;
 	/**
 	 * The trade age in minutes.
 	 */
@@ -28,10 +34,18 @@ public class TradeFilter implements DatastoreFilter {
 		this.ageInMinutes = ageInMinutes;
 	}
 
+	public TradeFilter(int stockId, int ageInMinutes) {
+		this.stockId = stockId;
+		this.ageInMinutes = ageInMinutes;
+	}
+
 	/**
-	 * @return the stockSymbol
+	 * @return the stockSymbol, resolved from the stock id if only the id has been set
 	 */
 	public String getStockSymbol() {
+		if (stockSymbol == null && stockId != SymbolRegistry.NO_ID) {
+			stockSymbol = SymbolRegistry.symbolOf(stockId);
+		}
 		return stockSymbol;
 	}
 
@@ -41,6 +55,34 @@ public class TradeFilter implements DatastoreFilter {
 	 */
 	public void setStockSymbol(String stockSymbol) {
 		this.stockSymbol = stockSymbol;
+		this.stockId = SymbolRegistry.NO_ID;
+	}
+
+	/**
+	 * @return the stock id, resolved from the stock symbol if only the symbol has been set, or
+	 *         {@link SymbolRegistry#NO_ID} if the symbol has not been registered
+	 */
+	public int getStockId() {
+		if (stockId == SymbolRegistry.NO_ID) {
+			stockId = SymbolRegistry.idOf(stockSymbol);
+		}
+		return stockId;
+	}
+
+	/**
+	 * @param stockId
+	 *            the stock id to set, see {@link SymbolRegistry}
+	 */
+	public void setStockId(int stockId) {
+		this.stockId = stockId;
+		this.stockSymbol = null;
+	}
+
+	/**
+	 * @return true if either a stock id or a valid stock symbol has been set
+	 */
+	public boolean hasStockKey() {
+		return stockId != SymbolRegistry.NO_ID || StringUtils.isValid(stockSymbol);
 	}
 
 	/**
@@ -0,0 +1,123 @@
+package com.acme.storage.filter;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.storage.DatastoreFilter;
+import com.acme.util.StringUtils;
+
+/**
+ * Implementation of a {@link DatastoreFilter} used to filter trades by a stock symbol and an
+ * absolute time range, for the historical queries which cannot be expressed as an age.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeRangeFilter implements DatastoreFilter {
+	/**
+	 * The symbol identifying the stock based on which the trade was created.
+	 */
+	private String stockSymbol;
+	/**
+	 * The id of the symbol identifying the stock.
+	 */
+	private int stockId = SymbolRegistry.NO_ID;
+	/**
+	 * The oldest accepted timestamp, inclusive, in milliseconds since the epoch.
+	 */
+	private long fromTimestamp;
+	/**
+	 * The newest accepted timestamp, exclusive, in milliseconds since the epoch.
+	 */
+	private long toTimestamp;
+
+	public TradeRangeFilter() {
+		this(null, 0L, 0L);
+	}
+
+	public TradeRangeFilter(String stockSymbol, long fromTimestamp, long toTimestamp) {
+		this.stockSymbol = stockSymbol;
+		this.fromTimestamp = fromTimestamp;
+		this.toTimestamp = toTimestamp;
+	}
+
+	public TradeRangeFilter(int stockId, long fromTimestamp, long toTimestamp) {
+		this.stockId = stockId;
+		this.fromTimestamp = fromTimestamp;
+		this.toTimestamp = toTimestamp;
+	}
+
+	/**
+	 * @return the stockSymbol, resolved from the stock id if only the id has been set
+	 */
+	public String getStockSymbol() {
+		if (stockSymbol == null && stockId != SymbolRegistry.NO_ID) {
+			stockSymbol = SymbolRegistry.symbolOf(stockId);
+		}
+		return stockSymbol;
+	}
+
+	/**
+	 * @param stockSymbol
+	 *            the stockSymbol to set
+	 */
+	public void setStockSymbol(String stockSymbol) {
+		this.stockSymbol = stockSymbol;
+		this.stockId = SymbolRegistry.NO_ID;
+	}
+
+	/**
+	 * @return the stock id, resolved from the stock symbol if only the symbol has been set, or
+	 *         {@link SymbolRegistry#NO_ID} if the symbol has not been registered
+	 */
+	public int getStockId() {
+		if (stockId == SymbolRegistry.NO_ID) {
+			stockId = SymbolRegistry.idOf(stockSymbol);
+		}
+		return stockId;
+	}
+
+	/**
+	 * @param stockId
+	 *            the stock id to set, see {@link SymbolRegistry}
+	 */
+	public void setStockId(int stockId) {
+		this.stockId = stockId;
+		this.stockSymbol = null;
+	}
+
+	/**
+	 * @return true if either a stock id or a valid stock symbol has been set
+	 */
+	public boolean hasStockKey() {
+		return stockId != SymbolRegistry.NO_ID || StringUtils.isValid(stockSymbol);
+	}
+
+	/**
+	 * @return the oldest accepted timestamp, inclusive, in milliseconds since the epoch
+	 */
+	public long getFromTimestamp() {
+		return fromTimestamp;
+	}
+
+	/**
+	 * @param fromTimestamp
+	 *            the oldest accepted timestamp, inclusive, in milliseconds since the epoch
+	 */
+	public void setFromTimestamp(long fromTimestamp) {
+		this.fromTimestamp = fromTimestamp;
+	}
+
+	/**
+	 * @return the newest accepted timestamp, exclusive, in milliseconds since the epoch
+	 */
+	public long getToTimestamp() {
+		return toTimestamp;
+	}
+
+	/**
+	 * @param toTimestamp
+	 *            the newest accepted timestamp, exclusive, in milliseconds since the epoch
+	 */
+	public void setToTimestamp(long toTimestamp) {
+		this.toTimestamp = toTimestamp;
+	}
+}
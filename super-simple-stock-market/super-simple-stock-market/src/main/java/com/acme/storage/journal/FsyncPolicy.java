@@ -0,0 +1,26 @@
+package com.acme.storage.journal;
+
+/**
+ * Defines when the journal forces the appended records to the storage device, trading write
+ * throughput for the amount of acknowledged data a crash may lose.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public enum FsyncPolicy {
+	/**
+	 * Every append returns only once its record has been forced to disk. Concurrent appends are
+	 * group committed, sharing a single write and force.
+	 */
+	PER_WRITE,
+	/**
+	 * The appending thread forces the journal once a batch of records is pending, so a crash loses
+	 * at most a batch; the background sync thread forces partial batches at the sync interval.
+	 */
+	BATCHED,
+	/**
+	 * Appends never wait for the disk, the background sync thread forces the journal at the sync
+	 * interval, so a crash loses at most the records of an interval.
+	 */
+	PERIODIC;
+}
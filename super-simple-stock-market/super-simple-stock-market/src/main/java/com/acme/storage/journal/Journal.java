@@ -0,0 +1,847 @@
+package com.acme.storage.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Stock;
+import com.acme.domain.Trade;
+import com.acme.storage.DatastoreException;
+
+/**
+ * Append-only binary journal of the datastores mutations, written through a NIO {@link FileChannel}.
+ * 
+ * <p>
+ * Records are framed as <code>[int payload length][int payload CRC32][payload]</code> (see
+ * {@link JournalCodec} for the payloads). Appending threads copy their records into a shared
+ * pending buffer and the buffer is written and forced by a single thread at a time, so concurrent
+ * appends waiting for durability are group committed by a single force. When the pending buffer is
+ * forced is decided by the {@link FsyncPolicy}.
+ * </p>
+ * 
+ * <p>
+ * The journal is kept in a directory, as segment files named after their epoch. It has to be
+ * opened through {@link #recover(long, JournalReplayHandler)}, which replays the existing records
+ * and truncates a torn record left by a crash at the end of the last segment.
+ * </p>
+ * 
+ * <p>
+ * Mutations are journaled between {@link #beginMutation()} and {@link #endMutation(long)}, so that
+ * {@link #rollOver(RollOverListener)} can start a new epoch at a point where the datastores state
+ * matches exactly the records of the previous epochs. Segments of the epochs covered by a snapshot
+ * of that state are then dropped through {@link #deleteSegmentsBefore(long)}.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class Journal {
+	private static final Logger logger = LogManager.getLogger(Journal.class);
+
+	/**
+	 * "SSSMJRNL" - identifies the journal segment files.
+	 */
+	private static final long MAGIC = 0x5353534D4A524E4CL;
+	private static final int VERSION = 1;
+
+	private static final int FILE_HEADER_SIZE = 8 + 4;
+	private static final int RECORD_HEADER_SIZE = 4 + 4;
+
+	/**
+	 * Upper bound of a record payload size, guards replay against reading garbage lengths.
+	 */
+	private static final int MAX_PAYLOAD_SIZE = 128 * 1024;
+
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Size of the per thread buffer framing the records of a batch, below the minimum pending
+	 * buffer size so a full batch buffer always fits into an empty pending buffer.
+	 */
+	private static final int BATCH_BUFFER_SIZE = 64 * 1024;
+
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Per thread encoding buffers, so records are encoded and checksummed outside the append lock.
+	 */
+	private static final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+		@Override
+		protected Encoder initialValue() {
+			return new Encoder();
+		}
+	};
+
+	private File directory;
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.BATCHED;
+	private int batchSize = 256;
+	private long syncIntervalMillis = 10;
+	private int bufferSize = 256 * 1024;
+
+	private final Object appendLock = new Object();
+	private final Object syncLock = new Object();
+
+	/**
+	 * Held in read mode by the mutations being applied and journaled, in write mode while rolling
+	 * over to a new epoch.
+	 */
+	private final StampedLock epochLock = new StampedLock();
+
+	private FileChannel channel;
+	/**
+	 * Epoch of the segment being appended to, guarded by the sync lock.
+	 */
+	private volatile long epoch;
+
+	/**
+	 * Buffer receiving the appended records, guarded by the append lock.
+	 */
+	private ByteBuffer pendingBuffer;
+	/**
+	 * Buffer being written to the channel, guarded by the sync lock.
+	 */
+	private ByteBuffer writeBuffer;
+
+	/**
+	 * Sequence of the last appended record, only modified while holding the append lock.
+	 */
+	private volatile long appendedSequence;
+	/**
+	 * Sequence of the last record written to the channel.
+	 */
+	private volatile long writtenSequence;
+	/**
+	 * Sequence of the last record forced to the storage device.
+	 */
+	private volatile long syncedSequence;
+
+	private volatile long forcesCount;
+
+	private volatile boolean opened;
+	private Thread syncThread;
+
+	/**
+	 * Opens the journal replaying all journaled records, see
+	 * {@link #recover(long, JournalReplayHandler)}.
+	 */
+	public long recover(JournalReplayHandler handler) throws DatastoreException {
+		return recover(0, handler);
+	}
+
+	/**
+	 * Opens the journal: replays the records journaled since an epoch into the handler, then
+	 * positions the journal for appending at the end of the last segment.
+	 * 
+	 * @param fromEpoch
+	 *            the epoch of the first segment to be replayed, the records of the previous epochs
+	 *            being already restored from a snapshot
+	 * @param handler
+	 *            the handler receiving the journaled records
+	 * @return the number of replayed records
+	 * @throws DatastoreException
+	 *             if the journal cannot be read or a record cannot be replayed
+	 */
+	public synchronized long recover(long fromEpoch, JournalReplayHandler handler) throws DatastoreException {
+		if (opened) {
+			throw new DatastoreException("Journal already opened.");
+		}
+
+		if (directory == null) {
+			throw new DatastoreException("Journal directory not configured.");
+		}
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new DatastoreException("Cannot create journal directory [" + directory + "].");
+		}
+
+		logger.info("Recovering journal from [{}] ...", directory);
+
+		File[] segments = listSegments(fromEpoch);
+
+		long recordsCount = 0;
+		long lastSegmentEnd = 0;
+
+		try {
+			for (int i = 0; i < segments.length; i++) {
+				boolean last = i == segments.length - 1;
+				long[] replayed = replaySegment(segments[i], handler, last);
+
+				recordsCount += replayed[0];
+				lastSegmentEnd = replayed[1];
+			}
+
+			if (segments.length == 0) {
+				epoch = fromEpoch;
+				lastSegmentEnd = createSegment(epoch);
+			} else {
+				epoch = epochOf(segments[segments.length - 1]);
+			}
+
+			channel = openSegment(epoch);
+			channel.position(lastSegmentEnd);
+		} catch (IOException e) {
+			throw new DatastoreException("Cannot recover journal from [" + directory + "].", e);
+		}
+
+		pendingBuffer = ByteBuffer.allocate(bufferSize);
+		writeBuffer = ByteBuffer.allocate(bufferSize);
+
+		opened = true;
+
+		if (fsyncPolicy != FsyncPolicy.PER_WRITE) {
+			startSyncThread();
+		}
+
+		logger.info("Recovering journal from [{}] ... Completed, {} records replayed.", directory, recordsCount);
+
+		return recordsCount;
+	}
+
+	/**
+	 * Journals a newly stored stock.
+	 */
+	public void appendStockStored(Stock stock) throws DatastoreException {
+		Encoder encoder = encoders.get();
+		append(encoder, encoder.buffer = JournalCodec.encodeStock(encoder.buffer, JournalCodec.STOCK_STORED, stock));
+	}
+
+	/**
+	 * Journals an updated stock.
+	 */
+	public void appendStockUpdated(Stock stock) throws DatastoreException {
+		Encoder encoder = encoders.get();
+		append(encoder, encoder.buffer = JournalCodec.encodeStock(encoder.buffer, JournalCodec.STOCK_UPDATED, stock));
+	}
+
+	/**
+	 * Journals an applied shares count adjustment.
+	 */
+	public void appendSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException {
+		Encoder encoder = encoders.get();
+		append(encoder, encoder.buffer = JournalCodec.encodeSharesCountAdjustment(encoder.buffer, stockSymbol, delta));
+	}
+
+	/**
+	 * Journals a newly stored trade.
+	 */
+	public void appendTradeStored(Trade trade) throws DatastoreException {
+		Encoder encoder = encoders.get();
+		append(encoder, encoder.buffer = JournalCodec.encodeTrade(encoder.buffer, trade));
+	}
+
+	/**
+	 * Journals a batch of newly stored trades. The records are encoded and checksummed up front and
+	 * appended under a single acquisition of the append lock (or one per pending buffer worth of
+	 * records), and the fsync policy is applied once for the whole batch.
+	 */
+	public void appendTradesStored(Collection<Trade> trades) throws DatastoreException {
+		checkOpened();
+
+		Encoder encoder = encoders.get();
+		ByteBuffer records = encoder.records;
+		records.clear();
+
+		int recordsCount = 0;
+		long sequence = 0;
+
+		for (Trade trade : trades) {
+			ByteBuffer payload = encoder.buffer = JournalCodec.encodeTrade(encoder.buffer, trade);
+
+			int recordSize = RECORD_HEADER_SIZE + payload.remaining();
+			if (records.remaining() < recordSize) {
+				if (recordsCount > 0) {
+					sequence = appendRecords(records, recordsCount);
+					recordsCount = 0;
+				}
+				if (records.capacity() < recordSize) {
+					records = encoder.records = ByteBuffer.allocate(Math.max(BATCH_BUFFER_SIZE, recordSize));
+				}
+				records.clear();
+			}
+
+			encoder.crc.reset();
+			encoder.crc.update(payload.array(), payload.arrayOffset(), payload.remaining());
+
+			records.putInt(payload.remaining());
+			records.putInt((int) encoder.crc.getValue());
+			records.put(payload);
+			recordsCount++;
+		}
+
+		if (recordsCount > 0) {
+			sequence = appendRecords(records, recordsCount);
+		}
+
+		if (sequence > 0) {
+			applyFsyncPolicy(sequence);
+		}
+	}
+
+	/**
+	 * Marks the start of a mutation to be journaled: the mutation is applied to the datastore and
+	 * journaled before {@link #endMutation(long)} is called, so that a roll over never separates
+	 * them.
+	 * 
+	 * @return the stamp to be passed to {@link #endMutation(long)}
+	 */
+	public long beginMutation() {
+		return epochLock.readLock();
+	}
+
+	/**
+	 * Marks the end of a mutation started through {@link #beginMutation()}.
+	 */
+	public void endMutation(long stamp) {
+		epochLock.unlockRead(stamp);
+	}
+
+	/**
+	 * Forces the records of the current epoch and starts a new segment. The listener is called
+	 * once the new epoch has started, while the mutations are held off, so it captures a state of
+	 * the datastores including exactly the records of the previous epochs. It has to capture it
+	 * quickly, without copying large amounts of data.
+	 * 
+	 * @param listener
+	 *            the listener capturing the datastores state
+	 * @return the new epoch
+	 * @throws DatastoreException
+	 *             if the journal cannot be rolled over or the listener fails
+	 */
+	public long rollOver(RollOverListener listener) throws DatastoreException {
+		checkOpened();
+
+		long stamp = epochLock.writeLock();
+		try {
+			long newEpoch;
+			synchronized (syncLock) {
+				sync(appendedSequence, true);
+
+				newEpoch = epoch + 1;
+				try {
+					createSegment(newEpoch);
+					FileChannel newChannel = openSegment(newEpoch);
+					newChannel.position(FILE_HEADER_SIZE);
+
+					channel.close();
+					channel = newChannel;
+				} catch (IOException e) {
+					throw new DatastoreException("Cannot roll over journal to epoch [" + newEpoch + "].", e);
+				}
+				epoch = newEpoch;
+			}
+
+			logger.info("Journal [{}] rolled over to epoch {}.", directory, newEpoch);
+
+			listener.onRollOver(newEpoch);
+
+			return newEpoch;
+		} finally {
+			epochLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Deletes the segments of the epochs preceding the passed in one, once their records are
+	 * covered by a durable snapshot.
+	 * 
+	 * @param segmentsEpoch
+	 *            the epoch of the oldest segment to be kept
+	 * @return the number of deleted segments
+	 */
+	public int deleteSegmentsBefore(long segmentsEpoch) {
+		// the segment being appended to is always kept
+		long keptEpoch = Math.min(segmentsEpoch, epoch);
+		int deletedCount = 0;
+
+		for (File segment : listSegments(0)) {
+			if (epochOf(segment) >= keptEpoch) {
+				break;
+			}
+
+			if (segment.delete()) {
+				deletedCount++;
+			} else {
+				logger.warn("Cannot delete journal segment [{}].", segment);
+			}
+		}
+
+		return deletedCount;
+	}
+
+	/**
+	 * Forces all appended records to the storage device.
+	 * 
+	 * @throws DatastoreException
+	 *             if the journal cannot be written
+	 */
+	public void sync() throws DatastoreException {
+		checkOpened();
+		sync(appendedSequence, true);
+	}
+
+	/**
+	 * Forces the appended records and closes the journal.
+	 */
+	public synchronized void close() throws DatastoreException {
+		if (!opened) {
+			return;
+		}
+
+		opened = false;
+
+		if (syncThread != null) {
+			// not interrupted, an interrupt during a force would close the channel
+			LockSupport.unpark(syncThread);
+			try {
+				syncThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			syncThread = null;
+		}
+
+		try {
+			sync(appendedSequence, true);
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.error("Exception occurred while closing journal.", e);
+			}
+		}
+
+		logger.info("Journal [{}] closed, {} records appended, {} forces.", directory, appendedSequence, forcesCount);
+	}
+
+	private void append(Encoder encoder, ByteBuffer payload) throws DatastoreException {
+		checkOpened();
+
+		int payloadSize = payload.remaining();
+		if (payloadSize > MAX_PAYLOAD_SIZE) {
+			throw new DatastoreException("Journal record too large [" + payloadSize + "].");
+		}
+
+		encoder.crc.reset();
+		encoder.crc.update(payload.array(), payload.arrayOffset(), payloadSize);
+		int crc = (int) encoder.crc.getValue();
+
+		int recordSize = RECORD_HEADER_SIZE + payloadSize;
+
+		long sequence;
+		while (true) {
+			synchronized (appendLock) {
+				if (pendingBuffer.remaining() >= recordSize) {
+					pendingBuffer.putInt(payloadSize);
+					pendingBuffer.putInt(crc);
+					pendingBuffer.put(payload);
+
+					sequence = ++appendedSequence;
+					break;
+				}
+			}
+
+			// the pending buffer is full, write it to the channel and retry
+			sync(appendedSequence, false);
+		}
+
+		applyFsyncPolicy(sequence);
+	}
+
+	/**
+	 * Appends already framed records to the pending buffer.
+	 * 
+	 * @return the sequence of the last appended record
+	 */
+	private long appendRecords(ByteBuffer records, int recordsCount) throws DatastoreException {
+		records.flip();
+
+		while (true) {
+			synchronized (appendLock) {
+				if (pendingBuffer.remaining() >= records.remaining()) {
+					pendingBuffer.put(records);
+
+					appendedSequence += recordsCount;
+					return appendedSequence;
+				}
+			}
+
+			// the pending buffer is full, write it to the channel and retry
+			sync(appendedSequence, false);
+		}
+	}
+
+	/**
+	 * Writes or forces the records up to the passed in sequence, as required by the fsync policy.
+	 */
+	private void applyFsyncPolicy(long sequence) throws DatastoreException {
+		switch (fsyncPolicy) {
+			case PER_WRITE:
+				sync(sequence, true);
+				break;
+			case BATCHED:
+				if (sequence - syncedSequence >= batchSize) {
+					sync(sequence, true);
+				}
+				break;
+			case PERIODIC:
+				break;
+		}
+	}
+
+	/**
+	 * Writes the pending records to the channel, forcing them if requested, unless the record with
+	 * the passed in sequence has already been written (and forced). Threads waiting on the sync
+	 * lock find their records written by the thread ahead of them, which is the group commit.
+	 */
+	private void sync(long sequence, boolean force) throws DatastoreException {
+		synchronized (syncLock) {
+			if ((force ? syncedSequence : writtenSequence) >= sequence) {
+				return;
+			}
+
+			long lastSequence;
+			ByteBuffer buffer;
+			synchronized (appendLock) {
+				buffer = pendingBuffer;
+				pendingBuffer = writeBuffer;
+				writeBuffer = buffer;
+				lastSequence = appendedSequence;
+			}
+
+			try {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear();
+
+				writtenSequence = lastSequence;
+
+				if (force) {
+					channel.force(false);
+					forcesCount++;
+					syncedSequence = lastSequence;
+				}
+			} catch (IOException e) {
+				throw new DatastoreException("Exception occurred while writing journal.", e);
+			}
+		}
+	}
+
+	private void startSyncThread() {
+		syncThread = new Thread(new Runnable() {
+			public void run() {
+				while (opened) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis));
+
+					try {
+						sync(appendedSequence, true);
+					} catch (DatastoreException e) {
+						logger.error("Exception occurred while syncing journal.", e);
+					}
+				}
+			}
+		}, "journal-sync");
+		syncThread.setDaemon(true);
+		syncThread.start();
+	}
+
+	/**
+	 * Replays a journal segment.
+	 * 
+	 * @return the number of replayed records and the offset following the last valid record
+	 */
+	private long[] replaySegment(File segment, JournalReplayHandler handler, boolean last) throws IOException, DatastoreException {
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		try {
+			FileChannel segmentChannel = file.getChannel();
+
+			if (segmentChannel.size() < FILE_HEADER_SIZE) {
+				if (!last) {
+					throw new DatastoreException("Truncated journal segment [" + segment + "].");
+				}
+				logger.warn("Rewriting truncated header of journal segment [{}].", segment);
+				segmentChannel.truncate(0);
+				writeHeader(segmentChannel);
+				return new long[] { 0, FILE_HEADER_SIZE };
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			readFully(segmentChannel, header, 0);
+			if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+				throw new DatastoreException("Invalid journal segment header [" + segment + "].");
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			buffer.limit(0);
+			segmentChannel.position(FILE_HEADER_SIZE);
+
+			CRC32 crc = new CRC32();
+			long recordsCount = 0;
+			long position = FILE_HEADER_SIZE;
+			boolean torn = false;
+
+			while (true) {
+				if (!fill(segmentChannel, buffer, RECORD_HEADER_SIZE)) {
+					torn = buffer.hasRemaining();
+					break;
+				}
+
+				int payloadSize = buffer.getInt(buffer.position());
+				int payloadCrc = buffer.getInt(buffer.position() + 4);
+
+				if (payloadSize <= 0 || payloadSize > MAX_PAYLOAD_SIZE) {
+					torn = true;
+					break;
+				}
+
+				if (!fill(segmentChannel, buffer, RECORD_HEADER_SIZE + payloadSize)) {
+					torn = true;
+					break;
+				}
+
+				int payloadStart = buffer.position() + RECORD_HEADER_SIZE;
+
+				crc.reset();
+				crc.update(buffer.array(), buffer.arrayOffset() + payloadStart, payloadSize);
+				if ((int) crc.getValue() != payloadCrc) {
+					torn = true;
+					break;
+				}
+
+				buffer.position(payloadStart);
+				if (handler != null) {
+					JournalCodec.dispatch(buffer, handler);
+				}
+				buffer.position(payloadStart + payloadSize);
+
+				position += RECORD_HEADER_SIZE + payloadSize;
+				recordsCount++;
+			}
+
+			if (torn) {
+				if (!last) {
+					throw new DatastoreException("Corrupted journal segment [" + segment + "] at offset [" + position + "].");
+				}
+				logger.warn("Truncating torn journal record at offset [{}] of segment [{}].", position, segment);
+				segmentChannel.truncate(position);
+				segmentChannel.force(false);
+			}
+
+			return new long[] { recordsCount, position };
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Makes sure the buffer holds at least the required number of bytes, reading from the channel
+	 * if needed.
+	 * 
+	 * @return false if the channel end has been reached before
+	 */
+	private boolean fill(FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+		if (buffer.remaining() >= required) {
+			return true;
+		}
+
+		buffer.compact();
+		try {
+			while (buffer.position() < required) {
+				if (channel.read(buffer) < 0) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			buffer.flip();
+		}
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of journal segment.");
+			}
+		}
+	}
+
+	private long createSegment(long segmentEpoch) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segmentFile(segmentEpoch), "rw");
+		try {
+			file.setLength(0);
+			writeHeader(file.getChannel());
+		} finally {
+			file.close();
+		}
+		syncDirectory(directory);
+		return FILE_HEADER_SIZE;
+	}
+
+	private void writeHeader(FileChannel segmentChannel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+		header.putLong(MAGIC).putInt(VERSION).flip();
+		while (header.hasRemaining()) {
+			segmentChannel.write(header);
+		}
+		segmentChannel.force(true);
+	}
+
+	/**
+	 * Makes a segment creation durable where the platform allows forcing a directory.
+	 */
+	static void syncDirectory(File directory) {
+		try {
+			FileChannel directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+			try {
+				directoryChannel.force(true);
+			} finally {
+				directoryChannel.close();
+			}
+		} catch (IOException e) {
+			// not supported on every platform
+		}
+	}
+
+	private FileChannel openSegment(long segmentEpoch) throws IOException {
+		return new RandomAccessFile(segmentFile(segmentEpoch), "rw").getChannel();
+	}
+
+	private File segmentFile(long segmentEpoch) {
+		return new File(directory, SEGMENT_PREFIX + String.format("%016d", segmentEpoch) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * @return the segments of the epochs following or equal to the passed in one, in epoch order
+	 */
+	private File[] listSegments(final long fromEpoch) {
+		File[] segments = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX) && epochOf(file) >= fromEpoch;
+			}
+		});
+
+		if (segments == null) {
+			return new File[0];
+		}
+
+		Arrays.sort(segments, new Comparator<File>() {
+			public int compare(File first, File second) {
+				long firstEpoch = epochOf(first);
+				long secondEpoch = epochOf(second);
+				return firstEpoch < secondEpoch ? -1 : (firstEpoch == secondEpoch ? 0 : 1);
+			}
+		});
+
+		return segments;
+	}
+
+	private static long epochOf(File segment) {
+		String name = segment.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private void checkOpened() throws DatastoreException {
+		if (!opened) {
+			throw new DatastoreException("Journal not opened, it has to be recovered first.");
+		}
+	}
+
+	/**
+	 * @return the directory holding the journal segments
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return the epoch of the segment being appended to
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return the number of records appended since the journal has been opened
+	 */
+	public long getAppendedRecordsCount() {
+		return appendedSequence;
+	}
+
+	/**
+	 * @return the number of forces performed since the journal has been opened, lower than the
+	 *         appended records count when appends are group committed or batched
+	 */
+	public long getForcesCount() {
+		return forcesCount;
+	}
+
+	/**
+	 * @param directory
+	 *            the directory holding the journal segments
+	 */
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param fsyncPolicy
+	 *            the fsyncPolicy to set
+	 */
+	public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+		this.fsyncPolicy = fsyncPolicy;
+	}
+
+	/**
+	 * @param batchSize
+	 *            the number of pending records forcing the journal under the
+	 *            {@link FsyncPolicy#BATCHED} policy
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * @param syncIntervalMillis
+	 *            the background sync interval used by the {@link FsyncPolicy#BATCHED} and
+	 *            {@link FsyncPolicy#PERIODIC} policies
+	 */
+	public void setSyncIntervalMillis(long syncIntervalMillis) {
+		this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+	}
+
+	/**
+	 * @param bufferSize
+	 *            the size of the pending records buffer
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = Math.max(RECORD_HEADER_SIZE + MAX_PAYLOAD_SIZE, bufferSize);
+	}
+
+	/**
+	 * Per thread encoding state.
+	 */
+	private static class Encoder {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		final CRC32 crc = new CRC32();
+		/**
+		 * Framed records of a batch, allocated on the first batch appended by the thread.
+		 */
+		ByteBuffer records = ByteBuffer.allocate(0);
+	}
+}
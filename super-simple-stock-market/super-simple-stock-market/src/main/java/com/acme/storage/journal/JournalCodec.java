@@ -0,0 +1,172 @@
+package com.acme.storage.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.storage.DatastoreException;
+
+/**
+ * Binary encoding of the journal records payloads. Every payload starts with the record type,
+ * followed by the stock symbol as an unsigned short length and its UTF-8 bytes, followed by the
+ * fixed size record fields. Enumerations are stored as their ordinal, -1 standing for null. The
+ * same payloads are shipped to the replicas, see {@link com.acme.storage.replication.ReplicationLog}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public final class JournalCodec {
+	public static final byte STOCK_STORED = 1;
+	public static final byte STOCK_UPDATED = 2;
+	public static final byte SHARES_COUNT_ADJUSTED = 3;
+	public static final byte TRADE_STORED = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAX_SYMBOL_LENGTH = 0xFFFF;
+
+	private static final StockType[] STOCK_TYPES = StockType.values();
+	private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+	private JournalCodec() {
+	}
+
+	/**
+	 * Encodes a stored or updated stock.
+	 * 
+	 * @param buffer
+	 *            the scratch buffer to encode into
+	 * @param type
+	 *            either {@link #STOCK_STORED} or {@link #STOCK_UPDATED}
+	 * @param stock
+	 *            the stock to be encoded
+	 * @return the buffer holding the payload, ready to be read, which is a new buffer if the
+	 *         scratch one was too small
+	 */
+	public static ByteBuffer encodeStock(ByteBuffer buffer, byte type, Stock stock) throws DatastoreException {
+		byte[] symbol = encodeSymbol(stock.getSymbol());
+
+		buffer = prepare(buffer, 1 + 2 + symbol.length + 1 + 4 + 8 + 8 + 8);
+		buffer.put(type);
+		buffer.putShort((short) symbol.length).put(symbol);
+		buffer.put(stock.getType() == null ? -1 : (byte) stock.getType().ordinal());
+		buffer.putInt(stock.getSharesCount());
+		buffer.putDouble(stock.getParValue());
+		buffer.putDouble(stock.getLastDividend());
+		buffer.putDouble(stock.getFixedDividend());
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Encodes a shares count adjustment.
+	 * 
+	 * @see #encodeStock(ByteBuffer, byte, Stock)
+	 */
+	public static ByteBuffer encodeSharesCountAdjustment(ByteBuffer buffer, String stockSymbol, int delta) throws DatastoreException {
+		byte[] symbol = encodeSymbol(stockSymbol);
+
+		buffer = prepare(buffer, 1 + 2 + symbol.length + 4);
+		buffer.put(SHARES_COUNT_ADJUSTED);
+		buffer.putShort((short) symbol.length).put(symbol);
+		buffer.putInt(delta);
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Encodes a stored trade.
+	 * 
+	 * @see #encodeStock(ByteBuffer, byte, Stock)
+	 */
+	public static ByteBuffer encodeTrade(ByteBuffer buffer, Trade trade) throws DatastoreException {
+		byte[] symbol = encodeSymbol(trade.getStockSymbol());
+
+		buffer = prepare(buffer, 1 + 2 + symbol.length + 1 + 4 + 8 + 8);
+		buffer.put(TRADE_STORED);
+		buffer.putShort((short) symbol.length).put(symbol);
+		buffer.put(trade.getType() == null ? -1 : (byte) trade.getType().ordinal());
+		buffer.putInt(trade.getQuantity());
+		buffer.putDouble(trade.getPrice());
+		buffer.putLong(trade.getTimestampMillis());
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Decodes the payload starting at the buffer position and passes it to the handler.
+	 * 
+	 * @param buffer
+	 *            the buffer holding the payload
+	 * @param handler
+	 *            the handler receiving the decoded record
+	 * @throws DatastoreException
+	 *             if the record type is unknown or the handler fails
+	 */
+	public static void dispatch(ByteBuffer buffer, JournalReplayHandler handler) throws DatastoreException {
+		byte type = buffer.get();
+		String stockSymbol = decodeSymbol(buffer);
+
+		switch (type) {
+			case STOCK_STORED:
+				handler.onStockStored(decodeStock(buffer, stockSymbol));
+				break;
+			case STOCK_UPDATED:
+				handler.onStockUpdated(decodeStock(buffer, stockSymbol));
+				break;
+			case SHARES_COUNT_ADJUSTED:
+				handler.onSharesCountAdjusted(stockSymbol, buffer.getInt());
+				break;
+			case TRADE_STORED:
+				byte tradeType = buffer.get();
+				int quantity = buffer.getInt();
+				double price = buffer.getDouble();
+				long timestamp = buffer.getLong();
+				handler.onTradeStored(new Trade(stockSymbol, tradeType < 0 ? null : TRADE_TYPES[tradeType], quantity, price, timestamp));
+				break;
+			default:
+				throw new DatastoreException("Unknown journal record type [" + type + "].");
+		}
+	}
+
+	private static Stock decodeStock(ByteBuffer buffer, String stockSymbol) {
+		byte stockType = buffer.get();
+		int sharesCount = buffer.getInt();
+		double parValue = buffer.getDouble();
+		double lastDividend = buffer.getDouble();
+		double fixedDividend = buffer.getDouble();
+
+		return new Stock(stockSymbol, stockType < 0 ? null : STOCK_TYPES[stockType], sharesCount, parValue, lastDividend, fixedDividend);
+	}
+
+	static byte[] encodeSymbol(String stockSymbol) throws DatastoreException {
+		byte[] symbol = stockSymbol.getBytes(UTF8);
+		if (symbol.length > MAX_SYMBOL_LENGTH) {
+			throw new DatastoreException("Stock symbol too long to be journaled.");
+		}
+		return symbol;
+	}
+
+	private static String decodeSymbol(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+
+		String stockSymbol = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+		buffer.position(buffer.position() + length);
+
+		return stockSymbol;
+	}
+
+	private static ByteBuffer prepare(ByteBuffer buffer, int size) {
+		if (buffer.capacity() < size) {
+			return ByteBuffer.allocate(size);
+		}
+		buffer.clear();
+		return buffer;
+	}
+}
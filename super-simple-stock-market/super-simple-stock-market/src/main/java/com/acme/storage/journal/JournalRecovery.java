@@ -0,0 +1,132 @@
+package com.acme.storage.journal;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Stock;
+import com.acme.domain.Trade;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+
+/**
+ * Restores the in-memory datastores from the latest snapshot, if a snapshot manager is set, and
+ * from the journal at startup, before the journaled datastores are used. It then opens the journal
+ * for appending and starts the background snapshots.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class JournalRecovery {
+	private static final Logger logger = LogManager.getLogger(JournalRecovery.class);
+
+	private Journal journal;
+	private SnapshotManager snapshotManager;
+
+	/**
+	 * The in-memory datastores decorated by the journaled ones.
+	 */
+	private SharesCountDatastore stocksDatastore;
+	private Datastore<Trade> tradesDatastore;
+
+	private long recoveredRecordsCount;
+	private long recoveryTimeMillis;
+
+	/**
+	 * Loads the latest snapshot and replays the journal segments following it into the in-memory
+	 * datastores.
+	 * 
+	 * @throws DatastoreException
+	 *             if the snapshot cannot be loaded or the journal cannot be replayed
+	 */
+	public void recover() throws DatastoreException {
+		long start = System.nanoTime();
+
+		long fromEpoch = snapshotManager == null ? 0 : snapshotManager.load();
+
+		recoveredRecordsCount = journal.recover(fromEpoch, new JournalReplayHandler() {
+			public void onStockStored(Stock stock) throws DatastoreException {
+				// stocks are journaled before the datastore accepts them, a rejected one is rejected again
+				try {
+					stocksDatastore.store(stock);
+				} catch (DatastoreException e) {
+					logger.warn("Journaled stock [{}] cannot be replayed: {}", stock.getSymbol(), e.getMessage());
+				}
+			}
+
+			public void onStockUpdated(Stock stock) throws DatastoreException {
+				stocksDatastore.update(stock);
+			}
+
+			public void onSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException {
+				if (stocksDatastore.adjustSharesCount(stockSymbol, delta) < 0) {
+					logger.warn("Journaled shares count adjustment of stock [{}] cannot be replayed.", stockSymbol);
+				}
+			}
+
+			public void onTradeStored(Trade trade) throws DatastoreException {
+				try {
+					tradesDatastore.store(trade);
+				} catch (DatastoreException e) {
+					logger.warn("Journaled trade of stock [{}] cannot be replayed: {}", trade.getStockSymbol(), e.getMessage());
+				}
+			}
+		});
+
+		recoveryTimeMillis = (System.nanoTime() - start) / 1000000L;
+
+		logger.info("Recovered {} journal records in {} ms.", recoveredRecordsCount, recoveryTimeMillis);
+
+		if (snapshotManager != null) {
+			snapshotManager.start();
+		}
+	}
+
+	/**
+	 * @return the number of journal records replayed at startup, not counting the records covered
+	 *         by the loaded snapshot
+	 */
+	public long getRecoveredRecordsCount() {
+		return recoveredRecordsCount;
+	}
+
+	/**
+	 * @return the time spent loading the snapshot and replaying the journal at startup, in
+	 *         milliseconds
+	 */
+	public long getRecoveryTimeMillis() {
+		return recoveryTimeMillis;
+	}
+
+	/**
+	 * @param journal
+	 *            the journal to set
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @param snapshotManager
+	 *            the manager of the snapshots to be loaded before replaying the journal, optional
+	 */
+	public void setSnapshotManager(SnapshotManager snapshotManager) {
+		this.snapshotManager = snapshotManager;
+	}
+
+	/**
+	 * @param stocksDatastore
+	 *            the in-memory stocks datastore to be restored
+	 */
+	public void setStocksDatastore(SharesCountDatastore stocksDatastore) {
+		this.stocksDatastore = stocksDatastore;
+	}
+
+	/**
+	 * @param tradesDatastore
+	 *            the in-memory trades datastore to be restored
+	 */
+	public void setTradesDatastore(Datastore<Trade> tradesDatastore) {
+		this.tradesDatastore = tradesDatastore;
+	}
+}
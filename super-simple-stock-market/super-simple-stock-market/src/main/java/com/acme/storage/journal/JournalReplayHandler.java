@@ -0,0 +1,21 @@
+package com.acme.storage.journal;
+
+import com.acme.domain.Stock;
+import com.acme.domain.Trade;
+import com.acme.storage.DatastoreException;
+
+/**
+ * Receives the journal records, in append order, while the journal is replayed.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface JournalReplayHandler {
+	void onStockStored(Stock stock) throws DatastoreException;
+
+	void onStockUpdated(Stock stock) throws DatastoreException;
+
+	void onSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException;
+
+	void onTradeStored(Trade trade) throws DatastoreException;
+}
@@ -0,0 +1,167 @@
+package com.acme.storage.journal;
+
+import java.util.Collection;
+
+import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreFilter;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.util.StringUtils;
+import com.acme.util.StripedLocks;
+
+/**
+ * {@link SharesCountDatastore} decorator journaling every mutation applied to the decorated,
+ * in-memory, datastore, so that the datastore never holds a mutation the journal has not accepted.
+ * Stocks are journaled first and then stored or updated; a stock the delegate then rejects, as a
+ * duplicate one, is rejected again, and skipped, at startup. Shares count adjustments, often
+ * rejected by the range check, are journaled once the delegate has applied them and reverted if
+ * the journal fails. Both steps happen within a journal mutation, so a snapshot never sees one
+ * without the other.
+ * <p>
+ * The mutations of a same stock are applied and journaled under a per stock lock, so they are
+ * journaled in the order they have been applied: the shares count adjustments replayed at startup
+ * then go through the same range checks, in the same order, as when they were applied.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class JournaledStocksDatastore implements SharesCountDatastore {
+	private SharesCountDatastore delegate;
+	private Journal journal;
+
+	private final StripedLocks locks = new StripedLocks();
+
+	public void store(Stock data) throws DatastoreException {
+		long stamp = journal.beginMutation();
+		try {
+			integrityCheck(data);
+
+			synchronized (locks.lockFor(data.getSymbol())) {
+				journal.appendStockStored(data);
+				delegate.store(data);
+			}
+		} finally {
+			journal.endMutation(stamp);
+		}
+	}
+
+	public boolean update(Stock updatedData) throws DatastoreException {
+		long stamp = journal.beginMutation();
+		try {
+			integrityCheck(updatedData);
+
+			synchronized (locks.lockFor(updatedData.getSymbol())) {
+				// an update of an unknown stock is a no-op, replayed as such
+				journal.appendStockUpdated(updatedData);
+				return delegate.update(updatedData);
+			}
+		} finally {
+			journal.endMutation(stamp);
+		}
+	}
+
+	public int adjustSharesCount(String stockSymbol, int delta) throws DatastoreException {
+		long stamp = journal.beginMutation();
+		try {
+			synchronized (locks.lockFor(stockSymbol)) {
+				int sharesCount = delegate.adjustSharesCount(stockSymbol, delta);
+				if (sharesCount >= 0) {
+					journalSharesCountAdjusted(stockSymbol, delta);
+				}
+				return sharesCount;
+			}
+		} finally {
+			journal.endMutation(stamp);
+		}
+	}
+
+	public int adjustSharesCount(int stockId, int delta) throws DatastoreException {
+		String stockSymbol = SymbolRegistry.symbolOf(stockId);
+
+		long stamp = journal.beginMutation();
+		try {
+			synchronized (locks.lockFor(stockSymbol)) {
+				int sharesCount = delegate.adjustSharesCount(stockId, delta);
+				if (sharesCount >= 0) {
+					journalSharesCountAdjusted(stockSymbol, delta);
+				}
+				return sharesCount;
+			}
+		} finally {
+			journal.endMutation(stamp);
+		}
+	}
+
+	/**
+	 * Journals an adjustment applied by the delegate, reverting it if the journal fails. Called
+	 * under the stock lock, so the revert cannot be rejected by the range check.
+	 */
+	private void journalSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException {
+		try {
+			journal.appendSharesCountAdjusted(stockSymbol, delta);
+		} catch (DatastoreException e) {
+			delegate.adjustSharesCount(stockSymbol, -delta);
+			throw e;
+		}
+	}
+
+	public int count() throws DatastoreException {
+		return delegate.count();
+	}
+
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return delegate.count(condition);
+	}
+
+	public Collection<Stock> filter(DatastoreFilter condition) throws DatastoreException {
+		return delegate.filter(condition);
+	}
+
+	public Collection<Stock> list() throws DatastoreException {
+		return delegate.list();
+	}
+
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		delegate.forEach(condition, visitor);
+	}
+
+	public void forEach(DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		delegate.forEach(visitor);
+	}
+
+	/**
+	 * @param delegate
+	 *            the decorated datastore
+	 */
+	public void setDelegate(SharesCountDatastore delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param journal
+	 *            the journal to set
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Performs simple integrity check on the stock information, before it is journaled.
+	 * 
+	 * @param data
+	 *            the stock to be validated
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private void integrityCheck(Stock data) throws DatastoreException {
+		if (data == null) {
+			throw new DatastoreException("Stock integrity check validation failed - cannot persist null stock information.");
+		}
+
+		if (!StringUtils.isValid(data.getSymbol())) {
+			throw new DatastoreException("Stock integrity check validation failed - missing stock symbol (required).");
+		}
+	}
+}
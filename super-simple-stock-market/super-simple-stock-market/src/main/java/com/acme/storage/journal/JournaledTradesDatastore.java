@@ -0,0 +1,148 @@
+package com.acme.storage.journal;
+
+import java.util.Collection;
+
+import com.acme.domain.Trade;
+import com.acme.storage.BatchDatastore;
+import com.acme.storage.CompactableDatastore;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreFilter;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.util.StringUtils;
+
+/**
+ * Trades {@link Datastore} decorator journaling every trade stored into the decorated, in-memory,
+ * datastore, see {@link JournaledStocksDatastore}. Trades are checked and journaled first, and
+ * then stored, so the datastore never holds a trade the journal has not accepted.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class JournaledTradesDatastore implements CompactableDatastore<Trade>, BatchDatastore<Trade> {
+	private Datastore<Trade> delegate;
+	private Journal journal;
+
+	public void store(Trade data) throws DatastoreException {
+		integrityCheck(data);
+
+		long stamp = journal.beginMutation();
+		try {
+			journal.appendTradeStored(data);
+			delegate.store(data);
+		} finally {
+			journal.endMutation(stamp);
+		}
+	}
+
+	/**
+	 * Journals a batch of trades, once the whole batch is checked, and stores it into the decorated
+	 * datastore, in a single all-or-none operation.
+	 * 
+	 * @throws DatastoreException
+	 *             if the decorated datastore does not support batches, a trade by trade fallback
+	 *             leaving some of the trades stored but not journaled when one of them fails
+	 */
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		if (!(delegate instanceof BatchDatastore)) {
+			throw new DatastoreException("Operation not supported by the decorated datastore.");
+		}
+
+		if (data == null) {
+			throw new DatastoreException("Null trades batch received by this datastore.");
+		}
+		for (Trade trade : data) {
+			integrityCheck(trade);
+		}
+
+		long stamp = journal.beginMutation();
+		try {
+			journal.appendTradesStored(data);
+			((BatchDatastore<Trade>) delegate).storeAll(data);
+		} finally {
+			journal.endMutation(stamp);
+		}
+	}
+
+	public boolean update(Trade updatedData) throws DatastoreException {
+		return delegate.update(updatedData);
+	}
+
+	/**
+	 * Compacts the decorated datastore. Compaction is not journaled: the expired trades replayed at
+	 * startup are dropped again by the next compaction.
+	 */
+	public int compact(RetentionPolicy policy, DatastoreVisitor<Trade> expiredVisitor) throws DatastoreException {
+		if (!(delegate instanceof CompactableDatastore)) {
+			throw new DatastoreException("Operation not supported by the decorated datastore.");
+		}
+		return ((CompactableDatastore<Trade>) delegate).compact(policy, expiredVisitor);
+	}
+
+	public int count() throws DatastoreException {
+		return delegate.count();
+	}
+
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return delegate.count(condition);
+	}
+
+	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
+		return delegate.filter(condition);
+	}
+
+	public Collection<Trade> list() throws DatastoreException {
+		return delegate.list();
+	}
+
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		delegate.forEach(condition, visitor);
+	}
+
+	public void forEach(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		delegate.forEach(visitor);
+	}
+
+	/**
+	 * @param delegate
+	 *            the decorated datastore
+	 */
+	public void setDelegate(Datastore<Trade> delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param journal
+	 *            the journal to set
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Performs simple integrity check on a trade object, before it is journaled.
+	 * 
+	 * @param trade
+	 *            the trade object to be validated
+	 * @throws DatastoreException
+	 *             if validation fails
+	 */
+	private void integrityCheck(Trade trade) throws DatastoreException {
+		if (trade == null) {
+			throw new DatastoreException("Trade integrity check validation failed - cannot persist null trade information.");
+		}
+
+		if (trade.getTimestampMillis() == Trade.NO_TIMESTAMP) {
+			throw new DatastoreException("Trade integrity check validation failed - missing timestamp information (required).");
+		}
+
+		if (!StringUtils.isValid(trade.getStockSymbol())) {
+			throw new DatastoreException("Trade integrity check validation failed - missing stock symbol information (required).");
+		}
+
+		if (trade.getType() == null) {
+			throw new DatastoreException("Trade integrity check validation failed - missing trade type information (required).");
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.acme.storage.journal;
+
+import com.acme.storage.DatastoreException;
+
+/**
+ * Called by {@link Journal#rollOver(RollOverListener)} once a new epoch has started, while the
+ * journaled mutations are held off.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface RollOverListener {
+	/**
+	 * @param epoch
+	 *            the started epoch, all records of the previous epochs are applied to the
+	 *            datastores
+	 */
+	void onRollOver(long epoch) throws DatastoreException;
+}
@@ -0,0 +1,261 @@
+package com.acme.storage.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
+
+import com.acme.domain.Stock;
+import com.acme.domain.Trade;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.storage.TradeColumnsSnapshot;
+
+/**
+ * Binary layout of the datastores snapshots. A snapshot file is made of:
+ * <ul>
+ * <li>a header: magic, version, epoch, stocks count and trades sections count;</li>
+ * <li>the stocks, each as an <code>[int payload length][payload]</code> record encoded by
+ * {@link JournalCodec};</li>
+ * <li>a trades section per stock: the symbol as an unsigned short length and its UTF-8 bytes, the
+ * trades count and the trades columns (see {@link TradeColumnsSnapshot#writeTo(ByteBuffer)});</li>
+ * <li>a footer: the length of the preceding content and the magic, marking a complete file.</li>
+ * </ul>
+ * The trades sections, which make up most of the file, are written and read through memory mapped
+ * buffers with bulk column copies.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+final class SnapshotFile {
+	/**
+	 * "SSSMSNAP" - identifies the snapshot files.
+	 */
+	private static final long MAGIC = 0x5353534D534E4150L;
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8 + 4 + 8 + 4 + 4;
+	private static final int FOOTER_SIZE = 8 + 8;
+	private static final int SECTION_HEADER_SIZE = 2 + 0xFFFF + 4;
+	private static final int MAX_STOCK_PAYLOAD_SIZE = 1 + 2 + 0xFFFF + 1 + 4 + 8 + 8 + 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private SnapshotFile() {
+	}
+
+	/**
+	 * Writes and forces a snapshot file.
+	 * 
+	 * @param file
+	 *            the file to be written, replaced if it exists
+	 * @param epoch
+	 *            the journal epoch the snapshot state precedes
+	 * @param stocks
+	 *            the captured stocks
+	 * @param trades
+	 *            the captured trades, per stock
+	 * @return the size of the written file
+	 */
+	static long write(File file, long epoch, Collection<Stock> stocks, List<TradeColumnsSnapshot> trades) throws IOException, DatastoreException {
+		ByteBuffer stocksBuffer = encodeStocks(stocks);
+
+		byte[][] symbols = new byte[trades.size()][];
+		long length = HEADER_SIZE + stocksBuffer.remaining();
+		for (int i = 0; i < symbols.length; i++) {
+			TradeColumnsSnapshot columns = trades.get(i);
+			symbols[i] = JournalCodec.encodeSymbol(columns.getStockSymbol());
+			length += 2 + symbols[i].length + 4 + (long) columns.size() * TradeColumnsSnapshot.TRADE_SIZE;
+		}
+
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			output.setLength(length + FOOTER_SIZE);
+			FileChannel channel = output.getChannel();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putLong(MAGIC).putInt(VERSION).putLong(epoch).putInt(stocks.size()).putInt(trades.size()).flip();
+			writeFully(channel, header, 0);
+			writeFully(channel, stocksBuffer, HEADER_SIZE);
+
+			long position = HEADER_SIZE + stocksBuffer.capacity();
+			for (int i = 0; i < symbols.length; i++) {
+				TradeColumnsSnapshot columns = trades.get(i);
+				long sectionSize = 2 + symbols[i].length + 4 + (long) columns.size() * TradeColumnsSnapshot.TRADE_SIZE;
+				if (sectionSize > Integer.MAX_VALUE) {
+					throw new DatastoreException("Trades of stock [" + columns.getStockSymbol() + "] too large to be snapshotted.");
+				}
+
+				MappedByteBuffer section = channel.map(MapMode.READ_WRITE, position, sectionSize);
+				section.putShort((short) symbols[i].length).put(symbols[i]);
+				section.putInt(columns.size());
+				columns.writeTo(section);
+				section.force();
+
+				position += sectionSize;
+			}
+
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+			footer.putLong(length).putLong(MAGIC).flip();
+			writeFully(channel, footer, length);
+
+			channel.force(true);
+		} finally {
+			output.close();
+		}
+
+		return length + FOOTER_SIZE;
+	}
+
+	/**
+	 * Loads a snapshot file into empty datastores.
+	 * 
+	 * @param file
+	 *            the snapshot file
+	 * @param stocksDatastore
+	 *            the datastore receiving the stocks
+	 * @param tradesDatastore
+	 *            the datastore receiving the trades
+	 * @return the journal epoch the snapshot state precedes
+	 * @throws DatastoreException
+	 *             if the snapshot is incomplete or invalid
+	 */
+	static long read(File file, final SharesCountDatastore stocksDatastore, ColumnarTradesDatastore tradesDatastore) throws IOException, DatastoreException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+
+			long length = channel.size() - FOOTER_SIZE;
+			if (length < HEADER_SIZE) {
+				throw new DatastoreException("Truncated snapshot [" + file + "].");
+			}
+
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+			readFully(channel, footer, length);
+			if (footer.getLong(0) != length || footer.getLong(8) != MAGIC) {
+				throw new DatastoreException("Incomplete snapshot [" + file + "].");
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+				throw new DatastoreException("Invalid snapshot header [" + file + "].");
+			}
+
+			long epoch = header.getLong(12);
+			int stocksCount = header.getInt(20);
+			int sectionsCount = header.getInt(24);
+
+			long position = readStocks(channel, HEADER_SIZE, stocksCount, stocksDatastore);
+
+			ByteBuffer sectionHeader = ByteBuffer.allocate(SECTION_HEADER_SIZE);
+			for (int i = 0; i < sectionsCount; i++) {
+				sectionHeader.clear();
+				sectionHeader.limit((int) Math.min(SECTION_HEADER_SIZE, length - position));
+				readFully(channel, sectionHeader, position);
+
+				int symbolLength = sectionHeader.getShort(0) & 0xFFFF;
+				String stockSymbol = new String(sectionHeader.array(), 2, symbolLength, UTF8);
+				int count = sectionHeader.getInt(2 + symbolLength);
+
+				position += 2 + symbolLength + 4;
+				long columnsSize = (long) count * TradeColumnsSnapshot.TRADE_SIZE;
+				if (count < 0 || columnsSize > Integer.MAX_VALUE || position + columnsSize > length) {
+					throw new DatastoreException("Invalid trades section of stock [" + stockSymbol + "] in snapshot [" + file + "].");
+				}
+
+				tradesDatastore.restore(stockSymbol, channel.map(MapMode.READ_ONLY, position, columnsSize), count);
+
+				position += columnsSize;
+			}
+
+			return epoch;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static ByteBuffer encodeStocks(Collection<Stock> stocks) throws DatastoreException {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		ByteBuffer stocksBuffer = ByteBuffer.allocate(64 * stocks.size());
+
+		for (Stock stock : stocks) {
+			buffer = JournalCodec.encodeStock(buffer, JournalCodec.STOCK_STORED, stock);
+
+			if (stocksBuffer.remaining() < 4 + buffer.remaining()) {
+				ByteBuffer grownBuffer = ByteBuffer.allocate(stocksBuffer.capacity() * 2 + 4 + buffer.remaining());
+				stocksBuffer.flip();
+				stocksBuffer = grownBuffer.put(stocksBuffer);
+			}
+
+			stocksBuffer.putInt(buffer.remaining()).put(buffer);
+		}
+
+		stocksBuffer.flip();
+		return stocksBuffer.slice();
+	}
+
+	/**
+	 * @return the position following the stocks
+	 */
+	private static long readStocks(FileChannel channel, long position, int stocksCount, final SharesCountDatastore stocksDatastore) throws IOException, DatastoreException {
+		JournalReplayHandler handler = new JournalReplayHandler() {
+			public void onStockStored(Stock stock) throws DatastoreException {
+				stocksDatastore.store(stock);
+			}
+
+			public void onStockUpdated(Stock stock) throws DatastoreException {
+				throw new DatastoreException("Unexpected stock update in snapshot.");
+			}
+
+			public void onSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException {
+				throw new DatastoreException("Unexpected shares count adjustment in snapshot.");
+			}
+
+			public void onTradeStored(Trade trade) throws DatastoreException {
+				throw new DatastoreException("Unexpected trade in snapshot.");
+			}
+		};
+
+		ByteBuffer length = ByteBuffer.allocate(4);
+		for (int i = 0; i < stocksCount; i++) {
+			length.clear();
+			readFully(channel, length, position);
+
+			int payloadSize = length.getInt(0);
+			if (payloadSize <= 0 || payloadSize > MAX_STOCK_PAYLOAD_SIZE) {
+				throw new DatastoreException("Invalid stock record in snapshot.");
+			}
+
+			ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+			readFully(channel, payload, position + 4);
+			payload.flip();
+			JournalCodec.dispatch(payload, handler);
+
+			position += 4 + payloadSize;
+		}
+
+		return position;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of snapshot.");
+			}
+		}
+	}
+}
@@ -0,0 +1,342 @@
+package com.acme.storage.journal;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Stock;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.storage.TradeColumnsSnapshot;
+
+/**
+ * Periodically snapshots the in-memory datastores decorated by the journaled ones, so that restart
+ * loads the latest snapshot and replays only the journal segments written after it.
+ * 
+ * <p>
+ * A snapshot is taken without stopping the writers for longer than a journal roll over: the
+ * mutations are held off only while the journal starts a new epoch and the datastores state is
+ * captured, the stocks being copied and the trades columns being shared copy-on-write (see
+ * {@link TradeColumnsSnapshot}). The captured state is then written in the background to a memory
+ * mapped file (see {@link SnapshotFile}), made visible through an atomic rename, after which the
+ * journal segments and snapshots it covers are deleted.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SnapshotManager {
+	private static final Logger logger = LogManager.getLogger(SnapshotManager.class);
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private File directory;
+	private Journal journal;
+
+	/**
+	 * The in-memory datastores decorated by the journaled ones.
+	 */
+	private SharesCountDatastore stocksDatastore;
+	private ColumnarTradesDatastore tradesDatastore;
+
+	private long intervalMillis = 60 * 1000;
+	private long recordsThreshold = 1;
+
+	/**
+	 * Journal appended records count captured by the last snapshot.
+	 */
+	private volatile long snapshotRecordsCount;
+
+	private volatile long snapshotsCount;
+	private volatile long lastSnapshotEpoch;
+	private volatile long lastSnapshotTimeMillis;
+	private volatile long lastSnapshotPauseNanos;
+
+	private volatile boolean running;
+	private Thread snapshotThread;
+
+	/**
+	 * Loads the latest snapshot into the empty in-memory datastores.
+	 * 
+	 * @return the journal epoch to be replayed from, 0 if there is no snapshot
+	 * @throws DatastoreException
+	 *             if the latest snapshot cannot be loaded
+	 */
+	public synchronized long load() throws DatastoreException {
+		File snapshotsDirectory = getSnapshotsDirectory();
+		if (!snapshotsDirectory.isDirectory() && !snapshotsDirectory.mkdirs()) {
+			throw new DatastoreException("Cannot create snapshots directory [" + snapshotsDirectory + "].");
+		}
+
+		for (File temporary : listFiles(TEMPORARY_SUFFIX)) {
+			logger.warn("Deleting incomplete snapshot [{}].", temporary);
+			temporary.delete();
+		}
+
+		File[] snapshots = listFiles(SNAPSHOT_SUFFIX);
+		if (snapshots.length == 0) {
+			logger.info("No snapshot found in [{}].", snapshotsDirectory);
+			return 0;
+		}
+
+		File snapshot = snapshots[snapshots.length - 1];
+
+		long start = System.nanoTime();
+
+		try {
+			lastSnapshotEpoch = SnapshotFile.read(snapshot, stocksDatastore, tradesDatastore);
+		} catch (IOException e) {
+			throw new DatastoreException("Cannot load snapshot [" + snapshot + "].", e);
+		}
+
+		if (lastSnapshotEpoch != epochOf(snapshot)) {
+			throw new DatastoreException("Snapshot [" + snapshot + "] does not match its epoch.");
+		}
+
+		logger.info("Loaded snapshot [{}], {} stocks and {} trades in {} ms.", snapshot, stocksDatastore.count(), tradesDatastore.count(), (System.nanoTime() - start) / 1000000L);
+
+		deleteSnapshotsBefore(lastSnapshotEpoch);
+
+		return lastSnapshotEpoch;
+	}
+
+	/**
+	 * Starts snapshotting the datastores in the background, once the journal has been recovered.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+
+		running = true;
+		snapshotRecordsCount = journal.getAppendedRecordsCount();
+
+		snapshotThread = new Thread(new Runnable() {
+			public void run() {
+				while (running) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+
+					if (running && journal.getAppendedRecordsCount() - snapshotRecordsCount >= recordsThreshold) {
+						try {
+							snapshot();
+						} catch (DatastoreException e) {
+							logger.error("Exception occurred while taking snapshot.", e);
+						}
+					}
+				}
+			}
+		}, "journal-snapshot");
+		snapshotThread.setDaemon(true);
+		snapshotThread.start();
+	}
+
+	/**
+	 * Stops the background snapshots, waiting for a snapshot in progress to complete.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = snapshotThread;
+			snapshotThread = null;
+		}
+
+		if (thread != null) {
+			// not interrupted, an interrupt while writing would close the snapshot channel
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the datastores and deletes the journal segments it covers.
+	 * 
+	 * @return the epoch of the snapshot
+	 * @throws DatastoreException
+	 *             if the snapshot cannot be taken
+	 */
+	public synchronized long snapshot() throws DatastoreException {
+		final Capture capture = new Capture();
+
+		long start = System.nanoTime();
+
+		long epoch = journal.rollOver(new RollOverListener() {
+			public void onRollOver(long epoch) throws DatastoreException {
+				capture.recordsCount = journal.getAppendedRecordsCount();
+				capture.stocks = stocksDatastore.list();
+				capture.trades = tradesDatastore.snapshot();
+			}
+		});
+
+		long pauseNanos = System.nanoTime() - start;
+
+		File snapshot = snapshotFile(epoch);
+		File temporary = new File(snapshot.getPath() + TEMPORARY_SUFFIX);
+		long size;
+		try {
+			size = SnapshotFile.write(temporary, epoch, capture.stocks, capture.trades);
+			Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			Journal.syncDirectory(getSnapshotsDirectory());
+		} catch (IOException e) {
+			temporary.delete();
+			throw new DatastoreException("Cannot write snapshot [" + snapshot + "].", e);
+		}
+
+		snapshotRecordsCount = capture.recordsCount;
+		lastSnapshotEpoch = epoch;
+		lastSnapshotPauseNanos = pauseNanos;
+		lastSnapshotTimeMillis = (System.nanoTime() - start) / 1000000L;
+		snapshotsCount++;
+
+		int deletedSegments = journal.deleteSegmentsBefore(epoch);
+		deleteSnapshotsBefore(epoch);
+
+		logger.info("Snapshot [{}] written, {} bytes in {} ms, writers paused {} us, {} journal segments deleted.", snapshot, size, lastSnapshotTimeMillis, pauseNanos / 1000L, deletedSegments);
+
+		return epoch;
+	}
+
+	private void deleteSnapshotsBefore(long epoch) {
+		for (File snapshot : listFiles(SNAPSHOT_SUFFIX)) {
+			if (epochOf(snapshot) < epoch && !snapshot.delete()) {
+				logger.warn("Cannot delete snapshot [{}].", snapshot);
+			}
+		}
+	}
+
+	private File snapshotFile(long epoch) {
+		return new File(getSnapshotsDirectory(), SNAPSHOT_PREFIX + String.format("%016d", epoch) + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * @return the snapshot files with the passed in suffix, in epoch order
+	 */
+	private File[] listFiles(final String suffix) {
+		File[] files = getSnapshotsDirectory().listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().startsWith(SNAPSHOT_PREFIX) && file.getName().endsWith(suffix);
+			}
+		});
+
+		if (files == null) {
+			return new File[0];
+		}
+
+		// zero padded epochs, the names order is the epochs order
+		Arrays.sort(files);
+
+		return files;
+	}
+
+	private static long epochOf(File snapshot) {
+		String name = snapshot.getName();
+		return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+	}
+
+	private File getSnapshotsDirectory() {
+		return directory != null ? directory : journal.getDirectory();
+	}
+
+	/**
+	 * @return the number of snapshots taken since startup
+	 */
+	public long getSnapshotsCount() {
+		return snapshotsCount;
+	}
+
+	/**
+	 * @return the epoch of the latest snapshot, taken or loaded, 0 if there is none
+	 */
+	public long getLastSnapshotEpoch() {
+		return lastSnapshotEpoch;
+	}
+
+	/**
+	 * @return the time spent taking the last snapshot, in milliseconds
+	 */
+	public long getLastSnapshotTimeMillis() {
+		return lastSnapshotTimeMillis;
+	}
+
+	/**
+	 * @return the time the writers were held off while taking the last snapshot, in nanoseconds
+	 */
+	public long getLastSnapshotPauseNanos() {
+		return lastSnapshotPauseNanos;
+	}
+
+	/**
+	 * @param directory
+	 *            the directory holding the snapshots, the journal directory if not set
+	 */
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param journal
+	 *            the journal to set
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @param stocksDatastore
+	 *            the in-memory stocks datastore to be snapshotted
+	 */
+	public void setStocksDatastore(SharesCountDatastore stocksDatastore) {
+		this.stocksDatastore = stocksDatastore;
+	}
+
+	/**
+	 * @param tradesDatastore
+	 *            the in-memory trades datastore to be snapshotted
+	 */
+	public void setTradesDatastore(ColumnarTradesDatastore tradesDatastore) {
+		this.tradesDatastore = tradesDatastore;
+	}
+
+	/**
+	 * @param intervalMillis
+	 *            the interval between the background snapshots
+	 */
+	public void setIntervalMillis(long intervalMillis) {
+		this.intervalMillis = Math.max(1, intervalMillis);
+	}
+
+	/**
+	 * @param recordsThreshold
+	 *            the minimum number of records journaled since the last snapshot for a background
+	 *            snapshot to be taken
+	 */
+	public void setRecordsThreshold(long recordsThreshold) {
+		this.recordsThreshold = Math.max(1, recordsThreshold);
+	}
+
+	/**
+	 * State captured at the snapshot epoch.
+	 */
+	private static class Capture {
+		long recordsCount;
+		Collection<Stock> stocks;
+		List<TradeColumnsSnapshot> trades;
+	}
+}
@@ -0,0 +1,167 @@
+package com.acme.storage.metrics;
+
+import java.util.Collection;
+
+import com.acme.metrics.LatencyHistogram;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreFilter;
+import com.acme.storage.DatastoreVisitor;
+
+/**
+ * {@link Datastore} decorator recording the latency of every operation of the decorated datastore
+ * into the latency histograms <code>datastore.&lt;name&gt;.&lt;operation&gt;</code> of a
+ * {@link MetricsRegistry}. Failed operations are recorded as well.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public abstract class InstrumentedDatastore<T> implements Datastore<T> {
+	private Datastore<T> delegate;
+
+	private MetricsRegistry metricsRegistry;
+	private String name;
+
+	private LatencyHistogram storeLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram updateLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram countLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram filterLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram listLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram forEachLatency = LatencyHistogram.DISABLED;
+
+	public void store(T data) throws DatastoreException {
+		long start = storeLatency.start();
+		try {
+			delegate.store(data);
+		} finally {
+			storeLatency.recordSince(start);
+		}
+	}
+
+	public boolean update(T updatedData) throws DatastoreException {
+		long start = updateLatency.start();
+		try {
+			return delegate.update(updatedData);
+		} finally {
+			updateLatency.recordSince(start);
+		}
+	}
+
+	public int count() throws DatastoreException {
+		long start = countLatency.start();
+		try {
+			return delegate.count();
+		} finally {
+			countLatency.recordSince(start);
+		}
+	}
+
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		long start = countLatency.start();
+		try {
+			return delegate.count(condition);
+		} finally {
+			countLatency.recordSince(start);
+		}
+	}
+
+	public Collection<T> filter(DatastoreFilter condition) throws DatastoreException {
+		long start = filterLatency.start();
+		try {
+			return delegate.filter(condition);
+		} finally {
+			filterLatency.recordSince(start);
+		}
+	}
+
+	public Collection<T> list() throws DatastoreException {
+		long start = listLatency.start();
+		try {
+			return delegate.list();
+		} finally {
+			listLatency.recordSince(start);
+		}
+	}
+
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<T> visitor) throws DatastoreException {
+		long start = forEachLatency.start();
+		try {
+			delegate.forEach(condition, visitor);
+		} finally {
+			forEachLatency.recordSince(start);
+		}
+	}
+
+	public void forEach(DatastoreVisitor<T> visitor) throws DatastoreException {
+		long start = forEachLatency.start();
+		try {
+			delegate.forEach(visitor);
+		} finally {
+			forEachLatency.recordSince(start);
+		}
+	}
+
+	/**
+	 * @return the decorated datastore
+	 */
+	protected Datastore<T> getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @param delegate
+	 *            the decorated datastore
+	 */
+	public void setDelegate(Datastore<T> delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param metricsRegistry
+	 *            the registry of the latency histograms
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+		resolveMetrics();
+	}
+
+	/**
+	 * @param name
+	 *            the datastore name, prefixing the latency histograms names
+	 */
+	public void setName(String name) {
+		this.name = name;
+		resolveMetrics();
+	}
+
+	/**
+	 * Resolves the latency histograms of the operations, once both the registry and the name have
+	 * been set.
+	 */
+	private void resolveMetrics() {
+		if (metricsRegistry != null && name != null) {
+			storeLatency = latencyHistogram("store");
+			updateLatency = latencyHistogram("update");
+			countLatency = latencyHistogram("count");
+			filterLatency = latencyHistogram("filter");
+			listLatency = latencyHistogram("list");
+			forEachLatency = latencyHistogram("forEach");
+			resolveOperationMetrics(metricsRegistry, "datastore." + name + ".");
+		}
+	}
+
+	private LatencyHistogram latencyHistogram(String operation) {
+		return metricsRegistry.latencyHistogram("datastore." + name + "." + operation);
+	}
+
+	/**
+	 * Resolves the latency histograms of the operations added by a subclass.
+	 * 
+	 * @param metricsRegistry
+	 *            the registry of the latency histograms
+	 * @param prefix
+	 *            the prefix of the latency histograms names
+	 */
+	protected abstract void resolveOperationMetrics(MetricsRegistry metricsRegistry, String prefix);
+}
@@ -0,0 +1,50 @@
+package com.acme.storage.metrics;
+
+import com.acme.domain.Stock;
+import com.acme.metrics.LatencyHistogram;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+
+/**
+ * Stocks {@link Datastore} decorator recording the latency of every operation, see
+ * {@link InstrumentedDatastore}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class InstrumentedStocksDatastore extends InstrumentedDatastore<Stock> implements SharesCountDatastore {
+	private LatencyHistogram adjustSharesCountLatency = LatencyHistogram.DISABLED;
+
+	public int adjustSharesCount(String stockSymbol, int delta) throws DatastoreException {
+		long start = adjustSharesCountLatency.start();
+		try {
+			return sharesCountDelegate().adjustSharesCount(stockSymbol, delta);
+		} finally {
+			adjustSharesCountLatency.recordSince(start);
+		}
+	}
+
+	public int adjustSharesCount(int stockId, int delta) throws DatastoreException {
+		long start = adjustSharesCountLatency.start();
+		try {
+			return sharesCountDelegate().adjustSharesCount(stockId, delta);
+		} finally {
+			adjustSharesCountLatency.recordSince(start);
+		}
+	}
+
+	@Override
+	protected void resolveOperationMetrics(MetricsRegistry metricsRegistry, String prefix) {
+		adjustSharesCountLatency = metricsRegistry.latencyHistogram(prefix + "adjustSharesCount");
+	}
+
+	private SharesCountDatastore sharesCountDelegate() throws DatastoreException {
+		Datastore<Stock> delegate = getDelegate();
+		if (!(delegate instanceof SharesCountDatastore)) {
+			throw new DatastoreException("Operation not supported by the decorated datastore.");
+		}
+		return (SharesCountDatastore) delegate;
+	}
+}
@@ -0,0 +1,65 @@
+package com.acme.storage.metrics;
+
+import java.util.Collection;
+
+import com.acme.domain.Trade;
+import com.acme.metrics.LatencyHistogram;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.storage.BatchDatastore;
+import com.acme.storage.CompactableDatastore;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.retention.RetentionPolicy;
+
+/**
+ * Trades {@link Datastore} decorator recording the latency of every operation, see
+ * {@link InstrumentedDatastore}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class InstrumentedTradesDatastore extends InstrumentedDatastore<Trade> implements CompactableDatastore<Trade>, BatchDatastore<Trade> {
+	private LatencyHistogram storeAllLatency = LatencyHistogram.DISABLED;
+	private LatencyHistogram compactLatency = LatencyHistogram.DISABLED;
+
+	/**
+	 * Stores a batch of trades into the decorated datastore, in a single operation if it supports
+	 * it.
+	 */
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		long start = storeAllLatency.start();
+		try {
+			Datastore<Trade> delegate = getDelegate();
+			if (delegate instanceof BatchDatastore) {
+				((BatchDatastore<Trade>) delegate).storeAll(data);
+			} else {
+				for (Trade trade : data) {
+					delegate.store(trade);
+				}
+			}
+		} finally {
+			storeAllLatency.recordSince(start);
+		}
+	}
+
+	public int compact(RetentionPolicy policy, DatastoreVisitor<Trade> expiredVisitor) throws DatastoreException {
+		Datastore<Trade> delegate = getDelegate();
+		if (!(delegate instanceof CompactableDatastore)) {
+			throw new DatastoreException("Operation not supported by the decorated datastore.");
+		}
+
+		long start = compactLatency.start();
+		try {
+			return ((CompactableDatastore<Trade>) delegate).compact(policy, expiredVisitor);
+		} finally {
+			compactLatency.recordSince(start);
+		}
+	}
+
+	@Override
+	protected void resolveOperationMetrics(MetricsRegistry metricsRegistry, String prefix) {
+		storeAllLatency = metricsRegistry.latencyHistogram(prefix + "storeAll");
+		compactLatency = metricsRegistry.latencyHistogram(prefix + "compact");
+	}
+}
@@ -0,0 +1,74 @@
+package com.acme.storage.replication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import com.acme.storage.DatastoreException;
+
+/**
+ * In-process {@link ReplicationTransport}, connecting followers living in the same JVM as the
+ * leader: the frames are applied by the writer thread of each follower link. Meant for tests and for
+ * read replicas serving queries off the leader datastores.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class LoopbackReplicationTransport implements ReplicationTransport {
+	private List<ReplicationFollower> followers = Collections.emptyList();
+
+	private volatile ReplicationLog log;
+
+	public void start(ReplicationLog log) throws IOException {
+		this.log = log;
+
+		for (ReplicationFollower follower : followers) {
+			try {
+				connect(follower);
+			} catch (DatastoreException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	public void stop() {
+		log = null;
+	}
+
+	/**
+	 * Connects a follower to the started leader, bootstrapping it with the leader state.
+	 * 
+	 * @param follower
+	 *            the follower, not yet bootstrapped
+	 * @throws DatastoreException
+	 *             if the follower cannot be bootstrapped
+	 */
+	public void connect(final ReplicationFollower follower) throws DatastoreException {
+		ReplicationLog currentLog = log;
+		if (currentLog == null) {
+			throw new IllegalStateException("Loopback replication transport is not started.");
+		}
+
+		currentLog.addReplica(new ReplicaLink() {
+			public void send(ByteBuffer frame) throws IOException {
+				try {
+					follower.apply(frame.duplicate());
+				} catch (DatastoreException e) {
+					throw new IOException(e);
+				}
+			}
+
+			public void close() {
+			}
+		});
+	}
+
+	/**
+	 * @param followers
+	 *            the followers connected when the transport starts
+	 */
+	public void setFollowers(List<ReplicationFollower> followers) {
+		this.followers = followers;
+	}
+}
@@ -0,0 +1,28 @@
+package com.acme.storage.replication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Connection from the leader to a replica, provided by a {@link ReplicationTransport}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface ReplicaLink {
+	/**
+	 * Sends a frame to the replica. Frames are delivered in sending order, by a single thread at a
+	 * time.
+	 * 
+	 * @param frame
+	 *            the frame, from its position to its limit, left unchanged
+	 * @throws IOException
+	 *             if the replica cannot be reached, the link being then dropped
+	 */
+	void send(ByteBuffer frame) throws IOException;
+
+	/**
+	 * Closes the connection to the replica.
+	 */
+	void close();
+}
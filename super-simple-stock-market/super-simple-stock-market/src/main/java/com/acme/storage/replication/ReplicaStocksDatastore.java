@@ -0,0 +1,69 @@
+package com.acme.storage.replication;
+
+import java.util.Collection;
+
+import com.acme.domain.Stock;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreFilter;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.SharesCountDatastore;
+
+/**
+ * Read-only {@link SharesCountDatastore} decorator of a replica: the decorated datastore is only
+ * mutated by the {@link ReplicationFollower}, the mutations submitted to the replica being
+ * rejected, as they are to be submitted to the leader.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ReplicaStocksDatastore implements SharesCountDatastore {
+	private SharesCountDatastore delegate;
+
+	public void store(Stock data) throws DatastoreException {
+		throw new DatastoreException(ReplicaTradesDatastore.READ_ONLY_MESSAGE);
+	}
+
+	public boolean update(Stock updatedData) throws DatastoreException {
+		throw new DatastoreException(ReplicaTradesDatastore.READ_ONLY_MESSAGE);
+	}
+
+	public int adjustSharesCount(String stockSymbol, int delta) throws DatastoreException {
+		throw new DatastoreException(ReplicaTradesDatastore.READ_ONLY_MESSAGE);
+	}
+
+	public int adjustSharesCount(int stockId, int delta) throws DatastoreException {
+		throw new DatastoreException(ReplicaTradesDatastore.READ_ONLY_MESSAGE);
+	}
+
+	public int count() throws DatastoreException {
+		return delegate.count();
+	}
+
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return delegate.count(condition);
+	}
+
+	public Collection<Stock> filter(DatastoreFilter condition) throws DatastoreException {
+		return delegate.filter(condition);
+	}
+
+	public Collection<Stock> list() throws DatastoreException {
+		return delegate.list();
+	}
+
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		delegate.forEach(condition, visitor);
+	}
+
+	public void forEach(DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		delegate.forEach(visitor);
+	}
+
+	/**
+	 * @param delegate
+	 *            the decorated datastore, fed by the replication follower
+	 */
+	public void setDelegate(SharesCountDatastore delegate) {
+		this.delegate = delegate;
+	}
+}
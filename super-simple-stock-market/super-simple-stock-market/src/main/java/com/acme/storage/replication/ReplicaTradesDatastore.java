@@ -0,0 +1,76 @@
+package com.acme.storage.replication;
+
+import java.util.Collection;
+
+import com.acme.domain.Trade;
+import com.acme.storage.BatchDatastore;
+import com.acme.storage.CompactableDatastore;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreFilter;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.retention.RetentionPolicy;
+
+/**
+ * Read-only trades {@link Datastore} decorator of a replica, see {@link ReplicaStocksDatastore}.
+ * The compaction of the trades is local to each replica, so it is still delegated.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ReplicaTradesDatastore implements CompactableDatastore<Trade>, BatchDatastore<Trade> {
+	static final String READ_ONLY_MESSAGE = "Read-only replica, mutations are to be submitted to the leader.";
+
+	private Datastore<Trade> delegate;
+
+	public void store(Trade data) throws DatastoreException {
+		throw new DatastoreException(READ_ONLY_MESSAGE);
+	}
+
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		throw new DatastoreException(READ_ONLY_MESSAGE);
+	}
+
+	public boolean update(Trade updatedData) throws DatastoreException {
+		throw new DatastoreException(READ_ONLY_MESSAGE);
+	}
+
+	public int compact(RetentionPolicy policy, DatastoreVisitor<Trade> expiredVisitor) throws DatastoreException {
+		if (!(delegate instanceof CompactableDatastore)) {
+			throw new DatastoreException("Operation not supported by the decorated datastore.");
+		}
+		return ((CompactableDatastore<Trade>) delegate).compact(policy, expiredVisitor);
+	}
+
+	public int count() throws DatastoreException {
+		return delegate.count();
+	}
+
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return delegate.count(condition);
+	}
+
+	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
+		return delegate.filter(condition);
+	}
+
+	public Collection<Trade> list() throws DatastoreException {
+		return delegate.list();
+	}
+
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		delegate.forEach(condition, visitor);
+	}
+
+	public void forEach(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		delegate.forEach(visitor);
+	}
+
+	/**
+	 * @param delegate
+	 *            the decorated datastore, fed by the replication follower
+	 */
+	public void setDelegate(Datastore<Trade> delegate) {
+		this.delegate = delegate;
+	}
+}
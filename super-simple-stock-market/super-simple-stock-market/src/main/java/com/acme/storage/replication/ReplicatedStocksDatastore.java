@@ -0,0 +1,128 @@
+package com.acme.storage.replication;
+
+import java.util.Collection;
+
+import com.acme.domain.Stock;
+import com.acme.domain.SymbolRegistry;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreFilter;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.util.StripedLocks;
+
+/**
+ * {@link SharesCountDatastore} decorator replicating every mutation applied to the decorated
+ * datastore of the leader, as {@link com.acme.storage.journal.JournaledStocksDatastore} journals
+ * them: a mutation is appended to the {@link ReplicationLog} once the delegate has accepted it,
+ * both steps happening within a replication mutation, so a replica bootstrap never sees one
+ * without the other, and under a per stock lock, so the replicas apply the mutations of a stock in
+ * the order the leader did.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ReplicatedStocksDatastore implements SharesCountDatastore {
+	private SharesCountDatastore delegate;
+	private ReplicationLog log;
+
+	private final StripedLocks locks = new StripedLocks();
+
+	public void store(Stock data) throws DatastoreException {
+		long stamp = log.beginMutation();
+		try {
+			synchronized (locks.lockFor(data == null ? null : data.getSymbol())) {
+				delegate.store(data);
+				log.appendStockStored(data);
+			}
+		} finally {
+			log.endMutation(stamp);
+		}
+	}
+
+	public boolean update(Stock updatedData) throws DatastoreException {
+		long stamp = log.beginMutation();
+		try {
+			synchronized (locks.lockFor(updatedData == null ? null : updatedData.getSymbol())) {
+				boolean updated = delegate.update(updatedData);
+				if (updated) {
+					log.appendStockUpdated(updatedData);
+				}
+				return updated;
+			}
+		} finally {
+			log.endMutation(stamp);
+		}
+	}
+
+	public int adjustSharesCount(String stockSymbol, int delta) throws DatastoreException {
+		long stamp = log.beginMutation();
+		try {
+			synchronized (locks.lockFor(stockSymbol)) {
+				int sharesCount = delegate.adjustSharesCount(stockSymbol, delta);
+				if (sharesCount >= 0) {
+					log.appendSharesCountAdjusted(stockSymbol, delta);
+				}
+				return sharesCount;
+			}
+		} finally {
+			log.endMutation(stamp);
+		}
+	}
+
+	public int adjustSharesCount(int stockId, int delta) throws DatastoreException {
+		String stockSymbol = SymbolRegistry.symbolOf(stockId);
+
+		long stamp = log.beginMutation();
+		try {
+			synchronized (locks.lockFor(stockSymbol)) {
+				int sharesCount = delegate.adjustSharesCount(stockId, delta);
+				if (sharesCount >= 0) {
+					log.appendSharesCountAdjusted(stockSymbol, delta);
+				}
+				return sharesCount;
+			}
+		} finally {
+			log.endMutation(stamp);
+		}
+	}
+
+	public int count() throws DatastoreException {
+		return delegate.count();
+	}
+
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return delegate.count(condition);
+	}
+
+	public Collection<Stock> filter(DatastoreFilter condition) throws DatastoreException {
+		return delegate.filter(condition);
+	}
+
+	public Collection<Stock> list() throws DatastoreException {
+		return delegate.list();
+	}
+
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		delegate.forEach(condition, visitor);
+	}
+
+	public void forEach(DatastoreVisitor<Stock> visitor) throws DatastoreException {
+		delegate.forEach(visitor);
+	}
+
+	/**
+	 * @param delegate
+	 *            the decorated datastore
+	 */
+	public void setDelegate(SharesCountDatastore delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param log
+	 *            the replication log the mutations are appended to
+	 */
+	public void setLog(ReplicationLog log) {
+		this.log = log;
+	}
+}
@@ -0,0 +1,111 @@
+package com.acme.storage.replication;
+
+import java.util.Collection;
+
+import com.acme.domain.Trade;
+import com.acme.storage.BatchDatastore;
+import com.acme.storage.CompactableDatastore;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreFilter;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.retention.RetentionPolicy;
+
+/**
+ * Trades {@link Datastore} decorator replicating every trade stored into the decorated datastore
+ * of the leader, see {@link ReplicatedStocksDatastore}.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ReplicatedTradesDatastore implements CompactableDatastore<Trade>, BatchDatastore<Trade> {
+	private Datastore<Trade> delegate;
+	private ReplicationLog log;
+
+	public void store(Trade data) throws DatastoreException {
+		long stamp = log.beginMutation();
+		try {
+			delegate.store(data);
+			log.appendTradeStored(data);
+		} finally {
+			log.endMutation(stamp);
+		}
+	}
+
+	/**
+	 * Stores a batch of trades into the decorated datastore, in a single all-or-none operation, and
+	 * replicates them as a batch.
+	 * 
+	 * @throws DatastoreException
+	 *             if the decorated datastore does not support batches, a trade by trade fallback
+	 *             leaving some of the trades stored but not replicated when one of them fails
+	 */
+	public void storeAll(Collection<Trade> data) throws DatastoreException {
+		if (!(delegate instanceof BatchDatastore)) {
+			throw new DatastoreException("Operation not supported by the decorated datastore.");
+		}
+
+		long stamp = log.beginMutation();
+		try {
+			((BatchDatastore<Trade>) delegate).storeAll(data);
+			log.appendTradesStored(data);
+		} finally {
+			log.endMutation(stamp);
+		}
+	}
+
+	public boolean update(Trade updatedData) throws DatastoreException {
+		return delegate.update(updatedData);
+	}
+
+	/**
+	 * Compacts the decorated datastore. Compaction is not replicated: each replica compacts its own
+	 * trades under the same retention policy.
+	 */
+	public int compact(RetentionPolicy policy, DatastoreVisitor<Trade> expiredVisitor) throws DatastoreException {
+		if (!(delegate instanceof CompactableDatastore)) {
+			throw new DatastoreException("Operation not supported by the decorated datastore.");
+		}
+		return ((CompactableDatastore<Trade>) delegate).compact(policy, expiredVisitor);
+	}
+
+	public int count() throws DatastoreException {
+		return delegate.count();
+	}
+
+	public int count(DatastoreFilter condition) throws DatastoreException {
+		return delegate.count(condition);
+	}
+
+	public Collection<Trade> filter(DatastoreFilter condition) throws DatastoreException {
+		return delegate.filter(condition);
+	}
+
+	public Collection<Trade> list() throws DatastoreException {
+		return delegate.list();
+	}
+
+	public void forEach(DatastoreFilter condition, DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		delegate.forEach(condition, visitor);
+	}
+
+	public void forEach(DatastoreVisitor<Trade> visitor) throws DatastoreException {
+		delegate.forEach(visitor);
+	}
+
+	/**
+	 * @param delegate
+	 *            the decorated datastore
+	 */
+	public void setDelegate(Datastore<Trade> delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param log
+	 *            the replication log the mutations are appended to
+	 */
+	public void setLog(ReplicationLog log) {
+		this.log = log;
+	}
+}
@@ -0,0 +1,143 @@
+package com.acme.storage.replication;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Stock;
+import com.acme.domain.Trade;
+import com.acme.services.analytics.TradeListener;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.storage.journal.JournalCodec;
+import com.acme.storage.journal.JournalReplayHandler;
+
+/**
+ * Replica side of the replication: applies the frames received from the leader, see
+ * {@link ReplicationLog}, to the datastores decorated by the read-only replica ones, and feeds the
+ * replicated trades to the trade listeners, so the replica analytics follow the leader ones.
+ * Frames are applied by a single thread, the one of the transport delivering them.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ReplicationFollower {
+	private static final Logger logger = LogManager.getLogger(ReplicationFollower.class);
+
+	/**
+	 * The datastores decorated by the replica ones.
+	 */
+	private SharesCountDatastore stocksDatastore;
+	private Datastore<Trade> tradesDatastore;
+	private List<TradeListener> tradeListeners = Collections.emptyList();
+
+	/**
+	 * Sequence of the last applied record, -1 until the replica is bootstrapped.
+	 */
+	private volatile long appliedSequence = -1;
+
+	private final JournalReplayHandler handler = new JournalReplayHandler() {
+		public void onStockStored(Stock stock) throws DatastoreException {
+			stocksDatastore.store(stock);
+		}
+
+		public void onStockUpdated(Stock stock) throws DatastoreException {
+			stocksDatastore.update(stock);
+		}
+
+		public void onSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException {
+			if (stocksDatastore.adjustSharesCount(stockSymbol, delta) < 0) {
+				logger.warn("Replicated shares count adjustment of stock [{}] cannot be applied.", stockSymbol);
+			}
+		}
+
+		public void onTradeStored(Trade trade) throws DatastoreException {
+			tradesDatastore.store(trade);
+			for (TradeListener tradeListener : tradeListeners) {
+				tradeListener.onTrade(trade);
+			}
+		}
+	};
+
+	/**
+	 * Applies a frame received from the leader.
+	 * 
+	 * @param frame
+	 *            the frame, starting with its length
+	 * @throws DatastoreException
+	 *             if the frame does not follow the already applied ones, or its records cannot be
+	 *             applied, the replica being then out of sync with the leader
+	 */
+	public void apply(ByteBuffer frame) throws DatastoreException {
+		int start = frame.position();
+		int end = start + 4 + frame.getInt(start);
+		byte kind = frame.get(start + 4);
+		long sequence = frame.getLong(start + 5);
+		int recordsCount = frame.getInt(start + 13);
+
+		if (kind == ReplicationLog.SNAPSHOT) {
+			if (appliedSequence >= 0 && appliedSequence != sequence) {
+				throw new DatastoreException("Replica already bootstrapped at sequence [" + appliedSequence + "].");
+			}
+		} else if (kind == ReplicationLog.RECORDS) {
+			if (appliedSequence < 0) {
+				throw new DatastoreException("Replica received records before being bootstrapped.");
+			}
+			if (sequence != appliedSequence + 1) {
+				throw new DatastoreException("Replica expected sequence [" + (appliedSequence + 1) + "] but received [" + sequence + "].");
+			}
+		} else {
+			throw new DatastoreException("Unknown replication frame kind [" + kind + "].");
+		}
+
+		ByteBuffer records = frame.duplicate();
+		records.position(start + ReplicationLog.FRAME_HEADER_SIZE);
+		for (int i = 0; i < recordsCount; i++) {
+			int length = records.getInt();
+			int next = records.position() + length;
+			if (next > end) {
+				throw new DatastoreException("Truncated replication frame at sequence [" + sequence + "].");
+			}
+
+			JournalCodec.dispatch(records, handler);
+			records.position(next);
+		}
+
+		appliedSequence = kind == ReplicationLog.SNAPSHOT ? sequence : sequence + recordsCount - 1;
+	}
+
+	/**
+	 * @return the sequence of the last applied record, -1 until the replica is bootstrapped
+	 */
+	public long getAppliedSequence() {
+		return appliedSequence;
+	}
+
+	/**
+	 * @param stocksDatastore
+	 *            the stocks datastore decorated by the replica one
+	 */
+	public void setStocksDatastore(SharesCountDatastore stocksDatastore) {
+		this.stocksDatastore = stocksDatastore;
+	}
+
+	/**
+	 * @param tradesDatastore
+	 *            the trades datastore decorated by the replica one
+	 */
+	public void setTradesDatastore(Datastore<Trade> tradesDatastore) {
+		this.tradesDatastore = tradesDatastore;
+	}
+
+	/**
+	 * @param tradeListeners
+	 *            the listeners fed with the replicated trades
+	 */
+	public void setTradeListeners(List<TradeListener> tradeListeners) {
+		this.tradeListeners = tradeListeners;
+	}
+}
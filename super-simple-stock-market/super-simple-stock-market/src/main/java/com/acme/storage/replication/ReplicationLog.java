@@ -0,0 +1,605 @@
+package com.acme.storage.replication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Stock;
+import com.acme.domain.Trade;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.storage.journal.JournalCodec;
+
+/**
+ * Leader side of the replication: sequences the datastores mutations, as the journal records them
+ * (see {@link JournalCodec}), and ships them in batches to the replicas connected through the
+ * {@link ReplicationTransport}. Replication is asynchronous: a mutation is acknowledged to its
+ * caller once sequenced, and the pending records are handed to the replicas every batch interval,
+ * by a background thread, or by the appending thread once a frame is full. Each replica has a
+ * bounded queue of frames, written to its link by a thread of its own, so a slow replica never
+ * holds off the leader; a replica whose queue overflows is dropped.
+ * 
+ * <p>
+ * Frames are laid out as
+ * <code>[int frame length][byte kind][long sequence][int records count]</code>, the length not
+ * counting itself, followed by the records as <code>[int payload length][payload]</code>. The
+ * sequence of a {@link #RECORDS} frame is the one of its first record, the following records
+ * being numbered consecutively.
+ * </p>
+ * 
+ * <p>
+ * A replica joining is first sent the state of the datastores as {@link #SNAPSHOT} frames, whose
+ * sequence is the one of the last record the state includes. The snapshot is encoded while the
+ * mutations are held off, as for a journal roll over, and streamed to the replica once they are
+ * resumed, ahead of the records following it, so the replica then applies exactly these records.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ReplicationLog {
+	private static final Logger logger = LogManager.getLogger(ReplicationLog.class);
+
+	static final byte RECORDS = 1;
+	static final byte SNAPSHOT = 2;
+
+	static final int FRAME_HEADER_SIZE = 4 + 1 + 8 + 4;
+	static final int RECORD_HEADER_SIZE = 4;
+
+	/**
+	 * Per thread buffers the records are encoded into, outside the append lock.
+	 */
+	private static final ThreadLocal<ByteBuffer[]> encoders = new ThreadLocal<ByteBuffer[]>() {
+		@Override
+		protected ByteBuffer[] initialValue() {
+			return new ByteBuffer[] { ByteBuffer.allocate(256) };
+		}
+	};
+
+	private ReplicationTransport transport;
+
+	/**
+	 * The datastores decorated by the replicated ones, read to bootstrap the replicas.
+	 */
+	private SharesCountDatastore stocksDatastore;
+	private Datastore<Trade> tradesDatastore;
+
+	private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+	private int frameSize = 64 * 1024;
+	private long batchIntervalMillis = 1;
+	private int maxPendingFrames = 1024;
+
+	private final Object appendLock = new Object();
+	private final Object sendLock = new Object();
+
+	/**
+	 * Held in read mode by the mutations being applied and replicated, in write mode while a
+	 * replica is bootstrapped.
+	 */
+	private final StampedLock mutationLock = new StampedLock();
+
+	/**
+	 * Frame receiving the appended records, after its header, guarded by the append lock.
+	 */
+	private ByteBuffer pendingFrame;
+	private int pendingCount;
+	/**
+	 * Frame being sent, swapped with the pending one, guarded by the send lock.
+	 */
+	private ByteBuffer sendingFrame;
+
+	/**
+	 * Sequence of the last appended record, only modified while holding the append lock.
+	 */
+	private volatile long appendedSequence;
+	/**
+	 * Sequence of the last record handed to the replicas.
+	 */
+	private volatile long sentSequence;
+
+	private final List<ReplicaSender> replicas = new CopyOnWriteArrayList<ReplicaSender>();
+
+	private volatile boolean running;
+	private Thread senderThread;
+
+	/**
+	 * Starts the transport and the background sending of the records.
+	 * 
+	 * @throws IOException
+	 *             if the transport cannot be started
+	 */
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+
+		pendingFrame = newFrame(frameSize);
+		sendingFrame = newFrame(frameSize);
+
+		transport.start(this);
+		running = true;
+
+		senderThread = new Thread(new Runnable() {
+			public void run() {
+				while (running) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(batchIntervalMillis));
+					flush();
+				}
+			}
+		}, "replication-sender");
+		senderThread.setDaemon(true);
+		senderThread.start();
+
+		logger.info("Replication log started.");
+	}
+
+	/**
+	 * Stops the transport, sends the pending records and closes the replicas links, once their
+	 * queued frames are written or the drain timeout expires.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		transport.stop();
+
+		LockSupport.unpark(senderThread);
+		try {
+			senderThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		flush();
+		for (ReplicaSender replica : replicas) {
+			replica.stop();
+		}
+		replicas.clear();
+
+		logger.info("Replication log stopped, [{}] records sent.", sentSequence);
+	}
+
+	/**
+	 * Replicates a newly stored stock.
+	 */
+	public void appendStockStored(Stock stock) throws DatastoreException {
+		ByteBuffer[] encoder = encoders.get();
+		append(encoder[0] = JournalCodec.encodeStock(encoder[0], JournalCodec.STOCK_STORED, stock));
+	}
+
+	/**
+	 * Replicates an updated stock.
+	 */
+	public void appendStockUpdated(Stock stock) throws DatastoreException {
+		ByteBuffer[] encoder = encoders.get();
+		append(encoder[0] = JournalCodec.encodeStock(encoder[0], JournalCodec.STOCK_UPDATED, stock));
+	}
+
+	/**
+	 * Replicates an applied shares count adjustment.
+	 */
+	public void appendSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException {
+		ByteBuffer[] encoder = encoders.get();
+		append(encoder[0] = JournalCodec.encodeSharesCountAdjustment(encoder[0], stockSymbol, delta));
+	}
+
+	/**
+	 * Replicates a newly stored trade.
+	 */
+	public void appendTradeStored(Trade trade) throws DatastoreException {
+		ByteBuffer[] encoder = encoders.get();
+		append(encoder[0] = JournalCodec.encodeTrade(encoder[0], trade));
+	}
+
+	/**
+	 * Replicates a batch of newly stored trades.
+	 */
+	public void appendTradesStored(Collection<Trade> trades) throws DatastoreException {
+		for (Trade trade : trades) {
+			appendTradeStored(trade);
+		}
+	}
+
+	/**
+	 * Marks the start of a mutation to be replicated: the mutation is applied to the datastore and
+	 * appended before {@link #endMutation(long)} is called, so that a replica bootstrap never
+	 * separates them.
+	 * 
+	 * @return the stamp to be passed to {@link #endMutation(long)}
+	 */
+	public long beginMutation() {
+		return mutationLock.readLock();
+	}
+
+	/**
+	 * Marks the end of a mutation started through {@link #beginMutation()}.
+	 */
+	public void endMutation(long stamp) {
+		mutationLock.unlockRead(stamp);
+	}
+
+	/**
+	 * Bootstraps a replica with the state of the datastores and adds it to the replicas the
+	 * records are sent to. Called by the transport for each replica joining. The state is encoded
+	 * while the mutations are held off and sent by the replica thread, after the mutations resume.
+	 * 
+	 * @param link
+	 *            the link to the replica
+	 * @throws DatastoreException
+	 *             if the datastores cannot be read, the replica being then closed
+	 */
+	public void addReplica(ReplicaLink link) throws DatastoreException {
+		ReplicaSender replica;
+		long sequence;
+
+		long stamp = mutationLock.writeLock();
+		try {
+			// the records appended so far are covered by the snapshot, they only go to the known replicas
+			flush();
+
+			sequence = appendedSequence;
+			SnapshotWriter snapshotWriter = new SnapshotWriter(sequence);
+			stocksDatastore.forEach(snapshotWriter.stocksVisitor);
+			tradesDatastore.forEach(snapshotWriter.tradesVisitor);
+			snapshotWriter.finish();
+
+			if (snapshotWriter.failure != null) {
+				logger.warn("Replica could not be bootstrapped.", snapshotWriter.failure);
+				link.close();
+				return;
+			}
+
+			replica = new ReplicaSender(link, snapshotWriter.frames, maxPendingFrames);
+			synchronized (sendLock) {
+				replicas.add(replica);
+			}
+		} catch (DatastoreException e) {
+			link.close();
+			throw e;
+		} finally {
+			mutationLock.unlockWrite(stamp);
+		}
+
+		replica.start();
+		logger.info("Replica bootstrapped at sequence [{}], [{}] replicas.", sequence, replicas.size());
+	}
+
+	/**
+	 * Hands the pending records to the replicas.
+	 */
+	public void flush() {
+		synchronized (sendLock) {
+			long firstSequence;
+			int recordsCount;
+
+			synchronized (appendLock) {
+				if (pendingCount == 0) {
+					return;
+				}
+
+				ByteBuffer frame = pendingFrame;
+				pendingFrame = sendingFrame;
+				pendingFrame.clear().position(FRAME_HEADER_SIZE);
+				sendingFrame = frame;
+
+				recordsCount = pendingCount;
+				firstSequence = appendedSequence - recordsCount + 1;
+				pendingCount = 0;
+			}
+
+			sendingFrame.flip();
+			writeHeader(sendingFrame, RECORDS, firstSequence, recordsCount);
+			broadcast(sendingFrame);
+
+			sentSequence = firstSequence + recordsCount - 1;
+		}
+	}
+
+	private void append(ByteBuffer payload) {
+		int recordSize = RECORD_HEADER_SIZE + payload.remaining();
+
+		while (true) {
+			synchronized (appendLock) {
+				if (pendingFrame.remaining() >= recordSize) {
+					pendingFrame.putInt(payload.remaining());
+					pendingFrame.put(payload);
+					pendingCount++;
+					appendedSequence++;
+					return;
+				}
+
+				if (pendingCount == 0) {
+					// a record larger than the frames, sent in a frame of its own
+					pendingFrame = newFrame(FRAME_HEADER_SIZE + recordSize);
+					continue;
+				}
+			}
+
+			flush();
+		}
+	}
+
+	/**
+	 * Queues a copy of a frame to every replica, without waiting for any of them.
+	 */
+	private void broadcast(ByteBuffer frame) {
+		if (replicas.isEmpty()) {
+			return;
+		}
+
+		ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+		copy.put(frame.duplicate()).flip();
+
+		for (ReplicaSender replica : replicas) {
+			if (!replica.offer(copy)) {
+				logger.warn("Replica dropped, its queue of [{}] frames overflowed at sequence [{}].", maxPendingFrames, appendedSequence);
+				drop(replica);
+			}
+		}
+	}
+
+	private void drop(ReplicaSender replica) {
+		if (replicas.remove(replica)) {
+			replica.abort();
+		}
+	}
+
+	private static ByteBuffer newFrame(int capacity) {
+		ByteBuffer frame = ByteBuffer.allocate(capacity);
+		frame.position(FRAME_HEADER_SIZE);
+		return frame;
+	}
+
+	private static void writeHeader(ByteBuffer frame, byte kind, long sequence, int recordsCount) {
+		frame.putInt(0, frame.limit() - 4);
+		frame.put(4, kind);
+		frame.putLong(5, sequence);
+		frame.putInt(13, recordsCount);
+	}
+
+	/**
+	 * @return the sequence of the last replicated mutation
+	 */
+	public long getAppendedSequence() {
+		return appendedSequence;
+	}
+
+	/**
+	 * @return the sequence of the last mutation handed to the replicas, which may not have written
+	 *         it yet
+	 */
+	public long getSentSequence() {
+		return sentSequence;
+	}
+
+	/**
+	 * @return the number of replicas the records are sent to
+	 */
+	public int getReplicasCount() {
+		return replicas.size();
+	}
+
+	/**
+	 * @param transport
+	 *            the transport connecting the replicas
+	 */
+	public void setTransport(ReplicationTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * @param stocksDatastore
+	 *            the stocks datastore decorated by the replicated one, read to bootstrap the
+	 *            replicas
+	 */
+	public void setStocksDatastore(SharesCountDatastore stocksDatastore) {
+		this.stocksDatastore = stocksDatastore;
+	}
+
+	/**
+	 * @param tradesDatastore
+	 *            the trades datastore decorated by the replicated one, read to bootstrap the
+	 *            replicas
+	 */
+	public void setTradesDatastore(Datastore<Trade> tradesDatastore) {
+		this.tradesDatastore = tradesDatastore;
+	}
+
+	/**
+	 * @param frameSize
+	 *            the maximum size of a frame, in bytes
+	 */
+	public void setFrameSize(int frameSize) {
+		this.frameSize = frameSize;
+	}
+
+	/**
+	 * @param batchIntervalMillis
+	 *            the interval the pending records are sent at, in milliseconds
+	 */
+	public void setBatchIntervalMillis(long batchIntervalMillis) {
+		this.batchIntervalMillis = batchIntervalMillis;
+	}
+
+	/**
+	 * @param maxPendingFrames
+	 *            the number of frames queued to a replica not written yet, above which the replica
+	 *            is dropped
+	 */
+	public void setMaxPendingFrames(int maxPendingFrames) {
+		this.maxPendingFrames = maxPendingFrames;
+	}
+
+	/**
+	 * Writes the frames queued to a replica to its link, from a thread of its own, after the
+	 * bootstrap snapshot.
+	 */
+	private class ReplicaSender implements Runnable {
+		private final ReplicaLink link;
+		private final BlockingQueue<ByteBuffer> queue;
+		private final Thread thread;
+
+		private List<ByteBuffer> snapshotFrames;
+
+		private volatile boolean running = true;
+
+		private ReplicaSender(ReplicaLink link, List<ByteBuffer> snapshotFrames, int capacity) {
+			this.link = link;
+			this.snapshotFrames = snapshotFrames;
+			this.queue = new ArrayBlockingQueue<ByteBuffer>(capacity);
+
+			this.thread = new Thread(this, "replication-replica-writer");
+			this.thread.setDaemon(true);
+		}
+
+		private void start() {
+			thread.start();
+		}
+
+		private boolean offer(ByteBuffer frame) {
+			return queue.offer(frame);
+		}
+
+		public void run() {
+			try {
+				for (ByteBuffer frame : snapshotFrames) {
+					link.send(frame);
+				}
+				snapshotFrames = null;
+
+				while (true) {
+					ByteBuffer frame = queue.poll(batchIntervalMillis, TimeUnit.MILLISECONDS);
+					if (frame != null) {
+						link.send(frame);
+					} else if (!running) {
+						return;
+					}
+				}
+			} catch (IOException e) {
+				if (running) {
+					logger.warn("Replica dropped, it could not be sent the records up to sequence [{}].", sentSequence, e);
+					drop(this);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Writes the queued frames, waiting for them up to the drain timeout, then closes the link.
+		 */
+		private void stop() {
+			running = false;
+			try {
+				thread.join(DRAIN_TIMEOUT_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (thread.isAlive()) {
+				logger.warn("Replica closed with [{}] frames not written.", queue.size());
+			}
+			link.close();
+		}
+
+		/**
+		 * Drops the queued frames and closes the link, aborting a blocked write.
+		 */
+		private void abort() {
+			running = false;
+			queue.clear();
+			thread.interrupt();
+			link.close();
+		}
+	}
+
+	/**
+	 * Encodes the state of the datastores as the snapshot frames of a joining replica.
+	 */
+	private class SnapshotWriter {
+		private final long sequence;
+
+		private final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+		private ByteBuffer frame = newFrame(frameSize);
+		private ByteBuffer payload = ByteBuffer.allocate(256);
+		private int recordsCount;
+
+		private Exception failure;
+
+		private final DatastoreVisitor<Stock> stocksVisitor = new DatastoreVisitor<Stock>() {
+			public void visit(Stock stock) {
+				if (failure == null) {
+					try {
+						write(payload = JournalCodec.encodeStock(payload, JournalCodec.STOCK_STORED, stock));
+					} catch (Exception e) {
+						failure = e;
+					}
+				}
+			}
+		};
+
+		private final DatastoreVisitor<Trade> tradesVisitor = new DatastoreVisitor<Trade>() {
+			public void visit(Trade trade) {
+				if (failure == null) {
+					try {
+						write(payload = JournalCodec.encodeTrade(payload, trade));
+					} catch (Exception e) {
+						failure = e;
+					}
+				}
+			}
+		};
+
+		private SnapshotWriter(long sequence) {
+			this.sequence = sequence;
+		}
+
+		private void write(ByteBuffer record) {
+			int recordSize = RECORD_HEADER_SIZE + record.remaining();
+			if (frame.remaining() < recordSize) {
+				if (recordsCount > 0) {
+					seal();
+				}
+				if (frame.capacity() < FRAME_HEADER_SIZE + recordSize) {
+					frame = newFrame(FRAME_HEADER_SIZE + recordSize);
+				}
+			}
+
+			frame.putInt(record.remaining());
+			frame.put(record);
+			recordsCount++;
+		}
+
+		/**
+		 * Seals the last snapshot frame, even an empty one, so the replica learns the sequence the
+		 * snapshot stops at.
+		 */
+		private void finish() {
+			seal();
+		}
+
+		private void seal() {
+			frame.flip();
+			writeHeader(frame, SNAPSHOT, sequence, recordsCount);
+			frames.add(frame);
+
+			frame = newFrame(frameSize);
+			recordsCount = 0;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.acme.storage.replication;
+
+import java.io.IOException;
+
+/**
+ * Leader side of the transport shipping the {@link ReplicationLog} frames to the replicas. The
+ * transport connects the replicas and hands a {@link ReplicaLink} to each of them to the log,
+ * through {@link ReplicationLog#addReplica(ReplicaLink)}, which bootstraps the replica and adds it
+ * to the replicas the frames are broadcast to.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface ReplicationTransport {
+	/**
+	 * Starts connecting the replicas.
+	 * 
+	 * @param log
+	 *            the log the replicas links are added to
+	 * @throws IOException
+	 *             if the transport cannot be started
+	 */
+	void start(ReplicationLog log) throws IOException;
+
+	/**
+	 * Stops connecting replicas. The links already added to the log are closed by the log.
+	 */
+	void stop();
+}
@@ -0,0 +1,158 @@
+package com.acme.storage.replication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.storage.DatastoreException;
+
+/**
+ * TCP client of a replica: connects to the {@link SocketReplicationTransport} of the leader and
+ * applies the received frames through the {@link ReplicationFollower}, from a dedicated thread.
+ * A replica losing its connection to the leader stops following it, and is to be restarted so it
+ * is bootstrapped again.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SocketReplicationClient {
+	private static final Logger logger = LogManager.getLogger(SocketReplicationClient.class);
+
+	private String host = "localhost";
+	private int port;
+	private ReplicationFollower follower;
+
+	private SocketChannel channel;
+	private Thread receiverThread;
+	private volatile boolean connected;
+
+	/**
+	 * Connects to the leader and starts applying the received frames.
+	 * 
+	 * @throws IOException
+	 *             if the leader cannot be reached
+	 */
+	public synchronized void start() throws IOException {
+		if (channel != null) {
+			return;
+		}
+
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		connected = true;
+
+		final SocketChannel currentChannel = channel;
+		receiverThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					receive(currentChannel);
+				} catch (IOException e) {
+					if (currentChannel.isOpen()) {
+						logger.warn("Replica disconnected from the leader at sequence [{}].", follower.getAppliedSequence(), e);
+					}
+				} catch (DatastoreException e) {
+					logger.error("Replica out of sync with the leader at sequence [{}].", follower.getAppliedSequence(), e);
+				} finally {
+					connected = false;
+					closeQuietly(currentChannel);
+				}
+			}
+		}, "replication-receiver");
+		receiverThread.setDaemon(true);
+		receiverThread.start();
+
+		logger.info("Replica connected to the leader at [{}:{}].", host, port);
+	}
+
+	/**
+	 * Disconnects from the leader.
+	 */
+	public synchronized void stop() {
+		if (channel == null) {
+			return;
+		}
+
+		closeQuietly(channel);
+		try {
+			receiverThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel = null;
+	}
+
+	private void receive(SocketChannel channel) throws IOException, DatastoreException {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		ByteBuffer frame = ByteBuffer.allocate(64 * 1024);
+
+		while (true) {
+			length.clear();
+			readFully(channel, length);
+
+			int frameLength = length.getInt(0);
+			if (frame.capacity() < 4 + frameLength) {
+				frame = ByteBuffer.allocate(4 + frameLength);
+			}
+
+			frame.clear();
+			frame.putInt(frameLength);
+			frame.limit(4 + frameLength);
+			readFully(channel, frame);
+
+			frame.flip();
+			follower.apply(frame);
+		}
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Replication connection closed by the leader.");
+			}
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("Replication channel could not be closed.", e);
+		}
+	}
+
+	/**
+	 * @return true while the replica follows the leader
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @param host
+	 *            the leader host
+	 */
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	/**
+	 * @param port
+	 *            the leader replication port
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * @param follower
+	 *            the follower applying the received frames
+	 */
+	public void setFollower(ReplicationFollower follower) {
+		this.follower = follower;
+	}
+}
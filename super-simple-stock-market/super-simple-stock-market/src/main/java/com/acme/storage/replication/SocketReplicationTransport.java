@@ -0,0 +1,141 @@
+package com.acme.storage.replication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.storage.DatastoreException;
+
+/**
+ * TCP {@link ReplicationTransport} of the leader: listens for the replicas, see
+ * {@link SocketReplicationClient}, and writes the frames to each of them over a blocking socket
+ * channel, from the writer thread of the replica, Nagle's algorithm being disabled as the frames
+ * are already batched.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SocketReplicationTransport implements ReplicationTransport {
+	private static final Logger logger = LogManager.getLogger(SocketReplicationTransport.class);
+
+	private String host = "0.0.0.0";
+	private int port;
+
+	private ServerSocketChannel serverChannel;
+	private Thread acceptorThread;
+
+	public synchronized void start(final ReplicationLog log) throws IOException {
+		if (serverChannel != null) {
+			return;
+		}
+
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(host, port));
+
+		final ServerSocketChannel channel = serverChannel;
+		acceptorThread = new Thread(new Runnable() {
+			public void run() {
+				while (channel.isOpen()) {
+					SocketChannel replicaChannel;
+					try {
+						replicaChannel = channel.accept();
+					} catch (ClosedChannelException e) {
+						return;
+					} catch (IOException e) {
+						logger.warn("Replica connection could not be accepted.", e);
+						continue;
+					}
+
+					try {
+						replicaChannel.socket().setTcpNoDelay(true);
+						log.addReplica(new SocketReplicaLink(replicaChannel));
+					} catch (IOException e) {
+						logger.warn("Replica connection could not be set up.", e);
+						closeQuietly(replicaChannel);
+					} catch (DatastoreException e) {
+						logger.warn("Replica could not be bootstrapped.", e);
+					}
+				}
+			}
+		}, "replication-acceptor");
+		acceptorThread.setDaemon(true);
+		acceptorThread.start();
+
+		logger.info("Replication transport listening on [{}].", serverChannel.getLocalAddress());
+	}
+
+	public synchronized void stop() {
+		if (serverChannel == null) {
+			return;
+		}
+
+		closeQuietly(serverChannel);
+		try {
+			acceptorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		serverChannel = null;
+	}
+
+	/**
+	 * @return the port the transport listens on, the actual one if the configured port is 0, or -1
+	 *         if the transport is not started
+	 */
+	public synchronized int getLocalPort() {
+		return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+	}
+
+	private static void closeQuietly(Channel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("Replication channel could not be closed.", e);
+		}
+	}
+
+	/**
+	 * @param host
+	 *            the address the transport listens on, all the interfaces by default
+	 */
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	/**
+	 * @param port
+	 *            the port the transport listens on, 0 for an ephemeral one
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Link writing the frames to the socket channel of a replica.
+	 */
+	private static class SocketReplicaLink implements ReplicaLink {
+		private final SocketChannel channel;
+
+		private SocketReplicaLink(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public void send(ByteBuffer frame) throws IOException {
+			ByteBuffer remaining = frame.duplicate();
+			while (remaining.hasRemaining()) {
+				channel.write(remaining);
+			}
+		}
+
+		public void close() {
+			closeQuietly(channel);
+		}
+	}
+}
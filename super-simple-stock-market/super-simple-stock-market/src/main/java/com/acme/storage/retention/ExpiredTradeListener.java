@@ -0,0 +1,22 @@
+package com.acme.storage.retention;
+
+import com.acme.domain.Trade;
+
+/**
+ * Interface defining the contract of a component which needs to be notified about every trade
+ * removed from the trades datastore by the {@link TradesCompactor}, so that its incremental state
+ * keeps reflecting the retained trades only.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface ExpiredTradeListener {
+	/**
+	 * Called while the expired trade is being removed, on the compaction thread. Implementations
+	 * must neither modify the trade nor keep a reference to it once the call returns.
+	 * 
+	 * @param trade
+	 *            the expired trade
+	 */
+	void onTradeExpired(Trade trade);
+}
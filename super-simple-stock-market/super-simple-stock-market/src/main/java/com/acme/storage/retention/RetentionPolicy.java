@@ -0,0 +1,110 @@
+package com.acme.storage.retention;
+
+import java.util.List;
+
+/**
+ * Retention limits of the trades kept per stock symbol: by age, by count and by memory budget. A
+ * limit set to 0 is disabled. Trades needed by the configured analytics windows are always kept,
+ * whatever the limits.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class RetentionPolicy {
+	private static final long MINUTE_MILLIS = 60L * 1000L;
+
+	private int maxAgeInMinutes;
+	private int maxTradesPerSymbol;
+	private long maxBytesPerSymbol;
+
+	/**
+	 * The largest configured analytics window, in minutes.
+	 */
+	private int protectedWindowInMinutes;
+
+	/**
+	 * @param now
+	 *            the current time, as epoch milliseconds
+	 * @return the timestamp the trades older than are expired, {@link Long#MIN_VALUE} if trades do
+	 *         not expire by age
+	 */
+	public long getExpiryTimestamp(long now) {
+		if (maxAgeInMinutes == 0) {
+			return Long.MIN_VALUE;
+		}
+		return now - Math.max(maxAgeInMinutes, protectedWindowInMinutes) * MINUTE_MILLIS;
+	}
+
+	/**
+	 * @param now
+	 *            the current time, as epoch milliseconds
+	 * @return the timestamp the trades newer than or equal to are kept whatever the limits,
+	 *         {@link Long#MAX_VALUE} if no analytics window is configured
+	 */
+	public long getProtectedTimestamp(long now) {
+		if (protectedWindowInMinutes == 0) {
+			return Long.MAX_VALUE;
+		}
+		return now - protectedWindowInMinutes * MINUTE_MILLIS;
+	}
+
+	/**
+	 * @param ageInMinutes
+	 *            an age, in minutes
+	 * @return whether the trades of that age at most are kept whatever the limits, so are all
+	 *         still in the compacted datastore
+	 */
+	public boolean isProtected(int ageInMinutes) {
+		return protectedWindowInMinutes > 0 && ageInMinutes <= protectedWindowInMinutes;
+	}
+
+	/**
+	 * @param tradeSize
+	 *            the number of bytes a trade takes in the datastore
+	 * @return the maximum number of trades kept per stock symbol, {@link Integer#MAX_VALUE} if
+	 *         unlimited
+	 */
+	public int getMaxRetainedCount(int tradeSize) {
+		long maxRetainedCount = maxTradesPerSymbol == 0 ? Integer.MAX_VALUE : maxTradesPerSymbol;
+		if (maxBytesPerSymbol > 0) {
+			maxRetainedCount = Math.min(maxRetainedCount, maxBytesPerSymbol / tradeSize);
+		}
+		return (int) maxRetainedCount;
+	}
+
+	/**
+	 * @param maxAgeInMinutes
+	 *            the maximum age of the trades, in minutes, 0 if unlimited
+	 */
+	public void setMaxAgeInMinutes(int maxAgeInMinutes) {
+		this.maxAgeInMinutes = Math.max(0, maxAgeInMinutes);
+	}
+
+	/**
+	 * @param maxTradesPerSymbol
+	 *            the maximum number of trades kept per stock symbol, 0 if unlimited
+	 */
+	public void setMaxTradesPerSymbol(int maxTradesPerSymbol) {
+		this.maxTradesPerSymbol = Math.max(0, maxTradesPerSymbol);
+	}
+
+	/**
+	 * @param maxBytesPerSymbol
+	 *            the memory budget of the trades kept per stock symbol, 0 if unlimited
+	 */
+	public void setMaxBytesPerSymbol(long maxBytesPerSymbol) {
+		this.maxBytesPerSymbol = Math.max(0, maxBytesPerSymbol);
+	}
+
+	/**
+	 * @param windowsInMinutes
+	 *            the analytics windows lengths (in minutes) whose trades must be kept
+	 */
+	public void setWindowsInMinutes(List<Integer> windowsInMinutes) {
+		int maxWindow = 0;
+		for (Integer window : windowsInMinutes) {
+			maxWindow = Math.max(maxWindow, window);
+		}
+		this.protectedWindowInMinutes = maxWindow;
+	}
+}
@@ -0,0 +1,323 @@
+package com.acme.storage.retention;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.acme.domain.Trade;
+import com.acme.metrics.Gauge;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.storage.CompactableDatastore;
+import com.acme.storage.CompactionAbortedException;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.MappedTradesArchive;
+
+/**
+ * Periodically compacts a trades datastore according to a {@link RetentionPolicy}, in the
+ * background, dropping the expired trades so that memory usage stays flat under sustained load.
+ * Their aggregates stay available through the streaming
+ * {@link com.acme.services.analytics.TradeRollupEngine}, and the trades themselves can be kept on
+ * disk by archiving them into a trades archive datastore such as a {@link MappedTradesArchive}.
+ * The components maintaining an incremental state out of the trades are notified of the removed
+ * ones, see {@link ExpiredTradeListener}.
+ * 
+ * <p>
+ * A query spanning both the datastore and the archive runs between {@link #beginQuery()} and
+ * {@link #endQuery(long)}, so that no compaction moves trades from the one to the other meanwhile.
+ * </p>
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradesCompactor {
+	private static final Logger logger = LogManager.getLogger(TradesCompactor.class);
+
+	private CompactableDatastore<Trade> datastore;
+	private RetentionPolicy retentionPolicy;
+	private Datastore<Trade> archive;
+	private List<ExpiredTradeListener> expiredTradeListeners = Collections.emptyList();
+
+	private long intervalMillis = 10 * 1000;
+
+	/**
+	 * Held exclusively while compacting, and shared by the queries spanning the datastore and the
+	 * archive.
+	 */
+	private final StampedLock compactionLock = new StampedLock();
+
+	private volatile long compactedTradesCount;
+	private volatile long archivedTradesCount;
+	private volatile long lastCompactionTimeMillis;
+
+	private volatile boolean running;
+	private Thread compactorThread;
+
+	/**
+	 * Starts compacting the datastore in the background.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+
+		running = true;
+
+		compactorThread = new Thread(new Runnable() {
+			public void run() {
+				while (running) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+
+					if (running) {
+						try {
+							compact();
+						} catch (DatastoreException e) {
+							logger.error("Exception occurred while compacting trades.", e);
+						}
+					}
+				}
+			}
+		}, "trades-compactor");
+		compactorThread.setDaemon(true);
+		compactorThread.start();
+	}
+
+	/**
+	 * Stops the background compaction, waiting for a compaction in progress to complete.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = compactorThread;
+			compactorThread = null;
+		}
+
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Compacts the datastore once.
+	 * 
+	 * @return the number of expired trades removed from the datastore
+	 * @throws DatastoreException
+	 *             if the datastore cannot be compacted
+	 */
+	public synchronized int compact() throws DatastoreException {
+		long start = System.nanoTime();
+
+		DatastoreVisitor<Trade> expiredVisitor = null;
+		if (!expiredTradeListeners.isEmpty()) {
+			expiredVisitor = new NotifyingVisitor();
+		}
+		ArchiveVisitor archiveVisitor = null;
+		if (archive != null) {
+			archiveVisitor = new ArchiveVisitor(expiredVisitor);
+			expiredVisitor = archiveVisitor;
+		}
+
+		int compactedCount;
+		long stamp = compactionLock.writeLock();
+		try {
+			compactedCount = datastore.compact(retentionPolicy, expiredVisitor);
+		} finally {
+			compactionLock.unlockWrite(stamp);
+		}
+
+		if (archiveVisitor != null) {
+			archivedTradesCount += archiveVisitor.archivedCount;
+			if (archiveVisitor.failure != null) {
+				logger.error("Failed to archive expired trades, their compaction is retried next time.", archiveVisitor.failure);
+			}
+		}
+
+		compactedTradesCount += compactedCount;
+		lastCompactionTimeMillis = (System.nanoTime() - start) / 1000000L;
+
+		if (compactedCount > 0) {
+			logger.debug("Compacted {} expired trades in {} ms.", compactedCount, lastCompactionTimeMillis);
+		}
+
+		return compactedCount;
+	}
+
+	/**
+	 * Holds off the compactions until {@link #endQuery(long)}, so that a query sees every trade
+	 * either in the datastore or in the archive.
+	 * 
+	 * @return the stamp to be passed to {@link #endQuery(long)}
+	 */
+	public long beginQuery() {
+		return compactionLock.readLock();
+	}
+
+	/**
+	 * Ends a query started by {@link #beginQuery()}.
+	 * 
+	 * @param stamp
+	 *            the stamp returned by {@link #beginQuery()}
+	 */
+	public void endQuery(long stamp) {
+		compactionLock.unlockRead(stamp);
+	}
+
+	/**
+	 * @return the retention policy the datastore is compacted according to
+	 */
+	public RetentionPolicy getRetentionPolicy() {
+		return retentionPolicy;
+	}
+
+	/**
+	 * @return the datastore the expired trades are archived into, null if they are not archived
+	 */
+	public Datastore<Trade> getArchive() {
+		return archive;
+	}
+
+	/**
+	 * @return the number of expired trades removed since startup
+	 */
+	public long getCompactedTradesCount() {
+		return compactedTradesCount;
+	}
+
+	/**
+	 * @return the number of expired trades archived since startup
+	 */
+	public long getArchivedTradesCount() {
+		return archivedTradesCount;
+	}
+
+	/**
+	 * @return the time spent by the last compaction, in milliseconds
+	 */
+	public long getLastCompactionTimeMillis() {
+		return lastCompactionTimeMillis;
+	}
+
+	/**
+	 * @param datastore
+	 *            the datastore to be compacted
+	 */
+	public void setDatastore(CompactableDatastore<Trade> datastore) {
+		this.datastore = datastore;
+	}
+
+	/**
+	 * @param retentionPolicy
+	 *            the retentionPolicy to set
+	 */
+	public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+		this.retentionPolicy = retentionPolicy;
+	}
+
+	/**
+	 * @param archive
+	 *            the datastore the expired trades are archived into, optional
+	 */
+	public void setArchive(Datastore<Trade> archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * @param expiredTradeListeners
+	 *            the listeners notified of the expired trades removed from the datastore
+	 */
+	public void setExpiredTradeListeners(List<ExpiredTradeListener> expiredTradeListeners) {
+		this.expiredTradeListeners = expiredTradeListeners;
+	}
+
+	/**
+	 * @param intervalMillis
+	 *            the interval between the background compactions
+	 */
+	public void setIntervalMillis(long intervalMillis) {
+		this.intervalMillis = Math.max(1, intervalMillis);
+	}
+
+	/**
+	 * Publishes the compacted and archived trades counts and the last compaction time as gauges.
+	 * 
+	 * @param metricsRegistry
+	 *            the registry of the compaction gauges
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		metricsRegistry.gauge("tradesCompactor.compactedTradesCount", new Gauge() {
+			public long getValue() {
+				return getCompactedTradesCount();
+			}
+		});
+		metricsRegistry.gauge("tradesCompactor.archivedTradesCount", new Gauge() {
+			public long getValue() {
+				return getArchivedTradesCount();
+			}
+		});
+		metricsRegistry.gauge("tradesCompactor.lastCompactionTimeMillis", new Gauge() {
+			public long getValue() {
+				return getLastCompactionTimeMillis();
+			}
+		});
+	}
+
+	/**
+	 * Notifies the expired trade listeners of the visited expired trades.
+	 */
+	private class NotifyingVisitor implements DatastoreVisitor<Trade> {
+		public void visit(Trade trade) {
+			for (ExpiredTradeListener expiredTradeListener : expiredTradeListeners) {
+				try {
+					expiredTradeListener.onTradeExpired(trade);
+				} catch (RuntimeException e) {
+					logger.error("Exception occurred while notifying expired trade listener.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Archives the visited expired trades, before passing them on to the expired trade listeners. A
+	 * trade which cannot be archived aborts the compaction of its stock, so it is neither notified
+	 * nor dropped and is archived again by the next compaction, the first failure being kept for
+	 * reporting.
+	 */
+	private class ArchiveVisitor implements DatastoreVisitor<Trade> {
+		private final DatastoreVisitor<Trade> next;
+
+		private int archivedCount;
+		private DatastoreException failure;
+
+		ArchiveVisitor(DatastoreVisitor<Trade> next) {
+			this.next = next;
+		}
+
+		public void visit(Trade trade) {
+			try {
+				archive.store(trade);
+				archivedCount++;
+			} catch (DatastoreException e) {
+				if (failure == null) {
+					failure = e;
+				}
+				throw new CompactionAbortedException(e);
+			}
+
+			if (next != null) {
+				next.visit(trade);
+			}
+		}
+	}
+}
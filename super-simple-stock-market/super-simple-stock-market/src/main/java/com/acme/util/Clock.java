@@ -0,0 +1,16 @@
+package com.acme.util;
+
+/**
+ * Source of the current time used to timestamp the trades and to evaluate their age. Injected
+ * where the time is read, so that the reads can be made cheaper ({@link CoarseClock}) or
+ * deterministic ({@link ManualClock}).
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public interface Clock {
+	/**
+	 * @return the current time, in milliseconds since the epoch
+	 */
+	long currentTimeMillis();
+}
@@ -0,0 +1,82 @@
+package com.acme.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link Clock} caching the system time, refreshed by a background thread every
+ * {@link #setResolutionMillis(long) resolution} milliseconds. Reading it is a volatile load
+ * instead of a system call, at the price of timestamps lagging by up to the resolution. Reads the
+ * system time directly while not started.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class CoarseClock implements Clock {
+	private long resolutionMillis = 1;
+
+	private volatile long timeMillis;
+
+	private volatile boolean running;
+	private Thread tickerThread;
+
+	public long currentTimeMillis() {
+		return running ? timeMillis : System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts refreshing the cached time in the background.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+
+		timeMillis = System.currentTimeMillis();
+		running = true;
+
+		tickerThread = new Thread(new Runnable() {
+			public void run() {
+				long resolutionNanos = TimeUnit.MILLISECONDS.toNanos(resolutionMillis);
+				while (running) {
+					LockSupport.parkNanos(resolutionNanos);
+					timeMillis = System.currentTimeMillis();
+				}
+			}
+		}, "coarse-clock");
+		tickerThread.setDaemon(true);
+		tickerThread.start();
+	}
+
+	/**
+	 * Stops refreshing the cached time, the clock reading the system time directly afterwards.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = tickerThread;
+			tickerThread = null;
+		}
+
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @param resolutionMillis
+	 *            the refresh interval of the cached time, in milliseconds, at least 1
+	 */
+	public void setResolutionMillis(long resolutionMillis) {
+		if (resolutionMillis < 1) {
+			throw new IllegalArgumentException("Invalid clock resolution: [" + resolutionMillis + "] ms.");
+		}
+		this.resolutionMillis = resolutionMillis;
+	}
+}
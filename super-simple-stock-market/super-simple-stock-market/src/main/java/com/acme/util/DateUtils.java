@@ -14,12 +14,21 @@ import java.util.Date;
 public class DateUtils {
 	
 	public static final boolean isNewerOrEqualTo(Date date, int ageInMinutes) {
-		long milliseconds = ageInMinutes * 60 * 1000;
-
-		long currentTime = System.currentTimeMillis();
-		long timestamp = date.getTime();
+		return date.getTime() >= fromTimestamp(System.currentTimeMillis(), ageInMinutes);
+	}
 
-		return timestamp >= currentTime - milliseconds;
+	/**
+	 * Returns the oldest timestamp of an age window, so that a query reading the clock once can
+	 * compare the timestamps of many trades against it.
+	 * 
+	 * @param now
+	 *            the current time, in milliseconds since the epoch
+	 * @param ageInMinutes
+	 *            the window age
+	 * @return the oldest timestamp inside the window, in milliseconds since the epoch
+	 */
+	public static final long fromTimestamp(long now, int ageInMinutes) {
+		return now - ageInMinutes * 60L * 1000L;
 	}
 
 	public static final Date parseDate(String dateAsString, String pattern) {
@@ -0,0 +1,55 @@
+package com.acme.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits a log statement repeated on a hot path, e.g. the warning about a query matching no
+ * trades: at most one statement per interval is let through, the others are only counted, so that
+ * the next statement let through can report them. A throttled statement costs a time read and a
+ * striped increment, and allocates nothing.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class LogThrottle {
+	private final long intervalNanos;
+
+	/**
+	 * The time from which the next statement is let through, in {@link System#nanoTime()} units.
+	 */
+	private final AtomicLong nextNanos = new AtomicLong(System.nanoTime());
+
+	private final LongAdder suppressedCount = new LongAdder();
+
+	/**
+	 * @param intervalMillis
+	 *            the minimum interval between two statements let through, in milliseconds
+	 */
+	public LogThrottle(long intervalMillis) {
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, intervalMillis));
+	}
+
+	/**
+	 * @return true if the statement can be logged, false if it is suppressed
+	 */
+	public boolean tryAcquire() {
+		long now = System.nanoTime();
+		long next = nextNanos.get();
+
+		if (now - next >= 0L && nextNanos.compareAndSet(next, now + intervalNanos)) {
+			return true;
+		}
+
+		suppressedCount.increment();
+		return false;
+	}
+
+	/**
+	 * @return the number of statements suppressed since the previous call, resetting it
+	 */
+	public long drainSuppressedCount() {
+		return suppressedCount.sumThenReset();
+	}
+}
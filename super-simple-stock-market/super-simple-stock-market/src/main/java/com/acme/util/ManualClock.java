@@ -0,0 +1,50 @@
+package com.acme.util;
+
+/**
+ * {@link Clock} which only moves when told to, for reproducible tests and benchmarks.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ManualClock implements Clock {
+	private volatile long timeMillis;
+
+	/**
+	 * Creates a clock set to the current system time.
+	 */
+	public ManualClock() {
+		this(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param timeMillis
+	 *            the initial time, in milliseconds since the epoch
+	 */
+	public ManualClock(long timeMillis) {
+		this.timeMillis = timeMillis;
+	}
+
+	public long currentTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @param timeMillis
+	 *            the time to set, in milliseconds since the epoch
+	 */
+	public void setTimeMillis(long timeMillis) {
+		this.timeMillis = timeMillis;
+	}
+
+	/**
+	 * Moves the clock forward.
+	 * 
+	 * @param millis
+	 *            the number of milliseconds to advance
+	 * @return the new time
+	 */
+	public synchronized long advance(long millis) {
+		timeMillis += millis;
+		return timeMillis;
+	}
+}
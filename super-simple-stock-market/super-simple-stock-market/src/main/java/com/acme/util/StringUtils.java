@@ -5,7 +5,20 @@ package com.acme.util;
  *
  */
 public class StringUtils {
+	/**
+	 * @return true if the value holds at least one character other than whitespace, as
+	 *         <code>value.trim().length() > 0</code> but without allocating
+	 */
 	public static boolean isValid(String value) {
-		return value != null && value.trim().length() > 0;
+		if (value == null) {
+			return false;
+		}
+
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > ' ') {
+				return true;
+			}
+		}
+		return false;
 	}
 }
@@ -0,0 +1,64 @@
+package com.acme.util;
+
+/**
+ * Fixed set of monitors selected by the hash of a stock symbol, serializing the operations on a
+ * same stock without a global lock. The same symbol always selects the same monitor, whichever
+ * way it has been resolved, so callers holding a symbol id resolve it back to its symbol first.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class StripedLocks {
+	private static final int DEFAULT_STRIPES = 64;
+
+	private final Object[] locks;
+
+	public StripedLocks() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	public StripedLocks(int stripes) {
+		int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		this.locks = new Object[count];
+		for (int i = 0; i < count; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * @param stockSymbol
+	 *            the stock symbol, possibly null
+	 * @return the monitor guarding the stock
+	 */
+	public Object lockFor(String stockSymbol) {
+		if (stockSymbol == null) {
+			return locks[0];
+		}
+
+		int hash = stockSymbol.hashCode();
+		return locks[(hash ^ (hash >>> 16)) & (locks.length - 1)];
+	}
+
+	/**
+	 * @return the number of stripes
+	 */
+	public int size() {
+		return locks.length;
+	}
+
+	/**
+	 * Returns the monitor of a stripe, for the callers which need to hold all of them: they take
+	 * them in index order, so they do not deadlock with each other.
+	 * 
+	 * @param index
+	 *            the stripe index, below {@link #size()}
+	 * @return the monitor of the stripe
+	 */
+	public Object lockAt(int index) {
+		return locks[index];
+	}
+}
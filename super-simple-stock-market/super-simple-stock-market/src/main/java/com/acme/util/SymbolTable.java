@@ -0,0 +1,135 @@
+package com.acme.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.acme.domain.SymbolRegistry;
+
+/**
+ * Table of values indexed by the dense stock symbol ids of the {@link SymbolRegistry}, backed by a
+ * plain array. Lookups are lock free and do not hash anything, insertions are serialized since new
+ * stocks are rare. Iteration follows the ids order and reflects the table at some point during the
+ * iteration.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SymbolTable<V> implements Iterable<V> {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private volatile AtomicReferenceArray<V> values = new AtomicReferenceArray<V>(INITIAL_CAPACITY);
+	private volatile int size;
+
+	/**
+	 * @param id
+	 *            the symbol id, {@link SymbolRegistry#NO_ID} included
+	 * @return the value held for the symbol, or null if there is none
+	 */
+	public V get(int id) {
+		AtomicReferenceArray<V> table = values;
+		return id >= 0 && id < table.length() ? table.get(id) : null;
+	}
+
+	/**
+	 * Holds a value for a symbol, unless one is already held.
+	 * 
+	 * @param id
+	 *            the symbol id
+	 * @param value
+	 *            the value, not null
+	 * @return the value already held, or null if the passed in value has been stored
+	 */
+	public synchronized V putIfAbsent(int id, V value) {
+		AtomicReferenceArray<V> table = ensureCapacity(id);
+
+		V current = table.get(id);
+		if (current == null) {
+			table.set(id, value);
+			size++;
+		}
+		return current;
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public synchronized void clear() {
+		values = new AtomicReferenceArray<V>(INITIAL_CAPACITY);
+		size = 0;
+	}
+
+	/**
+	 * @return the number of symbols holding a value
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if no symbol holds a value
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Iterates the values in the ids order. The iterator does not support removal.
+	 */
+	public Iterator<V> iterator() {
+		final AtomicReferenceArray<V> table = values;
+
+		return new Iterator<V>() {
+			private int index = advance(0);
+
+			public boolean hasNext() {
+				return index < table.length();
+			}
+
+			public V next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				V value = table.get(index);
+				index = advance(index + 1);
+				return value;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			private int advance(int from) {
+				int i = from;
+				while (i < table.length() && table.get(i) == null) {
+					i++;
+				}
+				return i;
+			}
+		};
+	}
+
+	private AtomicReferenceArray<V> ensureCapacity(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Invalid symbol id: [" + id + "]");
+		}
+
+		AtomicReferenceArray<V> table = values;
+		if (id < table.length()) {
+			return table;
+		}
+
+		int capacity = table.length();
+		while (capacity <= id) {
+			capacity *= 2;
+		}
+
+		AtomicReferenceArray<V> grown = new AtomicReferenceArray<V>(capacity);
+		for (int i = 0; i < table.length(); i++) {
+			grown.set(i, table.get(i));
+		}
+		values = grown;
+
+		return grown;
+	}
+}
@@ -0,0 +1,18 @@
+package com.acme.util;
+
+/**
+ * {@link Clock} reading the system time on every call.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SystemClock implements Clock {
+	/**
+	 * Shared instance, used when no clock is configured.
+	 */
+	public static final SystemClock INSTANCE = new SystemClock();
+
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,200 @@
+package com.acme.test.analytics;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.retention.ExpiredTradeListener;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.storage.retention.TradesCompactor;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class AllShareIndexCalculatorTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(AllShareIndexCalculatorTest.class);
+
+	private static final long MINUTE_MILLIS = 60L * 1000L;
+
+	private static final String[] SYMBOLS = { "TEA", "POP", "ALE", "GIN", "JOE" };
+
+	private AllShareIndexCalculator allShareIndexCalculator;
+
+	@Override
+	protected void initTest() {
+		allShareIndexCalculator = new AllShareIndexCalculator();
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.AllShareIndexCalculator#onTrade(Trade)}.
+	 */
+	@Test
+	public void testIndices() {
+		Assert.assertTrue(Double.isNaN(allShareIndexCalculator.getAllTradesIndex()));
+		Assert.assertTrue(Double.isNaN(allShareIndexCalculator.getLatestPricesIndex()));
+
+		long now = System.currentTimeMillis();
+		allShareIndexCalculator.onTrade(new Trade("TEA", TradeType.BUY, 10, 2.0, new Date(now)));
+		allShareIndexCalculator.onTrade(new Trade("TEA", TradeType.SELL, 10, 8.0, new Date(now + 1000)));
+		// older than the latest TEA trade, so not the latest TEA price
+		allShareIndexCalculator.onTrade(new Trade("TEA", TradeType.BUY, 10, 1.0, new Date(now - 1000)));
+		allShareIndexCalculator.onTrade(new Trade("POP", TradeType.BUY, 10, 4.0, new Date(now)));
+
+		Assert.assertEquals(Math.pow(2.0 * 8.0 * 1.0 * 4.0, 1.0 / 4), allShareIndexCalculator.getAllTradesIndex(), 1e-9);
+		Assert.assertEquals(Math.sqrt(8.0 * 4.0), allShareIndexCalculator.getLatestPricesIndex(), 1e-9);
+		Assert.assertEquals(4, allShareIndexCalculator.getPricesCount());
+		Assert.assertEquals(2, allShareIndexCalculator.getLatestPricesCount());
+
+		// the POP trades all expired, its latest price is dropped
+		allShareIndexCalculator.onTradeExpired(new Trade("POP", TradeType.BUY, 10, 4.0, new Date(now)));
+		allShareIndexCalculator.onTradeExpired(new Trade("TEA", TradeType.BUY, 10, 1.0, new Date(now - 1000)));
+
+		Assert.assertEquals(Math.sqrt(2.0 * 8.0), allShareIndexCalculator.getAllTradesIndex(), 1e-9);
+		Assert.assertEquals(8.0, allShareIndexCalculator.getLatestPricesIndex(), 1e-9);
+		Assert.assertEquals(2, allShareIndexCalculator.getPricesCount());
+		Assert.assertEquals(1, allShareIndexCalculator.getLatestPricesCount());
+
+		// unknown stocks are ignored
+		allShareIndexCalculator.onTradeExpired(new Trade("ZZZ", TradeType.BUY, 10, 4.0, new Date(now)));
+		Assert.assertEquals(2, allShareIndexCalculator.getPricesCount());
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.AllShareIndexCalculator#onTrade(Trade)},
+	 * trades being recorded concurrently.
+	 */
+	@Test
+	public void testConcurrentTrades() {
+		final List<Trade> trades = newTrades(new Random(7), 40000, System.currentTimeMillis(), MINUTE_MILLIS);
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final int thread = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = thread; j < trades.size(); j += 8) {
+						allShareIndexCalculator.onTrade(trades.get(j));
+					}
+				}
+			});
+			threads[i].start();
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			fail("Interrupted while recording trades.");
+		}
+
+		AllShareIndexCalculator expectedCalculator = new AllShareIndexCalculator();
+		for (Trade trade : trades) {
+			expectedCalculator.onTrade(trade);
+		}
+
+		Assert.assertEquals(trades.size(), allShareIndexCalculator.getPricesCount());
+		Assert.assertEquals(expectedCalculator.getAllTradesIndex(), allShareIndexCalculator.getAllTradesIndex(), 1e-9);
+		Assert.assertEquals(expectedCalculator.getLatestPricesIndex(), allShareIndexCalculator.getLatestPricesIndex(), 1e-9);
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.AllShareIndexCalculator#getAllTradesIndex()}
+	 * against the index computed by scanning the trades datastore, before and after the expired
+	 * trades are compacted.
+	 */
+	@Test
+	public void testScanEquivalence() {
+		ColumnarTradesDatastore tradesDatastore = getBean("columnarTradesDatastore");
+
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(tradesDatastore);
+
+		StockMarketServiceImpl scanningStockMarketService = new StockMarketServiceImpl();
+		scanningStockMarketService.setStocksPersistenceService(getBean("stocksPersistenceService"));
+		scanningStockMarketService.setTradesPersistenceService(tradesPersistenceService);
+
+		long now = System.currentTimeMillis();
+
+		// two hours of trades, and a stock only traded more than an hour ago
+		List<Trade> trades = newTrades(new Random(42), 5000, now, 120 * MINUTE_MILLIS);
+		trades.add(new Trade("OLD", TradeType.BUY, 10, 1000.0, new Date(now - 90 * MINUTE_MILLIS)));
+		try {
+			for (Trade trade : trades) {
+				tradesDatastore.store(trade);
+				allShareIndexCalculator.onTrade(trade);
+			}
+
+			assertIndices(scanningStockMarketService);
+
+			RetentionPolicy retentionPolicy = new RetentionPolicy();
+			retentionPolicy.setMaxAgeInMinutes(60);
+
+			TradesCompactor tradesCompactor = new TradesCompactor();
+			tradesCompactor.setDatastore(tradesDatastore);
+			tradesCompactor.setRetentionPolicy(retentionPolicy);
+			tradesCompactor.setExpiredTradeListeners(Arrays.<ExpiredTradeListener> asList(allShareIndexCalculator));
+
+			Assert.assertTrue(tradesCompactor.compact() > 0);
+			assertIndices(scanningStockMarketService);
+
+			// a calculator rebuilt from the retained trades, as on restart, agrees
+			final AllShareIndexCalculator restartedCalculator = new AllShareIndexCalculator();
+			tradesDatastore.forEach(new DatastoreVisitor<Trade>() {
+				public void visit(Trade trade) {
+					restartedCalculator.onTrade(trade);
+				}
+			});
+			Assert.assertEquals(restartedCalculator.getAllTradesIndex(), allShareIndexCalculator.getAllTradesIndex(), 1e-9);
+			Assert.assertEquals(restartedCalculator.getLatestPricesIndex(), allShareIndexCalculator.getLatestPricesIndex(), 1e-9);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing scan equivalence failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing scan equivalence failed due to: " + e.getMessage());
+		}
+	}
+
+	private void assertIndices(StockMarketServiceImpl scanningStockMarketService) {
+		try {
+			Assert.assertEquals(scanningStockMarketService.calculateGBCEAllShareIndex(), allShareIndexCalculator.getAllTradesIndex(), 1e-9);
+			Assert.assertEquals(scanningStockMarketService.calculateGBCEAllShareIndexOfLatestPrices(), allShareIndexCalculator.getLatestPricesIndex(), 1e-9);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Calculating the scan-based index failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Calculating the scan-based index failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return trades on the test stocks, with distinct timestamps spread over the given duration
+	 *         before now, recorded out of order
+	 */
+	private static List<Trade> newTrades(Random random, int count, long now, long durationMillis) {
+		List<Trade> trades = new ArrayList<Trade>(count);
+		for (int i = 0; i < count; i++) {
+			long timestamp = now - (durationMillis * (count - i)) / count;
+			trades.add(new Trade(SYMBOLS[random.nextInt(SYMBOLS.length)], random.nextBoolean() ? TradeType.BUY : TradeType.SELL, 1 + random.nextInt(100),
+					50.0 + random.nextInt(1000) / 10.0, new Date(timestamp)));
+		}
+		Collections.shuffle(trades, random);
+		return trades;
+	}
+}
@@ -0,0 +1,164 @@
+package com.acme.test.analytics;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeAggregate;
+import com.acme.domain.TradeType;
+import com.acme.services.analytics.TradeRollupEngine;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketService;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeRollupEngineTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(TradeRollupEngineTest.class);
+
+	private static final long MINUTE_MILLIS = 60L * 1000L;
+
+	private Datastore<Trade> tradesDatastore;
+	private StockMarketService stockMarketService;
+	private TradeRollupEngine tradeRollupEngine;
+
+	private List<Trade> trades;
+
+	@Override
+	protected void initTest() {
+		tradesDatastore = getBean("tradesDatastore");
+		stockMarketService = getBean("stockMarketService");
+
+		tradeRollupEngine = new TradeRollupEngine();
+
+		// two hours of trades, recorded out of order
+		long now = System.currentTimeMillis();
+		Random random = new Random(42);
+		trades = new ArrayList<Trade>();
+		for (int i = 0; i < 5000; i++) {
+			long timestamp = now - random.nextInt((int) (120 * MINUTE_MILLIS));
+			trades.add(new Trade("TEA", random.nextBoolean() ? TradeType.BUY : TradeType.SELL, 1 + random.nextInt(100), 50.0 + random.nextInt(1000) / 10.0,
+					new Date(timestamp)));
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.TradeRollupEngine#aggregate(String, long, long)}.
+	 */
+	@Test
+	public void testAggregate() {
+		for (Trade trade : trades) {
+			tradeRollupEngine.onTrade(trade);
+		}
+
+		long now = System.currentTimeMillis();
+		long minute = now - now % MINUTE_MILLIS;
+
+		// windows starting on a bucket boundary are answered exactly, whatever buckets they combine
+		assertAggregate(minute - 100 * MINUTE_MILLIS, now);
+		assertAggregate(minute - 67 * MINUTE_MILLIS, minute - 3 * MINUTE_MILLIS - 1);
+		assertAggregate(now - now % 1000 - 3 * MINUTE_MILLIS, now);
+
+		// windows edges between bucket boundaries are widened to the retained buckets holding them
+		assertEquals(expected(minute - 30 * MINUTE_MILLIS, now), tradeRollupEngine.aggregate("TEA", minute - 30 * MINUTE_MILLIS + 500, now));
+		assertEquals(expected(minute - 61 * MINUTE_MILLIS, minute - 58 * MINUTE_MILLIS - 1),
+				tradeRollupEngine.aggregate("TEA", minute - 61 * MINUTE_MILLIS, minute - 59 * MINUTE_MILLIS + 17000));
+
+		Assert.assertTrue(tradeRollupEngine.aggregate("POP", minute - 30 * MINUTE_MILLIS, now).getTradesCount() == 0);
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.TradeRollupEngine#aggregate(String, long, long)},
+	 * the window being open-ended.
+	 */
+	@Test
+	public void testAggregateOpenEnded() {
+		for (Trade trade : trades) {
+			tradeRollupEngine.onTrade(trade);
+		}
+
+		long now = System.currentTimeMillis();
+		long minute = now - now % MINUTE_MILLIS;
+
+		// answered from the buckets up to the newest trade, without walking the empty future
+		assertAggregate(minute - 100 * MINUTE_MILLIS, Long.MAX_VALUE);
+		assertAggregate(minute - 3 * MINUTE_MILLIS, now + 365L * 24 * 60 * MINUTE_MILLIS);
+
+		Assert.assertTrue(tradeRollupEngine.aggregate("TEA", now + MINUTE_MILLIS, Long.MAX_VALUE).getTradesCount() == 0);
+		Assert.assertTrue(tradeRollupEngine.aggregate("POP", minute, Long.MAX_VALUE).getTradesCount() == 0);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.services.businesslogic.StockMarketService#calculateTradeAggregate(String, Date, Date)}
+	 * when no rollup engine is configured.
+	 */
+	@Test
+	public void testCalculateTradeAggregateByScan() {
+		try {
+			for (Trade trade : trades) {
+				tradesDatastore.store(trade);
+			}
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Storing trades failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Storing trades failed due to: " + e.getMessage());
+		}
+
+		long now = System.currentTimeMillis();
+		long from = now - 45 * MINUTE_MILLIS;
+
+		try {
+			TradeAggregate aggregate = stockMarketService.calculateTradeAggregate("TEA", new Date(from), new Date(now));
+			assertEquals(expected(from, now), aggregate);
+
+			double volumeWeightedPrice = stockMarketService.calculateVolumeWeightedStockPrice("TEA", new Date(from), new Date(now));
+			Assert.assertTrue(volumeWeightedPrice == aggregate.getVolumeWeightedPrice());
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Calculating trade aggregate failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Calculating trade aggregate failed due to: " + e.getMessage());
+		}
+
+		try {
+			stockMarketService.calculateTradeAggregate("POP", new Date(from), new Date(now));
+			fail("Expected failure: No trades recorded for the stock");
+		} catch (BusinesslogicException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	private void assertAggregate(long fromTimestamp, long toTimestamp) {
+		assertEquals(expected(fromTimestamp, toTimestamp), tradeRollupEngine.aggregate("TEA", fromTimestamp, toTimestamp));
+	}
+
+	private TradeAggregate expected(long fromTimestamp, long toTimestamp) {
+		TradeAggregate expected = new TradeAggregate("TEA", fromTimestamp, toTimestamp - fromTimestamp);
+		for (Trade trade : trades) {
+			long timestamp = trade.getTimestamp().getTime();
+			if (timestamp >= fromTimestamp && timestamp <= toTimestamp) {
+				expected.add(trade);
+			}
+		}
+		return expected;
+	}
+
+	private static void assertEquals(TradeAggregate expected, TradeAggregate actual) {
+		Assert.assertTrue(expected.getTradesCount() > 0 && actual.getTradesCount() == expected.getTradesCount());
+		Assert.assertTrue(actual.getVolume() == expected.getVolume());
+		Assert.assertEquals(expected.getTurnover(), actual.getTurnover(), 1e-6);
+		Assert.assertTrue(actual.getOpen() == expected.getOpen() && actual.getClose() == expected.getClose());
+		Assert.assertTrue(actual.getHigh() == expected.getHigh() && actual.getLow() == expected.getLow());
+	}
+}
@@ -0,0 +1,208 @@
+package com.acme.test.analytics;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.analytics.VolumeWeightedPriceEngine;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.test.AbstractTest;
+import com.acme.util.DateUtils;
+import com.acme.util.ManualClock;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class VolumeWeightedPriceEngineTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(VolumeWeightedPriceEngineTest.class);
+
+	private static final long MINUTE_MILLIS = 60L * 1000L;
+
+	private static final String[] SYMBOLS = { "TEA", "POP", "ALE", "GIN", "JOE" };
+
+	private ManualClock clock;
+	private VolumeWeightedPriceEngine volumeWeightedPriceEngine;
+
+	@Override
+	protected void initTest() {
+		clock = new ManualClock(DateUtils.parseDate("20150924", "yyyyMMdd").getTime());
+
+		volumeWeightedPriceEngine = new VolumeWeightedPriceEngine();
+		volumeWeightedPriceEngine.setWindowsInMinutes(Arrays.asList(5, 15));
+		volumeWeightedPriceEngine.setClock(clock);
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.VolumeWeightedPriceEngine#getVolumeWeightedPrice(String, int)},
+	 * the trades being on the window boundaries.
+	 */
+	@Test
+	public void testWindowBoundaries() {
+		long now = clock.currentTimeMillis();
+
+		Assert.assertTrue(volumeWeightedPriceEngine.supportsWindow(5) && volumeWeightedPriceEngine.supportsWindow(15));
+		Assert.assertFalse(volumeWeightedPriceEngine.supportsWindow(10) || volumeWeightedPriceEngine.supportsWindow(0) || volumeWeightedPriceEngine.supportsWindow(16));
+		Assert.assertTrue(Double.isNaN(volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 15)));
+
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 100, 1000.0, now - 15 * MINUTE_MILLIS - 1));
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 100, 100.0, now - 15 * MINUTE_MILLIS));
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.SELL, 300, 200.0, now - 5 * MINUTE_MILLIS));
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 100, 300.0, now));
+
+		// the trades exactly as old as the window are inside it
+		Assert.assertEquals((100 * 100.0 + 300 * 200.0 + 100 * 300.0) / 500, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 15), 1e-9);
+		Assert.assertEquals((300 * 200.0 + 100 * 300.0) / 400, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5), 1e-9);
+
+		clock.advance(1);
+		Assert.assertEquals((300 * 200.0 + 100 * 300.0) / 400, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 15), 1e-9);
+		Assert.assertEquals(300.0, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5), 1e-9);
+
+		try {
+			volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 10);
+			fail("Expected failure: Window is not tracked by the engine.");
+		} catch (IllegalArgumentException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.VolumeWeightedPriceEngine#getVolumeWeightedPrice(String, int)},
+	 * the trades aging out of the windows as the clock moves.
+	 */
+	@Test
+	public void testEviction() {
+		// more trades than the initial window capacity, one per second
+		for (int i = 0; i < 600; i++) {
+			volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 1 + i % 10, 100.0 + i % 7, clock.currentTimeMillis()));
+			clock.advance(1000);
+		}
+		volumeWeightedPriceEngine.onTrade(new Trade("POP", TradeType.BUY, 10, 50.0, clock.currentTimeMillis()));
+
+		Assert.assertEquals(expectedPrice(0, 600), volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 15), 1e-9);
+		Assert.assertEquals(expectedPrice(300, 600), volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5), 1e-9);
+
+		clock.advance(4 * MINUTE_MILLIS);
+		Assert.assertEquals(expectedPrice(540, 600), volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5), 1e-9);
+
+		clock.advance(2 * MINUTE_MILLIS);
+		Assert.assertTrue(Double.isNaN(volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5)));
+		Assert.assertEquals(50.0, volumeWeightedPriceEngine.getVolumeWeightedPrice("POP", 15), 1e-9);
+
+		// the windows start over after an idle period
+		clock.advance(10 * MINUTE_MILLIS);
+		Assert.assertTrue(Double.isNaN(volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 15)));
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.SELL, 3, 123.0, clock.currentTimeMillis()));
+		Assert.assertEquals(123.0, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 15), 0.0);
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.VolumeWeightedPriceEngine#onTrade(Trade)},
+	 * the trades being recorded out of timestamp order.
+	 */
+	@Test
+	public void testOutOfOrderTimestamps() {
+		long now = clock.currentTimeMillis();
+
+		// a late trade, older than the trades already recorded, ages out before them
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 100, 200.0, now - 2 * MINUTE_MILLIS));
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 100, 100.0, now - 4 * MINUTE_MILLIS));
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 100, 300.0, now));
+		Assert.assertEquals(200.0, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5), 1e-9);
+
+		clock.advance(2 * MINUTE_MILLIS);
+		Assert.assertEquals(250.0, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5), 1e-9);
+
+		// a late trade already older than the window is ignored by it
+		volumeWeightedPriceEngine.onTrade(new Trade("TEA", TradeType.BUY, 100, 1000.0, now - 6 * MINUTE_MILLIS));
+		Assert.assertEquals(250.0, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5), 1e-9);
+		Assert.assertEquals(400.0, volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 15), 1e-9);
+
+		clock.advance(4 * MINUTE_MILLIS);
+		Assert.assertTrue(Double.isNaN(volumeWeightedPriceEngine.getVolumeWeightedPrice("TEA", 5)));
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.analytics.VolumeWeightedPriceEngine#getVolumeWeightedPrice(String, int)}
+	 * against the price computed by scanning the trades datastore, the trades being recorded out of
+	 * order and the clock moving.
+	 */
+	@Test
+	public void testScanEquivalence() {
+		ColumnarTradesDatastore tradesDatastore = new ColumnarTradesDatastore();
+		tradesDatastore.setClock(clock);
+
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(tradesDatastore);
+
+		StockMarketServiceImpl scanningStockMarketService = new StockMarketServiceImpl();
+		scanningStockMarketService.setStocksPersistenceService(getBean("stocksPersistenceService"));
+		scanningStockMarketService.setTradesPersistenceService(tradesPersistenceService);
+
+		Random random = new Random(42);
+		long now = clock.currentTimeMillis();
+
+		// twenty minutes of trades, shuffled within batches as concurrent writers would record them
+		List<Trade> trades = new ArrayList<Trade>();
+		for (int i = 0; i < 4000; i++) {
+			long timestamp = now - 20 * MINUTE_MILLIS + (20 * MINUTE_MILLIS * i) / 4000;
+			trades.add(new Trade(SYMBOLS[random.nextInt(SYMBOLS.length)], random.nextBoolean() ? TradeType.BUY : TradeType.SELL, 1 + random.nextInt(100),
+					50.0 + random.nextInt(1000) / 10.0, timestamp));
+		}
+		for (int i = 0; i < trades.size(); i += 50) {
+			Collections.shuffle(trades.subList(i, i + 50), random);
+		}
+
+		try {
+			for (Trade trade : trades) {
+				tradesDatastore.store(trade);
+				volumeWeightedPriceEngine.onTrade(trade);
+			}
+
+			for (int step = 0; step < 20; step++) {
+				for (String stockSymbol : SYMBOLS) {
+					for (int ageInMinutes : new int[] { 5, 15 }) {
+						Assert.assertEquals(scanningStockMarketService.tryCalculateVolumeWeightedStockPrice(stockSymbol, ageInMinutes),
+								volumeWeightedPriceEngine.getVolumeWeightedPrice(stockSymbol, ageInMinutes), 1e-6);
+					}
+				}
+				clock.advance(MINUTE_MILLIS + 17);
+			}
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing scan equivalence failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing scan equivalence failed due to: " + e.getMessage());
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Calculating the scan-based price failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Calculating the scan-based price failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the volume weighted price of the trades recorded by {@link #testEviction()} in the
+	 *         given range of seconds
+	 */
+	private static double expectedPrice(int from, int to) {
+		double tradedValueSum = 0.0;
+		long quantitySum = 0;
+		for (int i = from; i < to; i++) {
+			tradedValueSum += (100.0 + i % 7) * (1 + i % 10);
+			quantitySum += 1 + i % 10;
+		}
+		return tradedValueSum / quantitySum;
+	}
+}
@@ -0,0 +1,168 @@
+package com.acme.test.businesslogic;
+
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketServiceImpl;
+import com.acme.services.businesslogic.StocksService;
+import com.acme.services.businesslogic.TradesService;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class StockMarketServiceTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(StockMarketServiceTest.class);
+
+	private static final String[] SYMBOLS = { "TEA", "POP", "ALE", "GIN", "JOE", "TEA", null };
+	private static final double[] PRICES = { 100.0, 50.0, 0.0, 120.0, 250.0, 80.0, 10.0 };
+
+	private StockMarketServiceImpl stockMarketService;
+
+	@Override
+	protected void initTest() {
+		StocksService stocksService = getBean("stocksService");
+		TradesService tradesService = getBean("tradesService");
+		stockMarketService = getBean("stockMarketService");
+
+		try {
+			stocksService.createStock(new Stock("TEA", StockType.COMMON, 1000, 100, 0, 0));
+			stocksService.createStock(new Stock("POP", StockType.COMMON, 1000, 100, 8, 0));
+			stocksService.createStock(new Stock("ALE", StockType.COMMON, 1000, 60, 23, 0));
+			stocksService.createStock(new Stock("GIN", StockType.PREFERRED, 1000, 100, 8, 0.02));
+
+			for (int i = 0; i < 20; i++) {
+				tradesService.createTrade(new Trade("POP", TradeType.BUY, 1 + i, 50.0 + i, null));
+				tradesService.createTrade(new Trade("GIN", TradeType.BUY, 2, 100.0 - i, null));
+			}
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating test data failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating test data failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for the bulk calculations of
+	 * {@link com.acme.services.businesslogic.StockMarketService}, run on the calling thread and
+	 * split across the fork/join pool.
+	 */
+	@Test
+	public void testBulkCalculations() {
+		checkBulkCalculations();
+
+		stockMarketService.setForkJoinPool(new ForkJoinPool(4));
+		stockMarketService.setParallelismThreshold(1);
+		checkBulkCalculations();
+
+		try {
+			stockMarketService.calculateDividentYields(SYMBOLS, new double[] { 1.0 });
+			fail("Expected failure: stock symbols and prices do not match.");
+		} catch (BusinesslogicException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for the bulk calculations of
+	 * {@link com.acme.services.businesslogic.StockMarketService} addressing the stocks by their
+	 * symbol ids.
+	 */
+	@Test
+	public void testBulkCalculationsByIds() {
+		int[] stockIds = new int[SYMBOLS.length];
+		for (int i = 0; i < SYMBOLS.length; i++) {
+			stockIds[i] = SymbolRegistry.idOf(SYMBOLS[i]);
+		}
+
+		try {
+			Assert.assertArrayEquals(stockMarketService.calculateDividentYields(SYMBOLS, PRICES),
+					stockMarketService.calculateDividentYields(stockIds, PRICES), 0.0);
+			Assert.assertArrayEquals(stockMarketService.calculatePERatios(SYMBOLS, PRICES),
+					stockMarketService.calculatePERatios(stockIds, PRICES), 0.0);
+			Assert.assertArrayEquals(stockMarketService.calculateVolumeWeightedStockPrices(SYMBOLS, 15),
+					stockMarketService.calculateVolumeWeightedStockPrices(stockIds, 15), 0.0);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Bulk calculations failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Bulk calculations failed due to: " + e.getMessage());
+		}
+	}
+
+	private void checkBulkCalculations() {
+		try {
+			double[] dividentYields = stockMarketService.calculateDividentYields(SYMBOLS, PRICES);
+			double[] peRatios = stockMarketService.calculatePERatios(SYMBOLS, PRICES);
+			double[] volumeWeightedStockPrices = stockMarketService.calculateVolumeWeightedStockPrices(SYMBOLS, 15);
+
+			for (int i = 0; i < SYMBOLS.length; i++) {
+				Assert.assertEquals(dividentYield(SYMBOLS[i], PRICES[i]), dividentYields[i], 0.0);
+				Assert.assertEquals(peRatio(SYMBOLS[i], PRICES[i]), peRatios[i], 0.0);
+				Assert.assertEquals(volumeWeightedStockPrice(SYMBOLS[i]), volumeWeightedStockPrices[i], 0.0);
+			}
+
+			Assert.assertTrue(Double.isNaN(dividentYields[2]) && Double.isNaN(dividentYields[4]) && Double.isNaN(peRatios[4]));
+			Assert.assertTrue(Double.isNaN(volumeWeightedStockPrices[0]) && !Double.isNaN(volumeWeightedStockPrices[3]));
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Bulk calculations failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Bulk calculations failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for the calculations of
+	 * {@link com.acme.services.businesslogic.StockMarketService} reporting failures through a not
+	 * a number value.
+	 */
+	@Test
+	public void testTryCalculations() {
+		try {
+			for (int i = 0; i < SYMBOLS.length; i++) {
+				Assert.assertEquals(dividentYield(SYMBOLS[i], PRICES[i]), stockMarketService.tryCalculateDividentYield(SYMBOLS[i], PRICES[i]), 0.0);
+				Assert.assertEquals(peRatio(SYMBOLS[i], PRICES[i]), stockMarketService.tryCalculatePERatio(SYMBOLS[i], PRICES[i]), 0.0);
+				Assert.assertEquals(volumeWeightedStockPrice(SYMBOLS[i]), stockMarketService.tryCalculateVolumeWeightedStockPrice(SYMBOLS[i], 15), 0.0);
+			}
+
+			Assert.assertEquals(stockMarketService.calculateGBCEAllShareIndex(), stockMarketService.tryCalculateGBCEAllShareIndex(), 0.0);
+			Assert.assertEquals(stockMarketService.calculateGBCEAllShareIndexOfLatestPrices(), stockMarketService.tryCalculateGBCEAllShareIndexOfLatestPrices(), 0.0);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Calculations failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Calculations failed due to: " + e.getMessage());
+		}
+	}
+
+	private double dividentYield(String stockSymbol, double price) {
+		try {
+			return stockMarketService.calculateDividentYield(stockSymbol, price);
+		} catch (BusinesslogicException e) {
+			return Double.NaN;
+		}
+	}
+
+	private double peRatio(String stockSymbol, double price) {
+		try {
+			return stockMarketService.calculatePERatio(stockSymbol, price);
+		} catch (BusinesslogicException e) {
+			return Double.NaN;
+		}
+	}
+
+	private double volumeWeightedStockPrice(String stockSymbol) {
+		try {
+			return stockMarketService.calculateVolumeWeightedStockPrice(stockSymbol, 15);
+		} catch (BusinesslogicException e) {
+			return Double.NaN;
+		}
+	}
+}
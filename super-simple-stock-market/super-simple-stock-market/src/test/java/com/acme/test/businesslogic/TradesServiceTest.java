@@ -0,0 +1,175 @@
+package com.acme.test.businesslogic;
+
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StocksService;
+import com.acme.services.businesslogic.TradeResult;
+import com.acme.services.businesslogic.TradeStatus;
+import com.acme.services.businesslogic.TradesService;
+import com.acme.services.businesslogic.TradesServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradesServiceTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(TradesServiceTest.class);
+
+	private StocksService stocksService;
+	private TradesService tradesService;
+
+	@Override
+	protected void initTest() {
+		stocksService = getBean("stocksService");
+		tradesService = getBean("tradesService");
+
+		try {
+			stocksService.createStock(new Stock("TEA", StockType.COMMON, 1000, 100, 0, 0));
+			stocksService.createStock(new Stock("GIN", StockType.PREFERRED, 50, 100, 8, 0.02));
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating stocks failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating stocks failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.services.businesslogic.TradesService#createTrades(java.util.Collection)}.
+	 */
+	@Test
+	public void testCreateTrades() {
+		List<Trade> trades = Arrays.asList(new Trade("TEA", TradeType.SELL, 600, 100.0, null), new Trade("TEA", TradeType.SELL, 600, 101.0, null),
+				new Trade("TEA", TradeType.BUY, 500, 102.0, null), new Trade("POP", TradeType.SELL, 10, 50.0, null), null,
+				new Trade("TEA", TradeType.BUY, 0, 100.0, null), new Trade("GIN", TradeType.SELL, 100, 90.0, null),
+				new Trade("GIN", TradeType.BUY, 20, 91.0, new Date(0)));
+
+		List<TradeResult> results = null;
+		try {
+			results = tradesService.createTrades(trades);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating trades failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating trades failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(results.size() == trades.size());
+
+		// the trades of a stock are checked against their net quantity
+		Assert.assertTrue(results.get(0).isCreated() && results.get(1).isCreated() && results.get(2).isCreated());
+
+		Assert.assertFalse(results.get(3).isCreated());
+		Assert.assertFalse(results.get(4).isCreated());
+		Assert.assertFalse(results.get(5).isCreated());
+		logger.info("Expected failure: " + results.get(3).getFailureReason());
+
+		// an out of range net quantity falls back on applying the trades one by one
+		Assert.assertFalse(results.get(6).isCreated());
+		Assert.assertTrue(results.get(7).isCreated() && results.get(7).getTrade().getTimestamp().getTime() > 0);
+
+		try {
+			Assert.assertTrue(stocksService.getStock("TEA").getSharesCount() == 300);
+			Assert.assertTrue(stocksService.getStock("GIN").getSharesCount() == 70);
+			Assert.assertTrue(tradesService.listAllTrades().size() == 4);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Reading stocks failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Reading stocks failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.services.businesslogic.TradesService#submitTrade(com.acme.domain.Trade)}.
+	 */
+	@Test
+	public void testSubmitTrade() {
+		try {
+			Assert.assertEquals(TradeStatus.CREATED, tradesService.submitTrade(new Trade("TEA", TradeType.SELL, 600, 100.0, null)));
+			Assert.assertEquals(TradeStatus.INSUFFICIENT_SHARES, tradesService.submitTrade(new Trade("TEA", TradeType.SELL, 600, 100.0, null)));
+			Assert.assertEquals(TradeStatus.UNKNOWN_STOCK, tradesService.submitTrade(new Trade("POP", TradeType.SELL, 10, 50.0, null)));
+			Assert.assertEquals(TradeStatus.INVALID_QUANTITY, tradesService.submitTrade(new Trade("TEA", TradeType.BUY, 0, 100.0, null)));
+			Assert.assertEquals(TradeStatus.MISSING_TRADE, tradesService.submitTrade(null));
+
+			Assert.assertTrue(stocksService.getStock("TEA").getSharesCount() == 400);
+			Assert.assertTrue(tradesService.listAllTrades().size() == 1);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Submitting trades failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Submitting trades failed due to: " + e.getMessage());
+		}
+
+		try {
+			tradesService.createTrade(new Trade("TEA", TradeType.SELL, 600, 100.0, null));
+			fail("Expected failure: Trade quantity exceeds the number of available shares in stock.");
+		} catch (BusinesslogicException e) {
+			Assert.assertEquals(TradeStatus.INSUFFICIENT_SHARES.getFailureReason(null), e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.services.businesslogic.TradesService#createTrades(java.util.Collection)}, the
+	 * trades failing to be saved.
+	 */
+	@Test
+	public void testCreateTradesSaveFailure() {
+		TradesPersistenceServiceImpl failingTradesPersistenceService = new TradesPersistenceServiceImpl();
+		failingTradesPersistenceService.setTradesDatastore(new ColumnarTradesDatastore() {
+			@Override
+			public void store(Trade data) throws DatastoreException {
+				throw new DatastoreException("Datastore unavailable.");
+			}
+
+			@Override
+			public void storeAll(Collection<Trade> data) throws DatastoreException {
+				throw new DatastoreException("Datastore unavailable.");
+			}
+		});
+
+		TradesServiceImpl failingTradesService = new TradesServiceImpl();
+		failingTradesService.setStocksPersistenceService(getBean("stocksPersistenceService"));
+		failingTradesService.setTradesPersistenceService(failingTradesPersistenceService);
+
+		// TEA is adjusted by its net quantity, GIN trade by trade
+		List<Trade> trades = Arrays.asList(new Trade("TEA", TradeType.SELL, 600, 100.0, null), new Trade("TEA", TradeType.BUY, 100, 101.0, null),
+				new Trade("GIN", TradeType.SELL, 100, 90.0, null), new Trade("GIN", TradeType.SELL, 30, 91.0, null));
+		try {
+			failingTradesService.createTrades(trades);
+			fail("Expected failure: Trades cannot be saved.");
+		} catch (BusinesslogicException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+
+		try {
+			failingTradesService.createTrade(new Trade("TEA", TradeType.SELL, 10, 100.0, null));
+			fail("Expected failure: Trade cannot be saved.");
+		} catch (BusinesslogicException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+
+		// the shares count adjustments are reverted
+		try {
+			Assert.assertTrue(stocksService.getStock("TEA").getSharesCount() == 1000);
+			Assert.assertTrue(stocksService.getStock("GIN").getSharesCount() == 50);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Reading stocks failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Reading stocks failed due to: " + e.getMessage());
+		}
+	}
+}
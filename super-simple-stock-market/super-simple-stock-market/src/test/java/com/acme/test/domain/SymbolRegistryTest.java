@@ -0,0 +1,139 @@
+package com.acme.test.domain;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.test.AbstractTest;
+
+/**
+ * The registry is process wide, so every test registers symbols of its own.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SymbolRegistryTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(SymbolRegistryTest.class);
+
+	@Override
+	protected void initTest() {
+	}
+
+	/**
+	 * Test method for {@link com.acme.domain.SymbolRegistry#register(String)}.
+	 */
+	@Test
+	public void testRegister() {
+		Assert.assertEquals(SymbolRegistry.NO_ID, SymbolRegistry.idOf("REGISTERED"));
+
+		int id = SymbolRegistry.register("REGISTERED");
+		Assert.assertTrue(id >= 0 && id < SymbolRegistry.size());
+		Assert.assertEquals(id, SymbolRegistry.register("REGISTERED"));
+		Assert.assertEquals(id, SymbolRegistry.idOf("REGISTERED"));
+		Assert.assertEquals("REGISTERED", SymbolRegistry.symbolOf(id));
+
+		// the ids are dense
+		Assert.assertEquals(id + 1, SymbolRegistry.register("REGISTERED2"));
+
+		Assert.assertEquals(id, SymbolRegistry.register(new Trade("REGISTERED", TradeType.BUY, 10, 100.0, 0L)));
+		Assert.assertEquals(id, SymbolRegistry.register(new Trade(id, TradeType.BUY, 10, 100.0, 0L)));
+
+		for (String symbol : new String[] { null, "", "  " }) {
+			try {
+				SymbolRegistry.register(symbol);
+				fail("Expected failure: Invalid stock symbol.");
+			} catch (IllegalArgumentException e) {
+				logger.info("Expected failure: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.domain.SymbolRegistry#symbolOf(int)} and
+	 * {@link com.acme.domain.SymbolRegistry#idOf(String)}, the symbols or ids not being registered.
+	 */
+	@Test
+	public void testUnknownIds() {
+		Assert.assertEquals(SymbolRegistry.NO_ID, SymbolRegistry.idOf("UNKNOWN"));
+		Assert.assertEquals(SymbolRegistry.NO_ID, SymbolRegistry.idOf(null));
+
+		Assert.assertNull(SymbolRegistry.symbolOf(SymbolRegistry.NO_ID));
+		Assert.assertNull(SymbolRegistry.symbolOf(SymbolRegistry.size()));
+		Assert.assertNull(SymbolRegistry.symbolOf(Integer.MAX_VALUE));
+
+		// a trade on an unknown id has no symbol
+		Assert.assertEquals(SymbolRegistry.NO_ID, new Trade(Integer.MAX_VALUE, TradeType.BUY, 10, 100.0, 0L).getStockId());
+	}
+
+	/**
+	 * Test method for {@link com.acme.domain.SymbolRegistry#register(String)}, the same new
+	 * symbols being registered concurrently, past the initial capacity of the registry.
+	 */
+	@Test
+	public void testConcurrentRegister() {
+		final List<String> symbols = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			symbols.add("CONCURRENT" + i);
+		}
+
+		final int[][] ids = new int[8][symbols.size()];
+		final CountDownLatch startLatch = new CountDownLatch(1);
+
+		Thread[] threads = new Thread[ids.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int thread = i;
+			final List<String> shuffledSymbols = new ArrayList<String>(symbols);
+			Collections.shuffle(shuffledSymbols, new Random(thread));
+
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						startLatch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					for (String symbol : shuffledSymbols) {
+						ids[thread][symbols.indexOf(symbol)] = SymbolRegistry.register(symbol);
+					}
+				}
+			});
+			threads[i].start();
+		}
+
+		startLatch.countDown();
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			fail("Interrupted while registering symbols.");
+		}
+
+		// every thread got the same id for a symbol, and each symbol got its own id
+		Set<Integer> distinctIds = new HashSet<Integer>();
+		for (int j = 0; j < symbols.size(); j++) {
+			for (int i = 1; i < ids.length; i++) {
+				Assert.assertEquals(ids[0][j], ids[i][j]);
+			}
+			Assert.assertEquals(ids[0][j], SymbolRegistry.idOf(symbols.get(j)));
+			Assert.assertEquals(symbols.get(j), SymbolRegistry.symbolOf(ids[0][j]));
+			distinctIds.add(ids[0][j]);
+		}
+		Assert.assertEquals(symbols.size(), distinctIds.size());
+	}
+}
@@ -0,0 +1,278 @@
+package com.acme.test.events;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.analytics.VolumeWeightedPriceEngine;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StocksServiceImpl;
+import com.acme.services.businesslogic.TradesServiceImpl;
+import com.acme.services.events.MarketEventLog;
+import com.acme.services.events.Projection;
+import com.acme.services.events.SharesCountProjection;
+import com.acme.services.events.SymbolVolumeProjection;
+import com.acme.services.events.TradeListenerProjection;
+import com.acme.services.persistence.StocksPersistenceServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.ConcurrentStocksDatastore;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class MarketEventLogTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(MarketEventLogTest.class);
+
+	private static final String[] SYMBOLS = { "TEA", "POP", "ALE", "GIN", "JOE" };
+
+	private MarketEventLog eventLog;
+	private SharesCountProjection sharesCountProjection;
+	private SymbolVolumeProjection symbolVolumeProjection;
+	private VolumeWeightedPriceEngine volumeWeightedPriceEngine;
+	private AllShareIndexCalculator allShareIndexCalculator;
+
+	private StocksServiceImpl stocksService;
+	private TradesServiceImpl tradesService;
+
+	/**
+	 * Wires the services and projections the way the event-sourced Spring profile does.
+	 */
+	@Override
+	protected void initTest() {
+		sharesCountProjection = new SharesCountProjection();
+		symbolVolumeProjection = new SymbolVolumeProjection();
+		volumeWeightedPriceEngine = newVolumeWeightedPriceEngine();
+		allShareIndexCalculator = new AllShareIndexCalculator();
+
+		eventLog = new MarketEventLog();
+		eventLog.setProjections(Arrays.<Projection> asList(sharesCountProjection, symbolVolumeProjection, new TradeListenerProjection(volumeWeightedPriceEngine),
+				new TradeListenerProjection(allShareIndexCalculator)));
+
+		StocksPersistenceServiceImpl stocksPersistenceService = new StocksPersistenceServiceImpl();
+		stocksPersistenceService.setStocksDatastore(new ConcurrentStocksDatastore());
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(new ColumnarTradesDatastore());
+
+		stocksService = new StocksServiceImpl();
+		stocksService.setStocksPersistenceService(stocksPersistenceService);
+		stocksService.setEventLog(eventLog);
+
+		tradesService = new TradesServiceImpl();
+		tradesService.setStocksPersistenceService(stocksPersistenceService);
+		tradesService.setTradesPersistenceService(tradesPersistenceService);
+		tradesService.setEventLog(eventLog);
+
+		try {
+			for (int i = 0; i < SYMBOLS.length; i++) {
+				stocksService.createStock(new Stock(SYMBOLS[i], StockType.COMMON, 1000, 100, 5 + i, 0));
+			}
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating stocks failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating stocks failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.events.MarketEventLog#appendTradeExecuted(Trade)}.
+	 */
+	@Test
+	public void testProjections() {
+		try {
+			tradesService.createTrades(newTrades(0, 500));
+			for (int i = 0; i < 20; i++) {
+				tradesService.createTrade(new Trade("GIN", TradeType.SELL, 5, 80.0 + i, null));
+			}
+
+			// rejected trades are not recorded
+			tradesService.submitTrade(new Trade("TEA", TradeType.SELL, 1000000, 10.0, null));
+			tradesService.submitTrade(new Trade("NONE", TradeType.BUY, 10, 10.0, null));
+
+			Assert.assertTrue(eventLog.getLastSequence() == SYMBOLS.length + tradesService.listAllTrades().size());
+
+			for (String stockSymbol : SYMBOLS) {
+				Assert.assertEquals(stocksService.getStock(stockSymbol).getSharesCount(), sharesCountProjection.getSharesCount(stockSymbol));
+
+				long quantity = 0;
+				long tradesCount = 0;
+				for (Trade trade : tradesService.listAllTrades()) {
+					if (stockSymbol.equals(trade.getStockSymbol())) {
+						quantity += trade.getQuantity();
+						tradesCount++;
+					}
+				}
+				Assert.assertEquals(quantity, symbolVolumeProjection.getQuantity(stockSymbol));
+				Assert.assertEquals(tradesCount, symbolVolumeProjection.getTradesCount(stockSymbol));
+			}
+
+			Assert.assertTrue(sharesCountProjection.getSharesCount("NONE") < 0);
+			Assert.assertTrue(symbolVolumeProjection.getQuantity("NONE") == 0);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Testing projections failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing projections failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.events.MarketEventLog#rebuild(java.util.Collection)}.
+	 */
+	@Test
+	public void testRebuild() {
+		SharesCountProjection rebuiltSharesCountProjection = new SharesCountProjection();
+		SymbolVolumeProjection rebuiltSymbolVolumeProjection = new SymbolVolumeProjection();
+		VolumeWeightedPriceEngine rebuiltVolumeWeightedPriceEngine = newVolumeWeightedPriceEngine();
+		AllShareIndexCalculator rebuiltAllShareIndexCalculator = new AllShareIndexCalculator();
+
+		try {
+			tradesService.createTrades(newTrades(0, 10000));
+
+			// trades recorded while the projections are rebuilt, applied once only
+			Thread producer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int i = 0; i < 100; i++) {
+							tradesService.createTrades(newTrades(i * 10, i * 10 + 10));
+						}
+					} catch (BusinesslogicException e) {
+						logger.error("Creating trades failed.", e);
+					}
+				}
+			});
+			producer.start();
+
+			eventLog.rebuild(Arrays.asList(rebuiltSharesCountProjection, rebuiltSymbolVolumeProjection, new TradeListenerProjection(rebuiltVolumeWeightedPriceEngine),
+					new TradeListenerProjection(rebuiltAllShareIndexCalculator)));
+
+			producer.join();
+			tradesService.createTrade(new Trade("ALE", TradeType.BUY, 10, 55.0, null));
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Testing rebuild failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing rebuild failed due to: " + e.getMessage());
+		} catch (InterruptedException e) {
+			fail("Interrupted while recording trades.");
+		}
+
+		for (String stockSymbol : SYMBOLS) {
+			Assert.assertEquals(sharesCountProjection.getSharesCount(stockSymbol), rebuiltSharesCountProjection.getSharesCount(stockSymbol));
+			Assert.assertEquals(symbolVolumeProjection.getTradesCount(stockSymbol), rebuiltSymbolVolumeProjection.getTradesCount(stockSymbol));
+			Assert.assertEquals(symbolVolumeProjection.getValue(stockSymbol), rebuiltSymbolVolumeProjection.getValue(stockSymbol), 1e-6);
+			Assert.assertEquals(volumeWeightedPriceEngine.getVolumeWeightedPrice(stockSymbol, 15), rebuiltVolumeWeightedPriceEngine.getVolumeWeightedPrice(stockSymbol, 15),
+					1e-9);
+		}
+		Assert.assertEquals(allShareIndexCalculator.getAllTradesIndex(), rebuiltAllShareIndexCalculator.getAllTradesIndex(), 1e-9);
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.events.MarketEventLog#appendTradesExecuted(java.util.Collection)},
+	 * the trades being recorded concurrently.
+	 */
+	@Test
+	public void testConcurrentAppends() {
+		Thread[] producers = new Thread[4];
+		for (int i = 0; i < producers.length; i++) {
+			final int producer = i;
+			producers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < 100; j++) {
+							tradesService.createTrades(newTrades(producer * 1000 + j * 10, producer * 1000 + j * 10 + 10));
+						}
+					} catch (BusinesslogicException e) {
+						logger.error("Creating trades failed.", e);
+					}
+				}
+			});
+			producers[i].start();
+		}
+
+		try {
+			for (Thread producer : producers) {
+				producer.join();
+			}
+
+			Assert.assertTrue(eventLog.getLastSequence() == SYMBOLS.length + tradesService.listAllTrades().size());
+			for (String stockSymbol : SYMBOLS) {
+				Assert.assertEquals(stocksService.getStock(stockSymbol).getSharesCount(), sharesCountProjection.getSharesCount(stockSymbol));
+			}
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Testing concurrent appends failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing concurrent appends failed due to: " + e.getMessage());
+		} catch (InterruptedException e) {
+			fail("Interrupted while recording trades.");
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.events.MarketEventLog#rebuild(java.util.Collection)},
+	 * the oldest events having been trimmed.
+	 */
+	@Test
+	public void testTrimming() {
+		eventLog.setMaxEvents(5000);
+
+		try {
+			tradesService.createTrades(newTrades(0, 20000));
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating trades failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating trades failed due to: " + e.getMessage());
+		}
+
+		// whole chunks are trimmed, at least the maximum number of events being retained
+		long retainedEventsCount = eventLog.getLastSequence() - eventLog.getFirstSequence() + 1;
+		Assert.assertTrue(eventLog.getFirstSequence() > SYMBOLS.length);
+		Assert.assertTrue(retainedEventsCount >= 5000 && retainedEventsCount < 5000 + 4096);
+
+		SharesCountProjection rebuiltSharesCountProjection = new SharesCountProjection();
+		SymbolVolumeProjection rebuiltSymbolVolumeProjection = new SymbolVolumeProjection();
+		eventLog.rebuild(Arrays.asList(rebuiltSharesCountProjection, rebuiltSymbolVolumeProjection));
+
+		SymbolVolumeProjection retainedSymbolVolumeProjection = new SymbolVolumeProjection();
+		eventLog.replay(retainedSymbolVolumeProjection, eventLog.getFirstSequence(), eventLog.getLastSequence());
+
+		for (String stockSymbol : SYMBOLS) {
+			// the trimmed stocks and trades are folded into the shares counts
+			Assert.assertEquals(sharesCountProjection.getSharesCount(stockSymbol), rebuiltSharesCountProjection.getSharesCount(stockSymbol));
+
+			// while the projections of the trades only see the retained ones
+			Assert.assertEquals(retainedSymbolVolumeProjection.getTradesCount(stockSymbol), rebuiltSymbolVolumeProjection.getTradesCount(stockSymbol));
+			Assert.assertTrue(rebuiltSymbolVolumeProjection.getTradesCount(stockSymbol) < symbolVolumeProjection.getTradesCount(stockSymbol));
+		}
+
+		try {
+			eventLog.replay(new SymbolVolumeProjection(), 1, eventLog.getLastSequence());
+			fail("Expected failure: The oldest events have been trimmed.");
+		} catch (IllegalArgumentException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	private static VolumeWeightedPriceEngine newVolumeWeightedPriceEngine() {
+		VolumeWeightedPriceEngine volumeWeightedPriceEngine = new VolumeWeightedPriceEngine();
+		volumeWeightedPriceEngine.setWindowsInMinutes(Arrays.asList(15));
+		return volumeWeightedPriceEngine;
+	}
+
+	private static List<Trade> newTrades(int from, int to) {
+		List<Trade> trades = new ArrayList<Trade>();
+		for (int i = from; i < to; i++) {
+			TradeType type = i % 3 == 0 ? TradeType.SELL : TradeType.BUY;
+			trades.add(new Trade(SYMBOLS[i % SYMBOLS.length], type, 1 + i % 7, 50.0 + i % 13, new Date()));
+		}
+		return trades;
+	}
+}
@@ -0,0 +1,319 @@
+package com.acme.test.ingestion;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StocksService;
+import com.acme.services.businesslogic.TradeResult;
+import com.acme.services.businesslogic.TradeStatus;
+import com.acme.services.businesslogic.TradesService;
+import com.acme.services.ingestion.TradeAcknowledgement;
+import com.acme.services.ingestion.TradeIngestionPipeline;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradeIngestionPipelineTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(TradeIngestionPipelineTest.class);
+
+	private static final long TIMEOUT_SECONDS = 10;
+
+	private TradesService tradesService;
+	private BlockingTradesService blockingTradesService;
+	private TradeIngestionPipeline pipeline;
+
+	@Override
+	protected void initTest() {
+		StocksService stocksService = getBean("stocksService");
+		tradesService = getBean("tradesService");
+
+		try {
+			stocksService.createStock(new Stock("TEA", StockType.COMMON, 1000000, 100, 0, 0));
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating stocks failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating stocks failed due to: " + e.getMessage());
+		}
+
+		blockingTradesService = new BlockingTradesService(tradesService);
+
+		// a single, tiny, partition buffer, so that it wraps around and fills up quickly
+		pipeline = new TradeIngestionPipeline();
+		pipeline.setTradesService(blockingTradesService);
+		pipeline.setPartitionsCount(1);
+		pipeline.setBufferSize(4);
+		pipeline.start();
+	}
+
+	@After
+	@Override
+	public void tearDown() throws Exception {
+		blockingTradesService.release();
+		pipeline.stop();
+
+		super.tearDown();
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.ingestion.TradeIngestionPipeline#submit(Trade)}, the
+	 * ring buffer wrapping around many times.
+	 */
+	@Test
+	public void testWraparound() {
+		blockingTradesService.release();
+
+		List<Future<Trade>> acknowledgements = new ArrayList<Future<Trade>>();
+		for (int i = 0; i < 1000; i++) {
+			acknowledgements.add(pipeline.submit(new Trade("TEA", TradeType.BUY, 1 + i % 5, 100.0, new Date())));
+		}
+
+		try {
+			for (int i = 0; i < acknowledgements.size(); i++) {
+				Assert.assertEquals(1 + i % 5, acknowledgements.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getQuantity());
+			}
+			Assert.assertEquals(1000, tradesService.listAllTrades().size());
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing wraparound failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing wraparound failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.ingestion.TradeIngestionPipeline#offer(Trade, com.acme.services.ingestion.TradeIngestionCallback)},
+	 * the buffer being full.
+	 */
+	@Test
+	public void testBackpressure() {
+		List<TradeAcknowledgement> acknowledgements = new ArrayList<TradeAcknowledgement>();
+		try {
+			// drained by the writer, which then blocks applying it
+			acknowledgements.add(offer(true));
+			blockingTradesService.awaitBlocked();
+
+			for (int i = 0; i < 4; i++) {
+				acknowledgements.add(offer(true));
+			}
+			offer(false);
+			Assert.assertFalse(acknowledgements.get(1).isDone());
+
+			blockingTradesService.release();
+			for (TradeAcknowledgement acknowledgement : acknowledgements) {
+				acknowledgement.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			}
+
+			// room again once drained
+			offer(true).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			Assert.assertEquals(6, tradesService.listAllTrades().size());
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing backpressure failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing backpressure failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.ingestion.TradeIngestionPipeline#stop()}, trades
+	 * being pending and a producer waiting for room.
+	 */
+	@Test
+	public void testStopWithPendingTrades() {
+		final List<Future<Trade>> acknowledgements = new ArrayList<Future<Trade>>();
+		final AtomicReference<RuntimeException> producerFailure = new AtomicReference<RuntimeException>();
+		try {
+			acknowledgements.add(pipeline.submit(new Trade("TEA", TradeType.BUY, 1, 100.0, new Date())));
+			blockingTradesService.awaitBlocked();
+			for (int i = 0; i < 4; i++) {
+				acknowledgements.add(pipeline.submit(new Trade("TEA", TradeType.BUY, 1, 100.0, new Date())));
+			}
+
+			// spins on the full buffer until the pipeline stops
+			Thread producer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						pipeline.submit(new Trade("TEA", TradeType.BUY, 1, 100.0, new Date()));
+					} catch (RuntimeException e) {
+						producerFailure.set(e);
+					}
+				}
+			});
+			producer.start();
+
+			Thread stopper = new Thread(new Runnable() {
+				public void run() {
+					pipeline.stop();
+				}
+			});
+			stopper.start();
+
+			producer.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+			Assert.assertTrue(producerFailure.get() instanceof IllegalStateException);
+
+			blockingTradesService.release();
+			stopper.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+			Assert.assertFalse(stopper.isAlive());
+
+			// the trades published before the shutdown are all acknowledged
+			for (Future<Trade> acknowledgement : acknowledgements) {
+				Assert.assertTrue(acknowledgement.isDone());
+				acknowledgement.get();
+			}
+			Assert.assertEquals(5, tradesService.listAllTrades().size());
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing stop failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing stop failed due to: " + e.getMessage());
+		}
+
+		try {
+			pipeline.submit(new Trade("TEA", TradeType.BUY, 1, 100.0, new Date()));
+			fail("Expected failure: Trades cannot be submitted once the pipeline is stopped.");
+		} catch (IllegalStateException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.ingestion.TradeIngestionPipeline#stop()}, producers
+	 * submitting trades while the pipeline stops: every submitted trade is either applied or
+	 * rejected once the shutdown returns.
+	 */
+	@Test
+	public void testStopWhileSubmitting() {
+		blockingTradesService.release();
+
+		int acceptedCount = 0;
+		try {
+			for (int round = 0; round < 20; round++) {
+				final TradeIngestionPipeline roundPipeline = new TradeIngestionPipeline();
+				roundPipeline.setTradesService(tradesService);
+				roundPipeline.setPartitionsCount(2);
+				roundPipeline.setBufferSize(16);
+				roundPipeline.start();
+
+				final List<List<Future<Trade>>> acknowledgements = new ArrayList<List<Future<Trade>>>();
+				final CountDownLatch startLatch = new CountDownLatch(1);
+
+				Thread[] producers = new Thread[4];
+				for (int i = 0; i < producers.length; i++) {
+					final List<Future<Trade>> producerAcknowledgements = new ArrayList<Future<Trade>>();
+					acknowledgements.add(producerAcknowledgements);
+
+					producers[i] = new Thread(new Runnable() {
+						public void run() {
+							try {
+								startLatch.await();
+								for (int j = 0; j < 2000; j++) {
+									TradeType type = j % 2 == 0 ? TradeType.BUY : TradeType.SELL;
+									producerAcknowledgements.add(roundPipeline.submit(new Trade("TEA", type, 1, 100.0, new Date())));
+								}
+							} catch (IllegalStateException e) {
+								// the pipeline stopped
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					});
+					producers[i].start();
+				}
+
+				startLatch.countDown();
+				Thread.sleep(round % 5);
+				roundPipeline.stop();
+
+				for (Thread producer : producers) {
+					producer.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+					Assert.assertFalse(producer.isAlive());
+				}
+
+				for (List<Future<Trade>> producerAcknowledgements : acknowledgements) {
+					for (Future<Trade> acknowledgement : producerAcknowledgements) {
+						Assert.assertTrue(acknowledgement.isDone());
+						try {
+							acknowledgement.get();
+							acceptedCount++;
+						} catch (ExecutionException e) {
+							// rejected by the shutdown
+						}
+					}
+				}
+			}
+
+			Assert.assertEquals(acceptedCount, tradesService.listAllTrades().size());
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing concurrent stop failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing concurrent stop failed due to: " + e.getMessage());
+		}
+	}
+
+	private TradeAcknowledgement offer(boolean expectedOffered) {
+		TradeAcknowledgement acknowledgement = new TradeAcknowledgement();
+		Assert.assertEquals(expectedOffered, pipeline.offer(new Trade("TEA", TradeType.BUY, 1, 100.0, new Date()), acknowledgement));
+		return acknowledgement;
+	}
+
+	/**
+	 * Trades service blocking the writer applying the first batch until released.
+	 */
+	private static class BlockingTradesService implements TradesService {
+		private final TradesService delegate;
+
+		private final CountDownLatch blocked = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private BlockingTradesService(TradesService delegate) {
+			this.delegate = delegate;
+		}
+
+		public void createTrade(Trade trade) throws BusinesslogicException {
+			delegate.createTrade(trade);
+		}
+
+		public TradeStatus submitTrade(Trade trade) throws BusinesslogicException {
+			return delegate.submitTrade(trade);
+		}
+
+		public List<TradeResult> createTrades(Collection<Trade> trades) throws BusinesslogicException {
+			blocked.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return delegate.createTrades(trades);
+		}
+
+		public Collection<Trade> listAllTrades() throws BusinesslogicException {
+			return delegate.listAllTrades();
+		}
+
+		private void awaitBlocked() throws InterruptedException, TimeoutException {
+			if (!blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				throw new TimeoutException("Writer has not applied any trade in time.");
+			}
+		}
+
+		private void release() {
+			released.countDown();
+		}
+	}
+}
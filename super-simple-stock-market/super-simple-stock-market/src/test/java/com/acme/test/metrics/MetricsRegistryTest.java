@@ -0,0 +1,145 @@
+package com.acme.test.metrics;
+
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.metrics.Gauge;
+import com.acme.metrics.HistogramSnapshot;
+import com.acme.metrics.LatencyHistogram;
+import com.acme.metrics.MetricsRegistry;
+import com.acme.metrics.MetricsSnapshot;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.metrics.InstrumentedTradesDatastore;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class MetricsRegistryTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(MetricsRegistryTest.class);
+
+	private MetricsRegistry metricsRegistry;
+
+	@Override
+	protected void initTest() {
+		metricsRegistry = getBean("metricsRegistry");
+	}
+
+	/**
+	 * Test method for {@link com.acme.metrics.LatencyHistogram#record(long)}.
+	 */
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = metricsRegistry.latencyHistogram("test.latency");
+		for (long nanos = 1; nanos <= 100000; nanos++) {
+			histogram.record(nanos);
+		}
+
+		HistogramSnapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(100000, snapshot.getCount());
+		Assert.assertEquals(50000.5d, snapshot.getMean(), 0.001d);
+		assertWithinPrecision(100000, snapshot.getMax());
+		assertWithinPrecision(50000, snapshot.getValueAtPercentile(50.0d));
+		assertWithinPrecision(99000, snapshot.getValueAtPercentile(99.0d));
+		assertWithinPrecision(99900, snapshot.getValueAtPercentile(99.9d));
+		Assert.assertEquals(1, snapshot.getValueAtPercentile(0.0d));
+
+		histogram.record(-1);
+		histogram.record(Long.MAX_VALUE);
+		Assert.assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMaxNanos());
+
+		LatencyHistogram.DISABLED.record(1000);
+		Assert.assertEquals(0, LatencyHistogram.DISABLED.getCount());
+	}
+
+	/**
+	 * Test method for {@link com.acme.metrics.MetricsRegistry#snapshot()}.
+	 */
+	@Test
+	public void testSnapshot() {
+		metricsRegistry.counter("test.counter").add(3);
+		metricsRegistry.counter("test.counter").increment();
+		metricsRegistry.gauge("test.gauge", new Gauge() {
+			public long getValue() {
+				return 42;
+			}
+		});
+		metricsRegistry.latencyHistogram("test.latency").record(1000);
+
+		MetricsSnapshot snapshot = metricsRegistry.snapshot();
+		Assert.assertEquals(Long.valueOf(4), snapshot.getCounters().get("test.counter"));
+		Assert.assertEquals(Long.valueOf(42), snapshot.getGauges().get("test.gauge"));
+		Assert.assertEquals(1, snapshot.getHistograms().get("test.latency").getCount());
+	}
+
+	/**
+	 * Test method for the JMX export of the {@link com.acme.metrics.MetricsRegistry} metrics.
+	 */
+	@Test
+	public void testJmxExport() {
+		metricsRegistry.counter("test.counter").increment();
+		metricsRegistry.latencyHistogram("test.latency").record(100);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName counterName = new ObjectName("com.acme.stockmarket.test:type=Counter,name=\"test.counter\"");
+			ObjectName histogramName = new ObjectName("com.acme.stockmarket.test:type=LatencyHistogram,name=\"test.latency\"");
+
+			Assert.assertEquals(Long.valueOf(1), server.getAttribute(counterName, "Count"));
+			Assert.assertEquals(Long.valueOf(1), server.getAttribute(histogramName, "Count"));
+			Assert.assertEquals(Long.valueOf(100), server.getAttribute(histogramName, "50thPercentileNanos"));
+
+			metricsRegistry.close();
+
+			Assert.assertFalse(server.isRegistered(counterName));
+			Assert.assertFalse(server.isRegistered(histogramName));
+		} catch (JMException e) {
+			logger.error("Error occurred while reading the metrics through JMX", e);
+			fail("Error occurred while reading the metrics through JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.metrics.InstrumentedTradesDatastore}.
+	 */
+	@Test
+	public void testInstrumentedDatastore() {
+		InstrumentedTradesDatastore tradesDatastore = getBean("instrumentedTradesDatastore");
+
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, new Date()));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 50, 101.0, new Date()));
+			Assert.assertEquals(2, tradesDatastore.count());
+		} catch (DatastoreException e) {
+			logger.error("Error occurred while storing trades", e);
+			fail("Error occurred while storing trades: " + e.getMessage());
+		}
+
+		MetricsSnapshot snapshot = metricsRegistry.snapshot();
+		Assert.assertEquals(2, snapshot.getHistograms().get("datastore.trades.store").getCount());
+		Assert.assertEquals(1, snapshot.getHistograms().get("datastore.trades.count").getCount());
+		Assert.assertEquals(0, snapshot.getHistograms().get("datastore.trades.compact").getCount());
+	}
+
+	/**
+	 * Asserts a value reported by a histogram is not below the recorded one, nor above it by more
+	 * than the histogram precision.
+	 */
+	private static void assertWithinPrecision(long expected, long actual) {
+		Assert.assertTrue("Expected ~" + expected + " but was " + actual, actual >= expected && actual <= expected + expected / 64);
+	}
+}
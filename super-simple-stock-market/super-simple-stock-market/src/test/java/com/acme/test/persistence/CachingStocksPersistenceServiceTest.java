@@ -0,0 +1,149 @@
+package com.acme.test.persistence;
+
+import static org.junit.Assert.fail;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.SymbolRegistry;
+import com.acme.services.persistence.CachingStocksPersistenceService;
+import com.acme.services.persistence.PersistenceException;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class CachingStocksPersistenceServiceTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(CachingStocksPersistenceServiceTest.class);
+
+	private CachingStocksPersistenceService stocksPersistenceService;
+
+	@Override
+	protected void initTest() {
+		stocksPersistenceService = getBean("cachingStocksPersistenceService");
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.persistence.CachingStocksPersistenceService#read(java.lang.String)}.
+	 */
+	@Test
+	public void testReadThrough() {
+		try {
+			stocksPersistenceService.save(new Stock("TEA", StockType.COMMON, 100, 100, 20, 0));
+
+			Stock stock = stocksPersistenceService.read("TEA");
+			Assert.assertTrue(stock != null && stock.getLastDividend() == 20);
+			Assert.assertEquals(20, stocksPersistenceService.read("TEA").getLastDividend(), 0);
+			Assert.assertEquals(20, stocksPersistenceService.readAll(new int[] { SymbolRegistry.idOf("TEA") })[0].getLastDividend(), 0);
+
+			Assert.assertNull(stocksPersistenceService.read("ALE"));
+			Assert.assertNull(stocksPersistenceService.read("ALE"));
+
+			Assert.assertEquals(2, stocksPersistenceService.getHitCount());
+			Assert.assertEquals(3, stocksPersistenceService.getMissCount());
+			Assert.assertEquals(1, stocksPersistenceService.getSize());
+		} catch (PersistenceException e) {
+			logger.info("Unexpected failure: Testing read operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing read operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.persistence.CachingStocksPersistenceService#update(com.acme.domain.Stock)}
+	 * and {@link com.acme.services.persistence.CachingStocksPersistenceService#adjustSharesCount(int, int)}.
+	 */
+	@Test
+	public void testInvalidation() {
+		try {
+			stocksPersistenceService.save(new Stock("TEA", StockType.COMMON, 100, 100, 20, 0));
+
+			Stock stock = stocksPersistenceService.read("TEA");
+
+			Assert.assertEquals(150, stocksPersistenceService.adjustSharesCount(SymbolRegistry.idOf("TEA"), 50));
+			Assert.assertEquals(150, stocksPersistenceService.read("TEA").getSharesCount());
+			Assert.assertEquals(100, stock.getSharesCount());
+			// the adjusted stock is still cached
+			Assert.assertEquals(1, stocksPersistenceService.getMissCount());
+
+			stocksPersistenceService.update(new Stock("TEA", StockType.COMMON, 150, 100, 25, 0));
+
+			Stock updatedStock = stocksPersistenceService.read("TEA");
+			Assert.assertNotSame(stock, updatedStock);
+			Assert.assertTrue(updatedStock.getLastDividend() == 25);
+		} catch (PersistenceException e) {
+			logger.info("Unexpected failure: Testing update operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing update operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.persistence.CachingStocksPersistenceService#read(java.lang.String)},
+	 * the readers sharing read-only snapshots of the cached stocks.
+	 */
+	@Test
+	public void testReadOnlySnapshots() {
+		try {
+			stocksPersistenceService.save(new Stock("TEA", StockType.COMMON, 100, 100, 20, 0));
+
+			Stock stock = stocksPersistenceService.read("TEA");
+			Assert.assertTrue(stock.isReadOnly());
+			Assert.assertSame(stock, stocksPersistenceService.read("TEA"));
+			Assert.assertSame(stock, stocksPersistenceService.readAll(new String[] { "TEA" })[0]);
+
+			try {
+				stock.setSharesCount(5);
+				fail("Expected failure: Stock is read-only.");
+			} catch (UnsupportedOperationException e) {
+				logger.info("Expected failure: " + e.getMessage());
+			}
+
+			// a copy can be modified without affecting the cache
+			Stock copy = new Stock(stock);
+			copy.setLastDividend(0);
+			Assert.assertFalse(copy.isReadOnly());
+			Assert.assertEquals(20, stocksPersistenceService.read("TEA").getLastDividend(), 0);
+
+			// the snapshot read before an adjustment keeps its shares count
+			Assert.assertEquals(90, stocksPersistenceService.adjustSharesCount("TEA", -10));
+			Stock adjustedStock = stocksPersistenceService.read("TEA");
+			Assert.assertEquals(90, adjustedStock.getSharesCount());
+			Assert.assertEquals(20, adjustedStock.getLastDividend(), 0);
+			Assert.assertEquals(100, stock.getSharesCount());
+			Assert.assertSame(adjustedStock, stocksPersistenceService.read("TEA"));
+			Assert.assertEquals(1, stocksPersistenceService.getMissCount());
+		} catch (PersistenceException e) {
+			logger.info("Unexpected failure: Testing read operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing read operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.persistence.CachingStocksPersistenceService#read(java.lang.String)},
+	 * the cache being bounded.
+	 */
+	@Test
+	public void testBoundedSize() {
+		try {
+			String[] symbols = { "TEA", "POP", "ALE", "GIN", "JOE" };
+			for (String symbol : symbols) {
+				stocksPersistenceService.save(new Stock(symbol, StockType.COMMON, 100, 100, 20, 0));
+			}
+
+			Stock[] stocks = stocksPersistenceService.readAll(symbols);
+			for (int i = 0; i < symbols.length; i++) {
+				Assert.assertEquals(symbols[i], stocks[i].getSymbol());
+			}
+
+			Assert.assertEquals(2, stocksPersistenceService.getSize());
+			Assert.assertEquals(3, stocksPersistenceService.getEvictionCount());
+		} catch (PersistenceException e) {
+			logger.info("Unexpected failure: Testing read operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing read operation failed due to: " + e.getMessage());
+		}
+	}
+}
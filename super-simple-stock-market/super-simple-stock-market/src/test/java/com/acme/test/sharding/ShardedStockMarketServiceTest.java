@@ -0,0 +1,185 @@
+package com.acme.test.sharding;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketService;
+import com.acme.services.businesslogic.StocksService;
+import com.acme.services.businesslogic.TradeResult;
+import com.acme.services.businesslogic.TradesService;
+import com.acme.services.sharding.TradingShards;
+import com.acme.test.AbstractTest;
+
+/**
+ * Checks the sharded services against the non sharded ones, fed with the same stocks and trades.
+ * 
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ShardedStockMarketServiceTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(ShardedStockMarketServiceTest.class);
+
+	private static final String[] SYMBOLS = { "TEA", "POP", "ALE", "GIN", "JOE", "BEER", "RUM", "WINE", "MEAD", "CIDER", "NONE", null };
+
+	private StocksService stocksService;
+	private TradesService tradesService;
+	private StockMarketService stockMarketService;
+
+	private StocksService shardedStocksService;
+	private TradesService shardedTradesService;
+	private StockMarketService shardedStockMarketService;
+
+	@Override
+	protected void initTest() {
+		stocksService = getBean("stocksService");
+		tradesService = getBean("tradesService");
+		stockMarketService = getBean("stockMarketService");
+
+		shardedStocksService = getBean("shardedStocksService");
+		shardedTradesService = getBean("shardedTradesService");
+		shardedStockMarketService = getBean("shardedStockMarketService");
+
+		try {
+			for (int i = 0; i < SYMBOLS.length - 2; i++) {
+				StockType type = i % 3 == 0 ? StockType.PREFERRED : StockType.COMMON;
+				stocksService.createStock(new Stock(SYMBOLS[i], type, 1000, 100, 5 + i, 0.02));
+				shardedStocksService.createStock(new Stock(SYMBOLS[i], type, 1000, 100, 5 + i, 0.02));
+			}
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating stocks failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating stocks failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.services.sharding.ShardedTradesService#createTrades(java.util.Collection)}.
+	 */
+	@Test
+	public void testCreateTrades() {
+		try {
+			List<TradeResult> results = tradesService.createTrades(newTrades());
+			List<TradeResult> shardedResults = shardedTradesService.createTrades(newTrades());
+
+			Assert.assertEquals(results.size(), shardedResults.size());
+			for (int i = 0; i < results.size(); i++) {
+				Assert.assertEquals(results.get(i).getStatus(), shardedResults.get(i).getStatus());
+			}
+
+			Assert.assertEquals(tradesService.listAllTrades().size(), shardedTradesService.listAllTrades().size());
+			Assert.assertEquals(stocksService.listAllStocks().size(), shardedStocksService.listAllStocks().size());
+			for (int i = 0; i < SYMBOLS.length - 2; i++) {
+				Assert.assertEquals(stocksService.getStock(SYMBOLS[i]).getSharesCount(), shardedStocksService.getStock(SYMBOLS[i]).getSharesCount());
+			}
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Creating trades failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Creating trades failed due to: " + e.getMessage());
+		}
+
+		try {
+			shardedTradesService.createTrade(new Trade("NONE", TradeType.BUY, 10, 10.0, null));
+			fail("Expected failure: Stock symbol [NONE] does not reffer to an existing stock.");
+		} catch (BusinesslogicException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for the calculations of {@link com.acme.services.sharding.ShardedStockMarketService},
+	 * routed to a shard or scattered across all shards.
+	 */
+	@Test
+	public void testCalculations() {
+		try {
+			Assert.assertTrue(Double.isNaN(shardedStockMarketService.tryCalculateGBCEAllShareIndex()));
+
+			tradesService.createTrades(newTrades());
+			shardedTradesService.createTrades(newTrades());
+
+			double[] prices = new double[SYMBOLS.length];
+			for (int i = 0; i < prices.length; i++) {
+				prices[i] = 10.0 * i;
+			}
+
+			assertEquals(stockMarketService.calculateDividentYields(SYMBOLS, prices), shardedStockMarketService.calculateDividentYields(SYMBOLS, prices));
+			assertEquals(stockMarketService.calculatePERatios(SYMBOLS, prices), shardedStockMarketService.calculatePERatios(SYMBOLS, prices));
+			assertEquals(stockMarketService.calculateVolumeWeightedStockPrices(SYMBOLS, 15),
+					shardedStockMarketService.calculateVolumeWeightedStockPrices(SYMBOLS, 15));
+
+			Assert.assertEquals(stockMarketService.calculateVolumeWeightedStockPrice("GIN", 15), shardedStockMarketService.calculateVolumeWeightedStockPrice("GIN", 15), 1e-9);
+			Assert.assertEquals(stockMarketService.calculateGBCEAllShareIndex(), shardedStockMarketService.calculateGBCEAllShareIndex(), 1e-9);
+			Assert.assertEquals(stockMarketService.calculateGBCEAllShareIndexOfLatestPrices(), shardedStockMarketService.calculateGBCEAllShareIndexOfLatestPrices(), 1e-9);
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Calculations failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Calculations failed due to: " + e.getMessage());
+		}
+
+		try {
+			shardedStockMarketService.calculateDividentYields(SYMBOLS, new double[1]);
+			fail("Expected failure: Stock symbols and prices must be given in pairs.");
+		} catch (BusinesslogicException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.services.sharding.TradingShards#start()}, profiles replacing
+	 * the datastores being active.
+	 */
+	@Test
+	public void testUnsupportedProfiles() {
+		for (String profile : new String[] { "durable", "offheap", "archive", "replication-leader", "replica", "event-sourced" }) {
+			TradingShards tradingShards = new TradingShards();
+			tradingShards.setShardsCount(1);
+			tradingShards.setActiveProfiles(new String[] { "sharded", "retention", profile });
+			try {
+				tradingShards.start();
+				fail("Expected failure: Profile [" + profile + "] is not supported by the trading shards.");
+			} catch (IllegalStateException e) {
+				logger.info("Expected failure: " + e.getMessage());
+			}
+		}
+
+		TradingShards tradingShards = new TradingShards();
+		tradingShards.setShardsCount(1);
+		tradingShards.setActiveProfiles(new String[] { "sharded", "retention", "coarse-clock" });
+		tradingShards.start();
+		Assert.assertEquals(1, tradingShards.size());
+		tradingShards.stop();
+	}
+
+	/**
+	 * @return trades on all stocks, with the same timestamps on each call, some of them rejected
+	 */
+	private static List<Trade> newTrades() {
+		long now = System.currentTimeMillis();
+
+		List<Trade> trades = new ArrayList<Trade>();
+		for (int i = 0; i < 200; i++) {
+			String stockSymbol = SYMBOLS[i % SYMBOLS.length];
+			TradeType type = i % 4 == 0 ? TradeType.SELL : TradeType.BUY;
+			trades.add(new Trade(stockSymbol, type, 10 + i, 50.0 + i % 17, new Date(now - (200 - i) * 1000L)));
+		}
+		return trades;
+	}
+
+	private static void assertEquals(double[] expected, double[] actual) {
+		Assert.assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals(expected[i], actual[i], 1e-9);
+		}
+	}
+}
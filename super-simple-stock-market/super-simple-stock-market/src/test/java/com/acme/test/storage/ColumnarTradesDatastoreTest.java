@@ -0,0 +1,247 @@
+package com.acme.test.storage;
+
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.filter.TradeFilter;
+import com.acme.test.AbstractTest;
+import com.acme.util.DateUtils;
+import com.acme.util.ManualClock;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ColumnarTradesDatastoreTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(ColumnarTradesDatastoreTest.class);
+
+	private ColumnarTradesDatastore tradesDatastore;
+
+	@Override
+	protected void initTest() {
+		tradesDatastore = getBean("columnarTradesDatastore");
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ColumnarTradesDatastore#store(com.acme.domain.Trade)}.
+	 */
+	@Test
+	public void testFailedStore() {
+		Trade trade = new Trade(null, TradeType.BUY, 100, 100.0, new Date());
+
+		try {
+			tradesDatastore.store(trade);
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: Testing store operation failed due to: " + e.getMessage(), e);
+		}
+
+		int tradesCount = -1;
+		try {
+			tradesCount = tradesDatastore.count();
+		} catch (DatastoreException e) {
+			logger.error("Error occurred while counting stored objects", e);
+			fail("Error occurred while counting stored objects: " + e.getMessage());
+		}
+
+		Assert.assertTrue(tradesCount == 0);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ColumnarTradesDatastore#count()}.
+	 */
+	@Test
+	public void testCount() {
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, new Date()));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, new Date()));
+			tradesDatastore.store(new Trade("POP", TradeType.BUY, 100, 100.0, new Date()));
+			tradesDatastore.store(new Trade("ALE", TradeType.BUY, 100, 100.0, new Date()));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing store operation failed due to: " + e.getMessage());
+		}
+
+		int tradesCount = -1;
+		try {
+			tradesCount = tradesDatastore.count();
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing count operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing count operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(tradesCount == 4);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ColumnarTradesDatastore#count(com.acme.storage.DatastoreFilter)}.
+	 */
+	@Test
+	public void testFilteredCount() {
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, DateUtils.parseDate("20150922", "yyyyMMdd")));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 50, 110.0, new Date()));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 120.0, new Date()));
+			tradesDatastore.store(new Trade("POP", TradeType.BUY, 100, 100.0, new Date()));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing store operation failed due to: " + e.getMessage());
+		}
+
+		try {
+			Assert.assertTrue(tradesDatastore.count(new StockFilter("TEA")) == 3);
+			Assert.assertTrue(tradesDatastore.count(new TradeFilter("TEA", 15)) == 2);
+			Assert.assertTrue(tradesDatastore.count(new TradeFilter("POP", 15)) == 1);
+			Assert.assertTrue(tradesDatastore.count(new StockFilter("ALE")) == 0);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing count operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing count operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ColumnarTradesDatastore#count(com.acme.storage.DatastoreFilter)},
+	 * the trades ages being evaluated against an injected clock.
+	 */
+	@Test
+	public void testFilteredCountWithClock() {
+		long minute = 60L * 1000L;
+		ManualClock clock = new ManualClock(DateUtils.parseDate("20150924", "yyyyMMdd").getTime());
+		tradesDatastore.setClock(clock);
+
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, clock.currentTimeMillis() - 20 * minute));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, clock.currentTimeMillis() - 10 * minute));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, clock.currentTimeMillis()));
+
+			Assert.assertEquals(2, tradesDatastore.count(new TradeFilter("TEA", 15)));
+
+			clock.advance(6 * minute);
+			Assert.assertEquals(1, tradesDatastore.count(new TradeFilter("TEA", 15)));
+
+			clock.advance(15 * minute);
+			Assert.assertEquals(0, tradesDatastore.count(new TradeFilter("TEA", 15)));
+			Assert.assertEquals(3, tradesDatastore.count());
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing filtered count operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing filtered count operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ColumnarTradesDatastore#filter(com.acme.storage.DatastoreFilter)}.
+	 */
+	@Test
+	public void testFilter() {
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, DateUtils.parseDate("20150922", "yyyyMMdd")));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 50, 110.0, new Date()));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, DateUtils.parseDate("20150923", "yyyyMMdd")));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 120.0, new Date()));
+			tradesDatastore.store(new Trade("POP", TradeType.BUY, 100, 100.0, new Date()));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing store operation failed due to: " + e.getMessage());
+		}
+
+		Collection<Trade> matches = new LinkedList<Trade>();
+		try {
+			matches = tradesDatastore.filter(new TradeFilter("TEA", 15));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing filter operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing filter operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(matches != null && matches.size() == 2);
+
+		Trade[] trades = matches.toArray(new Trade[2]);
+
+		Assert.assertTrue(trades[0].getType() == TradeType.SELL && trades[0].getQuantity() == 50 && trades[0].getPrice() == 110.0);
+		Assert.assertTrue(trades[1].getType() == TradeType.BUY && trades[1].getQuantity() == 100 && trades[1].getPrice() == 120.0);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ColumnarTradesDatastore#list()}.
+	 */
+	@Test
+	public void testList() {
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, new Date()));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, DateUtils.parseDate("20150923", "yyyyMMdd")));
+			tradesDatastore.store(new Trade("POP", TradeType.BUY, 100, 100.0, new Date()));
+			tradesDatastore.store(new Trade("ALE", TradeType.BUY, 100, 100.0, new Date()));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing store operation failed due to: " + e.getMessage());
+		}
+
+		Collection<Trade> trades = new LinkedList<Trade>();
+		try {
+			trades = tradesDatastore.list();
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing list operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing list operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(trades != null && trades.size() == 4);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.storage.ColumnarTradesDatastore#forEach(com.acme.storage.DatastoreFilter, com.acme.storage.DatastoreVisitor)}.
+	 */
+	@Test
+	public void testForEach() {
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, DateUtils.parseDate("20150922", "yyyyMMdd")));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 50, 110.0, new Date()));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 120.0, new Date()));
+			tradesDatastore.store(new Trade("POP", TradeType.BUY, 100, 100.0, new Date()));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing store operation failed due to: " + e.getMessage());
+		}
+
+		final List<Trade> visited = new LinkedList<Trade>();
+		DatastoreVisitor<Trade> visitor = new DatastoreVisitor<Trade>() {
+			public void visit(Trade trade) {
+				visited.add(new Trade(trade));
+			}
+		};
+
+		try {
+			tradesDatastore.forEach(new TradeFilter("TEA", 15), visitor);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing forEach operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing forEach operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(visited.size() == 2);
+		Assert.assertTrue(visited.get(0).getType() == TradeType.SELL && visited.get(0).getQuantity() == 50 && visited.get(0).getPrice() == 110.0);
+		Assert.assertTrue(visited.get(1).getType() == TradeType.BUY && visited.get(1).getQuantity() == 100 && visited.get(1).getPrice() == 120.0);
+
+		visited.clear();
+		try {
+			tradesDatastore.forEach(visitor);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing forEach operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing forEach operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(visited.size() == 4);
+	}
+}
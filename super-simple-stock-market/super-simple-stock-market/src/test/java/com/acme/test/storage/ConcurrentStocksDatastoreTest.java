@@ -0,0 +1,176 @@
+package com.acme.test.storage;
+
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.storage.ConcurrentStocksDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.storage.filter.StockFilter;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ConcurrentStocksDatastoreTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(ConcurrentStocksDatastoreTest.class);
+
+	private ConcurrentStocksDatastore stocksDatastore;
+
+	@Override
+	protected void initTest() {
+		stocksDatastore = getBean("concurrentStocksDatastore");
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ConcurrentStocksDatastore#store(com.acme.domain.Stock)}.
+	 */
+	@Test
+	public void testFailedStore() {
+		try {
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 100, 100, 20, 0));
+		} catch (DatastoreException e) {
+			logger.error("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing store operation failed due to: " + e.getMessage());
+		}
+
+		try {
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 100, 100, 20, 0));
+			fail("Expected failure: Stock already defined in datastore.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: Testing store operation failed due to: " + e.getMessage(), e);
+		}
+
+		int stocksCount = -1;
+		try {
+			stocksCount = stocksDatastore.count();
+		} catch (DatastoreException e) {
+			logger.error("Error occurred while counting stocks", e);
+		}
+
+		Assert.assertTrue(stocksCount == 1);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ConcurrentStocksDatastore#update(com.acme.domain.Stock)}.
+	 */
+	@Test
+	public void testUpdate() {
+		Stock stock = new Stock("TEA", StockType.COMMON, 100, 100, 20, 0);
+
+		try {
+			stocksDatastore.store(stock);
+		} catch (DatastoreException e) {
+			logger.error("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Store operation failed due to: " + e.getMessage());
+		}
+
+		Stock updatedStock = new Stock(stock);
+		updatedStock.setSharesCount(1000);
+
+		try {
+			Assert.assertTrue(stocksDatastore.update(updatedStock));
+		} catch (DatastoreException e) {
+			logger.error("Unexpected failure: Testing update operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing update operation failed due to: " + e.getMessage());
+		}
+
+		Collection<Stock> matches = new LinkedList<Stock>();
+		try {
+			matches = stocksDatastore.filter(new StockFilter("TEA"));
+		} catch (DatastoreException e) {
+			logger.error("Unexpected failure: filter operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: filter operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(matches != null && matches.size() == 1);
+
+		Stock persistentStock = matches.toArray(new Stock[1])[0];
+
+		Assert.assertTrue(persistentStock.getSharesCount() == 1000 && stock.getSharesCount() == 100);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ConcurrentStocksDatastore#adjustSharesCount(java.lang.String, int)}.
+	 */
+	@Test
+	public void testAdjustSharesCount() {
+		try {
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 100, 100, 20, 0));
+
+			Assert.assertTrue(stocksDatastore.adjustSharesCount("TEA", 50) == 150);
+			Assert.assertTrue(stocksDatastore.adjustSharesCount("TEA", -150) == 0);
+			Assert.assertTrue(stocksDatastore.adjustSharesCount("TEA", -1) == SharesCountDatastore.SHARES_COUNT_OUT_OF_RANGE);
+			Assert.assertTrue(stocksDatastore.adjustSharesCount("POP", 1) == SharesCountDatastore.UNKNOWN_STOCK);
+		} catch (DatastoreException e) {
+			logger.error("Unexpected failure: Testing adjust operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing adjust operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.ConcurrentStocksDatastore#adjustSharesCount(java.lang.String, int)}
+	 * with concurrent buyers and sellers on the same stock.
+	 */
+	@Test
+	public void testConcurrentAdjustSharesCount() {
+		final int threadsCount = 8;
+		final int tradesPerThread = 10000;
+
+		try {
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, threadsCount * tradesPerThread, 100, 20, 0));
+		} catch (DatastoreException e) {
+			logger.error("Unexpected failure: Testing store operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Store operation failed due to: " + e.getMessage());
+		}
+
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(threadsCount);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		for (int i = 0; i < threadsCount; i++) {
+			final int delta = i % 2 == 0 ? 3 : -1;
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						startLatch.await();
+						for (int j = 0; j < tradesPerThread; j++) {
+							stocksDatastore.adjustSharesCount("TEA", delta);
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					} finally {
+						doneLatch.countDown();
+					}
+				}
+			}).start();
+		}
+
+		Collection<Stock> matches = new LinkedList<Stock>();
+		try {
+			startLatch.countDown();
+			doneLatch.await();
+
+			matches = stocksDatastore.filter(new StockFilter("TEA"));
+		} catch (Exception e) {
+			logger.error("Unexpected failure: Testing concurrent adjust operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing concurrent adjust operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(failure.get() == null);
+		Assert.assertTrue(matches.size() == 1);
+		Assert.assertTrue(matches.iterator().next().getSharesCount() == threadsCount * tradesPerThread + (threadsCount / 2) * tradesPerThread * 2);
+	}
+}
@@ -0,0 +1,501 @@
+package com.acme.test.storage;
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.ConcurrentStocksDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.filter.TradeFilter;
+import com.acme.storage.journal.FsyncPolicy;
+import com.acme.storage.journal.Journal;
+import com.acme.storage.journal.JournalRecovery;
+import com.acme.storage.journal.JournaledStocksDatastore;
+import com.acme.storage.journal.JournaledTradesDatastore;
+import com.acme.storage.journal.SnapshotManager;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class JournaledDatastoresTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(JournaledDatastoresTest.class);
+
+	private File journalDirectory;
+
+	private Journal journal;
+	private JournalRecovery journalRecovery;
+	private SnapshotManager snapshotManager;
+	private ConcurrentStocksDatastore stocksMemoryDatastore;
+	private ColumnarTradesDatastore tradesMemoryDatastore;
+	private JournaledStocksDatastore stocksDatastore;
+	private JournaledTradesDatastore tradesDatastore;
+
+	@Override
+	protected void initTest() {
+		try {
+			journalDirectory = File.createTempFile("journal", "");
+		} catch (IOException e) {
+			fail("Cannot create journal directory: " + e.getMessage());
+		}
+		journalDirectory.delete();
+		journalDirectory.mkdirs();
+	}
+
+	@After
+	@Override
+	public void tearDown() throws Exception {
+		if (snapshotManager != null) {
+			snapshotManager.stop();
+		}
+		if (journal != null) {
+			journal.close();
+		}
+
+		File[] files = journalDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		journalDirectory.delete();
+
+		super.tearDown();
+	}
+
+	/**
+	 * Wires the datastores the way the durable Spring profile does and recovers the journal.
+	 */
+	private void open(FsyncPolicy fsyncPolicy) throws DatastoreException {
+		open(fsyncPolicy, false);
+	}
+
+	private void open(FsyncPolicy fsyncPolicy, boolean snapshots) throws DatastoreException {
+		open(fsyncPolicy, snapshots, new Journal());
+	}
+
+	private void open(FsyncPolicy fsyncPolicy, boolean snapshots, Journal journal) throws DatastoreException {
+		this.journal = journal;
+		journal.setDirectory(journalDirectory);
+		journal.setFsyncPolicy(fsyncPolicy);
+
+		stocksMemoryDatastore = new ConcurrentStocksDatastore();
+		tradesMemoryDatastore = new ColumnarTradesDatastore();
+
+		journalRecovery = new JournalRecovery();
+		journalRecovery.setJournal(journal);
+		journalRecovery.setStocksDatastore(stocksMemoryDatastore);
+		journalRecovery.setTradesDatastore(tradesMemoryDatastore);
+
+		snapshotManager = null;
+		if (snapshots) {
+			snapshotManager = new SnapshotManager();
+			snapshotManager.setJournal(journal);
+			snapshotManager.setStocksDatastore(stocksMemoryDatastore);
+			snapshotManager.setTradesDatastore(tradesMemoryDatastore);
+			// snapshots are taken explicitly by the tests
+			snapshotManager.setIntervalMillis(Long.MAX_VALUE / 1000000L);
+			journalRecovery.setSnapshotManager(snapshotManager);
+		}
+
+		journalRecovery.recover();
+
+		stocksDatastore = new JournaledStocksDatastore();
+		stocksDatastore.setDelegate(stocksMemoryDatastore);
+		stocksDatastore.setJournal(journal);
+
+		tradesDatastore = new JournaledTradesDatastore();
+		tradesDatastore.setDelegate(tradesMemoryDatastore);
+		tradesDatastore.setJournal(journal);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.journal.JournalRecovery#recover()}.
+	 */
+	@Test
+	public void testRecovery() {
+		try {
+			open(FsyncPolicy.PER_WRITE);
+
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 1000, 100, 0, 0));
+			stocksDatastore.store(new Stock("GIN", StockType.PREFERRED, 1000, 100, 8, 0.02));
+			stocksDatastore.update(new Stock("TEA", StockType.COMMON, 1000, 120, 5, 0));
+			stocksDatastore.adjustSharesCount("TEA", -100);
+			stocksDatastore.adjustSharesCount("GIN", 50);
+			stocksDatastore.adjustSharesCount("GIN", -5000);
+
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 100, 110.0, new Date()));
+			tradesDatastore.store(new Trade("GIN", TradeType.BUY, 50, 90.0, new Date()));
+
+			journal.close();
+
+			open(FsyncPolicy.BATCHED);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing recovery failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing recovery failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(journalRecovery.getRecoveredRecordsCount() == 7);
+
+		try {
+			Stock tea = stocksDatastore.filter(new StockFilter("TEA")).iterator().next();
+			Stock gin = stocksDatastore.filter(new StockFilter("GIN")).iterator().next();
+
+			Assert.assertTrue(tea.getSharesCount() == 900 && tea.getParValue() == 120 && tea.getLastDividend() == 5);
+			Assert.assertTrue(gin.getSharesCount() == 1050 && gin.getType() == StockType.PREFERRED && gin.getFixedDividend() == 0.02);
+
+			Assert.assertTrue(tradesDatastore.count() == 2);
+			Assert.assertTrue(tradesDatastore.count(new StockFilter("TEA")) == 1);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing recovered datastores failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing recovered datastores failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.journal.JournaledStocksDatastore#adjustSharesCount(String, int)}.
+	 */
+	@Test
+	public void testConcurrentAdjustmentsRecovery() {
+		int sharesCount = 0;
+
+		try {
+			open(FsyncPolicy.BATCHED);
+
+			// few shares, so that many adjustments are rejected by the range check and the order they
+			// are replayed in matters
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 10, 100, 0, 0));
+
+			Thread[] threads = new Thread[8];
+			for (int i = 0; i < threads.length; i++) {
+				final int seed = i;
+				threads[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							for (int j = 0; j < 5000; j++) {
+								stocksDatastore.adjustSharesCount("TEA", (j + seed) % 2 == 0 ? -3 : 2);
+							}
+						} catch (DatastoreException e) {
+							logger.error("Adjusting shares count failed.", e);
+						}
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			sharesCount = stocksDatastore.filter(new StockFilter("TEA")).iterator().next().getSharesCount();
+
+			journal.close();
+
+			open(FsyncPolicy.BATCHED);
+
+			Assert.assertEquals(sharesCount, stocksDatastore.filter(new StockFilter("TEA")).iterator().next().getSharesCount());
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing concurrent adjustments recovery failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing concurrent adjustments recovery failed due to: " + e.getMessage());
+		} catch (InterruptedException e) {
+			fail("Interrupted while adjusting shares count.");
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.journal.JournaledStocksDatastore} and
+	 * {@link com.acme.storage.journal.JournaledTradesDatastore}, the journal failing: the mutations
+	 * it does not accept are not applied to the in-memory datastores either.
+	 */
+	@Test
+	public void testFailingJournal() {
+		FailingJournal failingJournal = new FailingJournal();
+		long now = System.currentTimeMillis();
+
+		try {
+			open(FsyncPolicy.PER_WRITE, false, failingJournal);
+
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 1000, 100, 0, 0));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 100.0, new Date(now)));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing failing journal failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing failing journal failed due to: " + e.getMessage());
+		}
+
+		failingJournal.failing = true;
+		try {
+			stocksDatastore.store(new Stock("GIN", StockType.PREFERRED, 1000, 100, 8, 0.02));
+			fail("Expected failure: Stock not journaled.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+		try {
+			stocksDatastore.update(new Stock("TEA", StockType.COMMON, 1000, 120, 5, 0));
+			fail("Expected failure: Stock update not journaled.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+		try {
+			stocksDatastore.adjustSharesCount("TEA", -100);
+			fail("Expected failure: Shares count adjustment not journaled.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 20, 110.0, new Date(now)));
+			fail("Expected failure: Trade not journaled.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+		try {
+			tradesDatastore.storeAll(Arrays.asList(new Trade("TEA", TradeType.SELL, 30, 110.0, new Date(now)), new Trade("TEA", TradeType.BUY, 40, 90.0, new Date(now))));
+			fail("Expected failure: Trades batch not journaled.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+		failingJournal.failing = false;
+
+		try {
+			assertFailingJournalState();
+
+			// journaled, then rejected by the in-memory datastore, and again at startup
+			try {
+				stocksDatastore.store(new Stock("TEA", StockType.COMMON, 5000, 200, 0, 0));
+				fail("Expected failure: Stock already defined.");
+			} catch (DatastoreException e) {
+				logger.info("Expected failure: " + e.getMessage());
+			}
+
+			journal.close();
+
+			open(FsyncPolicy.BATCHED);
+
+			Assert.assertTrue(journalRecovery.getRecoveredRecordsCount() == 3);
+			assertFailingJournalState();
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing failing journal recovery failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing failing journal recovery failed due to: " + e.getMessage());
+		}
+	}
+
+	private void assertFailingJournalState() throws DatastoreException {
+		Assert.assertTrue(stocksMemoryDatastore.count() == 1);
+		Stock tea = stocksMemoryDatastore.filter(new StockFilter("TEA")).iterator().next();
+		Assert.assertTrue(tea.getSharesCount() == 1000 && tea.getParValue() == 100 && tea.getLastDividend() == 0);
+
+		Assert.assertTrue(tradesMemoryDatastore.count() == 1);
+		Assert.assertTrue(tradesMemoryDatastore.list().iterator().next().getQuantity() == 10);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.journal.JournaledTradesDatastore#storeAll(java.util.Collection)}.
+	 */
+	@Test
+	public void testBatchRecovery() {
+		long now = System.currentTimeMillis();
+
+		try {
+			open(FsyncPolicy.BATCHED);
+
+			// large enough to be journaled through several batch buffers
+			List<Trade> trades = new ArrayList<Trade>();
+			for (int i = 0; i < 5000; i++) {
+				trades.add(new Trade(i % 3 == 0 ? "TEA" : "GIN", TradeType.BUY, 1 + i, 100.0, new Date(now - i)));
+			}
+			tradesDatastore.storeAll(trades);
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 10, 110.0, new Date(now)));
+
+			journal.close();
+
+			open(FsyncPolicy.BATCHED);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing batch recovery failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing batch recovery failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(journalRecovery.getRecoveredRecordsCount() == 5001);
+
+		try {
+			Assert.assertTrue(tradesDatastore.count() == 5001);
+			Assert.assertTrue(tradesDatastore.count(new StockFilter("TEA")) == 1668);
+			Assert.assertTrue(tradesDatastore.count(new TradeFilter("GIN", 60)) == 3333);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing recovered datastores failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing recovered datastores failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.journal.Journal#recover(com.acme.storage.journal.JournalReplayHandler)}.
+	 */
+	@Test
+	public void testTornRecordRecovery() {
+		try {
+			open(FsyncPolicy.PERIODIC);
+
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 1000, 100, 0, 0));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 100, 110.0, new Date()));
+
+			journal.close();
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing journal failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing journal failed due to: " + e.getMessage());
+		}
+
+		// simulate a crash in the middle of a record write
+		File[] segments = journalDirectory.listFiles();
+		Assert.assertTrue(segments != null && segments.length == 1);
+		try {
+			FileOutputStream output = new FileOutputStream(segments[0], true);
+			output.write(new byte[] { 0, 0, 0, 42, 1, 2, 3 });
+			output.close();
+		} catch (IOException e) {
+			fail("Cannot write journal segment: " + e.getMessage());
+		}
+
+		try {
+			open(FsyncPolicy.PER_WRITE);
+			Assert.assertTrue(journalRecovery.getRecoveredRecordsCount() == 2);
+
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 100.0, new Date()));
+			journal.close();
+
+			open(FsyncPolicy.PER_WRITE);
+			Assert.assertTrue(journalRecovery.getRecoveredRecordsCount() == 3);
+			Assert.assertTrue(tradesDatastore.count() == 2);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing torn record recovery failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing torn record recovery failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.journal.SnapshotManager#snapshot()}.
+	 */
+	@Test
+	public void testSnapshotRecovery() {
+		long now = System.currentTimeMillis();
+
+		try {
+			open(FsyncPolicy.BATCHED, true);
+
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 1000, 100, 0, 0));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 100, 110.0, new Date(now - 2000)));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 200, 111.0, new Date(now)));
+
+			snapshotManager.snapshot();
+
+			// an older trade is inserted within the snapshotted columns, which have to be copied first
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 300, 109.0, new Date(now - 1000)));
+			stocksDatastore.adjustSharesCount("TEA", -100);
+			stocksDatastore.store(new Stock("GIN", StockType.PREFERRED, 1000, 100, 8, 0.02));
+			tradesDatastore.store(new Trade("GIN", TradeType.BUY, 50, 90.0, new Date(now)));
+
+			snapshotManager.stop();
+			journal.close();
+
+			open(FsyncPolicy.BATCHED, true);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing snapshot recovery failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing snapshot recovery failed due to: " + e.getMessage());
+		}
+
+		// only the records journaled after the snapshot are replayed
+		Assert.assertTrue(journalRecovery.getRecoveredRecordsCount() == 4);
+		Assert.assertTrue(snapshotManager.getLastSnapshotEpoch() == 1);
+
+		File[] segments = journalDirectory.listFiles();
+		Assert.assertTrue(segments != null && segments.length == 2);
+
+		try {
+			Stock tea = stocksDatastore.filter(new StockFilter("TEA")).iterator().next();
+			Assert.assertTrue(tea.getSharesCount() == 900);
+			Assert.assertTrue(stocksDatastore.count() == 2);
+
+			Assert.assertTrue(tradesDatastore.count() == 4);
+			Assert.assertTrue(tradesDatastore.count(new StockFilter("TEA")) == 3);
+
+			int[] quantities = new int[3];
+			int i = 0;
+			for (Trade trade : tradesDatastore.filter(new TradeFilter("TEA", 5))) {
+				quantities[i++] = trade.getQuantity();
+			}
+			Assert.assertTrue(quantities[0] == 100 && quantities[1] == 300 && quantities[2] == 200);
+
+			// snapshot again after recovery, the journal segments covered by it are deleted
+			snapshotManager.snapshot();
+			tradesDatastore.store(new Trade("GIN", TradeType.SELL, 10, 91.0, new Date()));
+			snapshotManager.stop();
+			journal.close();
+
+			open(FsyncPolicy.BATCHED, true);
+			Assert.assertTrue(journalRecovery.getRecoveredRecordsCount() == 1);
+			Assert.assertTrue(tradesDatastore.count() == 5);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing recovered datastores failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing recovered datastores failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Journal rejecting the records appended while failing, as when its disk is full.
+	 */
+	private static class FailingJournal extends Journal {
+		private volatile boolean failing;
+
+		@Override
+		public void appendStockStored(Stock stock) throws DatastoreException {
+			checkFailing();
+			super.appendStockStored(stock);
+		}
+
+		@Override
+		public void appendStockUpdated(Stock stock) throws DatastoreException {
+			checkFailing();
+			super.appendStockUpdated(stock);
+		}
+
+		@Override
+		public void appendSharesCountAdjusted(String stockSymbol, int delta) throws DatastoreException {
+			checkFailing();
+			super.appendSharesCountAdjusted(stockSymbol, delta);
+		}
+
+		@Override
+		public void appendTradeStored(Trade trade) throws DatastoreException {
+			checkFailing();
+			super.appendTradeStored(trade);
+		}
+
+		@Override
+		public void appendTradesStored(Collection<Trade> trades) throws DatastoreException {
+			checkFailing();
+			super.appendTradesStored(trades);
+		}
+
+		private void checkFailing() throws DatastoreException {
+			if (failing) {
+				throw new DatastoreException("Journal cannot be written.");
+			}
+		}
+	}
+}
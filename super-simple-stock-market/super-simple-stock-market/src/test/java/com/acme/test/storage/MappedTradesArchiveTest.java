@@ -0,0 +1,351 @@
+package com.acme.test.storage;
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.persistence.PersistenceException;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.MappedTradesArchive;
+import com.acme.storage.TradeRecord;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.filter.TradeFilter;
+import com.acme.storage.filter.TradeRangeFilter;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.storage.retention.TradesCompactor;
+import com.acme.test.AbstractTest;
+import com.acme.util.ManualClock;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class MappedTradesArchiveTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(MappedTradesArchiveTest.class);
+
+	private static final long HOUR = 60L * 60L * 1000L;
+
+	/**
+	 * 2015-09-24T00:00:00Z
+	 */
+	private static final long DAY_START = 1443052800000L;
+
+	private File archiveDirectory;
+
+	private MappedTradesArchive archive;
+
+	@Override
+	protected void initTest() {
+		try {
+			archiveDirectory = File.createTempFile("archive", "");
+		} catch (IOException e) {
+			fail("Cannot create archive directory: " + e.getMessage());
+		}
+		archiveDirectory.delete();
+	}
+
+	@After
+	@Override
+	public void tearDown() throws Exception {
+		if (archive != null) {
+			archive.close();
+		}
+
+		delete(archiveDirectory);
+
+		super.tearDown();
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.storage.MappedTradesArchive#filter(com.acme.storage.DatastoreFilter)}, the
+	 * trades of a range spanning two days arriving out of order.
+	 */
+	@Test
+	public void testFilterRange() {
+		try {
+			archive = openArchive();
+
+			archive.storeAll(Arrays.asList(new Trade("TEA", TradeType.BUY, 1, 101.0, DAY_START - 2 * HOUR),
+					new Trade("TEA", TradeType.BUY, 2, 102.0, DAY_START + HOUR),
+					new Trade("POP", TradeType.SELL, 3, 10.0, DAY_START + HOUR),
+					new Trade("TEA", TradeType.SELL, 4, 104.0, DAY_START + 3 * HOUR)));
+			archive.store(new Trade("TEA", TradeType.BUY, 5, 100.0, DAY_START - 3 * HOUR));
+			archive.store(new Trade("TEA", TradeType.SELL, 6, 103.0, DAY_START + 2 * HOUR));
+
+			Assert.assertEquals(6, archive.count());
+			Assert.assertEquals(5, archive.count(new StockFilter("TEA")));
+			Assert.assertEquals(3, archive.count(new TradeRangeFilter("TEA", DAY_START - 2 * HOUR, DAY_START + 3 * HOUR)));
+			Assert.assertEquals(0, archive.count(new TradeRangeFilter("ALE", DAY_START - 2 * HOUR, DAY_START + 3 * HOUR)));
+
+			List<Trade> trades = new ArrayList<Trade>(archive.filter(new TradeRangeFilter("TEA", DAY_START - 2 * HOUR, DAY_START + 3 * HOUR)));
+
+			Assert.assertEquals(3, trades.size());
+			Assert.assertTrue(trades.get(0).getPrice() == 101.0 && trades.get(1).getPrice() == 102.0 && trades.get(2).getPrice() == 103.0);
+			Assert.assertTrue(trades.get(2).getType() == TradeType.SELL && trades.get(2).getQuantity() == 6);
+			Assert.assertEquals("TEA", trades.get(2).getStockSymbol());
+			Assert.assertEquals(DAY_START + 2 * HOUR, trades.get(2).getTimestampMillis());
+
+			ManualClock clock = new ManualClock(DAY_START + 4 * HOUR);
+			archive.setClock(clock);
+			Assert.assertEquals(2, archive.count(new TradeFilter("TEA", 150)));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing filter operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing filter operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.storage.MappedTradesArchive#filter(com.acme.storage.DatastoreFilter)}, a
+	 * trade older than the listed ones being archived afterwards into the same day.
+	 */
+	@Test
+	public void testFilterSnapshot() {
+		try {
+			archive = openArchive();
+
+			for (int i = 1; i < 4; i++) {
+				archive.store(new Trade("TEA", TradeType.BUY, i, 100.0 + i, DAY_START + i * HOUR));
+			}
+
+			Collection<Trade> trades = archive.filter(new StockFilter("TEA"));
+			archive.store(new Trade("TEA", TradeType.SELL, 9, 99.0, DAY_START));
+
+			// the listed trades are not shifted by the older one
+			Assert.assertEquals(3, trades.size());
+			double price = 101.0;
+			for (Trade trade : trades) {
+				Assert.assertEquals(price++, trade.getPrice(), 0.0);
+			}
+			Assert.assertEquals(4, archive.filter(new StockFilter("TEA")).size());
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing filter operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing filter operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.MappedTradesArchive#setMaxMappedFiles(int)}, more
+	 * days being archived and read than files kept mapped.
+	 */
+	@Test
+	public void testMappedFilesLimit() {
+		try {
+			archive = openArchive();
+			archive.setMaxMappedFiles(2);
+
+			for (int i = 0; i < 5 * 24; i += 6) {
+				archive.store(new Trade("TEA", TradeType.BUY, 1, 100.0 + i, DAY_START + i * HOUR));
+				Assert.assertTrue(archive.getMappedFilesCount() <= 2);
+			}
+
+			List<Trade> trades = new ArrayList<Trade>(archive.filter(new StockFilter("TEA")));
+			Assert.assertEquals(20, trades.size());
+			Assert.assertTrue(trades.get(0).getPrice() == 100.0 && trades.get(19).getPrice() == 214.0);
+			Assert.assertTrue(archive.getMappedFilesCount() <= 2);
+
+			// the files unmapped are mapped again when used
+			archive.store(new Trade("TEA", TradeType.SELL, 1, 99.0, DAY_START - HOUR));
+			Assert.assertEquals(21, archive.count(new StockFilter("TEA")));
+			Assert.assertEquals(4, archive.count(new TradeRangeFilter("TEA", DAY_START - HOUR, DAY_START + 18 * HOUR)));
+			Assert.assertTrue(archive.getMappedFilesCount() <= 2);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing mapped files limit failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing mapped files limit failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.MappedTradesArchive#open()}, the archive files growing
+	 * beyond their initial capacity and being mapped again once the archive is reopened.
+	 */
+	@Test
+	public void testReopen() {
+		try {
+			archive = openArchive();
+
+			for (int i = 0; i < 10; i++) {
+				archive.store(new Trade("TEA", TradeType.BUY, 1, 100.0 + i, DAY_START + i * HOUR));
+			}
+			archive.close();
+
+			archive = openArchive();
+
+			Assert.assertEquals(10, archive.count());
+			Assert.assertTrue(new File(new File(archiveDirectory, "TEA"), "20150924.trades").isFile());
+
+			archive.store(new Trade("TEA", TradeType.BUY, 1, 110.0, DAY_START + 10 * HOUR));
+
+			List<Trade> trades = new ArrayList<Trade>(archive.filter(new StockFilter("TEA")));
+			Assert.assertEquals(11, trades.size());
+			Assert.assertTrue(trades.get(0).getPrice() == 100.0 && trades.get(10).getPrice() == 110.0);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing open operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing open operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.storage.MappedTradesArchive#forEachRecord(com.acme.storage.DatastoreFilter, com.acme.storage.DatastoreVisitor)}.
+	 */
+	@Test
+	public void testForEachRecord() {
+		final double[] turnover = new double[1];
+
+		try {
+			archive = openArchive();
+
+			for (int i = 0; i < 48; i++) {
+				archive.store(new Trade("TEA", TradeType.BUY, 10, 1.0 + i, DAY_START + i * HOUR));
+			}
+
+			archive.forEachRecord(new TradeRangeFilter("TEA", DAY_START + 20 * HOUR, DAY_START + 28 * HOUR), new DatastoreVisitor<TradeRecord>() {
+				public void visit(TradeRecord record) {
+					turnover[0] += record.getPrice() * record.getQuantity();
+				}
+			});
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing forEachRecord operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing forEachRecord operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertEquals((21.0 + 22.0 + 23.0 + 24.0 + 25.0 + 26.0 + 27.0 + 28.0) * 10, turnover[0], 0.0);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.retention.TradesCompactor#compact()}, the expired
+	 * trades being archived.
+	 */
+	@Test
+	public void testCompactorArchive() {
+		ColumnarTradesDatastore tradesDatastore = getBean("columnarTradesDatastore");
+		ManualClock clock = new ManualClock(DAY_START + 12 * HOUR);
+		tradesDatastore.setClock(clock);
+
+		RetentionPolicy retentionPolicy = new RetentionPolicy();
+		retentionPolicy.setMaxAgeInMinutes(60);
+		retentionPolicy.setWindowsInMinutes(Arrays.asList(5, 15));
+
+		TradesCompactor tradesCompactor = new TradesCompactor();
+		tradesCompactor.setDatastore(tradesDatastore);
+		tradesCompactor.setRetentionPolicy(retentionPolicy);
+
+		try {
+			archive = openArchive();
+			tradesCompactor.setArchive(archive);
+
+			for (int i = 0; i < 12; i++) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, 1, 100.0 + i, DAY_START + i * HOUR + HOUR / 2));
+			}
+
+			Assert.assertEquals(11, tradesCompactor.compact());
+			Assert.assertEquals(11, tradesCompactor.getArchivedTradesCount());
+			Assert.assertEquals(1, tradesDatastore.count());
+			Assert.assertEquals(11, archive.count(new TradeRangeFilter("TEA", DAY_START, DAY_START + 12 * HOUR)));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing compaction failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing compaction failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.services.persistence.TradesPersistenceServiceImpl#listAgedTrades(String, int)},
+	 * the trades older than the retention limits being served from the archive.
+	 */
+	@Test
+	public void testArchivedAgedTrades() {
+		ColumnarTradesDatastore tradesDatastore = getBean("columnarTradesDatastore");
+		ManualClock clock = new ManualClock(DAY_START + 12 * HOUR);
+		tradesDatastore.setClock(clock);
+
+		RetentionPolicy retentionPolicy = new RetentionPolicy();
+		retentionPolicy.setMaxAgeInMinutes(60);
+		retentionPolicy.setWindowsInMinutes(Arrays.asList(5, 15));
+
+		TradesCompactor tradesCompactor = new TradesCompactor();
+		tradesCompactor.setDatastore(tradesDatastore);
+		tradesCompactor.setRetentionPolicy(retentionPolicy);
+
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(tradesDatastore);
+		tradesPersistenceService.setTradesCompactor(tradesCompactor);
+
+		try {
+			archive = openArchive();
+			archive.setClock(clock);
+			tradesCompactor.setArchive(archive);
+
+			for (int i = 0; i < 12; i++) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, 1, 100.0 + i, DAY_START + i * HOUR + HOUR / 2));
+			}
+			tradesDatastore.store(new Trade("POP", TradeType.BUY, 1, 10.0, DAY_START));
+			Assert.assertEquals(11 + 1, tradesCompactor.compact());
+
+			// the whole history, the archived trades first
+			List<Trade> trades = new ArrayList<Trade>(tradesPersistenceService.listAgedTrades("TEA", 13 * 60));
+			Assert.assertEquals(12, trades.size());
+			for (int i = 0; i < 12; i++) {
+				Assert.assertEquals(100.0 + i, trades.get(i).getPrice(), 0.0);
+			}
+			Assert.assertEquals(12, tradesPersistenceService.countAgedTrades("TEA", 13 * 60));
+			Assert.assertEquals(3, tradesPersistenceService.countAgedTrades("TEA", 150));
+			Assert.assertEquals(1, tradesPersistenceService.countAgedTrades("POP", 13 * 60));
+
+			final int[] visitedCount = new int[1];
+			tradesPersistenceService.visitAgedTrades("TEA", 13 * 60, new DatastoreVisitor<Trade>() {
+				public void visit(Trade trade) {
+					visitedCount[0]++;
+				}
+			});
+			Assert.assertEquals(12, visitedCount[0]);
+
+			// the analytics windows are served from the trades datastore alone
+			archive.store(new Trade("TEA", TradeType.SELL, 1, 1000.0, DAY_START + 12 * HOUR - 1));
+			Assert.assertEquals(0, tradesPersistenceService.countAgedTrades("TEA", 15));
+			Assert.assertEquals(1, tradesPersistenceService.countAgedTrades("TEA", 16));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing archived aged trades failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing archived aged trades failed due to: " + e.getMessage());
+		} catch (PersistenceException e) {
+			logger.info("Unexpected failure: Testing archived aged trades failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing archived aged trades failed due to: " + e.getMessage());
+		}
+	}
+
+	private MappedTradesArchive openArchive() throws DatastoreException {
+		MappedTradesArchive mappedTradesArchive = new MappedTradesArchive();
+		mappedTradesArchive.setDirectory(archiveDirectory);
+		mappedTradesArchive.setInitialDayCapacity(2);
+		mappedTradesArchive.open();
+		return mappedTradesArchive;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
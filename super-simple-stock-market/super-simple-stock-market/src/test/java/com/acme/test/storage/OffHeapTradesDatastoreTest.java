@@ -0,0 +1,201 @@
+package com.acme.test.storage;
+
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.DatastoreVisitor;
+import com.acme.storage.OffHeapTradesDatastore;
+import com.acme.storage.TradeRecord;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.filter.TradeFilter;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.test.AbstractTest;
+import com.acme.util.DateUtils;
+import com.acme.util.ManualClock;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class OffHeapTradesDatastoreTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(OffHeapTradesDatastoreTest.class);
+
+	private static final long MINUTE = 60L * 1000L;
+
+	private OffHeapTradesDatastore tradesDatastore;
+	private ManualClock clock;
+
+	@Override
+	protected void initTest() {
+		tradesDatastore = getBean("offHeapTradesDatastore");
+
+		clock = new ManualClock(DateUtils.parseDate("20150924", "yyyyMMdd").getTime());
+		tradesDatastore.setClock(clock);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.OffHeapTradesDatastore#store(com.acme.domain.Trade)}.
+	 */
+	@Test
+	public void testFailedStore() {
+		try {
+			tradesDatastore.store(new Trade(null, TradeType.BUY, 100, 100.0, clock.currentTimeMillis()));
+			fail("Expected failure: trade without stock symbol stored.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: Testing store operation failed due to: " + e.getMessage());
+		}
+
+		try {
+			Assert.assertTrue(tradesDatastore.count() == 0);
+		} catch (DatastoreException e) {
+			logger.error("Error occurred while counting stored objects", e);
+			fail("Error occurred while counting stored objects: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.OffHeapTradesDatastore#count(com.acme.storage.DatastoreFilter)},
+	 * the trades of a stock spanning several segments and arriving out of order.
+	 */
+	@Test
+	public void testFilteredCount() {
+		try {
+			for (int i = 10; i >= 1; i--) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, i, 100.0 + i, clock.currentTimeMillis() - i * 2 * MINUTE));
+			}
+			tradesDatastore.storeAll(Arrays.asList(new Trade("POP", TradeType.SELL, 1, 10.0, clock.currentTimeMillis()),
+					new Trade("TEA", TradeType.SELL, 50, 110.0, clock.currentTimeMillis())));
+
+			Assert.assertEquals(12, tradesDatastore.count());
+			Assert.assertEquals(11, tradesDatastore.count(new StockFilter("TEA")));
+			Assert.assertEquals(8, tradesDatastore.count(new TradeFilter("TEA", 15)));
+			Assert.assertEquals(1, tradesDatastore.count(new TradeFilter("POP", 15)));
+			Assert.assertEquals(0, tradesDatastore.count(new StockFilter("ALE")));
+
+			clock.advance(10 * MINUTE);
+			Assert.assertEquals(3, tradesDatastore.count(new TradeFilter("TEA", 15)));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing count operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing count operation failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.OffHeapTradesDatastore#filter(com.acme.storage.DatastoreFilter)}
+	 * and {@link com.acme.storage.OffHeapTradesDatastore#list()}.
+	 */
+	@Test
+	public void testFilter() {
+		Collection<Trade> matches = new LinkedList<Trade>();
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, clock.currentTimeMillis() - 60 * MINUTE));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 120.0, clock.currentTimeMillis()));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 50, 110.0, clock.currentTimeMillis() - MINUTE));
+			tradesDatastore.store(new Trade("POP", TradeType.BUY, 100, 100.0, clock.currentTimeMillis()));
+
+			matches = tradesDatastore.filter(new TradeFilter("TEA", 15));
+
+			Assert.assertTrue(tradesDatastore.list().size() == 4);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing filter operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing filter operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertTrue(matches.size() == 2);
+
+		Trade[] trades = matches.toArray(new Trade[2]);
+
+		Assert.assertTrue(trades[0].getType() == TradeType.SELL && trades[0].getQuantity() == 50 && trades[0].getPrice() == 110.0);
+		Assert.assertTrue(trades[1].getType() == TradeType.BUY && trades[1].getQuantity() == 100 && trades[1].getPrice() == 120.0);
+		Assert.assertEquals("TEA", trades[1].getStockSymbol());
+		Assert.assertEquals(clock.currentTimeMillis(), trades[1].getTimestampMillis());
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.storage.OffHeapTradesDatastore#forEachRecord(com.acme.storage.DatastoreFilter, com.acme.storage.DatastoreVisitor)}
+	 * and
+	 * {@link com.acme.storage.OffHeapTradesDatastore#forEach(com.acme.storage.DatastoreVisitor)}.
+	 */
+	@Test
+	public void testForEach() {
+		final double[] turnover = new double[1];
+		final List<Trade> visited = new LinkedList<Trade>();
+
+		try {
+			for (int i = 0; i < 10; i++) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 1.0 + i, clock.currentTimeMillis() - (9 - i) * MINUTE));
+			}
+
+			tradesDatastore.forEachRecord(new TradeFilter("TEA", 5), new DatastoreVisitor<TradeRecord>() {
+				public void visit(TradeRecord record) {
+					turnover[0] += record.getPrice() * record.getQuantity();
+				}
+			});
+
+			tradesDatastore.forEach(new DatastoreVisitor<Trade>() {
+				public void visit(Trade trade) {
+					visited.add(new Trade(trade));
+				}
+			});
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing forEach operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing forEach operation failed due to: " + e.getMessage());
+		}
+
+		Assert.assertEquals((5.0 + 6.0 + 7.0 + 8.0 + 9.0 + 10.0) * 10, turnover[0], 0.0);
+		Assert.assertTrue(visited.size() == 10);
+		Assert.assertTrue(visited.get(0).getPrice() == 1.0 && visited.get(9).getPrice() == 10.0);
+	}
+
+	/**
+	 * Test method for
+	 * {@link com.acme.storage.OffHeapTradesDatastore#compact(com.acme.storage.retention.RetentionPolicy, com.acme.storage.DatastoreVisitor)},
+	 * the emptied segments being reused by the next trades.
+	 */
+	@Test
+	public void testCompact() {
+		RetentionPolicy policy = new RetentionPolicy();
+		policy.setMaxAgeInMinutes(30);
+
+		final List<Trade> expired = new LinkedList<Trade>();
+		try {
+			for (int i = 0; i < 60; i++) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, 1, 1.0 + i, clock.currentTimeMillis() - (59 - i) * MINUTE));
+			}
+			long allocatedBytes = tradesDatastore.getAllocatedBytes();
+
+			int compactedCount = tradesDatastore.compact(policy, new DatastoreVisitor<Trade>() {
+				public void visit(Trade trade) {
+					expired.add(new Trade(trade));
+				}
+			});
+
+			Assert.assertEquals(29, compactedCount);
+			Assert.assertEquals(31, tradesDatastore.count(new StockFilter("TEA")));
+			Assert.assertTrue(expired.get(0).getPrice() == 1.0 && expired.get(28).getPrice() == 29.0);
+
+			for (int i = 0; i < 28; i++) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, 1, 100.0, clock.currentTimeMillis()));
+			}
+
+			Assert.assertEquals(allocatedBytes, tradesDatastore.getAllocatedBytes());
+			Assert.assertEquals(59, tradesDatastore.count(new TradeFilter("TEA", 60)));
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing compact operation failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing compact operation failed due to: " + e.getMessage());
+		}
+	}
+}
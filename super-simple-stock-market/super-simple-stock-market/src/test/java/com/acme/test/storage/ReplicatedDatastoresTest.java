@@ -0,0 +1,440 @@
+package com.acme.test.storage;
+
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Stock;
+import com.acme.domain.StockType;
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.services.analytics.AllShareIndexCalculator;
+import com.acme.services.analytics.TradeListener;
+import com.acme.services.analytics.TradeRollupEngine;
+import com.acme.services.analytics.VolumeWeightedPriceEngine;
+import com.acme.services.businesslogic.BusinesslogicException;
+import com.acme.services.businesslogic.StockMarketServiceImpl;
+import com.acme.services.businesslogic.TradesServiceImpl;
+import com.acme.services.persistence.StocksPersistenceServiceImpl;
+import com.acme.services.persistence.TradesPersistenceServiceImpl;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.ConcurrentStocksDatastore;
+import com.acme.storage.Datastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.SharesCountDatastore;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.replication.LoopbackReplicationTransport;
+import com.acme.storage.replication.ReplicaLink;
+import com.acme.storage.replication.ReplicaStocksDatastore;
+import com.acme.storage.replication.ReplicaTradesDatastore;
+import com.acme.storage.replication.ReplicatedStocksDatastore;
+import com.acme.storage.replication.ReplicatedTradesDatastore;
+import com.acme.storage.replication.ReplicationFollower;
+import com.acme.storage.replication.ReplicationLog;
+import com.acme.storage.replication.ReplicationTransport;
+import com.acme.storage.replication.SocketReplicationClient;
+import com.acme.storage.replication.SocketReplicationTransport;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class ReplicatedDatastoresTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(ReplicatedDatastoresTest.class);
+
+	private static final long REPLICATION_TIMEOUT_MILLIS = 10 * 1000;
+
+	private ReplicationLog log;
+	private ReplicatedStocksDatastore stocksDatastore;
+	private TradesServiceImpl tradesService;
+	private StockMarketServiceImpl stockMarketService;
+
+	private ReplicationFollower follower;
+	private ReplicaStocksDatastore replicaStocksDatastore;
+	private ReplicaTradesDatastore replicaTradesDatastore;
+	private StockMarketServiceImpl replicaStockMarketService;
+
+	private SocketReplicationClient client;
+
+	@Override
+	protected void initTest() {
+	}
+
+	@After
+	@Override
+	public void tearDown() throws Exception {
+		if (client != null) {
+			client.stop();
+		}
+		if (log != null) {
+			log.stop();
+		}
+
+		super.tearDown();
+	}
+
+	/**
+	 * Wires the leader datastores and services the way the replication-leader Spring profile does
+	 * and starts the replication log.
+	 */
+	private void openLeader(ReplicationTransport transport, int frameSize) throws IOException {
+		ConcurrentStocksDatastore stocksMemoryDatastore = new ConcurrentStocksDatastore();
+		ColumnarTradesDatastore tradesMemoryDatastore = new ColumnarTradesDatastore();
+
+		log = new ReplicationLog();
+		log.setTransport(transport);
+		log.setStocksDatastore(stocksMemoryDatastore);
+		log.setTradesDatastore(tradesMemoryDatastore);
+		log.setFrameSize(frameSize);
+
+		stocksDatastore = new ReplicatedStocksDatastore();
+		stocksDatastore.setDelegate(stocksMemoryDatastore);
+		stocksDatastore.setLog(log);
+
+		ReplicatedTradesDatastore tradesDatastore = new ReplicatedTradesDatastore();
+		tradesDatastore.setDelegate(tradesMemoryDatastore);
+		tradesDatastore.setLog(log);
+
+		VolumeWeightedPriceEngine volumeWeightedPriceEngine = new VolumeWeightedPriceEngine();
+		volumeWeightedPriceEngine.setWindowsInMinutes(Arrays.asList(15));
+		AllShareIndexCalculator allShareIndexCalculator = new AllShareIndexCalculator();
+
+		tradesService = new TradesServiceImpl();
+		tradesService.setStocksPersistenceService(newStocksPersistenceService(stocksDatastore));
+		tradesService.setTradesPersistenceService(newTradesPersistenceService(tradesDatastore));
+		tradesService.setTradeListeners(Arrays.<TradeListener> asList(volumeWeightedPriceEngine, allShareIndexCalculator));
+
+		stockMarketService = newStockMarketService(stocksDatastore, tradesDatastore, volumeWeightedPriceEngine, allShareIndexCalculator);
+
+		log.start();
+	}
+
+	/**
+	 * Wires the replica datastores and services the way the replica Spring profile does.
+	 */
+	private void openReplica() {
+		ConcurrentStocksDatastore stocksMemoryDatastore = new ConcurrentStocksDatastore();
+		ColumnarTradesDatastore tradesMemoryDatastore = new ColumnarTradesDatastore();
+
+		replicaStocksDatastore = new ReplicaStocksDatastore();
+		replicaStocksDatastore.setDelegate(stocksMemoryDatastore);
+		replicaTradesDatastore = new ReplicaTradesDatastore();
+		replicaTradesDatastore.setDelegate(tradesMemoryDatastore);
+
+		VolumeWeightedPriceEngine volumeWeightedPriceEngine = new VolumeWeightedPriceEngine();
+		volumeWeightedPriceEngine.setWindowsInMinutes(Arrays.asList(15));
+		AllShareIndexCalculator allShareIndexCalculator = new AllShareIndexCalculator();
+
+		follower = new ReplicationFollower();
+		follower.setStocksDatastore(stocksMemoryDatastore);
+		follower.setTradesDatastore(tradesMemoryDatastore);
+		follower.setTradeListeners(Arrays.<TradeListener> asList(volumeWeightedPriceEngine, allShareIndexCalculator));
+
+		replicaStockMarketService = newStockMarketService(replicaStocksDatastore, replicaTradesDatastore, volumeWeightedPriceEngine, allShareIndexCalculator);
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.replication.LoopbackReplicationTransport}.
+	 */
+	@Test
+	public void testLoopbackReplication() {
+		LoopbackReplicationTransport transport = new LoopbackReplicationTransport();
+
+		try {
+			// small frames, so the trades are shipped across several of them
+			openLeader(transport, 512);
+
+			// state before the replica joins, shipped through the bootstrap snapshot
+			createStocks();
+			tradesService.createTrades(newTrades(0, 100));
+
+			openReplica();
+			transport.connect(follower);
+			Assert.assertTrue(log.getReplicasCount() == 1);
+			awaitReplicated();
+
+			// records following the snapshot
+			tradesService.createTrades(newTrades(100, 200));
+			tradesService.createTrade(new Trade("TEA", TradeType.SELL, 10, 110.0, new Date()));
+			stocksDatastore.update(new Stock("TEA", StockType.COMMON, 100000, 120, 5, 0));
+			log.flush();
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing loopback replication failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing loopback replication failed due to: " + e.getMessage());
+		}
+
+		awaitReplicated();
+		assertReplicated();
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.replication.SocketReplicationTransport}.
+	 */
+	@Test
+	public void testSocketReplication() {
+		SocketReplicationTransport transport = new SocketReplicationTransport();
+		transport.setHost("localhost");
+		transport.setPort(0);
+
+		try {
+			openLeader(transport, 64 * 1024);
+
+			createStocks();
+			tradesService.createTrades(newTrades(0, 1000));
+
+			openReplica();
+			client = new SocketReplicationClient();
+			client.setHost("localhost");
+			client.setPort(transport.getLocalPort());
+			client.setFollower(follower);
+			client.start();
+
+			tradesService.createTrades(newTrades(1000, 5000));
+			for (int i = 0; i < 100; i++) {
+				tradesService.createTrade(new Trade("GIN", TradeType.BUY, 1 + i, 90.0, new Date()));
+			}
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing socket replication failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing socket replication failed due to: " + e.getMessage());
+		}
+
+		awaitReplicated();
+		Assert.assertTrue(client.isConnected());
+		assertReplicated();
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.replication.ReplicatedStocksDatastore#adjustSharesCount(String, int)}.
+	 */
+	@Test
+	public void testConcurrentAdjustmentsReplication() {
+		LoopbackReplicationTransport transport = new LoopbackReplicationTransport();
+
+		try {
+			openLeader(transport, 512);
+			openReplica();
+			transport.connect(follower);
+
+			// few shares, so that many adjustments are rejected by the range check and the order they
+			// are applied in by the replica matters
+			stocksDatastore.store(new Stock("TEA", StockType.COMMON, 10, 100, 0, 0));
+
+			Thread[] threads = new Thread[8];
+			for (int i = 0; i < threads.length; i++) {
+				final int seed = i;
+				threads[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							for (int j = 0; j < 5000; j++) {
+								stocksDatastore.adjustSharesCount("TEA", (j + seed) % 2 == 0 ? -3 : 2);
+							}
+						} catch (DatastoreException e) {
+							logger.error("Adjusting shares count failed.", e);
+						}
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			log.flush();
+
+			awaitReplicated();
+			Assert.assertEquals(stocksDatastore.filter(new StockFilter("TEA")).iterator().next().getSharesCount(),
+					replicaStocksDatastore.filter(new StockFilter("TEA")).iterator().next().getSharesCount());
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing concurrent adjustments replication failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing concurrent adjustments replication failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.replication.ReplicationLog#addReplica(ReplicaLink)}, a
+	 * replica blocking its writes: neither its bootstrap nor the following mutations wait for it,
+	 * and it is dropped once its queue overflows while the other replicas keep up.
+	 */
+	@Test
+	public void testSlowReplica() {
+		LoopbackReplicationTransport transport = new LoopbackReplicationTransport();
+		final CountDownLatch releaseLatch = new CountDownLatch(1);
+		final CountDownLatch closeLatch = new CountDownLatch(1);
+
+		try {
+			openLeader(transport, 512);
+
+			createStocks();
+			tradesService.createTrades(newTrades(0, 100));
+
+			openReplica();
+			transport.connect(follower);
+
+			// blocked on the bootstrap snapshot until closed, with a short queue
+			log.setMaxPendingFrames(4);
+			log.addReplica(new ReplicaLink() {
+				public void send(ByteBuffer frame) throws IOException {
+					try {
+						releaseLatch.await();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException("Replica link closed.");
+					}
+				}
+
+				public void close() {
+					closeLatch.countDown();
+				}
+			});
+			Assert.assertTrue(log.getReplicasCount() == 2);
+
+			Thread producer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int i = 0; i < 20; i++) {
+							tradesService.createTrades(newTrades(100 + i * 100, 200 + i * 100));
+							log.flush();
+						}
+					} catch (Exception e) {
+						logger.error("Creating trades failed.", e);
+					}
+				}
+			});
+			producer.start();
+			producer.join(REPLICATION_TIMEOUT_MILLIS);
+
+			Assert.assertFalse(producer.isAlive());
+			Assert.assertTrue(closeLatch.await(REPLICATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+			Assert.assertTrue(log.getReplicasCount() == 1);
+		} catch (Exception e) {
+			logger.info("Unexpected failure: Testing slow replica failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing slow replica failed due to: " + e.getMessage());
+		} finally {
+			releaseLatch.countDown();
+		}
+
+		awaitReplicated();
+		assertReplicated();
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.replication.ReplicaTradesDatastore#store(Trade)}.
+	 */
+	@Test
+	public void testReadOnlyReplica() {
+		openReplica();
+
+		try {
+			replicaTradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 100.0, new Date()));
+			fail("Expected failure: Replica datastores are read-only.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+
+		try {
+			replicaStocksDatastore.adjustSharesCount("TEA", 10);
+			fail("Expected failure: Replica datastores are read-only.");
+		} catch (DatastoreException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Waits for the follower to apply the records appended so far, the replicas being written
+	 * asynchronously.
+	 */
+	private void awaitReplicated() {
+		long deadline = System.currentTimeMillis() + REPLICATION_TIMEOUT_MILLIS;
+		while (follower.getAppliedSequence() != log.getAppendedSequence() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		Assert.assertTrue(follower.getAppliedSequence() == log.getAppendedSequence());
+	}
+
+	private void assertReplicated() {
+		try {
+			Assert.assertEquals(stocksDatastore.count(), replicaStocksDatastore.count());
+			Assert.assertEquals(stockMarketService.calculateGBCEAllShareIndex(), replicaStockMarketService.calculateGBCEAllShareIndex(), 1e-9);
+
+			for (String stockSymbol : new String[] { "TEA", "GIN", "ALE" }) {
+				Stock stock = stocksDatastore.filter(new StockFilter(stockSymbol)).iterator().next();
+				Stock replicaStock = replicaStocksDatastore.filter(new StockFilter(stockSymbol)).iterator().next();
+				Assert.assertEquals(stock.getSharesCount(), replicaStock.getSharesCount());
+				Assert.assertEquals(stock.getParValue(), replicaStock.getParValue(), 0);
+
+				Assert.assertEquals(stockMarketService.calculateVolumeWeightedStockPrice(stockSymbol, 15),
+						replicaStockMarketService.calculateVolumeWeightedStockPrice(stockSymbol, 15), 1e-9);
+				Assert.assertEquals(stockMarketService.calculateDividentYield(stockSymbol, 100.0), replicaStockMarketService.calculateDividentYield(stockSymbol, 100.0), 1e-9);
+			}
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing replicated datastores failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing replicated datastores failed due to: " + e.getMessage());
+		} catch (BusinesslogicException e) {
+			logger.info("Unexpected failure: Testing replica queries failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing replica queries failed due to: " + e.getMessage());
+		}
+	}
+
+	private void createStocks() throws DatastoreException {
+		stocksDatastore.store(new Stock("TEA", StockType.COMMON, 100000, 100, 0, 0));
+		stocksDatastore.store(new Stock("GIN", StockType.PREFERRED, 100000, 100, 8, 0.02));
+		stocksDatastore.store(new Stock("ALE", StockType.COMMON, 100000, 60, 23, 0));
+	}
+
+	/**
+	 * @return trades on the test stocks, recent enough to be in the volume weighted price window
+	 */
+	private static List<Trade> newTrades(int from, int to) {
+		long now = System.currentTimeMillis();
+		String[] stockSymbols = { "TEA", "GIN", "ALE" };
+
+		List<Trade> trades = new ArrayList<Trade>();
+		for (int i = from; i < to; i++) {
+			TradeType type = i % 4 == 0 ? TradeType.SELL : TradeType.BUY;
+			trades.add(new Trade(stockSymbols[i % stockSymbols.length], type, 1 + i % 10, 50.0 + i % 17, new Date(now - (to - i))));
+		}
+		return trades;
+	}
+
+	private static StocksPersistenceServiceImpl newStocksPersistenceService(SharesCountDatastore stocksDatastore) {
+		StocksPersistenceServiceImpl stocksPersistenceService = new StocksPersistenceServiceImpl();
+		stocksPersistenceService.setStocksDatastore(stocksDatastore);
+		return stocksPersistenceService;
+	}
+
+	private static TradesPersistenceServiceImpl newTradesPersistenceService(Datastore<Trade> tradesDatastore) {
+		TradesPersistenceServiceImpl tradesPersistenceService = new TradesPersistenceServiceImpl();
+		tradesPersistenceService.setTradesDatastore(tradesDatastore);
+		return tradesPersistenceService;
+	}
+
+	private static StockMarketServiceImpl newStockMarketService(SharesCountDatastore stocksDatastore, Datastore<Trade> tradesDatastore,
+			VolumeWeightedPriceEngine volumeWeightedPriceEngine, AllShareIndexCalculator allShareIndexCalculator) {
+		StockMarketServiceImpl stockMarketService = new StockMarketServiceImpl();
+		stockMarketService.setStocksPersistenceService(newStocksPersistenceService(stocksDatastore));
+		stockMarketService.setTradesPersistenceService(newTradesPersistenceService(tradesDatastore));
+		stockMarketService.setVolumeWeightedPriceEngine(volumeWeightedPriceEngine);
+		stockMarketService.setAllShareIndexCalculator(allShareIndexCalculator);
+		stockMarketService.setTradeRollupEngine(new TradeRollupEngine());
+		return stockMarketService;
+	}
+}
@@ -0,0 +1,173 @@
+package com.acme.test.storage;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.Trade;
+import com.acme.domain.TradeType;
+import com.acme.storage.ColumnarTradesDatastore;
+import com.acme.storage.DatastoreException;
+import com.acme.storage.filter.StockFilter;
+import com.acme.storage.retention.ExpiredTradeListener;
+import com.acme.storage.retention.RetentionPolicy;
+import com.acme.storage.retention.TradesCompactor;
+import com.acme.test.AbstractTest;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class TradesCompactorTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(TradesCompactorTest.class);
+
+	private static final long MINUTE_MILLIS = 60L * 1000L;
+
+	private ColumnarTradesDatastore tradesDatastore;
+	private RetentionPolicy retentionPolicy;
+	private TradesCompactor tradesCompactor;
+	private List<Trade> expiredTrades;
+
+	@Override
+	protected void initTest() {
+		tradesDatastore = getBean("columnarTradesDatastore");
+
+		retentionPolicy = new RetentionPolicy();
+		retentionPolicy.setWindowsInMinutes(Arrays.asList(5, 15));
+
+		tradesCompactor = new TradesCompactor();
+		tradesCompactor.setDatastore(tradesDatastore);
+		tradesCompactor.setRetentionPolicy(retentionPolicy);
+
+		expiredTrades = new ArrayList<Trade>();
+		tradesCompactor.setExpiredTradeListeners(Arrays.<ExpiredTradeListener> asList(new ExpiredTradeListener() {
+			public void onTradeExpired(Trade trade) {
+				expiredTrades.add(new Trade(trade));
+			}
+		}));
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.retention.TradesCompactor#compact()}.
+	 */
+	@Test
+	public void testDropExpired() {
+		long now = System.currentTimeMillis();
+		long minute = now - 120 * MINUTE_MILLIS;
+		minute -= minute % MINUTE_MILLIS;
+
+		retentionPolicy.setMaxAgeInMinutes(60);
+
+		try {
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 100.0, new Date(minute + 1000)));
+			tradesDatastore.store(new Trade("TEA", TradeType.SELL, 300, 104.0, new Date(minute + 3000)));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 100, 98.0, new Date(minute + 2000)));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 50, 110.0, new Date(minute + 30 * MINUTE_MILLIS)));
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 120.0, new Date(now - 10 * MINUTE_MILLIS)));
+			tradesDatastore.store(new Trade("POP", TradeType.SELL, 10, 50.0, new Date(now)));
+
+			Assert.assertTrue(tradesCompactor.compact() == 4);
+
+			Assert.assertTrue(tradesDatastore.count() == 2);
+			Assert.assertTrue(tradesDatastore.count(new StockFilter("TEA")) == 1);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing compaction failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing compaction failed due to: " + e.getMessage());
+		}
+
+		// the listeners are notified of the dropped trades, oldest first
+		Assert.assertEquals(4, expiredTrades.size());
+		Assert.assertTrue(expiredTrades.get(0).getPrice() == 100.0 && expiredTrades.get(1).getPrice() == 98.0);
+		Assert.assertTrue(expiredTrades.get(2).getPrice() == 104.0 && expiredTrades.get(3).getPrice() == 110.0);
+		Assert.assertEquals(4, tradesCompactor.getCompactedTradesCount());
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.retention.TradesCompactor#compact()}.
+	 */
+	@Test
+	public void testCountLimitKeepsWindows() {
+		long now = System.currentTimeMillis();
+
+		retentionPolicy.setMaxTradesPerSymbol(2);
+
+		try {
+			for (int i = 30; i > 0; i--) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 100.0 + i, new Date(now - i * MINUTE_MILLIS + MINUTE_MILLIS / 2)));
+			}
+
+			// the trades of the last 15 minutes are kept whatever the count limit
+			Assert.assertTrue(tradesCompactor.compact() == 15);
+			Assert.assertTrue(tradesDatastore.count() == 15);
+			Assert.assertTrue(expiredTrades.size() == 15);
+
+			Assert.assertTrue(tradesCompactor.compact() == 0);
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing compaction failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing compaction failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Test method for {@link com.acme.storage.retention.TradesCompactor#compact()}, the expired
+	 * trades failing to be archived.
+	 */
+	@Test
+	public void testArchiveFailure() {
+		long now = System.currentTimeMillis();
+
+		retentionPolicy.setMaxAgeInMinutes(60);
+
+		FailingArchive archive = new FailingArchive();
+		tradesCompactor.setArchive(archive);
+
+		try {
+			for (int i = 0; i < 5; i++) {
+				tradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 100.0 + i, new Date(now - (120 - i) * MINUTE_MILLIS)));
+			}
+			tradesDatastore.store(new Trade("TEA", TradeType.BUY, 10, 110.0, new Date(now)));
+
+			// the trades following the one which cannot be archived are kept, and not notified
+			archive.remainingCapacity = 2;
+			Assert.assertEquals(2, tradesCompactor.compact());
+			Assert.assertEquals(4, tradesDatastore.count());
+			Assert.assertEquals(2, archive.count());
+			Assert.assertEquals(2, tradesCompactor.getArchivedTradesCount());
+			Assert.assertEquals(2, expiredTrades.size());
+
+			// and compacted once the archive accepts them again, exactly once
+			archive.remainingCapacity = Integer.MAX_VALUE;
+			Assert.assertEquals(3, tradesCompactor.compact());
+			Assert.assertEquals(1, tradesDatastore.count());
+			Assert.assertEquals(5, archive.count());
+			Assert.assertEquals(5, expiredTrades.size());
+		} catch (DatastoreException e) {
+			logger.info("Unexpected failure: Testing compaction failed due to: " + e.getMessage(), e);
+			fail("Unexpected failure: Testing compaction failed due to: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Archive failing once it stored a given number of trades.
+	 */
+	private static class FailingArchive extends ColumnarTradesDatastore {
+		private int remainingCapacity;
+
+		@Override
+		public void store(Trade data) throws DatastoreException {
+			if (remainingCapacity <= 0) {
+				throw new DatastoreException("Archive is full.");
+			}
+			super.store(data);
+			remainingCapacity--;
+		}
+	}
+}
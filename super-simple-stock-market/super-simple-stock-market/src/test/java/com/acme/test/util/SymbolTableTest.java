@@ -0,0 +1,141 @@
+package com.acme.test.util;
+
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.acme.domain.SymbolRegistry;
+import com.acme.test.AbstractTest;
+import com.acme.util.SymbolTable;
+
+/**
+ * @author Ovidiu Guse - ovidiu.guse@gmail.com, 2015
+ *
+ */
+public class SymbolTableTest extends AbstractTest {
+	private static final Logger logger = LogManager.getLogger(SymbolTableTest.class);
+
+	private SymbolTable<String> symbolTable;
+
+	@Override
+	protected void initTest() {
+		symbolTable = new SymbolTable<String>();
+	}
+
+	/**
+	 * Test method for {@link com.acme.util.SymbolTable#putIfAbsent(int, Object)}, the ids growing
+	 * past the initial capacity of the table.
+	 */
+	@Test
+	public void testGrowth() {
+		Assert.assertTrue(symbolTable.isEmpty());
+
+		for (int id = 0; id < 100; id += 3) {
+			Assert.assertNull(symbolTable.putIfAbsent(id, "VALUE" + id));
+		}
+		Assert.assertNull(symbolTable.putIfAbsent(1000, "VALUE1000"));
+
+		Assert.assertEquals(35, symbolTable.size());
+		for (int id = 0; id < 100; id++) {
+			Assert.assertEquals(id % 3 == 0 ? "VALUE" + id : null, symbolTable.get(id));
+		}
+		Assert.assertEquals("VALUE1000", symbolTable.get(1000));
+
+		// the value already held is kept
+		Assert.assertEquals("VALUE3", symbolTable.putIfAbsent(3, "OTHER"));
+		Assert.assertEquals("VALUE3", symbolTable.get(3));
+		Assert.assertEquals(35, symbolTable.size());
+
+		// iteration follows the ids and skips the missing ones
+		Iterator<String> iterator = symbolTable.iterator();
+		for (int id = 0; id < 100; id += 3) {
+			Assert.assertEquals("VALUE" + id, iterator.next());
+		}
+		Assert.assertEquals("VALUE1000", iterator.next());
+		Assert.assertFalse(iterator.hasNext());
+		try {
+			iterator.next();
+			fail("Expected failure: No more values.");
+		} catch (NoSuchElementException e) {
+			logger.info("Expected failure: No more values.");
+		}
+
+		symbolTable.clear();
+		Assert.assertTrue(symbolTable.isEmpty());
+		Assert.assertNull(symbolTable.get(3));
+		Assert.assertFalse(symbolTable.iterator().hasNext());
+	}
+
+	/**
+	 * Test method for {@link com.acme.util.SymbolTable#get(int)}, the ids holding no value.
+	 */
+	@Test
+	public void testUnknownIds() {
+		Assert.assertNull(symbolTable.get(SymbolRegistry.NO_ID));
+		Assert.assertNull(symbolTable.get(0));
+		Assert.assertNull(symbolTable.get(Integer.MAX_VALUE));
+
+		try {
+			symbolTable.putIfAbsent(SymbolRegistry.NO_ID, "VALUE");
+			fail("Expected failure: Invalid symbol id.");
+		} catch (IllegalArgumentException e) {
+			logger.info("Expected failure: " + e.getMessage());
+		}
+		Assert.assertTrue(symbolTable.isEmpty());
+	}
+
+	/**
+	 * Test method for {@link com.acme.util.SymbolTable#putIfAbsent(int, Object)}, values being put
+	 * concurrently for the same ids while the table grows.
+	 */
+	@Test
+	public void testConcurrentPutIfAbsent() {
+		final String[][] heldValues = new String[8][500];
+		final CountDownLatch startLatch = new CountDownLatch(1);
+
+		Thread[] threads = new Thread[heldValues.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int thread = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						startLatch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					for (int id = 0; id < heldValues[thread].length; id++) {
+						String value = "THREAD" + thread;
+						String current = symbolTable.putIfAbsent(id, value);
+						heldValues[thread][id] = current == null ? value : current;
+					}
+				}
+			});
+			threads[i].start();
+		}
+
+		startLatch.countDown();
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			fail("Interrupted while putting values.");
+		}
+
+		// a single value won for every id, and all threads saw it
+		Assert.assertEquals(500, symbolTable.size());
+		for (int id = 0; id < 500; id++) {
+			for (int i = 0; i < heldValues.length; i++) {
+				Assert.assertEquals(symbolTable.get(id), heldValues[i][id]);
+			}
+		}
+	}
+}